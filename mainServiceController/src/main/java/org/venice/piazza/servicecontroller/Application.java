@@ -24,10 +24,19 @@ import org.springframework.boot.context.properties.EnableConfigurationProperties
 import org.springframework.boot.context.web.SpringBootServletInitializer;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
 import org.springframework.data.mongodb.repository.config.EnableMongoRepositories;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
 import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.validation.beanvalidation.LocalValidatorFactoryBean;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import model.data.DataResource;
+import model.job.Job;
+import model.service.metadata.Service;
+import model.status.StatusUpdate;
+
 /**
  * Main class for the pz-servicecontroller. Launches the application
  * 
@@ -85,4 +94,24 @@ public class Application extends SpringBootServletInitializer {
 	public LocalValidatorFactoryBean getLocalValidatorFactoryBean() {
 		return new LocalValidatorFactoryBean();
 	}
+
+	/**
+	 * The one ObjectMapper used for all JSON in the service controller, configured by Spring Boot in the same way as
+	 * its default mapper. Jackson caches the serializers it builds per mapper, so sharing one keeps them. Those of the
+	 * types sent on every Job are built at startup rather than by the first Job.
+	 * 
+	 * Like Boot's mapper, it ignores unknown properties. Input that was always read strictly, such as Jobs from Kafka,
+	 * Service change events and continuation tokens, is read with readers of this mapper that enable
+	 * FAIL_ON_UNKNOWN_PROPERTIES again.
+	 */
+	@Bean
+	@Primary
+	public ObjectMapper objectMapper(Jackson2ObjectMapperBuilder builder) {
+		ObjectMapper mapper = builder.createXmlMapper(false).build();
+		for (Class<?> type : new Class<?>[] { Job.class, Service.class, StatusUpdate.class, DataResource.class }) {
+			mapper.readerFor(type);
+			mapper.writerFor(type);
+		}
+		return mapper;
+	}
 }
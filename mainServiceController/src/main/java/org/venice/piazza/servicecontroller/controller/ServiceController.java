@@ -16,6 +16,8 @@
 package org.venice.piazza.servicecontroller.controller;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 import java.util.Map;
 
 import javax.servlet.http.HttpServletResponse;
@@ -38,7 +40,19 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.util.UriComponentsBuilder;
+import org.venice.piazza.servicecontroller.data.model.RunningJob;
+import org.venice.piazza.servicecontroller.data.model.ServiceChangeEvent;
+import org.venice.piazza.servicecontroller.data.model.ServiceExecutionPolicy;
+import org.venice.piazza.servicecontroller.data.model.ServiceListPage;
+import org.venice.piazza.servicecontroller.data.cache.ServiceCache;
 import org.venice.piazza.servicecontroller.data.mongodb.accessors.MongoAccessor;
+import org.venice.piazza.servicecontroller.execution.CircuitBreaker;
+import org.venice.piazza.servicecontroller.execution.CircuitBreakerRegistry;
+import org.venice.piazza.servicecontroller.execution.EndpointBalancer;
+import org.venice.piazza.servicecontroller.execution.ExecutionPolicyRegistry;
+import org.venice.piazza.servicecontroller.messaging.RunningJobRegistry;
+import org.venice.piazza.servicecontroller.messaging.ServiceChangeFeed;
 import org.venice.piazza.servicecontroller.messaging.handlers.DeleteServiceHandler;
 import org.venice.piazza.servicecontroller.messaging.handlers.DescribeServiceHandler;
 import org.venice.piazza.servicecontroller.messaging.handlers.ExecuteServiceHandler;
@@ -100,9 +114,28 @@ public class ServiceController {
 	
 	@Autowired
 	private SearchServiceHandler ssHandler;
+
+	@Autowired
+	private ExecutionPolicyRegistry policyRegistry;
+
+	@Autowired
+	private ServiceCache serviceCache;
+
+	@Autowired
+	private ServiceChangeFeed serviceChangeFeed;
+
+	@Autowired
+	private RunningJobRegistry runningJobRegistry;
+
+	@Autowired
+	private CircuitBreakerRegistry breakerRegistry;
 	
 	private static final String DEFAULT_PAGE_SIZE = "10";
 	private static final String DEFAULT_PAGE = "0";
+	/**
+	 * Header carrying the continuation token of the next page of services
+	 */
+	public static final String CONTINUATION_TOKEN_HEADER = "Continuation-Token";
 	
      /**
       * Empty controller for now
@@ -150,7 +183,7 @@ public class ServiceController {
 		try {
 			// Check if Service exists
 			try {
-				return new ResponseEntity<PiazzaResponse>(new ServiceResponse(accessor.getServiceById(serviceId)), HttpStatus.OK);
+				return new ResponseEntity<PiazzaResponse>(new ServiceResponse(serviceCache.getServiceById(serviceId)), HttpStatus.OK);
 			} catch(ResourceAccessException rae) {
 				return new ResponseEntity<PiazzaResponse>(new ErrorResponse(String.format("Service not found: %s", serviceId), "Service Controller"), HttpStatus.NOT_FOUND);
 			}
@@ -166,6 +199,17 @@ public class ServiceController {
 	 * 
 	 * @see "http://pz-swagger.stage.geointservices.io/#!/Service/get_service"
 	 * 
+	 * @param sortBy
+	 *            The field to sort by. Defaults to relevance when a keyword
+	 *            is given, and to serviceId otherwise.
+	 * @param continuationToken
+	 *            Pages through the services by position instead of page
+	 *            number when present. Empty for the first page, and then the
+	 *            Continuation-Token header of the previous page. The last
+	 *            page has no header.
+	 * @param count
+	 *            False to skip counting the services, in which case the
+	 *            pagination count is null.
 	 * @return The list of registered services.
 	 */
 	@RequestMapping(value = "/service", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
@@ -173,15 +217,39 @@ public class ServiceController {
 			@RequestParam(value = "page", required = false, defaultValue = DEFAULT_PAGE) Integer page,
 			@RequestParam(value = "perPage", required = false, defaultValue = DEFAULT_PAGE_SIZE) Integer perPage,
 			@RequestParam(value = "order", required = false, defaultValue = "asc") String order,
-			@RequestParam(value = "sortBy", required = false, defaultValue = "serviceId") String sortBy,
+			@RequestParam(value = "sortBy", required = false) String sortBy,
 			@RequestParam(value = "keyword", required = false) String keyword,
-			@RequestParam(value = "userName", required = false) String userName) {
+			@RequestParam(value = "userName", required = false) String userName,
+			@RequestParam(value = "continuationToken", required = false) String continuationToken,
+			@RequestParam(value = "count", required = false, defaultValue = "true") boolean count) {
 		try {
 			// Don't allow for invalid orders
 			if (!(order.equalsIgnoreCase("asc")) && !(order.equalsIgnoreCase("desc"))) {
 				order = "asc";
 			}
-			return new ResponseEntity<PiazzaResponse>(accessor.getServices(page, perPage, order, sortBy, keyword, userName), HttpStatus.OK);
+			if ((perPage == null) || (perPage < 1) || (page == null) || (page < 0)) {
+				return new ResponseEntity<PiazzaResponse>(new ErrorResponse(
+						"The page must be 0 or more and perPage must be 1 or more.", "Service Controller"), HttpStatus.BAD_REQUEST);
+			}
+			if (continuationToken != null) {
+				if ((sortBy == null) || (sortBy.isEmpty())) {
+					sortBy = "serviceId";
+				}
+				ServiceListPage servicePage = accessor.getServicesPage(perPage, order, sortBy, keyword, userName,
+						continuationToken, count);
+				HttpHeaders headers = new HttpHeaders();
+				if (servicePage.getContinuationToken() != null) {
+					headers.set(CONTINUATION_TOKEN_HEADER, servicePage.getContinuationToken());
+				}
+				return new ResponseEntity<PiazzaResponse>(servicePage.getResponse(), headers, HttpStatus.OK);
+			}
+			if ((sortBy == null) || (sortBy.isEmpty())) {
+				sortBy = ((keyword != null) && (keyword.isEmpty() == false)) ? MongoAccessor.RELEVANCE_SORT : "serviceId";
+			}
+			return new ResponseEntity<PiazzaResponse>(accessor.getServices(page, perPage, order, sortBy, keyword, userName, count),
+					HttpStatus.OK);
+		} catch (IllegalArgumentException exception) {
+			return new ResponseEntity<PiazzaResponse>(new ErrorResponse(exception.getMessage(), "Service Controller"), HttpStatus.BAD_REQUEST);
 		} catch (Exception exception) {
 			String error = String.format("Error Listing Services: %s", exception.getMessage());
 			logger.log(error, PiazzaLogger.ERROR);
@@ -276,6 +344,81 @@ public class ServiceController {
 		}
 	}
 
+	/**
+	 * Gets the execution policy (timeouts) used when calling a registered
+	 * service.
+	 * 
+	 * @param serviceId
+	 *            The Id of the service.
+	 * @return The execution policy of the service. Unset values use the
+	 *         Service Controller defaults.
+	 */
+	@RequestMapping(value = "/service/{serviceId}/executionPolicy", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<?> getExecutionPolicy(@PathVariable(value = "serviceId") String serviceId) {
+		try {
+			accessor.getServiceById(serviceId);
+		} catch (ResourceAccessException rae) {
+			return new ResponseEntity<PiazzaResponse>(new ErrorResponse(String.format("Service not found: %s", serviceId), "Service Controller"), HttpStatus.NOT_FOUND);
+		}
+		return new ResponseEntity<ServiceExecutionPolicy>(policyRegistry.getPolicy(serviceId), HttpStatus.OK);
+	}
+
+	/**
+	 * Sets the execution policy (timeouts, limits and endpoints) used when
+	 * calling a registered service. Calls over the limits are deferred until
+	 * the service has capacity, and are balanced across the endpoints.
+	 * 
+	 * @param serviceId
+	 *            The Id of the service.
+	 * @param policy
+	 *            The policy to apply. Null values use the Service Controller
+	 *            defaults.
+	 * @return Success if the policy was stored, or an appropriate error.
+	 */
+	@RequestMapping(value = "/service/{serviceId}/executionPolicy", method = RequestMethod.PUT, produces = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<PiazzaResponse> updateExecutionPolicy(@PathVariable(value = "serviceId") String serviceId, @RequestBody ServiceExecutionPolicy policy) {
+		try {
+			try {
+				accessor.getServiceById(serviceId);
+			} catch (ResourceAccessException rae) {
+				return new ResponseEntity<PiazzaResponse>(new ErrorResponse(String.format("Service not found: %s", serviceId), "Service Controller"), HttpStatus.NOT_FOUND);
+			}
+			if (((policy.getMaxConcurrentCalls() != null) && (policy.getMaxConcurrentCalls() < 1))
+					|| ((policy.getRequestsPerSecond() != null) && !(policy.getRequestsPerSecond() > 0))) {
+				return new ResponseEntity<PiazzaResponse>(new ErrorResponse("Execution limits must be positive.", "Service Controller"), HttpStatus.BAD_REQUEST);
+			}
+			if (((policy.getConnectTimeout() != null) && (policy.getConnectTimeout() < 1))
+					|| ((policy.getReadTimeout() != null) && (policy.getReadTimeout() < 1))) {
+				return new ResponseEntity<PiazzaResponse>(new ErrorResponse("Timeouts must be positive.", "Service Controller"), HttpStatus.BAD_REQUEST);
+			}
+			if ((policy.getLoadBalancing() != null) && !EndpointBalancer.STRATEGIES.contains(policy.getLoadBalancing())) {
+				return new ResponseEntity<PiazzaResponse>(new ErrorResponse(String.format("Load balancing must be one of %s.", EndpointBalancer.STRATEGIES), "Service Controller"), HttpStatus.BAD_REQUEST);
+			}
+			if (policy.getEndpoints() != null) {
+				for (String endpoint : policy.getEndpoints()) {
+					String host = null;
+					try {
+						host = UriComponentsBuilder.fromHttpUrl(endpoint).build().getHost();
+					} catch (IllegalArgumentException exception) {
+						// Reported below
+					}
+					if (host == null) {
+						return new ResponseEntity<PiazzaResponse>(new ErrorResponse(String.format("Invalid endpoint URL: %s", endpoint), "Service Controller"), HttpStatus.BAD_REQUEST);
+					}
+				}
+			}
+			policy.setServiceId(serviceId);
+			policyRegistry.setPolicy(policy);
+			serviceChangeFeed.publish(serviceId, ServiceChangeEvent.POLICY_UPDATED);
+			logger.log(String.format("Updated execution policy of Service with ID %s", serviceId), PiazzaLogger.INFO);
+			return new ResponseEntity<PiazzaResponse>(new SuccessResponse("Execution policy was updated successfully.", "ServiceController"), HttpStatus.OK);
+		} catch (Exception exception) {
+			String error = String.format("Error updating execution policy of service %s: %s", serviceId, exception.getMessage());
+			logger.log(error, PiazzaLogger.ERROR);
+			return new ResponseEntity<PiazzaResponse>(new ErrorResponse(error, "ServiceController"), HttpStatus.INTERNAL_SERVER_ERROR);
+		}
+	}
+
 	/**
 	 * Updates metadata about an existing service registered in the
 	 * ServiceController.
@@ -370,14 +513,29 @@ public class ServiceController {
 	 * This service is meant for internal Piazza use, Swiss-Army-Knife (SAK)
 	 * administration and for testing of the serviceController.
 	 * 
+	 * The list is streamed to the response as it is read, rather than built
+	 * in memory first.
+	 * 
 	 * @return Json list o resourceMetadata items (Metadata about the service)
 	 */
 	@RequestMapping(value = "/listService", method = RequestMethod.GET, headers = "Accept=application/json")
-	public ResponseEntity<String> listService() {
+	public void listService(HttpServletResponse response) throws IOException {
 		logger.log("listService", PiazzaLogger.INFO);
-		ResponseEntity<String> result = lsHandler.handle();
-		logger.log("Result is " + result, PiazzaLogger.DEBUG);
-		return result;
+		response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+		try {
+			lsHandler.writeServices(response.getOutputStream());
+		} catch (Exception exception) {
+			logger.log(String.format("Error Listing Services: %s", exception.getMessage()), PiazzaLogger.ERROR);
+			// Once part of the list is sent the status can no longer change. The output stream may already be in use, so
+			// the error is written to it rather than to the Writer.
+			if (!response.isCommitted()) {
+				response.reset();
+				response.setStatus(HttpStatus.NOT_FOUND.value());
+				response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+				response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+				response.getOutputStream().write("Could not retrieve a list of user services".getBytes(StandardCharsets.UTF_8));
+			}
+		}
 	}
 
 	/**
@@ -388,14 +546,21 @@ public class ServiceController {
 	 * @param SearchCriteria
 	 *            The criteria to search with (specify field and regular
 	 *            expression
+	 * @param page
+	 *            The page of results, starting at 0
+	 * @param perPage
+	 *            The number of results per page. All of the results are
+	 *            returned when not given.
 	 * 
 	 * @return Json list o resourceMetadata items (Metadata about the service)
 	 */
 	@RequestMapping(value = "/search", method = RequestMethod.POST, headers = "Accept=application/json")
-	public ResponseEntity<String> search(@RequestBody SearchCriteria criteria) {
+	public ResponseEntity<String> search(@RequestBody SearchCriteria criteria,
+			@RequestParam(value = "page", required = false) Integer page,
+			@RequestParam(value = "perPage", required = false) Integer perPage) {
 
 		logger.log("search " + " " + criteria.field + "->" + criteria.pattern, PiazzaLogger.INFO);
-		ResponseEntity<String> result = ssHandler.handle(criteria);
+		ResponseEntity<String> result = ssHandler.handle(criteria, page, perPage);
 		logger.log("Result is " + result, PiazzaLogger.DEBUG);
 		return result;
 	}
@@ -424,6 +589,31 @@ public class ServiceController {
 		return response;
 	}
 
+	/**
+	 * Lists the Execute Service Jobs currently running on this instance,
+	 * oldest first. This service is meant for internal Piazza use and
+	 * operators.
+	 * 
+	 * @return json list of the running Jobs, with the service and Kafka
+	 *         partition and offset they came from
+	 */
+	@RequestMapping(value = "/admin/runningJobs", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<List<RunningJob>> getRunningJobs() {
+		return new ResponseEntity<List<RunningJob>>(runningJobRegistry.getRunningJobs(), HttpStatus.OK);
+	}
+
+	/**
+	 * Lists the circuit breakers of the services executed by this instance,
+	 * with their state, recent failure and slow call rates and calls in
+	 * progress. This service is meant for internal Piazza use and operators.
+	 * 
+	 * @return json list of the circuit breakers
+	 */
+	@RequestMapping(value = "/admin/circuitBreakers", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<List<CircuitBreaker>> getCircuitBreakers() {
+		return new ResponseEntity<List<CircuitBreaker>>(breakerRegistry.getCircuitBreakers(), HttpStatus.OK);
+	}
+
 	/**
 	 * Statistics for the Piazza Service controller This service is meant for
 	 * internal Piazza use, Swiss-Army-Knife (SAK) administration and for
@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.venice.piazza.servicecontroller.data.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.ResourceAccessException;
+import org.venice.piazza.servicecontroller.data.mongodb.accessors.MongoAccessor;
+
+import model.service.metadata.Service;
+
+/**
+ * Read-through cache of registered Service metadata, keyed by serviceId, in front of
+ * MongoAccessor.getServiceById. Entries expire after a fixed time to live, and the least recently used entry is
+ * evicted once the cache is full. The register, update and delete handlers invalidate entries as services change.
+ *
+ * Callers that modify the returned Service must use the MongoAccessor directly instead, since cached instances are
+ * shared.
+ *
+ * @version 1.0
+ */
+@Component
+public class ServiceCache implements PublicMetrics {
+	@Value("${service.cache.ttl.seconds}")
+	private long ttlSeconds;
+	@Value("${service.cache.max.size}")
+	private int maxSize;
+
+	@Autowired
+	private MongoAccessor accessor;
+
+	private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true);
+	// Incremented on every invalidation so that a load racing with an invalidation is not cached
+	private long generation = 0;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong expirations = new AtomicLong();
+
+	/**
+	 * Gets the Service with the specified Id, loading it from MongoDB if it is not cached.
+	 *
+	 * @param serviceId
+	 *            The Id of the service
+	 * @return The Service
+	 * @throws ResourceAccessException
+	 *             if the Service does not exist or MongoDB is unavailable, as thrown by MongoAccessor
+	 */
+	public Service getServiceById(String serviceId) throws ResourceAccessException {
+		if (ttlSeconds <= 0 || maxSize <= 0) {
+			misses.incrementAndGet();
+			return accessor.getServiceById(serviceId);
+		}
+
+		long loadGeneration;
+		synchronized (entries) {
+			CacheEntry entry = entries.get(serviceId);
+			if (entry != null) {
+				if (entry.expiresAt > System.currentTimeMillis()) {
+					hits.incrementAndGet();
+					return entry.service;
+				}
+				entries.remove(serviceId);
+				expirations.incrementAndGet();
+			}
+			loadGeneration = generation;
+		}
+
+		misses.incrementAndGet();
+		Service service = accessor.getServiceById(serviceId);
+
+		synchronized (entries) {
+			if (loadGeneration == generation) {
+				entries.put(serviceId, new CacheEntry(service, System.currentTimeMillis() + ttlSeconds * 1000));
+				evictOverflow();
+			}
+		}
+		return service;
+	}
+
+	/**
+	 * Removes a Service from the cache, so the next lookup reads it from MongoDB.
+	 *
+	 * @param serviceId
+	 *            The Id of the service that changed
+	 */
+	public void invalidate(String serviceId) {
+		synchronized (entries) {
+			generation++;
+			entries.remove(serviceId);
+		}
+	}
+
+	/**
+	 * Removes all Services from the cache
+	 */
+	public void invalidateAll() {
+		synchronized (entries) {
+			generation++;
+			entries.clear();
+		}
+	}
+
+	/**
+	 * @return the number of Services currently cached
+	 */
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		Collection<Metric<?>> metrics = new ArrayList<Metric<?>>();
+		metrics.add(new Metric<Integer>("servicecontroller.servicecache.size", size()));
+		metrics.add(new Metric<Long>("servicecontroller.servicecache.hits", hits.get()));
+		metrics.add(new Metric<Long>("servicecontroller.servicecache.misses", misses.get()));
+		metrics.add(new Metric<Long>("servicecontroller.servicecache.evictions", evictions.get()));
+		metrics.add(new Metric<Long>("servicecontroller.servicecache.expirations", expirations.get()));
+		return metrics;
+	}
+
+	/**
+	 * Evicts the least recently used entries beyond the maximum size. Must be called holding the lock.
+	 */
+	private void evictOverflow() {
+		Iterator<Map.Entry<String, CacheEntry>> iterator = entries.entrySet().iterator();
+		while (entries.size() > maxSize && iterator.hasNext()) {
+			iterator.next();
+			iterator.remove();
+			evictions.incrementAndGet();
+		}
+	}
+
+	private static class CacheEntry {
+		private final Service service;
+		private final long expiresAt;
+
+		private CacheEntry(Service service, long expiresAt) {
+			this.service = service;
+			this.expiresAt = expiresAt;
+		}
+	}
+}
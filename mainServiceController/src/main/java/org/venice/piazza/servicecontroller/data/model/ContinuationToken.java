@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.venice.piazza.servicecontroller.data.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/**
+ * Position of the last service returned by a keyset paginated service listing. The next page starts after the service
+ * with this sort value and serviceId. Clients receive it Base64 encoded and pass it back unchanged.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ContinuationToken {
+	private String sortBy;
+	private String order;
+	private Object value;
+	private String serviceId;
+
+	public ContinuationToken() {
+	}
+
+	public ContinuationToken(String sortBy, String order, Object value, String serviceId) {
+		this.sortBy = sortBy;
+		this.order = order;
+		this.value = value;
+		this.serviceId = serviceId;
+	}
+
+	/**
+	 * @return the field the listing was sorted by
+	 */
+	public String getSortBy() {
+		return sortBy;
+	}
+
+	public void setSortBy(String sortBy) {
+		this.sortBy = sortBy;
+	}
+
+	/**
+	 * @return asc or desc
+	 */
+	public String getOrder() {
+		return order;
+	}
+
+	public void setOrder(String order) {
+		this.order = order;
+	}
+
+	/**
+	 * @return the sortBy value of the last service, or null if it had none
+	 */
+	public Object getValue() {
+		return value;
+	}
+
+	public void setValue(Object value) {
+		this.value = value;
+	}
+
+	/**
+	 * @return the serviceId of the last service, which breaks ties between equal sort values
+	 */
+	public String getServiceId() {
+		return serviceId;
+	}
+
+	public void setServiceId(String serviceId) {
+		this.serviceId = serviceId;
+	}
+}
@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.venice.piazza.servicecontroller.data.model;
+
+import java.util.concurrent.Future;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * An Execute Service Job that has been handed to a Service Worker and has not yet completed, along with where it was
+ * consumed from. Listed to operators through the running Jobs endpoint.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class RunningJob {
+	private final String jobId;
+	private final String serviceId;
+	private final String topic;
+	private final int partition;
+	private final long offset;
+	private final long startTime = System.currentTimeMillis();
+	// Set once the Worker has accepted the Job
+	private volatile Future<?> future;
+	// Set by the Worker callback, which may run before the Job is registered
+	private volatile boolean completed;
+
+	public RunningJob(String jobId, String serviceId, String topic, int partition, long offset) {
+		this.jobId = jobId;
+		this.serviceId = serviceId;
+		this.topic = topic;
+		this.partition = partition;
+		this.offset = offset;
+	}
+
+	public String getJobId() {
+		return jobId;
+	}
+
+	public String getServiceId() {
+		return serviceId;
+	}
+
+	public String getTopic() {
+		return topic;
+	}
+
+	public int getPartition() {
+		return partition;
+	}
+
+	public long getOffset() {
+		return offset;
+	}
+
+	/**
+	 * @return the time the Job was handed to the Worker, in milliseconds since the epoch
+	 */
+	public long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * @return the milliseconds since the Job was handed to the Worker
+	 */
+	public long getAge() {
+		return System.currentTimeMillis() - startTime;
+	}
+
+	/**
+	 * @return the Worker running the Job, or null if it has not yet been accepted
+	 */
+	@JsonIgnore
+	public Future<?> getFuture() {
+		return future;
+	}
+
+	public void setFuture(Future<?> future) {
+		this.future = future;
+	}
+
+	/**
+	 * @return true once the Worker has finished the Job
+	 */
+	@JsonIgnore
+	public boolean isCompleted() {
+		return completed;
+	}
+
+	public void markCompleted() {
+		completed = true;
+	}
+}
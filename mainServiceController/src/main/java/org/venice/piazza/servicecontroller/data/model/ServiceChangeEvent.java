@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.venice.piazza.servicecontroller.data.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Notification that a registered service changed on one Service Controller instance, sent to all other instances so
+ * they can drop or refresh their local copies.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ServiceChangeEvent {
+	public static final String REGISTERED = "REGISTERED";
+	public static final String UPDATED = "UPDATED";
+	public static final String DELETED = "DELETED";
+	public static final String POLICY_UPDATED = "POLICY_UPDATED";
+
+	private String serviceId;
+	private String changeType;
+	private String origin;
+
+	public ServiceChangeEvent() {
+	}
+
+	public ServiceChangeEvent(String serviceId, String changeType, String origin) {
+		this.serviceId = serviceId;
+		this.changeType = changeType;
+		this.origin = origin;
+	}
+
+	public String getServiceId() {
+		return serviceId;
+	}
+
+	public void setServiceId(String serviceId) {
+		this.serviceId = serviceId;
+	}
+
+	/**
+	 * @return one of REGISTERED, UPDATED, DELETED or POLICY_UPDATED
+	 */
+	public String getChangeType() {
+		return changeType;
+	}
+
+	public void setChangeType(String changeType) {
+		this.changeType = changeType;
+	}
+
+	/**
+	 * @return the Id of the Service Controller instance that made the change
+	 */
+	public String getOrigin() {
+		return origin;
+	}
+
+	public void setOrigin(String origin) {
+		this.origin = origin;
+	}
+}
@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.venice.piazza.servicecontroller.data.model;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Per-service settings that control how the Service Controller calls a registered service. Stored alongside the
+ * Service registration, keyed by serviceId. Any value left null falls back to the Service Controller default.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ServiceExecutionPolicy {
+	private String serviceId;
+	private Integer connectTimeout;
+	private Integer readTimeout;
+	private Integer maxConcurrentCalls;
+	private Double requestsPerSecond;
+	private Boolean idempotent;
+	private Boolean hedged;
+	private List<String> endpoints;
+	private String loadBalancing;
+
+	public ServiceExecutionPolicy() {
+	}
+
+	public ServiceExecutionPolicy(String serviceId) {
+		this.serviceId = serviceId;
+	}
+
+	public String getServiceId() {
+		return serviceId;
+	}
+
+	public void setServiceId(String serviceId) {
+		this.serviceId = serviceId;
+	}
+
+	/**
+	 * @return the connect timeout in milliseconds
+	 */
+	public Integer getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	public void setConnectTimeout(Integer connectTimeout) {
+		this.connectTimeout = connectTimeout;
+	}
+
+	/**
+	 * @return the read (socket) timeout in milliseconds
+	 */
+	public Integer getReadTimeout() {
+		return readTimeout;
+	}
+
+	public void setReadTimeout(Integer readTimeout) {
+		this.readTimeout = readTimeout;
+	}
+
+	/**
+	 * @return the maximum number of calls to the service in progress at once. Null for no limit.
+	 */
+	public Integer getMaxConcurrentCalls() {
+		return maxConcurrentCalls;
+	}
+
+	public void setMaxConcurrentCalls(Integer maxConcurrentCalls) {
+		this.maxConcurrentCalls = maxConcurrentCalls;
+	}
+
+	/**
+	 * @return the maximum rate of calls to the service, in requests per second. Null for no limit.
+	 */
+	public Double getRequestsPerSecond() {
+		return requestsPerSecond;
+	}
+
+	public void setRequestsPerSecond(Double requestsPerSecond) {
+		this.requestsPerSecond = requestsPerSecond;
+	}
+
+	/**
+	 * @return true if the service's POST requests can safely be sent again after a failure. GET requests are always
+	 *         treated as idempotent.
+	 */
+	public Boolean getIdempotent() {
+		return idempotent;
+	}
+
+	public void setIdempotent(Boolean idempotent) {
+		this.idempotent = idempotent;
+	}
+
+	/**
+	 * @return true to send a second request to the service when the first is slower than usual, taking whichever
+	 *         response arrives first. Only applies to GET requests.
+	 */
+	public Boolean getHedged() {
+		return hedged;
+	}
+
+	public void setHedged(Boolean hedged) {
+		this.hedged = hedged;
+	}
+
+	/**
+	 * @return the replicas of the service, as base URLs such as http://host:8080. Calls are balanced across them,
+	 *         keeping the path of the registered URL. Null to call the registered URL.
+	 */
+	public List<String> getEndpoints() {
+		return endpoints;
+	}
+
+	public void setEndpoints(List<String> endpoints) {
+		this.endpoints = endpoints;
+	}
+
+	/**
+	 * @return how calls are balanced across the endpoints: ROUND_ROBIN, LEAST_OUTSTANDING or EWMA. Null for the
+	 *         Service Controller default.
+	 */
+	public String getLoadBalancing() {
+		return loadBalancing;
+	}
+
+	public void setLoadBalancing(String loadBalancing) {
+		this.loadBalancing = loadBalancing;
+	}
+}
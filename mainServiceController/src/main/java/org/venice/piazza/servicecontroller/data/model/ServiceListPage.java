@@ -0,0 +1,42 @@
+/*******************************************************************************
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.venice.piazza.servicecontroller.data.model;
+
+import model.response.ServiceListResponse;
+
+/**
+ * One page of a keyset paginated service listing, along with the token that fetches the page after it.
+ */
+public class ServiceListPage {
+	private ServiceListResponse response;
+	private String continuationToken;
+
+	public ServiceListPage(ServiceListResponse response, String continuationToken) {
+		this.response = response;
+		this.continuationToken = continuationToken;
+	}
+
+	public ServiceListResponse getResponse() {
+		return response;
+	}
+
+	/**
+	 * @return the encoded token of the next page, or null if this is the last page
+	 */
+	public String getContinuationToken() {
+		return continuationToken;
+	}
+}
@@ -15,8 +15,11 @@
  *******************************************************************************/
 package org.venice.piazza.servicecontroller.data.mongodb.accessors;
 
+import java.io.IOException;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.List;
 import java.util.regex.Pattern;
 
@@ -30,6 +33,7 @@ import org.mongojack.DBSort;
 import org.mongojack.DBUpdate;
 import org.mongojack.JacksonDBCollection;
 import org.mongojack.WriteResult;
+import org.mongojack.internal.MongoJackModule;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -37,9 +41,17 @@ import org.springframework.context.annotation.DependsOn;
 import org.springframework.stereotype.Component;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.client.ResourceAccessException;
+import org.venice.piazza.servicecontroller.data.model.ContinuationToken;
+import org.venice.piazza.servicecontroller.data.model.ServiceExecutionPolicy;
+import org.venice.piazza.servicecontroller.data.model.ServiceListPage;
 import org.venice.piazza.servicecontroller.util.CoreServiceProperties;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
 import com.mongodb.DBCollection;
 import com.mongodb.MongoClient;
 import com.mongodb.MongoClientURI;
@@ -69,14 +81,43 @@ public class MongoAccessor {
 	private String DATABASE_HOST;
 	private String DATABASE_NAME;
 	private String SERVICE_COLLECTION_NAME;
+	private String POLICY_COLLECTION_NAME;
 	private MongoClient mongoClient;
+	/*
+	 * Wrapping a collection builds its Jackson serializers, so the wrapped collections are created once and shared.
+	 * Both are thread safe.
+	 */
+	private JacksonDBCollection<Service, String> serviceCollection;
+	private JacksonDBCollection<ServiceExecutionPolicy, String> policyCollection;
+	// Reads text search results, which carry the extra text score field
+	private JacksonDBCollection<Service, String> searchCollection;
+	private boolean textSearch;
 	
 	@Autowired
 	private PiazzaLogger logger;
 	@Autowired
 	private CoreServiceProperties coreServiceProperties;
+	@Autowired
+	private ObjectMapper objectMapper;
 	
 	private final static Logger LOGGER = LoggerFactory.getLogger(MongoAccessor.class);
+	/**
+	 * The mapper mongojack converts services and query values with, so that the sort value kept in a continuation
+	 * token is read as the query that follows it will write it
+	 */
+	private final static ObjectMapper QUERY_MAPPER = MongoJackModule.configure(new ObjectMapper());
+
+	/**
+	 * Name of the text index backing keyword search of services
+	 */
+	public static final String SERVICE_TEXT_INDEX_NAME = "service_keyword_text";
+	/**
+	 * The sortBy value that orders keyword search results by relevance
+	 */
+	public static final String RELEVANCE_SORT = "relevance";
+	public static final String KEYWORD_SEARCH_TEXT = "text";
+	private static final String TEXT_SCORE_FIELD = "score";
+	private static final BasicDBObject TEXT_SCORE = new BasicDBObject("$meta", "textScore");
 
 	public MongoAccessor() {
 	}
@@ -87,20 +128,82 @@ public class MongoAccessor {
 		DATABASE_HOST = coreServiceProperties.getMongoHost();
 		DATABASE_NAME = coreServiceProperties.getMongoDBName();
 		SERVICE_COLLECTION_NAME = coreServiceProperties.getMongoCollectionName();
+		POLICY_COLLECTION_NAME = coreServiceProperties.getMongoPolicyCollectionName();
+		textSearch = KEYWORD_SEARCH_TEXT.equalsIgnoreCase(coreServiceProperties.getMongoKeywordSearch());
 		LOGGER.debug("====================================================");
 		LOGGER.debug("DATABASE_HOST=" + DATABASE_HOST);
 		LOGGER.debug("DATABASE_NAME=" + DATABASE_NAME);
 		LOGGER.debug("SERVICE_COLLECTION_NAME=" + SERVICE_COLLECTION_NAME);
+		LOGGER.debug("POLICY_COLLECTION_NAME=" + POLICY_COLLECTION_NAME);
 		LOGGER.debug("====================================================");
 
 		try {
 			mongoClient = new MongoClient(new MongoClientURI(DATABASE_HOST));
+			DB database = mongoClient.getDB(DATABASE_NAME);
+			serviceCollection = JacksonDBCollection.wrap(database.getCollection(SERVICE_COLLECTION_NAME), Service.class,
+					String.class);
+			policyCollection = JacksonDBCollection.wrap(database.getCollection(POLICY_COLLECTION_NAME),
+					ServiceExecutionPolicy.class, String.class);
+			searchCollection = JacksonDBCollection.wrap(database.getCollection(SERVICE_COLLECTION_NAME), Service.class,
+					String.class, MongoJackModule.configure(
+							new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)));
 		} catch (Exception ex) {
 			LOGGER.error(ex.getMessage());
 			String message = String.format("Error Contacting Mongo Host %s: %s", DATABASE_HOST,ex.getMessage());
 			logger.log(message, PiazzaLogger.ERROR);
 			LOGGER.debug(ex.toString());
+			return;
+		}
 
+		// Ensure the indexes on a separate Thread, so an unreachable database does not block startup
+		Thread indexThread = new Thread("MongoIndexBuilder") {
+			@Override
+			public void run() {
+				ensureIndexes();
+			}
+		};
+		indexThread.setDaemon(true);
+		indexThread.start();
+	}
+
+	/**
+	 * Creates the indexes used by the service queries, if they do not already exist. Indexes are built in the
+	 * background by MongoDB so the collections remain available while they build. Safe to call repeatedly.
+	 */
+	public void ensureIndexes() {
+		DBCollection services = serviceCollection.getDbCollection();
+		// Lookups by Id, and the tie breaker for sorted and paged listing
+		ensureIndex(services, new BasicDBObject("serviceId", 1), "serviceId_unique", true);
+		// getServices filtered by user, sorted by the default serviceId
+		ensureIndex(services, new BasicDBObject("resourceMetadata.createdBy", 1).append("serviceId", 1), "createdBy_serviceId", false);
+		// list() of services that are not offline
+		ensureIndex(services, new BasicDBObject("resourceMetadata.availability", 1).append("serviceId", 1), "availability_serviceId", false);
+		// Keyword search
+		BasicDBObject textKeys = new BasicDBObject("resourceMetadata.name", "text").append("resourceMetadata.description", "text")
+				.append("url", "text");
+		BasicDBObject textOptions = new BasicDBObject("weights",
+				new BasicDBObject("resourceMetadata.name", 10).append("resourceMetadata.description", 5).append("url", 1));
+		ensureIndex(services, textKeys, SERVICE_TEXT_INDEX_NAME, false, textOptions);
+
+		ensureIndex(policyCollection.getDbCollection(), new BasicDBObject("serviceId", 1), "serviceId_unique", true);
+	}
+
+	private void ensureIndex(DBCollection collection, BasicDBObject keys, String name, boolean unique) {
+		ensureIndex(collection, keys, name, unique, new BasicDBObject());
+	}
+
+	private void ensureIndex(DBCollection collection, BasicDBObject keys, String name, boolean unique, BasicDBObject options) {
+		options.append("name", name).append("background", true);
+		if (unique) {
+			options.append("unique", true);
+		}
+		try {
+			collection.createIndex(keys, options);
+			logger.log(String.format("Ensured index %s on %s", name, collection.getName()), PiazzaLogger.INFO);
+		} catch (MongoException ex) {
+			String message = String.format("Could not create index %s on %s: %s", name, collection.getName(), ex.getMessage());
+			LOGGER.error(message);
+			logger.log(message, PiazzaLogger.ERROR);
 		}
 	}
 
@@ -124,15 +227,9 @@ public class MongoAccessor {
 	public String update(Service sMetadata) {
 		String result = "";
 		try {
-			DBCollection collection = mongoClient.getDB(DATABASE_NAME).getCollection(SERVICE_COLLECTION_NAME);
-			
-			JacksonDBCollection<Service, String> coll = JacksonDBCollection.wrap(collection, Service.class,
-			        String.class);
-			
-			
 			Query query = DBQuery.is("serviceId",sMetadata.getServiceId());
 			
-			WriteResult<Service, String> writeResult = coll.update(query,sMetadata);
+			WriteResult<Service, String> writeResult = serviceCollection.update(query,sMetadata);
 			logger.log("The result is", writeResult.toString());
 			// Return the id that was used
 			return sMetadata.getServiceId().toString();
@@ -162,12 +259,9 @@ public class MongoAccessor {
 	public String delete(String serviceId, boolean softDelete) {
 		String result = "service " + serviceId + " NOT deleted ";
 		try {
-			DBCollection collection = mongoClient.getDB(DATABASE_NAME).getCollection(SERVICE_COLLECTION_NAME);
-
 			if (softDelete) {
-				JacksonDBCollection<Service, String> coll = JacksonDBCollection.wrap(collection, Service.class, String.class);
 				Query query = DBQuery.is("serviceId", serviceId);
-				WriteResult<Service, String> writeResult = coll.update(query, DBUpdate.set("resourceMetadata.availability", ResourceMetadata.STATUS_TYPE.OFFLINE.toString()));
+				WriteResult<Service, String> writeResult = serviceCollection.update(query, DBUpdate.set("resourceMetadata.availability", ResourceMetadata.STATUS_TYPE.OFFLINE.toString()));
 				int recordsChanged = writeResult.getN();
 
 				// Return the id that was used
@@ -178,7 +272,7 @@ public class MongoAccessor {
 				// Delete the existing entry for the Job
 				BasicDBObject deleteQuery = new BasicDBObject();
 				deleteQuery.append("serviceId", serviceId);
-				collection.remove(deleteQuery);
+				serviceCollection.getDbCollection().remove(deleteQuery);
 				result = " service " + serviceId + " deleted ";
 			}
 
@@ -200,12 +294,7 @@ public class MongoAccessor {
 	public String save(Service sMetadata) {
 		String result = "";
 		try {
-			DBCollection collection = mongoClient.getDB(DATABASE_NAME).getCollection(SERVICE_COLLECTION_NAME);
-			
-			JacksonDBCollection<Service, String> coll = JacksonDBCollection.wrap(collection, Service.class,
-			        String.class);
-			
-			WriteResult<Service, String> writeResult = coll.insert(sMetadata);
+			WriteResult<Service, String> writeResult = serviceCollection.insert(sMetadata);
 			// Return the id that was used
 			return sMetadata.getServiceId();
 			
@@ -228,13 +317,7 @@ public class MongoAccessor {
 		ArrayList<Service> result = new ArrayList<Service>();
 		try {
 			
-			DBCollection collection = mongoClient.getDB(DATABASE_NAME).getCollection(SERVICE_COLLECTION_NAME);
-			
-			JacksonDBCollection<Service, String> coll = JacksonDBCollection.wrap(collection, Service.class,
-			        String.class);
-			
-			DBCursor<Service> metadataCursor = 
-					coll.find(DBQuery.notEquals("resourceMetadata.availability", ResourceMetadata.STATUS_TYPE.OFFLINE.toString()));
+			DBCursor<Service> metadataCursor = getAvailableServices();
 			while (metadataCursor.hasNext()) {
 				result.add(metadataCursor.next());
 			}
@@ -252,14 +335,25 @@ public class MongoAccessor {
 			
 		return result;
 	}
+
+	/**
+	 * Gets a cursor over the services that are not offline. Services are
+	 * fetched from MongoDB in batches as the cursor is read, so callers that
+	 * do not keep them hold only one batch at a time. The caller must close
+	 * the cursor.
+	 * 
+	 * @return cursor of available services
+	 */
+	public DBCursor<Service> getAvailableServices() {
+		return serviceCollection.find(DBQuery.notEquals("resourceMetadata.availability", ResourceMetadata.STATUS_TYPE.OFFLINE.toString()));
+	}
 	
 	/**
 	 * Gets the Resource collection that contains the Services.
 	 * @return Service Resource Collection
 	 */
 	public JacksonDBCollection<Service, String> getServicesCollection() {
-		DBCollection collection = mongoClient.getDB(DATABASE_NAME).getCollection(SERVICE_COLLECTION_NAME);
-		return JacksonDBCollection.wrap(collection, Service.class, String.class);
+		return serviceCollection;
 	}
 	
 
@@ -271,15 +365,266 @@ public class MongoAccessor {
 	public JacksonDBCollection<Service, String> getServiceCollection() {
 		// MongoJack does not support the latest Mongo API yet. TODO: Check if
 		// they plan to.
-		DBCollection collection = mongoClient.getDB(DATABASE_NAME).getCollection(SERVICE_COLLECTION_NAME);
-		return JacksonDBCollection.wrap(collection, Service.class, String.class);
+		return serviceCollection;
 	}
 	
-	/** 
-	 * Get a list of services with pagination
+	/**
+	 * Gets a reference to the collection holding the per-service execution policies.
+	 * 
+	 * @return Execution Policy Collection
+	 */
+	public JacksonDBCollection<ServiceExecutionPolicy, String> getExecutionPolicyCollection() {
+		return policyCollection;
+	}
+
+	/**
+	 * Lists all of the stored execution policies
+	 * 
+	 * @return the execution policies, one per service that has one
 	 */
+	public List<ServiceExecutionPolicy> listExecutionPolicies() {
+		List<ServiceExecutionPolicy> result = new ArrayList<ServiceExecutionPolicy>();
+		try {
+			DBCursor<ServiceExecutionPolicy> cursor = getExecutionPolicyCollection().find();
+			while (cursor.hasNext()) {
+				result.add(cursor.next());
+			}
+		} catch (MongoException ex) {
+			String message = String.format("Error Listing Mongo Execution Policy entries : %s", ex.getMessage());
+			LOGGER.error(message);
+			logger.log(message, PiazzaLogger.ERROR);
+		}
+		return result;
+	}
 
+	/**
+	 * Gets the stored execution policy of a service
+	 * 
+	 * @param serviceId
+	 *            the service whose policy is returned
+	 * @return the policy, or null if the service has none
+	 */
+	public ServiceExecutionPolicy getExecutionPolicy(String serviceId) {
+		return getExecutionPolicyCollection().findOne(DBQuery.is("serviceId", serviceId));
+	}
+
+	/**
+	 * Stores the execution policy for a service, replacing any existing one.
+	 * 
+	 * @param policy
+	 *            the policy, which must have its serviceId set
+	 */
+	public void saveExecutionPolicy(ServiceExecutionPolicy policy) {
+		Query query = DBQuery.is("serviceId", policy.getServiceId());
+		getExecutionPolicyCollection().update(query, policy, true, false);
+	}
+
+	/**
+	 * Removes the execution policy for a service, if one exists.
+	 * 
+	 * @param serviceId
+	 *            the service whose policy is removed
+	 */
+	public void deleteExecutionPolicy(String serviceId) {
+		try {
+			getExecutionPolicyCollection().remove(DBQuery.is("serviceId", serviceId));
+		} catch (MongoException ex) {
+			String message = String.format("Error Deleting Mongo Execution Policy entry : %s", ex.getMessage());
+			LOGGER.error(message);
+			logger.log(message, PiazzaLogger.ERROR);
+		}
+	}
+
+	/** 
+	 * Get a list of services with pagination. When a keyword is provided and
+	 * text search is enabled, services are matched against the text index on
+	 * name, description and url, or an exact serviceId. Sorting by
+	 * "relevance" orders these results by their text score, best first.
+	 */
 	public PiazzaResponse getServices(Integer page, Integer perPage, String order, String sortBy, String keyword, String userName) {
+		return getServices(page, perPage, order, sortBy, keyword, userName, true);
+	}
+
+	/**
+	 * Get a list of services with pagination, optionally without the total
+	 * count. Counting is a separate command that matches every service, so
+	 * listings that do not show it can skip it. The pagination count is null
+	 * when skipped.
+	 */
+	public PiazzaResponse getServices(Integer page, Integer perPage, String order, String sortBy, String keyword,
+			String userName, boolean includeCount) {
+		DBCursor<Service> cursor = sortServices(findServices(keyword, userName), order, sortBy, keyword);
+		
+		// Get the total count
+		Integer size = includeCount ? new Integer(cursor.size()) : null;
+		
+		// Paginate the results
+		List<Service> data = cursor.skip(page * perPage).limit(perPage).toArray();
+
+		// Attach pagination information
+		Pagination pagination = new Pagination(size, page, perPage, sortBy, order);
+		
+		// Create the Response and send back
+		return new ServiceListResponse(data, pagination);
+	}
+
+	/**
+	 * Get a page of services that follows the position in a continuation
+	 * token, rather than skipping over the earlier pages. Results are ordered
+	 * by the sortBy field and then serviceId, so a page costs the same at any
+	 * depth. Relevance ordering has no stable position, and cannot be paged
+	 * this way.
+	 * 
+	 * @param continuationToken
+	 *            The token returned with the previous page, or null or empty
+	 *            for the first page
+	 * @return The page of services, and the token of the next page if there
+	 *         is one
+	 * @throws IllegalArgumentException
+	 *             if the token is invalid or does not match the sort order
+	 */
+	public ServiceListPage getServicesPage(Integer perPage, String order, String sortBy, String keyword, String userName,
+			String continuationToken, boolean includeCount) throws IllegalArgumentException {
+		if ((perPage == null) || (perPage < 1)) {
+			throw new IllegalArgumentException("perPage must be 1 or more.");
+		}
+		if (RELEVANCE_SORT.equalsIgnoreCase(sortBy)) {
+			throw new IllegalArgumentException("Services sorted by relevance cannot be paged with a continuation token.");
+		}
+		ContinuationToken after = null;
+		if ((continuationToken != null) && (continuationToken.isEmpty() == false)) {
+			after = decodeToken(continuationToken);
+			if (!sortBy.equals(after.getSortBy()) || !order.equalsIgnoreCase(after.getOrder())) {
+				throw new IllegalArgumentException("The continuation token does not match the requested sortBy and order.");
+			}
+		}
+
+		// serviceId is unique, so it fixes the position of services with equal sort values
+		int direction = order.equalsIgnoreCase("desc") ? -1 : 1;
+		BasicDBObject sort = new BasicDBObject(sortBy, direction);
+		if (!"serviceId".equals(sortBy)) {
+			sort.append("serviceId", direction);
+		}
+		DBCursor<Service> cursor = findServices(keyword, userName).sort(sort);
+
+		// Count the whole listing, before it is narrowed to the services after the token
+		Integer size = includeCount ? new Integer(cursor.copy().size()) : null;
+		if (after != null) {
+			cursor = cursor.and(keysetQuery(after, sortBy, direction));
+		}
+
+		// Fetch one extra service to find out if there is a next page
+		List<Service> data = cursor.limit(perPage + 1).toArray();
+		String nextToken = null;
+		if (data.size() > perPage) {
+			data = new ArrayList<Service>(data.subList(0, perPage));
+			Service last = data.get(perPage - 1);
+			nextToken = encodeToken(new ContinuationToken(sortBy, order, getSortValue(last, sortBy), last.getServiceId()));
+		}
+
+		Pagination pagination = new Pagination(size, null, perPage, sortBy, order);
+		return new ServiceListPage(new ServiceListResponse(data, pagination), nextToken);
+	}
+
+	/**
+	 * Finds services using the text index when a keyword is given and text search is enabled, or the pattern scan
+	 * otherwise.
+	 */
+	private DBCursor<Service> findServices(String keyword, String userName) {
+		if ((keyword != null) && (keyword.isEmpty() == false) && textSearch) {
+			return findByText(keyword, userName);
+		}
+		return findByRegex(keyword, userName);
+	}
+
+	private DBCursor<Service> sortServices(DBCursor<Service> cursor, String order, String sortBy, String keyword) {
+		boolean hasKeyword = (keyword != null) && (keyword.isEmpty() == false);
+		if (RELEVANCE_SORT.equalsIgnoreCase(sortBy)) {
+			if (hasKeyword && textSearch) {
+				return cursor.sort(new BasicDBObject(TEXT_SCORE_FIELD, TEXT_SCORE));
+			}
+			return cursor.sort(DBSort.asc("serviceId"));
+		} else if (order.equalsIgnoreCase("asc")) {
+			return cursor.sort(DBSort.asc(sortBy));
+		} else if (order.equalsIgnoreCase("desc")) {
+			return cursor.sort(DBSort.desc(sortBy));
+		}
+		return cursor;
+	}
+
+	/**
+	 * Matches the services that sort after the token's position. MongoDB sorts missing and null values before all
+	 * others, so they are the first services of an ascending listing and the last of a descending one.
+	 */
+	private Query keysetQuery(ContinuationToken after, String sortBy, int direction) {
+		Query afterId = (direction > 0) ? DBQuery.greaterThan("serviceId", after.getServiceId())
+				: DBQuery.lessThan("serviceId", after.getServiceId());
+		if ("serviceId".equals(sortBy)) {
+			return afterId;
+		}
+		Object value = after.getValue();
+		if (value == null) {
+			Query nullTies = DBQuery.and(DBQuery.is(sortBy, null), afterId);
+			return (direction > 0) ? DBQuery.or(nullTies, DBQuery.notEquals(sortBy, null)) : nullTies;
+		}
+		Query ties = DBQuery.and(DBQuery.is(sortBy, value), afterId);
+		if (direction > 0) {
+			return DBQuery.or(DBQuery.greaterThan(sortBy, value), ties);
+		}
+		return DBQuery.or(DBQuery.lessThan(sortBy, value), ties, DBQuery.is(sortBy, null));
+	}
+
+	/**
+	 * Reads the value of a, possibly nested, sortBy field from a service
+	 */
+	private Object getSortValue(Service service, String sortBy) {
+		JsonNode node = QUERY_MAPPER.valueToTree(service);
+		for (String field : sortBy.split("\\.")) {
+			node = node.path(field);
+		}
+		if (node.isMissingNode() || node.isNull()) {
+			return null;
+		} else if (node.isContainerNode()) {
+			throw new IllegalArgumentException(String.format("Services cannot be paged by %s with a continuation token.", sortBy));
+		}
+		return QUERY_MAPPER.convertValue(node, Object.class);
+	}
+
+	private String encodeToken(ContinuationToken token) {
+		try {
+			return Base64.getUrlEncoder().encodeToString(objectMapper.writeValueAsBytes(token));
+		} catch (JsonProcessingException exception) {
+			throw new IllegalArgumentException(String.format("Could not create continuation token: %s", exception.getMessage()));
+		}
+	}
+
+	private ContinuationToken decodeToken(String token) {
+		try {
+			return objectMapper.readerFor(ContinuationToken.class).with(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+					.readValue(Base64.getUrlDecoder().decode(token));
+		} catch (IllegalArgumentException | IOException exception) {
+			throw new IllegalArgumentException("Invalid continuation token.");
+		}
+	}
+
+	/**
+	 * Finds services using the text index. The keyword also matches an exact serviceId, which is not part of the text
+	 * index.
+	 */
+	private DBCursor<Service> findByText(String keyword, String userName) {
+		BasicDBObject query = new BasicDBObject("$or", Arrays.asList(
+				new BasicDBObject("$text", new BasicDBObject("$search", keyword)), new BasicDBObject("serviceId", keyword)));
+		if ((userName != null) && (userName.isEmpty() == false)) {
+			query.append("resourceMetadata.createdBy", userName);
+		}
+		return searchCollection.find(query, new BasicDBObject(TEXT_SCORE_FIELD, TEXT_SCORE));
+	}
+
+	/**
+	 * Finds services with a case-insensitive pattern match of the keyword. This scans the collection, and is used when
+	 * text search is disabled.
+	 */
+	private DBCursor<Service> findByRegex(String keyword, String userName) {
 		// Create the Query
 		Query query = DBQuery.empty();
 		
@@ -298,26 +643,7 @@ public class MongoAccessor {
 		}
 		
 		// Execute the Query
-		DBCursor<Service> cursor = getServiceCollection().find(query);
-		
-		// Sort and order the Results
-		if (order.equalsIgnoreCase("asc")) {
-			cursor = cursor.sort(DBSort.asc(sortBy));
-		} else if (order.equalsIgnoreCase("desc")) {
-			cursor = cursor.sort(DBSort.desc(sortBy));
-		}
-		
-		// Get the total count
-		Integer size = new Integer(cursor.size());
-		
-		// Paginate the results
-		List<Service> data = cursor.skip(page * perPage).limit(perPage).toArray();
-
-		// Attach pagination information
-		Pagination pagination = new Pagination(size, page, perPage, sortBy, order);
-		
-		// Create the Response and send back
-		return new ServiceListResponse(data, pagination);
+		return getServiceCollection().find(query);
 	}
 
 	
@@ -346,60 +672,47 @@ public class MongoAccessor {
 	}
 	
 	/**
-	 * Returns a list of ResourceMetadata based on the criteria provided
+	 * Returns a list of ResourceMetadata based on the criteria provided.
+	 * Every matching service is returned; page the search to bound the
+	 * results.
 	 * @return List of matching services that match the search criteria
 	 */
 	public List <Service> search(SearchCriteria criteria) {
-		List <Service> results =  new ArrayList<Service>();
-		if (criteria != null) {
-			
-	     LOGGER.debug("Criteria field=" + criteria.getField());
-	     LOGGER.debug("Criteria field=" + criteria.getPattern());
-
+		return search(criteria, 0, 0);
+	}
 
-		Pattern pattern = Pattern.compile(criteria.pattern);
-		BasicDBObject query = new BasicDBObject(criteria.field, pattern);
+	/**
+	 * Returns a page of the services whose field, or resourceMetadata field,
+	 * matches the criteria pattern. Both fields are matched by one query, so
+	 * each service is returned once, ordered by serviceId.
+	 * 
+	 * @param page
+	 *            The page to return, starting at 0
+	 * @param perPage
+	 *            The number of services per page, or 0 for all of them
+	 * @return List of matching services that match the search criteria
+	 */
+	public List<Service> search(SearchCriteria criteria, int page, int perPage) {
+		List<Service> results = new ArrayList<Service>();
+		if (criteria != null) {
+			LOGGER.debug("Criteria field=" + criteria.getField());
+			LOGGER.debug("Criteria pattern=" + criteria.getPattern());
 
+			Pattern pattern = Pattern.compile(criteria.pattern);
+			BasicDBObject query = new BasicDBObject("$or", Arrays.asList(new BasicDBObject(criteria.field, pattern),
+					new BasicDBObject("resourceMetadata." + criteria.field, pattern)));
 			try {
-				
-				DBCursor<Service> cursor = getServiceCollection().find(query);		
-				while (cursor.hasNext()) {
-					results.add(cursor.next());
-				}
-
-				// Now try to look for the field in the resourceMetadata just to make sure
-				
-				query = new BasicDBObject("resourceMetadata." + criteria.field, pattern);
-				cursor = getServiceCollection().find(query);		
-				while (cursor.hasNext()) {
-					Service serviceItem = cursor.next();
-					if (!exists(results, serviceItem.getServiceId()))
-						results.add(serviceItem);
+				DBCursor<Service> cursor = getServiceCollection().find(query).sort(DBSort.asc("serviceId"));
+				if (perPage > 0) {
+					cursor = cursor.skip(page * perPage).limit(perPage);
 				}
-				
-			} catch( MongoTimeoutException mte) {
+				results = cursor.toArray();
+			} catch (MongoTimeoutException mte) {
 				throw new ResourceAccessException("MongoDB instance not available.");
 			}
 		}
 
 		return results;
 	}
-	
-	/**
-	 * Checks to see if the result was already found
-	 * @return true - result is already there
-	 * false - result has not been found
-	 */
-	private boolean exists(List<Service>serviceResults, String id) {
-		boolean doesExist = false;
-		
-		for (int i = 0; i < serviceResults.size(); i++) {
-			String serviceItemId = serviceResults.get(i).getServiceId();
-			if (serviceItemId.equals(id))
-				doesExist = true;
-		}
-		return doesExist;
-		
-	}
 
 }
\ No newline at end of file
@@ -0,0 +1,220 @@
+/*******************************************************************************
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.venice.piazza.servicecontroller.execution;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.util.EntityUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.UnknownHttpStatusCodeException;
+import org.venice.piazza.servicecontroller.data.model.ServiceExecutionPolicy;
+
+import util.PiazzaLogger;
+
+/**
+ * Non-blocking HTTP engine backed by the Apache HttpAsyncClient. Connections are pooled per service host and kept
+ * alive between executions, and all requests are multiplexed over a small number of I/O Threads, so callers are not
+ * required to hold a Thread for the duration of a call.
+ *
+ * @version 1.0
+ */
+@Component
+@ConditionalOnProperty(name = "execution.http.engine", havingValue = "async", matchIfMissing = true)
+public class AsyncServiceHttpEngine implements ServiceHttpEngine {
+	@Value("${execution.http.connect.timeout}")
+	private int defaultConnectTimeout;
+	@Value("${execution.http.read.timeout}")
+	private int defaultReadTimeout;
+	@Value("${execution.http.max.connections}")
+	private int maxConnections;
+	@Value("${execution.http.max.connections.per.host}")
+	private int maxConnectionsPerHost;
+	@Value("${execution.http.io.threads}")
+	private int ioThreads;
+
+	@Autowired
+	private PiazzaLogger coreLogger;
+
+	private CloseableHttpAsyncClient httpClient;
+	private RequestConfig defaultRequestConfig;
+
+	/**
+	 * Creates and starts the pooled client
+	 */
+	@PostConstruct
+	public void initialize() throws IOReactorException {
+		IOReactorConfig reactorConfig = IOReactorConfig.custom().setIoThreadCount(ioThreads).setConnectTimeout(defaultConnectTimeout)
+				.setSoTimeout(defaultReadTimeout).build();
+		PoolingNHttpClientConnectionManager connectionManager = new PoolingNHttpClientConnectionManager(
+				new DefaultConnectingIOReactor(reactorConfig));
+		connectionManager.setMaxTotal(maxConnections);
+		connectionManager.setDefaultMaxPerRoute(maxConnectionsPerHost);
+
+		defaultRequestConfig = RequestConfig.custom().setConnectTimeout(defaultConnectTimeout).setSocketTimeout(defaultReadTimeout)
+				.build();
+		httpClient = HttpAsyncClients.custom().setConnectionManager(connectionManager).setDefaultRequestConfig(defaultRequestConfig)
+				.setKeepAliveStrategy(DefaultConnectionKeepAliveStrategy.INSTANCE).build();
+		httpClient.start();
+
+		coreLogger.log(String.format("Async HTTP engine started with %s connections, %s per host", maxConnections,
+				maxConnectionsPerHost), PiazzaLogger.INFO);
+	}
+
+	@PreDestroy
+	public void close() throws IOException {
+		if (httpClient != null) {
+			httpClient.close();
+		}
+	}
+
+	@Override
+	public CompletableFuture<ResponseEntity<String>> execute(final HttpMethod method, final URI url, HttpEntity<String> request,
+			ServiceExecutionPolicy policy) {
+		final CompletableFuture<ResponseEntity<String>> result = new CompletableFuture<ResponseEntity<String>>();
+		HttpRequestBase httpRequest = createRequest(method, url, request, policy);
+
+		final Future<HttpResponse> responseFuture = httpClient.execute(httpRequest, new FutureCallback<HttpResponse>() {
+			@Override
+			public void completed(HttpResponse response) {
+				try {
+					result.complete(toResponseEntity(response));
+				} catch (RuntimeException | IOException exception) {
+					result.completeExceptionally(exception instanceof IOException ? ioError(method, url, (IOException) exception)
+							: exception);
+				}
+			}
+
+			@Override
+			public void failed(Exception exception) {
+				result.completeExceptionally(exception instanceof IOException ? ioError(method, url, (IOException) exception)
+						: new ResourceAccessException(exception.getMessage()));
+			}
+
+			@Override
+			public void cancelled() {
+				result.cancel(false);
+			}
+		});
+
+		// Abort the underlying request if the caller gives up on the result
+		result.whenComplete((response, exception) -> {
+			if (result.isCancelled()) {
+				responseFuture.cancel(true);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Builds the HttpAsyncClient request, applying the timeouts of the service's execution policy
+	 */
+	private HttpRequestBase createRequest(HttpMethod method, URI url, HttpEntity<String> request, ServiceExecutionPolicy policy) {
+		RequestBuilder builder = RequestBuilder.create(method.name()).setUri(url);
+		HttpHeaders headers = request != null ? request.getHeaders() : new HttpHeaders();
+		for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+			if (!HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(header.getKey())) {
+				for (String value : header.getValue()) {
+					builder.addHeader(header.getKey(), value);
+				}
+			}
+		}
+		if (request != null && request.hasBody()) {
+			MediaType contentType = headers.getContentType();
+			Charset charset = (contentType != null && contentType.getCharSet() != null) ? contentType.getCharSet()
+					: StandardCharsets.UTF_8;
+			builder.setEntity(new StringEntity(request.getBody(), charset));
+		}
+		HttpRequestBase httpRequest = (HttpRequestBase) builder.build();
+
+		RequestConfig.Builder config = RequestConfig.copy(defaultRequestConfig);
+		if (policy != null && policy.getConnectTimeout() != null) {
+			config.setConnectTimeout(policy.getConnectTimeout());
+		}
+		if (policy != null && policy.getReadTimeout() != null) {
+			config.setSocketTimeout(policy.getReadTimeout());
+		}
+		httpRequest.setConfig(config.build());
+		return httpRequest;
+	}
+
+	/**
+	 * Converts the HttpAsyncClient response, throwing the same exceptions RestTemplate would for error codes
+	 */
+	private ResponseEntity<String> toResponseEntity(HttpResponse response) throws IOException {
+		HttpHeaders headers = new HttpHeaders();
+		for (Header header : response.getAllHeaders()) {
+			headers.add(header.getName(), header.getValue());
+		}
+		String body = response.getEntity() != null ? EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8) : null;
+		int statusCode = response.getStatusLine().getStatusCode();
+		String statusText = response.getStatusLine().getReasonPhrase();
+		byte[] bodyBytes = body != null ? body.getBytes(StandardCharsets.UTF_8) : new byte[0];
+
+		HttpStatus status;
+		try {
+			status = HttpStatus.valueOf(statusCode);
+		} catch (IllegalArgumentException exception) {
+			throw new UnknownHttpStatusCodeException(statusCode, statusText, headers, bodyBytes, StandardCharsets.UTF_8);
+		}
+		if (status.is4xxClientError()) {
+			throw new HttpClientErrorException(status, statusText, headers, bodyBytes, StandardCharsets.UTF_8);
+		} else if (status.is5xxServerError()) {
+			throw new HttpServerErrorException(status, statusText, headers, bodyBytes, StandardCharsets.UTF_8);
+		}
+		return new ResponseEntity<String>(body, headers, status);
+	}
+
+	private ResourceAccessException ioError(HttpMethod method, URI url, IOException exception) {
+		return new ResourceAccessException(
+				String.format("I/O error on %s request for \"%s\": %s", method.name(), url, exception.getMessage()), exception);
+	}
+}
@@ -0,0 +1,52 @@
+/*******************************************************************************
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.venice.piazza.servicecontroller.execution;
+
+import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+import org.venice.piazza.servicecontroller.data.model.ServiceExecutionPolicy;
+
+/**
+ * HTTP engine that calls services on the calling Thread with a RestTemplate, as the Service Controller did before the
+ * async engine was introduced. The per-service timeouts of the execution policy are not applied. Enabled with
+ * execution.http.engine=blocking.
+ *
+ * @version 1.0
+ */
+@Component
+@ConditionalOnProperty(name = "execution.http.engine", havingValue = "blocking")
+public class BlockingServiceHttpEngine implements ServiceHttpEngine {
+	private RestTemplate template = new RestTemplate();
+
+	@Override
+	public CompletableFuture<ResponseEntity<String>> execute(HttpMethod method, URI url, HttpEntity<String> request,
+			ServiceExecutionPolicy policy) {
+		CompletableFuture<ResponseEntity<String>> result = new CompletableFuture<ResponseEntity<String>>();
+		try {
+			result.complete(template.exchange(url, method, request, String.class));
+		} catch (RuntimeException exception) {
+			result.completeExceptionally(exception);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,257 @@
+/*******************************************************************************
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.venice.piazza.servicecontroller.execution;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+/**
+ * Circuit breaker guarding the calls to one registered service. The outcomes of the most recent calls
+ * are kept in a fixed size window. Once enough calls have been seen, the circuit opens if too many of them failed or
+ * were slow, and calls are rejected without being sent. After the open duration a limited number of probe calls are
+ * let through; the circuit closes again if they all succeed, and opens again if any fails. Each permitted call holds a
+ * Permit recording the state it was admitted in, so that a call only counts towards the state that let it through.
+ *
+ * The calls in progress to the service are bounded by the ServiceRateLimiter, which defers calls over the bulkhead
+ * rather than failing them.
+ *
+ * @version 1.0
+ */
+@JsonPropertyOrder({ "serviceId", "state", "failureRate", "slowCallRate", "bufferedCalls", "activeCalls", "rejectedCalls" })
+public class CircuitBreaker {
+	public static final String CLOSED = "CLOSED";
+	public static final String OPEN = "OPEN";
+	public static final String HALF_OPEN = "HALF_OPEN";
+
+	private final String serviceId;
+	private final CircuitBreakerRegistry.Settings settings;
+
+	// Outcomes of the most recent calls, used as a ring buffer. Guarded by this.
+	private final boolean[] failedCalls;
+	private final boolean[] slowCalls;
+	private int nextCall = 0;
+	private int bufferedCalls = 0;
+	private int failureCount = 0;
+	private int slowCount = 0;
+
+	private String state = CLOSED;
+	private long openedTime = 0;
+	private int probesStarted = 0;
+	private int probesSucceeded = 0;
+	// Changed on every transition, so outcomes of calls admitted in an earlier state can be told apart
+	private long generation = 0;
+
+	private final AtomicInteger activeCalls = new AtomicInteger();
+	private final AtomicLong rejectedCalls = new AtomicLong();
+
+	CircuitBreaker(String serviceId, CircuitBreakerRegistry.Settings settings) {
+		this.serviceId = serviceId;
+		this.settings = settings;
+		this.failedCalls = new boolean[settings.windowSize];
+		this.slowCalls = new boolean[settings.windowSize];
+	}
+
+	/**
+	 * Asks to call the service. Every call that is permitted must be followed by a call to onComplete or onCancel with
+	 * its Permit.
+	 *
+	 * @return the Permit to send the call, or null if the circuit is open
+	 */
+	public Permit tryAcquire() {
+		Permit permit;
+		synchronized (this) {
+			if (OPEN.equals(state)) {
+				if (System.currentTimeMillis() - openedTime < settings.openDurationMs) {
+					rejectedCalls.incrementAndGet();
+					return null;
+				}
+				state = HALF_OPEN;
+				generation++;
+				probesStarted = 0;
+				probesSucceeded = 0;
+			}
+			boolean probe = HALF_OPEN.equals(state);
+			if (probe) {
+				if (probesStarted >= settings.halfOpenProbes) {
+					rejectedCalls.incrementAndGet();
+					return null;
+				}
+				probesStarted++;
+			}
+			permit = new Permit(probe, generation);
+		}
+		activeCalls.incrementAndGet();
+		return permit;
+	}
+
+	/**
+	 * Records the outcome of a permitted call. The outcome is ignored if the circuit has changed state since the call
+	 * was permitted.
+	 *
+	 * @param permit
+	 *            The Permit the call was sent with
+	 * @param durationMs
+	 *            How long the call took
+	 * @param failed
+	 *            true if the service failed, rather than rejecting the request or succeeding
+	 */
+	public void onComplete(Permit permit, long durationMs, boolean failed) {
+		activeCalls.decrementAndGet();
+		boolean slow = durationMs >= settings.slowCallMs;
+		synchronized (this) {
+			if (permit.generation != generation) {
+				// A call from before the last transition
+				return;
+			}
+			if (permit.probe) {
+				if (failed || slow) {
+					open();
+				} else if (++probesSucceeded >= settings.halfOpenProbes) {
+					close();
+				}
+				return;
+			}
+			record(failed, slow);
+			if ((bufferedCalls >= settings.minimumCalls) && ((percent(failureCount) >= settings.failureRateThreshold)
+					|| (percent(slowCount) >= settings.slowCallRateThreshold))) {
+				open();
+			}
+		}
+	}
+
+	/**
+	 * Ends a permitted call that was abandoned, such as by an aborted Job, without counting it as an outcome. An
+	 * abandoned probe can be replaced by another.
+	 */
+	public void onCancel(Permit permit) {
+		activeCalls.decrementAndGet();
+		releaseProbe(permit);
+	}
+
+	private synchronized void releaseProbe(Permit permit) {
+		if (permit.probe && (permit.generation == generation)) {
+			probesStarted--;
+		}
+	}
+
+	private void record(boolean failed, boolean slow) {
+		if (bufferedCalls == failedCalls.length) {
+			// Drop the oldest outcome
+			failureCount -= failedCalls[nextCall] ? 1 : 0;
+			slowCount -= slowCalls[nextCall] ? 1 : 0;
+		} else {
+			bufferedCalls++;
+		}
+		failedCalls[nextCall] = failed;
+		slowCalls[nextCall] = slow;
+		failureCount += failed ? 1 : 0;
+		slowCount += slow ? 1 : 0;
+		nextCall = (nextCall + 1) % failedCalls.length;
+	}
+
+	private void open() {
+		state = OPEN;
+		generation++;
+		openedTime = System.currentTimeMillis();
+	}
+
+	private void close() {
+		state = CLOSED;
+		generation++;
+		nextCall = 0;
+		bufferedCalls = 0;
+		failureCount = 0;
+		slowCount = 0;
+	}
+
+	private int percent(int count) {
+		return (bufferedCalls == 0) ? 0 : (count * 100) / bufferedCalls;
+	}
+
+	public String getServiceId() {
+		return serviceId;
+	}
+
+	/**
+	 * @return one of CLOSED, OPEN or HALF_OPEN
+	 */
+	public synchronized String getState() {
+		return state;
+	}
+
+	/**
+	 * @return the percentage of failed calls in the window
+	 */
+	public synchronized int getFailureRate() {
+		return percent(failureCount);
+	}
+
+	/**
+	 * @return the percentage of slow calls in the window
+	 */
+	public synchronized int getSlowCallRate() {
+		return percent(slowCount);
+	}
+
+	public synchronized int getBufferedCalls() {
+		return bufferedCalls;
+	}
+
+	/**
+	 * @return the calls to the service in progress
+	 */
+	public int getActiveCalls() {
+		return activeCalls.get();
+	}
+
+	/**
+	 * @return the calls rejected because the circuit was open
+	 */
+	public long getRejectedCalls() {
+		return rejectedCalls.get();
+	}
+
+	/**
+	 * Permission to send one call, recording whether it was let through as a probe and in which state of the circuit
+	 */
+	public static final class Permit {
+		private final boolean probe;
+		private final long generation;
+
+		private Permit(boolean probe, long generation) {
+			this.probe = probe;
+			this.generation = generation;
+		}
+
+		public boolean isProbe() {
+			return probe;
+		}
+	}
+
+	/**
+	 * Fails a call that was rejected because the circuit of its service is open. The call was never sent, so it is
+	 * neither retried nor counted as a response of the service.
+	 */
+	public static class CircuitOpenException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		public CircuitOpenException(String message) {
+			super(message);
+		}
+	}
+}
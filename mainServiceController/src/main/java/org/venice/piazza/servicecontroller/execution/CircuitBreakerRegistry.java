@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.venice.piazza.servicecontroller.execution;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+/**
+ * Holds a CircuitBreaker for each service that has been executed, all sharing the thresholds set by the
+ * execution.breaker properties. Only circuits that are not closed are listed in the metrics, so that they stay short
+ * when every service is healthy.
+ *
+ * @version 1.0
+ */
+@Component
+public class CircuitBreakerRegistry implements PublicMetrics {
+	private static final String METRIC_PREFIX = "servicecontroller.breaker.";
+
+	@Value("${execution.breaker.window.size}")
+	private int windowSize;
+	@Value("${execution.breaker.minimum.calls}")
+	private int minimumCalls;
+	@Value("${execution.breaker.failure.rate.threshold}")
+	private int failureRateThreshold;
+	@Value("${execution.breaker.slow.call.ms}")
+	private long slowCallMs;
+	@Value("${execution.breaker.slow.call.rate.threshold}")
+	private int slowCallRateThreshold;
+	@Value("${execution.breaker.open.duration.ms}")
+	private long openDurationMs;
+	@Value("${execution.breaker.half.open.probes}")
+	private int halfOpenProbes;
+
+	private Settings settings;
+	private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<String, CircuitBreaker>();
+
+	@PostConstruct
+	public void initialize() {
+		settings = new Settings();
+		settings.windowSize = Math.max(1, windowSize);
+		settings.minimumCalls = Math.max(1, Math.min(minimumCalls, settings.windowSize));
+		settings.failureRateThreshold = failureRateThreshold;
+		settings.slowCallMs = slowCallMs;
+		settings.slowCallRateThreshold = slowCallRateThreshold;
+		settings.openDurationMs = openDurationMs;
+		settings.halfOpenProbes = Math.max(1, halfOpenProbes);
+	}
+
+	/**
+	 * @return the circuit breaker of the service, created closed on first use
+	 */
+	public CircuitBreaker get(String serviceId) {
+		CircuitBreaker breaker = breakers.get(serviceId);
+		if (breaker == null) {
+			breakers.putIfAbsent(serviceId, new CircuitBreaker(serviceId, settings));
+			breaker = breakers.get(serviceId);
+		}
+		return breaker;
+	}
+
+	public List<CircuitBreaker> getCircuitBreakers() {
+		return new ArrayList<CircuitBreaker>(breakers.values());
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		Collection<Metric<?>> metrics = new ArrayList<Metric<?>>();
+		int open = 0;
+		int halfOpen = 0;
+		long rejected = 0;
+		for (CircuitBreaker breaker : breakers.values()) {
+			String state = breaker.getState();
+			if (CircuitBreaker.OPEN.equals(state)) {
+				open++;
+			} else if (CircuitBreaker.HALF_OPEN.equals(state)) {
+				halfOpen++;
+			}
+			if (!CircuitBreaker.CLOSED.equals(state)) {
+				// 1 for half open, 2 for open
+				metrics.add(new Metric<Integer>(METRIC_PREFIX + "service." + breaker.getServiceId() + ".state",
+						CircuitBreaker.OPEN.equals(state) ? 2 : 1));
+			}
+			rejected += breaker.getRejectedCalls();
+		}
+		metrics.add(new Metric<Integer>(METRIC_PREFIX + "services", breakers.size()));
+		metrics.add(new Metric<Integer>(METRIC_PREFIX + "open", open));
+		metrics.add(new Metric<Integer>(METRIC_PREFIX + "halfOpen", halfOpen));
+		metrics.add(new Metric<Long>(METRIC_PREFIX + "rejected", rejected));
+		return metrics;
+	}
+
+	/**
+	 * Thresholds shared by all circuit breakers
+	 */
+	static class Settings {
+		int windowSize;
+		int minimumCalls;
+		int failureRateThreshold;
+		long slowCallMs;
+		int slowCallRateThreshold;
+		long openDurationMs;
+		int halfOpenProbes;
+	}
+}
@@ -0,0 +1,286 @@
+/*******************************************************************************
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.venice.piazza.servicecontroller.execution;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.util.UriComponents;
+import org.springframework.web.util.UriComponentsBuilder;
+import org.venice.piazza.servicecontroller.data.model.ServiceExecutionPolicy;
+
+import util.PiazzaLogger;
+
+/**
+ * Balances the calls to a service across the endpoints listed in its execution policy, so that the replicas of a
+ * service share its load without an external load balancer. Each call is sent to the scheme, host and port of the
+ * chosen endpoint, keeping the path and query of the registered URL. The endpoint is chosen by one of:
+ *
+ * ROUND_ROBIN: each endpoint in turn. LEAST_OUTSTANDING: the endpoint with the fewest calls in progress. EWMA: the
+ * endpoint with the lowest recent response time, weighted by its calls in progress.
+ *
+ * Endpoints are ejected for a time after consecutive failures, and are not chosen while ejected unless every endpoint
+ * of the service is. Ejections are counted, so that a flapping replica can be spotted.
+ *
+ * @version 1.0
+ */
+@Component
+public class EndpointBalancer implements PublicMetrics {
+	public static final String ROUND_ROBIN = "ROUND_ROBIN";
+	public static final String LEAST_OUTSTANDING = "LEAST_OUTSTANDING";
+	public static final String EWMA = "EWMA";
+	public static final List<String> STRATEGIES = Arrays.asList(ROUND_ROBIN, LEAST_OUTSTANDING, EWMA);
+	private static final String METRIC_PREFIX = "servicecontroller.endpoints.";
+
+	@Value("${execution.balancer.strategy}")
+	private String defaultStrategy;
+	@Value("${execution.balancer.ewma.alpha}")
+	private double ewmaAlpha;
+	@Value("${execution.balancer.ejection.failures}")
+	private int ejectionFailures;
+	@Value("${execution.balancer.ejection.ms}")
+	private long ejectionMs;
+
+	@Autowired
+	private PiazzaLogger coreLogger;
+
+	private final Map<String, ServiceEndpoints> services = new ConcurrentHashMap<String, ServiceEndpoints>();
+	private final AtomicLong ejections = new AtomicLong();
+
+	/**
+	 * Sends a call to one of the endpoints of a service. Services without endpoints are called at their registered URL.
+	 *
+	 * @param serviceId
+	 *            The Id of the service
+	 * @param policy
+	 *            The execution policy of the service, holding its endpoints
+	 * @param url
+	 *            The URL of the call, built from the registered URL of the service
+	 * @param call
+	 *            Sends the request to the given URL, returning a future completed with the response
+	 * @return a future completed with the response
+	 */
+	public CompletableFuture<ResponseEntity<String>> execute(String serviceId, ServiceExecutionPolicy policy, URI url,
+			Function<URI, CompletableFuture<ResponseEntity<String>>> call) {
+		List<String> endpoints = policy.getEndpoints();
+		if ((endpoints == null) || endpoints.isEmpty()) {
+			return call.apply(url);
+		}
+		String strategy = (policy.getLoadBalancing() != null) ? policy.getLoadBalancing() : defaultStrategy;
+		final EndpointState endpoint = getServiceEndpoints(serviceId).choose(endpoints, strategy);
+		endpoint.outstanding.incrementAndGet();
+		final long startTime = System.currentTimeMillis();
+		CompletableFuture<ResponseEntity<String>> response;
+		try {
+			response = call.apply(endpoint.resolve(url));
+		} catch (RuntimeException exception) {
+			endpoint.outstanding.decrementAndGet();
+			throw exception;
+		}
+		response.whenComplete((result, exception) -> {
+			endpoint.outstanding.decrementAndGet();
+			Throwable cause = (exception instanceof CompletionException) ? exception.getCause() : exception;
+			if ((cause instanceof HttpServerErrorException) || (cause instanceof ResourceAccessException)) {
+				endpoint.onFailure(serviceId);
+			} else if (!(cause instanceof CancellationException)) {
+				// Client errors are the request's fault, not the endpoint's
+				endpoint.onSuccess(System.currentTimeMillis() - startTime);
+			}
+		});
+		return response;
+	}
+
+	/**
+	 * @return the number of endpoints of the service currently ejected
+	 */
+	public int getEjectedCount(String serviceId) {
+		ServiceEndpoints serviceEndpoints = services.get(serviceId);
+		return (serviceEndpoints != null) ? serviceEndpoints.getEjectedCount() : 0;
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		Collection<Metric<?>> metrics = new ArrayList<Metric<?>>();
+		int endpoints = 0;
+		int ejected = 0;
+		int outstanding = 0;
+		for (Map.Entry<String, ServiceEndpoints> entry : services.entrySet()) {
+			int serviceEjected = entry.getValue().getEjectedCount();
+			if (serviceEjected > 0) {
+				metrics.add(new Metric<Integer>(METRIC_PREFIX + "service." + entry.getKey() + ".ejected", serviceEjected));
+			}
+			for (EndpointState endpoint : entry.getValue().endpoints.values()) {
+				outstanding += endpoint.outstanding.get();
+			}
+			endpoints += entry.getValue().endpoints.size();
+			ejected += serviceEjected;
+		}
+		metrics.add(new Metric<Integer>(METRIC_PREFIX + "count", endpoints));
+		metrics.add(new Metric<Integer>(METRIC_PREFIX + "outstanding", outstanding));
+		metrics.add(new Metric<Integer>(METRIC_PREFIX + "ejected", ejected));
+		metrics.add(new Metric<Long>(METRIC_PREFIX + "ejections", ejections.get()));
+		return metrics;
+	}
+
+	private ServiceEndpoints getServiceEndpoints(String serviceId) {
+		ServiceEndpoints serviceEndpoints = services.get(serviceId);
+		if (serviceEndpoints == null) {
+			services.putIfAbsent(serviceId, new ServiceEndpoints());
+			serviceEndpoints = services.get(serviceId);
+		}
+		return serviceEndpoints;
+	}
+
+	/**
+	 * The endpoints of one service
+	 */
+	private class ServiceEndpoints {
+		private final Map<String, EndpointState> endpoints = new ConcurrentHashMap<String, EndpointState>();
+		private final AtomicInteger nextEndpoint = new AtomicInteger();
+
+		EndpointState choose(List<String> urls, String strategy) {
+			if (endpoints.size() > urls.size()) {
+				// Forget the endpoints removed from the policy
+				endpoints.keySet().retainAll(urls);
+			}
+			long now = System.currentTimeMillis();
+			List<EndpointState> candidates = new ArrayList<EndpointState>(urls.size());
+			for (String endpointUrl : urls) {
+				EndpointState endpoint = getEndpoint(endpointUrl);
+				if (!endpoint.isEjected(now)) {
+					candidates.add(endpoint);
+				}
+			}
+			if (candidates.isEmpty()) {
+				// Every endpoint is ejected; spread the calls rather than failing them all
+				for (String endpointUrl : urls) {
+					candidates.add(getEndpoint(endpointUrl));
+				}
+			}
+			if (LEAST_OUTSTANDING.equals(strategy) || EWMA.equals(strategy)) {
+				// Start from a rotating position so that ties are spread
+				int start = Math.floorMod(nextEndpoint.getAndIncrement(), candidates.size());
+				EndpointState best = null;
+				double bestScore = Double.MAX_VALUE;
+				for (int i = 0; i < candidates.size(); i++) {
+					EndpointState endpoint = candidates.get((start + i) % candidates.size());
+					double score = LEAST_OUTSTANDING.equals(strategy) ? endpoint.outstanding.get()
+							: Math.max(1, endpoint.getLatency()) * (endpoint.outstanding.get() + 1);
+					if (score < bestScore) {
+						best = endpoint;
+						bestScore = score;
+					}
+				}
+				return best;
+			}
+			return candidates.get(Math.floorMod(nextEndpoint.getAndIncrement(), candidates.size()));
+		}
+
+		int getEjectedCount() {
+			long now = System.currentTimeMillis();
+			int ejected = 0;
+			for (EndpointState endpoint : endpoints.values()) {
+				if (endpoint.isEjected(now)) {
+					ejected++;
+				}
+			}
+			return ejected;
+		}
+
+		private EndpointState getEndpoint(String endpointUrl) {
+			EndpointState endpoint = endpoints.get(endpointUrl);
+			if (endpoint == null) {
+				endpoints.putIfAbsent(endpointUrl, new EndpointState(endpointUrl));
+				endpoint = endpoints.get(endpointUrl);
+			}
+			return endpoint;
+		}
+	}
+
+	/**
+	 * The calls in progress, response time and health of one endpoint
+	 */
+	private class EndpointState {
+		private final String url;
+		private final UriComponents base;
+		private final AtomicInteger outstanding = new AtomicInteger();
+		// Guarded by this
+		private double latency = 0;
+		private int consecutiveFailures = 0;
+		private long ejectedUntil = 0;
+
+		EndpointState(String url) {
+			this.url = url;
+			this.base = UriComponentsBuilder.fromHttpUrl(url).build();
+		}
+
+		/**
+		 * @return the URL of the call, sent to this endpoint
+		 */
+		URI resolve(URI url) {
+			return UriComponentsBuilder.fromUri(url).scheme(base.getScheme()).host(base.getHost()).port(base.getPort()).build(true)
+					.toUri();
+		}
+
+		synchronized boolean isEjected(long now) {
+			return ejectedUntil > now;
+		}
+
+		/**
+		 * @return the exponentially weighted moving average of the response times, in milliseconds
+		 */
+		synchronized double getLatency() {
+			return latency;
+		}
+
+		synchronized void onSuccess(long durationMs) {
+			consecutiveFailures = 0;
+			latency = (latency == 0) ? durationMs : (ewmaAlpha * durationMs) + ((1 - ewmaAlpha) * latency);
+		}
+
+		void onFailure(String serviceId) {
+			synchronized (this) {
+				if ((++consecutiveFailures < ejectionFailures) || isEjected(System.currentTimeMillis())) {
+					return;
+				}
+				consecutiveFailures = 0;
+				ejectedUntil = System.currentTimeMillis() + ejectionMs;
+			}
+			ejections.incrementAndGet();
+			coreLogger.log(String.format("Ejected endpoint %s of Service ID %s for %s ms after %s consecutive failures.", url,
+					serviceId, ejectionMs, ejectionFailures), PiazzaLogger.WARNING);
+		}
+	}
+}
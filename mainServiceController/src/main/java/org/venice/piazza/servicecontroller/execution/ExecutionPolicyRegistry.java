@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.venice.piazza.servicecontroller.execution;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.venice.piazza.servicecontroller.data.model.ServiceExecutionPolicy;
+import org.venice.piazza.servicecontroller.data.mongodb.accessors.MongoAccessor;
+
+import util.PiazzaLogger;
+
+/**
+ * Holds the execution policies of all registered services in memory so that executing a service does not require an
+ * extra database lookup. Policies are loaded at startup and written through to MongoDB when changed.
+ */
+@Component
+public class ExecutionPolicyRegistry {
+	@Autowired
+	private MongoAccessor accessor;
+	@Autowired
+	private PiazzaLogger coreLogger;
+
+	private final Map<String, ServiceExecutionPolicy> policies = new ConcurrentHashMap<String, ServiceExecutionPolicy>();
+
+	@PostConstruct
+	public void initialize() {
+		reload();
+	}
+
+	/**
+	 * Replaces the in-memory policies with the ones currently stored in MongoDB
+	 */
+	public void reload() {
+		try {
+			Map<String, ServiceExecutionPolicy> loaded = new ConcurrentHashMap<String, ServiceExecutionPolicy>();
+			for (ServiceExecutionPolicy policy : accessor.listExecutionPolicies()) {
+				loaded.put(policy.getServiceId(), policy);
+			}
+			policies.keySet().retainAll(loaded.keySet());
+			policies.putAll(loaded);
+			coreLogger.log(String.format("Loaded %s service execution policies", loaded.size()), PiazzaLogger.INFO);
+		} catch (Exception exception) {
+			coreLogger.log(String.format("Could not load service execution policies: %s", exception.getMessage()),
+					PiazzaLogger.ERROR);
+		}
+	}
+
+	/**
+	 * Re-reads the execution policy of a single service from MongoDB, after it was changed by another instance
+	 *
+	 * @param serviceId
+	 *            The Id of the service
+	 */
+	public void refreshPolicy(String serviceId) {
+		try {
+			ServiceExecutionPolicy policy = accessor.getExecutionPolicy(serviceId);
+			if (policy != null) {
+				policies.put(serviceId, policy);
+			} else {
+				policies.remove(serviceId);
+			}
+		} catch (Exception exception) {
+			coreLogger.log(String.format("Could not refresh execution policy of Service %s: %s", serviceId,
+					exception.getMessage()), PiazzaLogger.ERROR);
+		}
+	}
+
+	/**
+	 * Gets the execution policy for a service.
+	 *
+	 * @param serviceId
+	 *            The Id of the service
+	 * @return The policy of the service. If none has been stored, an empty policy which uses the defaults.
+	 */
+	public ServiceExecutionPolicy getPolicy(String serviceId) {
+		ServiceExecutionPolicy policy = policies.get(serviceId);
+		return policy != null ? policy : new ServiceExecutionPolicy(serviceId);
+	}
+
+	/**
+	 * Stores the execution policy for a service
+	 *
+	 * @param policy
+	 *            The policy to store. Its serviceId determines the service it applies to.
+	 */
+	public void setPolicy(ServiceExecutionPolicy policy) {
+		accessor.saveExecutionPolicy(policy);
+		policies.put(policy.getServiceId(), policy);
+	}
+
+	/**
+	 * Removes the execution policy of a service, reverting it to the defaults
+	 *
+	 * @param serviceId
+	 *            The Id of the service
+	 */
+	public void removePolicy(String serviceId) {
+		accessor.deleteExecutionPolicy(serviceId);
+		policies.remove(serviceId);
+	}
+}
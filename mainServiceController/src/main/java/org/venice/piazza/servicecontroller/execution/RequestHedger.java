@@ -0,0 +1,372 @@
+/*******************************************************************************
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.venice.piazza.servicecontroller.execution;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.venice.piazza.servicecontroller.data.model.ServiceExecutionPolicy;
+
+/**
+ * Sends hedged requests to GET services whose execution policy enables hedging. If the first request has not
+ * responded after the usual latency of the service, taken as a percentile of its recent response times, a second
+ * request is sent. The first successful response is used and the other request is cancelled. Failures, and responses
+ * with a status other than 2xx, do not win: the call only ends with one if no other request is outstanding.
+ *
+ * Hedges are limited to a percentage of the calls, so that a service that slows down as a whole does not receive twice
+ * its load. The hedge timer hands each hedge to a fixed pool of execution.hedge.call.threads, without a queue. A hedge
+ * is only worth sending straight away, so one that finds every Thread busy is dropped and its call continues with the
+ * first request. The hedges sent, won and dropped are reported as metrics, to tune the percentile.
+ *
+ * @version 1.0
+ */
+@Component
+public class RequestHedger implements PublicMetrics {
+	private static final String METRIC_PREFIX = "servicecontroller.hedge.";
+
+	@Value("${execution.hedge.percentile}")
+	private int percentile;
+	@Value("${execution.hedge.window.size}")
+	private int windowSize;
+	@Value("${execution.hedge.min.samples}")
+	private int minSamples;
+	@Value("${execution.hedge.default.delay.ms}")
+	private long defaultDelayMs;
+	@Value("${execution.hedge.min.delay.ms}")
+	private long minDelayMs;
+	@Value("${execution.hedge.max.percent}")
+	private int maxHedgePercent;
+	@Value("${execution.hedge.call.threads}")
+	private int callThreads;
+
+	private final Map<String, LatencyWindow> latencies = new ConcurrentHashMap<String, LatencyWindow>();
+	private ScheduledExecutorService hedgeTimer;
+	private ThreadPoolExecutor callExecutor;
+
+	private final AtomicLong calls = new AtomicLong();
+	private final AtomicLong hedges = new AtomicLong();
+	private final AtomicLong hedgeWins = new AtomicLong();
+	private final AtomicLong budgetExceeded = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+
+	@PostConstruct
+	public void initialize() {
+		hedgeTimer = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("RequestHedge-"));
+		callExecutor = new ThreadPoolExecutor(callThreads, callThreads, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+				new CustomizableThreadFactory("RequestHedgeCall-"));
+		callExecutor.allowCoreThreadTimeOut(true);
+	}
+
+	@PreDestroy
+	public void close() {
+		if (hedgeTimer != null) {
+			hedgeTimer.shutdownNow();
+		}
+		if (callExecutor != null) {
+			callExecutor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Sends a call to a service, hedging it if the service is a hedged GET service
+	 *
+	 * @param serviceId
+	 *            The Id of the service
+	 * @param method
+	 *            The HTTP method of the call
+	 * @param policy
+	 *            The execution policy of the service
+	 * @param call
+	 *            Sends one request, returning a future completed with the response
+	 * @return a future completed with the first successful response, or with the failure once every request sent has
+	 *         failed. Cancelling it cancels the requests in progress.
+	 */
+	public CompletableFuture<ResponseEntity<String>> execute(String serviceId, HttpMethod method, ServiceExecutionPolicy policy,
+			Supplier<CompletableFuture<ResponseEntity<String>>> call) {
+		if (!HttpMethod.GET.equals(method) || !Boolean.TRUE.equals(policy.getHedged())) {
+			return call.get();
+		}
+		calls.incrementAndGet();
+		final HedgedCall hedgedCall = new HedgedCall(getLatencyWindow(serviceId), call);
+		hedgedCall.result.whenComplete((response, exception) -> {
+			if (hedgedCall.result.isCancelled()) {
+				hedgedCall.cancel();
+			}
+		});
+		hedgedCall.start(getHedgeDelay(serviceId));
+		return hedgedCall.result;
+	}
+
+	/**
+	 * @return the time to wait for a response before hedging a call to the service: the configured percentile of its
+	 *         recent response times, or the default until enough responses have been seen
+	 */
+	public long getHedgeDelay(String serviceId) {
+		long delay = getLatencyWindow(serviceId).getPercentile(percentile, minSamples);
+		return Math.max(minDelayMs, (delay >= 0) ? delay : defaultDelayMs);
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		Collection<Metric<?>> metrics = new ArrayList<Metric<?>>();
+		long callCount = calls.get();
+		long hedgeCount = hedges.get();
+		metrics.add(new Metric<Long>(METRIC_PREFIX + "calls", callCount));
+		metrics.add(new Metric<Long>(METRIC_PREFIX + "sent", hedgeCount));
+		metrics.add(new Metric<Long>(METRIC_PREFIX + "won", hedgeWins.get()));
+		metrics.add(new Metric<Long>(METRIC_PREFIX + "budget.exceeded", budgetExceeded.get()));
+		metrics.add(new Metric<Long>(METRIC_PREFIX + "dropped", dropped.get()));
+		metrics.add(new Metric<Double>(METRIC_PREFIX + "rate", (callCount > 0) ? (hedgeCount * 100.0) / callCount : 0.0));
+		for (Map.Entry<String, LatencyWindow> entry : latencies.entrySet()) {
+			long delay = entry.getValue().getPercentile(percentile, minSamples);
+			if (delay >= 0) {
+				metrics.add(new Metric<Long>(METRIC_PREFIX + "service." + entry.getKey() + ".delay", Math.max(minDelayMs, delay)));
+			}
+		}
+		return metrics;
+	}
+
+	private LatencyWindow getLatencyWindow(String serviceId) {
+		LatencyWindow window = latencies.get(serviceId);
+		if (window == null) {
+			latencies.putIfAbsent(serviceId, new LatencyWindow(Math.max(1, windowSize)));
+			window = latencies.get(serviceId);
+		}
+		return window;
+	}
+
+	/**
+	 * Takes a place in the hedge budget, if the hedges sent are below the allowed percentage of calls
+	 */
+	private boolean acquireHedge() {
+		while (true) {
+			long hedgeCount = hedges.get();
+			if (((hedgeCount + 1) * 100) > (calls.get() * maxHedgePercent)) {
+				budgetExceeded.incrementAndGet();
+				return false;
+			}
+			if (hedges.compareAndSet(hedgeCount, hedgeCount + 1)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * The response times of the most recent successful calls to one service
+	 */
+	private static class LatencyWindow {
+		// Guarded by this
+		private final long[] samples;
+		private int next = 0;
+		private int count = 0;
+
+		LatencyWindow(int size) {
+			samples = new long[size];
+		}
+
+		synchronized void record(long durationMs) {
+			samples[next] = durationMs;
+			next = (next + 1) % samples.length;
+			count = Math.min(count + 1, samples.length);
+		}
+
+		/**
+		 * @return the percentile of the response times, or -1 if fewer than the minimum have been recorded
+		 */
+		long getPercentile(int percentile, int minSamples) {
+			long[] sorted;
+			synchronized (this) {
+				if ((count == 0) || (count < minSamples)) {
+					return -1;
+				}
+				sorted = Arrays.copyOf(samples, count);
+			}
+			Arrays.sort(sorted);
+			int index = (int) Math.ceil((percentile / 100.0) * sorted.length) - 1;
+			return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+		}
+	}
+
+	/**
+	 * The first request and the hedge sent for one call
+	 */
+	private class HedgedCall {
+		private final LatencyWindow latency;
+		private final Supplier<CompletableFuture<ResponseEntity<String>>> call;
+		private final CompletableFuture<ResponseEntity<String>> result = new CompletableFuture<ResponseEntity<String>>();
+		private volatile CompletableFuture<ResponseEntity<String>> primary;
+		private volatile CompletableFuture<ResponseEntity<String>> hedge;
+		private volatile ScheduledFuture<?> timer;
+		// Guarded by this
+		private int outstanding = 0;
+		private boolean hedgeDecided = false;
+
+		HedgedCall(LatencyWindow latency, Supplier<CompletableFuture<ResponseEntity<String>>> call) {
+			this.latency = latency;
+			this.call = call;
+		}
+
+		void start(long hedgeDelay) {
+			synchronized (this) {
+				outstanding = 1;
+			}
+			primary = send(false);
+			if (!result.isDone()) {
+				try {
+					timer = hedgeTimer.schedule(this::handOffHedge, hedgeDelay, TimeUnit.MILLISECONDS);
+				} catch (RuntimeException rejected) {
+					// Shutting down; the call continues unhedged
+				}
+			}
+		}
+
+		private void handOffHedge() {
+			try {
+				// The timer also fires the hedges of other calls, so it must not wait for this one to be sent
+				callExecutor.execute(this::sendHedge);
+			} catch (RejectedExecutionException rejected) {
+				// Every hedge Thread is busy, or shutting down; the call continues unhedged
+				dropped.incrementAndGet();
+			}
+		}
+
+		private void sendHedge() {
+			synchronized (this) {
+				if (hedgeDecided || result.isDone()) {
+					return;
+				}
+				hedgeDecided = true;
+				if (!acquireHedge()) {
+					return;
+				}
+				outstanding++;
+			}
+			hedge = send(true);
+			if (result.isDone()) {
+				hedge.cancel(true);
+			}
+		}
+
+		private CompletableFuture<ResponseEntity<String>> send(final boolean isHedge) {
+			final long startTime = System.currentTimeMillis();
+			CompletableFuture<ResponseEntity<String>> response;
+			try {
+				response = call.get();
+			} catch (RuntimeException exception) {
+				response = new CompletableFuture<ResponseEntity<String>>();
+				response.completeExceptionally(exception);
+			}
+			response.whenComplete((value, exception) -> {
+				if (exception == null) {
+					onSuccess(isHedge, value, System.currentTimeMillis() - startTime);
+				} else {
+					onFailure(exception);
+				}
+			});
+			return response;
+		}
+
+		private void onSuccess(boolean isHedge, ResponseEntity<String> response, long durationMs) {
+			if (!response.getStatusCode().is2xxSuccessful()) {
+				// Not a usable response; it only stands if the other request fails as well
+				if (onAttemptFailed()) {
+					result.complete(response);
+				}
+				return;
+			}
+			if (!result.complete(response)) {
+				return;
+			}
+			latency.record(durationMs);
+			if (isHedge) {
+				hedgeWins.incrementAndGet();
+			}
+			cancel();
+		}
+
+		private void onFailure(Throwable exception) {
+			if (onAttemptFailed()) {
+				result.completeExceptionally(
+						(exception instanceof CompletionException) && (exception.getCause() != null) ? exception.getCause() : exception);
+			}
+		}
+
+		/**
+		 * Records a request that failed or returned an unsuccessful status. The latency of such requests is not recorded.
+		 * 
+		 * @return true if no other request is outstanding, and the outcome of this one is the result of the call
+		 */
+		private boolean onAttemptFailed() {
+			boolean failed;
+			synchronized (this) {
+				outstanding--;
+				// No hedge is sent once the first request has failed; the failure is returned to be retried
+				hedgeDecided = true;
+				failed = (outstanding == 0);
+			}
+			if (failed) {
+				cancelTimer();
+			}
+			return failed;
+		}
+
+		/**
+		 * Cancels the hedge timer and the requests still in progress. Completed requests are not affected.
+		 */
+		void cancel() {
+			cancelTimer();
+			CompletableFuture<ResponseEntity<String>> request = primary;
+			if (request != null) {
+				request.cancel(true);
+			}
+			request = hedge;
+			if (request != null) {
+				request.cancel(true);
+			}
+		}
+
+		private void cancelTimer() {
+			ScheduledFuture<?> pendingTimer = timer;
+			if (pendingTimer != null) {
+				pendingTimer.cancel(false);
+			}
+		}
+	}
+}
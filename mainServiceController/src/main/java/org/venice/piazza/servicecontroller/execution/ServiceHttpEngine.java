@@ -0,0 +1,52 @@
+/*******************************************************************************
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.venice.piazza.servicecontroller.execution;
+
+import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.venice.piazza.servicecontroller.data.model.ServiceExecutionPolicy;
+
+/**
+ * Interface for the HTTP engine used to call registered services. The engine in use is selected with the
+ * execution.http.engine property.
+ *
+ * Implementations complete the returned future exceptionally with the same exceptions RestTemplate throws:
+ * HttpClientErrorException for 4xx responses, HttpServerErrorException for 5xx responses and ResourceAccessException
+ * for I/O errors. Cancelling the future aborts the request.
+ *
+ * @version 1.0
+ */
+public interface ServiceHttpEngine {
+	/**
+	 * Sends a request to a registered service.
+	 *
+	 * @param method
+	 *            The HTTP method
+	 * @param url
+	 *            The full URL, including query parameters
+	 * @param request
+	 *            The headers and optional body of the request
+	 * @param policy
+	 *            The execution policy of the service, used for timeouts
+	 * @return a future completed with the response of the service
+	 */
+	public CompletableFuture<ResponseEntity<String>> execute(HttpMethod method, URI url, HttpEntity<String> request,
+			ServiceExecutionPolicy policy);
+}
@@ -0,0 +1,378 @@
+/*******************************************************************************
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.venice.piazza.servicecontroller.execution;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.venice.piazza.servicecontroller.data.model.ServiceExecutionPolicy;
+
+/**
+ * Enforces the concurrency and rate limits declared in the execution policy of each service. Services that do not
+ * declare a concurrency limit are bounded by the execution.bulkhead.max.concurrent default, so that a hanging service
+ * cannot take every call in progress; a default of 0 or less leaves them unbounded. Calls over any limit are
+ * deferred: they wait in order of arrival and are sent as soon as a call to the service completes or the token
+ * bucket refills. The rate limit is a token bucket holding up to one second of requests, so short bursts are sent at
+ * once while the average rate is kept.
+ *
+ * A waiting call still holds the Worker Thread of its Job, which blocks until the response arrives. The consumers
+ * therefore only start as many Jobs of a service as it may have calls in progress, so only a few Workers wait on each
+ * service and one slow or limited service cannot take the whole Worker pool. Calls that do not come from the consumers,
+ * such as hedges and retries, are bounded by execution.limits.max.waiting instead: once that many calls wait on a
+ * service, further calls are failed with a CallRejectedException.
+ *
+ * A deferred call is sent by whichever Thread frees its place, either the refill timer or the completion of another
+ * call, neither of which may block on it. It is handed to a small pool of execution.limits.call.threads, with a queue
+ * of execution.limits.call.queue.capacity, and rejected in the same way if both are full.
+ *
+ * @version 1.0
+ */
+@Component
+public class ServiceRateLimiter implements PublicMetrics {
+	private static final String METRIC_PREFIX = "servicecontroller.limits.";
+
+	@Value("${execution.bulkhead.max.concurrent}")
+	private int defaultMaxConcurrentCalls;
+	@Value("${execution.limits.max.waiting}")
+	private int maxWaitingCalls;
+	@Value("${execution.limits.call.threads}")
+	private int callThreads;
+	@Value("${execution.limits.call.queue.capacity}")
+	private int callQueueCapacity;
+
+	private final Map<String, ServiceLimit> limits = new ConcurrentHashMap<String, ServiceLimit>();
+	private final AtomicLong deferredCalls = new AtomicLong();
+	private final AtomicLong rejectedCalls = new AtomicLong();
+	private ScheduledExecutorService refillExecutor;
+	private ThreadPoolExecutor callExecutor;
+
+	@PostConstruct
+	public void initialize() {
+		refillExecutor = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("ServiceRateLimiter-"));
+		callExecutor = new ThreadPoolExecutor(callThreads, callThreads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(callQueueCapacity), new CustomizableThreadFactory("ServiceRateLimiterCall-"));
+		callExecutor.allowCoreThreadTimeOut(true);
+	}
+
+	@PreDestroy
+	public void close() {
+		if (refillExecutor != null) {
+			refillExecutor.shutdownNow();
+		}
+		if (callExecutor != null) {
+			callExecutor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Sends a call to a service once its limits allow it. Services without limits are called immediately.
+	 *
+	 * @param serviceId
+	 *            The Id of the service
+	 * @param policy
+	 *            The execution policy of the service, holding its limits
+	 * @param call
+	 *            Sends the request, returning a future completed with the response
+	 * @return a future completed with the response. Cancelling it removes a waiting call, or cancels a sent one.
+	 */
+	public CompletableFuture<ResponseEntity<String>> submit(String serviceId, ServiceExecutionPolicy policy,
+			Supplier<CompletableFuture<ResponseEntity<String>>> call) {
+		ServiceLimit limit = limits.get(serviceId);
+		if ((limit == null) && !isLimited(policy)) {
+			return call.get();
+		}
+		if (limit == null) {
+			limits.putIfAbsent(serviceId, new ServiceLimit(serviceId));
+			limit = limits.get(serviceId);
+		}
+		return limit.submit(policy, call);
+	}
+
+	/**
+	 * @return the calls to the service currently in progress, counted only once the service has limits
+	 */
+	public int getActiveCalls(String serviceId) {
+		ServiceLimit limit = limits.get(serviceId);
+		return (limit != null) ? limit.getActive() : 0;
+	}
+
+	/**
+	 * @return the calls to the service waiting for its limits
+	 */
+	public int getWaitingCalls(String serviceId) {
+		ServiceLimit limit = limits.get(serviceId);
+		return (limit != null) ? limit.getWaiting() : 0;
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		Collection<Metric<?>> metrics = new ArrayList<Metric<?>>();
+		int active = 0;
+		int waiting = 0;
+		for (ServiceLimit limit : limits.values()) {
+			int serviceWaiting = limit.getWaiting();
+			if (serviceWaiting > 0) {
+				metrics.add(new Metric<Integer>(METRIC_PREFIX + "service." + limit.serviceId + ".waiting", serviceWaiting));
+			}
+			active += limit.getActive();
+			waiting += serviceWaiting;
+		}
+		metrics.add(new Metric<Integer>(METRIC_PREFIX + "services", limits.size()));
+		metrics.add(new Metric<Integer>(METRIC_PREFIX + "active", active));
+		metrics.add(new Metric<Integer>(METRIC_PREFIX + "waiting", waiting));
+		metrics.add(new Metric<Long>(METRIC_PREFIX + "deferred", deferredCalls.get()));
+		metrics.add(new Metric<Long>(METRIC_PREFIX + "rejected", rejectedCalls.get()));
+		return metrics;
+	}
+
+	/**
+	 * @return the calls to the service allowed in progress at once, from its policy or else the bulkhead default, or
+	 *         null if unbounded
+	 */
+	public Integer getMaxConcurrentCalls(ServiceExecutionPolicy policy) {
+		if (policy.getMaxConcurrentCalls() != null) {
+			return policy.getMaxConcurrentCalls();
+		}
+		return (defaultMaxConcurrentCalls > 0) ? defaultMaxConcurrentCalls : null;
+	}
+
+	private boolean isLimited(ServiceExecutionPolicy policy) {
+		return (getMaxConcurrentCalls(policy) != null) || (policy.getRequestsPerSecond() != null);
+	}
+
+	/**
+	 * The calls in progress, the waiting calls and the token bucket of one service
+	 */
+	private class ServiceLimit {
+		private final String serviceId;
+		// Guarded by this
+		private ServiceExecutionPolicy policy;
+		private final Deque<PendingCall> waiting = new ArrayDeque<PendingCall>();
+		private int active = 0;
+		private double tokens = Double.MAX_VALUE;
+		private long lastRefillTime = System.nanoTime();
+		private boolean refillScheduled = false;
+
+		ServiceLimit(String serviceId) {
+			this.serviceId = serviceId;
+		}
+
+		CompletableFuture<ResponseEntity<String>> submit(ServiceExecutionPolicy policy,
+				Supplier<CompletableFuture<ResponseEntity<String>>> call) {
+			final PendingCall pendingCall = new PendingCall(call);
+			synchronized (this) {
+				// Pick up limits changed since the last call
+				this.policy = policy;
+				if ((maxWaitingCalls > 0) && (waiting.size() >= maxWaitingCalls)) {
+					return reject(String.format("Service Id %s has %s calls waiting. Try again later.", serviceId,
+							waiting.size()));
+				}
+				waiting.add(pendingCall);
+			}
+			pendingCall.result.whenComplete((response, exception) -> {
+				if (pendingCall.result.isCancelled()) {
+					cancel(pendingCall);
+				}
+			});
+			drain(pendingCall);
+			if (!pendingCall.started) {
+				deferredCalls.incrementAndGet();
+			}
+			return pendingCall.result;
+		}
+
+		synchronized int getActive() {
+			return active;
+		}
+
+		synchronized int getWaiting() {
+			return waiting.size();
+		}
+
+		/**
+		 * Sends the waiting calls that the limits now allow. The call of the current caller, if any, is sent on the
+		 * calling Thread; all others are handed to the call executor.
+		 * 
+		 * @param own
+		 *            The call submitted by the calling Thread, or null when draining after a completion or refill
+		 */
+		private void drain(PendingCall own) {
+			List<PendingCall> ready = new ArrayList<PendingCall>();
+			synchronized (this) {
+				Integer maxConcurrentCalls = getMaxConcurrentCalls(policy);
+				Double requestsPerSecond = policy.getRequestsPerSecond();
+				boolean rateLimited = (requestsPerSecond != null) && (requestsPerSecond > 0);
+				if (rateLimited) {
+					refill(requestsPerSecond);
+				}
+				while (!waiting.isEmpty()) {
+					if ((maxConcurrentCalls != null) && (active >= maxConcurrentCalls)) {
+						// Drained again when a call completes
+						break;
+					}
+					if (rateLimited && (tokens < 1)) {
+						scheduleRefill(requestsPerSecond);
+						break;
+					}
+					PendingCall pendingCall = waiting.poll();
+					if (rateLimited) {
+						tokens--;
+					}
+					active++;
+					pendingCall.started = true;
+					ready.add(pendingCall);
+				}
+			}
+			for (final PendingCall pendingCall : ready) {
+				if (pendingCall == own) {
+					start(pendingCall);
+					continue;
+				}
+				try {
+					callExecutor.execute(() -> start(pendingCall));
+				} catch (RejectedExecutionException exception) {
+					// Saturated, or shutting down
+					rejectedCalls.incrementAndGet();
+					release();
+					pendingCall.result.completeExceptionally(new CallRejectedException(
+							String.format("Service Id %s could not be called. Try again later.", serviceId)));
+				}
+			}
+		}
+
+		private void start(final PendingCall pendingCall) {
+			CompletableFuture<ResponseEntity<String>> response;
+			try {
+				response = pendingCall.call.get();
+			} catch (RuntimeException exception) {
+				release();
+				pendingCall.result.completeExceptionally(exception);
+				return;
+			}
+			pendingCall.response = response;
+			response.whenComplete((result, exception) -> {
+				release();
+				if (exception != null) {
+					pendingCall.result.completeExceptionally(
+							(exception instanceof CompletionException) && (exception.getCause() != null) ? exception.getCause() : exception);
+				} else {
+					pendingCall.result.complete(result);
+				}
+			});
+			if (pendingCall.result.isCancelled()) {
+				// Cancelled while the call was being sent
+				response.cancel(true);
+			}
+		}
+
+		private void release() {
+			synchronized (this) {
+				active--;
+			}
+			drain(null);
+		}
+
+		private void cancel(PendingCall pendingCall) {
+			synchronized (this) {
+				if (waiting.remove(pendingCall)) {
+					return;
+				}
+			}
+			CompletableFuture<ResponseEntity<String>> response = pendingCall.response;
+			if (response != null) {
+				response.cancel(true);
+			}
+		}
+
+		private CompletableFuture<ResponseEntity<String>> reject(String message) {
+			rejectedCalls.incrementAndGet();
+			CompletableFuture<ResponseEntity<String>> rejected = new CompletableFuture<ResponseEntity<String>>();
+			rejected.completeExceptionally(new CallRejectedException(message));
+			return rejected;
+		}
+
+		private void refill(double requestsPerSecond) {
+			long now = System.nanoTime();
+			double capacity = Math.max(1, requestsPerSecond);
+			tokens = Math.min(capacity, tokens + ((now - lastRefillTime) * requestsPerSecond) / TimeUnit.SECONDS.toNanos(1));
+			lastRefillTime = now;
+		}
+
+		private void scheduleRefill(double requestsPerSecond) {
+			if (refillScheduled) {
+				return;
+			}
+			refillScheduled = true;
+			long delay = (long) Math.ceil(((1 - tokens) * TimeUnit.SECONDS.toNanos(1)) / requestsPerSecond);
+			refillExecutor.schedule(() -> {
+				synchronized (this) {
+					refillScheduled = false;
+				}
+				drain(null);
+			}, delay, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/**
+	 * Fails a call that could not wait for the limits of its service, because too many calls were already waiting or
+	 * no Thread was free to send it. The call was never sent.
+	 */
+	public static class CallRejectedException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		public CallRejectedException(String message) {
+			super(message);
+		}
+	}
+
+	/**
+	 * A call waiting to be sent, and the future handed back to the caller
+	 */
+	private static class PendingCall {
+		private final Supplier<CompletableFuture<ResponseEntity<String>>> call;
+		private final CompletableFuture<ResponseEntity<String>> result = new CompletableFuture<ResponseEntity<String>>();
+		private volatile CompletableFuture<ResponseEntity<String>> response;
+		private volatile boolean started = false;
+
+		PendingCall(Supplier<CompletableFuture<ResponseEntity<String>>> call) {
+			this.call = call;
+		}
+	}
+}
@@ -0,0 +1,299 @@
+/*******************************************************************************
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.venice.piazza.servicecontroller.execution;
+
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.http.conn.ConnectTimeoutException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResourceAccessException;
+import org.venice.piazza.servicecontroller.data.model.ServiceExecutionPolicy;
+
+import util.PiazzaLogger;
+
+/**
+ * Retries service calls that failed for transient reasons, so that a connection reset does not fail the Job. Retries
+ * are scheduled on a single timer after an exponential backoff with random jitter. The timer only hands each retry to
+ * a fixed pool of execution.retry.call.threads, so that a retry that blocks cannot delay the retries of other calls.
+ * Retries that find the pool and its queue of execution.retry.call.queue.capacity full are not sent; their call fails
+ * with the failure of its last attempt. The Worker Thread of the Job still waits in the handler for the whole backoff;
+ * the number of such Workers per service is bounded by the consumers, which only start as many Jobs of a service as it
+ * may have calls in progress.
+ *
+ * A call is retried when the connection to the service could not be made, since the request was never sent. I/O errors
+ * after the request was sent, and responses with one of the execution.retry.status.codes, are only retried for
+ * idempotent calls: GET requests, and requests to services whose execution policy is marked idempotent.
+ *
+ * @version 1.0
+ */
+@Component
+public class ServiceRetryScheduler implements PublicMetrics {
+	private static final String METRIC_PREFIX = "servicecontroller.retry.";
+
+	@Value("${execution.retry.max.attempts}")
+	private int maxAttempts;
+	@Value("${execution.retry.backoff.initial.ms}")
+	private long initialBackoffMs;
+	@Value("${execution.retry.backoff.max.ms}")
+	private long maxBackoffMs;
+	@Value("${execution.retry.backoff.multiplier}")
+	private double backoffMultiplier;
+	@Value("${execution.retry.jitter}")
+	private double jitter;
+	@Value("${execution.retry.status.codes}")
+	private String retryStatusCodes;
+	@Value("${execution.retry.call.threads}")
+	private int callThreads;
+	@Value("${execution.retry.call.queue.capacity}")
+	private int callQueueCapacity;
+
+	@Autowired
+	private PiazzaLogger coreLogger;
+
+	private final Set<Integer> retryableStatusCodes = new HashSet<Integer>();
+	private ScheduledExecutorService retryTimer;
+	private ThreadPoolExecutor callExecutor;
+
+	private final AtomicLong retries = new AtomicLong();
+	private final AtomicLong succeededAfterRetry = new AtomicLong();
+	private final AtomicLong exhausted = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicInteger scheduled = new AtomicInteger();
+
+	@PostConstruct
+	public void initialize() {
+		retryableStatusCodes.clear();
+		for (String statusCode : retryStatusCodes.split(",")) {
+			if (!statusCode.trim().isEmpty()) {
+				retryableStatusCodes.add(Integer.parseInt(statusCode.trim()));
+			}
+		}
+		retryTimer = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("ExecutionRetry-"));
+		callExecutor = new ThreadPoolExecutor(callThreads, callThreads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(callQueueCapacity), new CustomizableThreadFactory("ExecutionRetryCall-"));
+		callExecutor.allowCoreThreadTimeOut(true);
+	}
+
+	@PreDestroy
+	public void close() {
+		if (retryTimer != null) {
+			retryTimer.shutdownNow();
+		}
+		if (callExecutor != null) {
+			callExecutor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Sends a call to a service, sending it again after a backoff while it fails transiently and attempts remain
+	 *
+	 * @param serviceId
+	 *            The Id of the service
+	 * @param method
+	 *            The HTTP method of the call
+	 * @param policy
+	 *            The execution policy of the service
+	 * @param call
+	 *            Sends one attempt, returning a future completed with the response
+	 * @return a future completed with the response of the last attempt. Cancelling it cancels the attempt in progress
+	 *         and any retry that is scheduled.
+	 */
+	public CompletableFuture<ResponseEntity<String>> execute(String serviceId, HttpMethod method, ServiceExecutionPolicy policy,
+			Supplier<CompletableFuture<ResponseEntity<String>>> call) {
+		if (maxAttempts <= 1) {
+			return call.get();
+		}
+		final Attempts attempts = new Attempts(serviceId,
+				HttpMethod.GET.equals(method) || Boolean.TRUE.equals(policy.getIdempotent()), call);
+		attempts.result.whenComplete((response, exception) -> {
+			if (attempts.result.isCancelled()) {
+				attempts.cancel();
+			}
+		});
+		attempts.start();
+		return attempts.result;
+	}
+
+	/**
+	 * Gets the backoff before a retry: the initial backoff grown exponentially with each attempt up to the maximum,
+	 * with a random part of it removed so that calls failing together do not all retry together
+	 *
+	 * @param attempt
+	 *            The number of attempts made so far
+	 */
+	long getBackoff(int attempt) {
+		double backoff = Math.min(maxBackoffMs, initialBackoffMs * Math.pow(backoffMultiplier, attempt - 1));
+		return (long) (backoff * (1 - (jitter * ThreadLocalRandom.current().nextDouble())));
+	}
+
+	/**
+	 * Determines if a failed attempt may be sent again
+	 */
+	boolean isRetryable(Throwable cause, boolean idempotent) {
+		if (cause instanceof HttpStatusCodeException) {
+			return idempotent && retryableStatusCodes.contains(((HttpStatusCodeException) cause).getStatusCode().value());
+		}
+		if (cause instanceof ResourceAccessException) {
+			Throwable ioError = cause.getCause();
+			return idempotent || (ioError instanceof ConnectException) || (ioError instanceof ConnectTimeoutException);
+		}
+		return false;
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		Collection<Metric<?>> metrics = new ArrayList<Metric<?>>();
+		metrics.add(new Metric<Long>(METRIC_PREFIX + "retries", retries.get()));
+		metrics.add(new Metric<Integer>(METRIC_PREFIX + "scheduled", scheduled.get()));
+		metrics.add(new Metric<Long>(METRIC_PREFIX + "succeeded", succeededAfterRetry.get()));
+		metrics.add(new Metric<Long>(METRIC_PREFIX + "exhausted", exhausted.get()));
+		metrics.add(new Metric<Long>(METRIC_PREFIX + "rejected", rejected.get()));
+		return metrics;
+	}
+
+	/**
+	 * The attempts made for one call
+	 */
+	private class Attempts {
+		private final String serviceId;
+		private final boolean idempotent;
+		private final Supplier<CompletableFuture<ResponseEntity<String>>> call;
+		private final CompletableFuture<ResponseEntity<String>> result = new CompletableFuture<ResponseEntity<String>>();
+		private volatile int attempt = 0;
+		private volatile CompletableFuture<ResponseEntity<String>> current;
+		private volatile ScheduledFuture<?> retry;
+
+		Attempts(String serviceId, boolean idempotent, Supplier<CompletableFuture<ResponseEntity<String>>> call) {
+			this.serviceId = serviceId;
+			this.idempotent = idempotent;
+			this.call = call;
+		}
+
+		void start() {
+			if (result.isDone()) {
+				return;
+			}
+			attempt++;
+			CompletableFuture<ResponseEntity<String>> response;
+			try {
+				response = call.get();
+			} catch (RuntimeException exception) {
+				response = new CompletableFuture<ResponseEntity<String>>();
+				response.completeExceptionally(exception);
+			}
+			current = response;
+			response.whenComplete(this::onAttemptComplete);
+			if (result.isCancelled()) {
+				response.cancel(true);
+			}
+		}
+
+		private void onAttemptComplete(ResponseEntity<String> response, Throwable exception) {
+			if (exception == null) {
+				if (attempt > 1) {
+					succeededAfterRetry.incrementAndGet();
+				}
+				result.complete(response);
+				return;
+			}
+			Throwable cause = ((exception instanceof CompletionException) && (exception.getCause() != null)) ? exception.getCause()
+					: exception;
+			if (result.isDone() || (cause instanceof CancellationException)) {
+				result.completeExceptionally(cause);
+				return;
+			}
+			if (!isRetryable(cause, idempotent)) {
+				result.completeExceptionally(cause);
+				return;
+			}
+			if (attempt >= maxAttempts) {
+				exhausted.incrementAndGet();
+				coreLogger.log(String.format("Execution of Service ID %s failed after %s attempts: %s", serviceId, attempt,
+						cause.getMessage()), PiazzaLogger.ERROR);
+				result.completeExceptionally(cause);
+				return;
+			}
+			long backoff = getBackoff(attempt);
+			coreLogger.log(String.format("Attempt %s of %s to execute Service ID %s failed: %s. Retrying in %s ms.", attempt,
+					maxAttempts, serviceId, cause.getMessage(), backoff), PiazzaLogger.WARNING);
+			retries.incrementAndGet();
+			scheduled.incrementAndGet();
+			try {
+				retry = retryTimer.schedule(() -> {
+					scheduled.decrementAndGet();
+					try {
+						// The timer also fires the retries of other calls, so it must not wait for this one to be sent
+						callExecutor.execute(this::start);
+					} catch (RejectedExecutionException saturated) {
+						// Too many retries in progress, or shutting down
+						rejected.incrementAndGet();
+						coreLogger.log(String.format("Retry of Service ID %s was not sent. Too many retries in progress.",
+								serviceId), PiazzaLogger.WARNING);
+						result.completeExceptionally(cause);
+					}
+				}, backoff, TimeUnit.MILLISECONDS);
+			} catch (RuntimeException rejected) {
+				// Shutting down
+				scheduled.decrementAndGet();
+				result.completeExceptionally(cause);
+				return;
+			}
+			if (result.isCancelled()) {
+				cancel();
+			}
+		}
+
+		void cancel() {
+			ScheduledFuture<?> pendingRetry = retry;
+			if ((pendingRetry != null) && pendingRetry.cancel(false)) {
+				scheduled.decrementAndGet();
+			}
+			CompletableFuture<ResponseEntity<String>> response = current;
+			if (response != null) {
+				response.cancel(true);
+			}
+		}
+	}
+}
@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.venice.piazza.servicecontroller.messaging;
+
+import java.io.IOException;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import model.job.Job;
+import model.request.PiazzaJobRequest;
+import model.status.StatusUpdate;
+
+/**
+ * Reads and writes the Kafka messages of the Job topics. The readers and writers are built once from the shared
+ * ObjectMapper, so each message skips the per-call type lookup of ObjectMapper.readValue. Unlike the shared
+ * ObjectMapper, the readers reject messages with unknown properties, as the Service Controller always has.
+ * 
+ * @version 1.0
+ */
+@Component
+public class JobMessageCodec {
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	private ObjectReader jobReader;
+	private ObjectReader jobRequestReader;
+	private ObjectWriter statusUpdateWriter;
+
+	@PostConstruct
+	public void initialize() {
+		jobReader = objectMapper.readerFor(Job.class).with(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+		jobRequestReader = objectMapper.readerFor(PiazzaJobRequest.class).with(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+		statusUpdateWriter = objectMapper.writerFor(StatusUpdate.class);
+	}
+
+	/**
+	 * Reads a Job from the execute service topic
+	 * 
+	 * @param message
+	 *            The JSON of the Job
+	 */
+	public Job readJob(String message) throws IOException {
+		return jobReader.readValue(message);
+	}
+
+	/**
+	 * Reads a Job request, such as an Abort Job
+	 * 
+	 * @param message
+	 *            The JSON of the request
+	 */
+	public PiazzaJobRequest readJobRequest(String message) throws IOException {
+		return jobRequestReader.readValue(message);
+	}
+
+	/**
+	 * Writes a status update for the Job update topic
+	 */
+	public String writeStatusUpdate(StatusUpdate statusUpdate) throws JsonProcessingException {
+		return statusUpdateWriter.writeValueAsString(statusUpdate);
+	}
+}
@@ -0,0 +1,240 @@
+/*******************************************************************************
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.venice.piazza.servicecontroller.messaging;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.errors.RetriableException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import util.PiazzaLogger;
+
+/**
+ * Sends Kafka records asynchronously and accounts for every send. Acknowledgement latencies are recorded in a
+ * histogram, transient failures of records sent with send are retried after a backoff, and records that cannot be
+ * delivered are counted as
+ * dropped per category, such as status updates or ingest requests. Records waiting for a retry are bounded by
+ * kafka.producer.retry.buffer.size, so a broker outage cannot exhaust memory; records beyond it are dropped. Callers
+ * that must know a record arrived, such as the final status of a Job, wait on the future returned by send.
+ * 
+ * @version 1.0
+ */
+@Component
+public class KafkaSender implements PublicMetrics {
+	public static final String CATEGORY_STATUS = "status";
+	public static final String CATEGORY_INGEST = "ingest";
+	private static final String METRIC_PREFIX = "servicecontroller.kafka.";
+	// Upper bounds of the acknowledgement latency histogram buckets, in milliseconds. A final bucket holds the rest.
+	private static final long[] LATENCY_BUCKETS = { 5, 10, 25, 50, 100, 250, 500, 1000, 5000 };
+
+	@Value("${kafka.producer.retry.attempts}")
+	private int retryAttempts;
+	@Value("${kafka.producer.retry.backoff.ms}")
+	private long retryBackoffMs;
+	@Value("${kafka.producer.retry.buffer.size}")
+	private int retryBufferSize;
+
+	@Autowired
+	private PiazzaLogger coreLogger;
+
+	private ScheduledExecutorService retryExecutor;
+	private final AtomicInteger buffered = new AtomicInteger();
+
+	private final AtomicLong sent = new AtomicLong();
+	private final AtomicLong acknowledged = new AtomicLong();
+	private final AtomicLong retried = new AtomicLong();
+	private final Map<String, AtomicLong> dropped = new ConcurrentHashMap<String, AtomicLong>();
+	private final AtomicLongArray latencyHistogram = new AtomicLongArray(LATENCY_BUCKETS.length + 1);
+	private final AtomicLong totalAckMillis = new AtomicLong();
+	private final AtomicLong maxAckMillis = new AtomicLong();
+
+	@PostConstruct
+	public void initialize() {
+		retryExecutor = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("KafkaSendRetry-"));
+	}
+
+	@PreDestroy
+	public void close() {
+		if (retryExecutor != null) {
+			retryExecutor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Sends a record without blocking. Failures are logged and counted rather than thrown.
+	 * 
+	 * @param producer
+	 *            The producer to send, and retry, the record with
+	 * @param record
+	 *            The record
+	 * @param category
+	 *            The kind of record, under which it is counted if dropped
+	 * @return a future completed once the record is acknowledged, or completed exceptionally if it is dropped
+	 */
+	public CompletableFuture<RecordMetadata> send(Producer<String, String> producer, ProducerRecord<String, String> record,
+			String category) {
+		CompletableFuture<RecordMetadata> acknowledgement = new CompletableFuture<RecordMetadata>();
+		send(producer, record, category, 1, retryAttempts, acknowledgement);
+		return acknowledgement;
+	}
+
+	/**
+	 * Sends a record without blocking, and without sending it again here on failure. A record sent again would follow
+	 * any later record of the same key, so records whose order matters, such as status updates, must be sent with
+	 * this method by a producer that retries itself, with a single request in flight per connection.
+	 * 
+	 * @param producer
+	 *            The producer to send the record with
+	 * @param record
+	 *            The record
+	 * @param category
+	 *            The kind of record, under which it is counted if dropped
+	 * @return a future completed once the record is acknowledged, or completed exceptionally if it is dropped
+	 */
+	public CompletableFuture<RecordMetadata> sendInOrder(Producer<String, String> producer, ProducerRecord<String, String> record,
+			String category) {
+		CompletableFuture<RecordMetadata> acknowledgement = new CompletableFuture<RecordMetadata>();
+		send(producer, record, category, 1, 1, acknowledgement);
+		return acknowledgement;
+	}
+
+	private void send(final Producer<String, String> producer, final ProducerRecord<String, String> record,
+			final String category, final int attempt, final int maxAttempts, final CompletableFuture<RecordMetadata> acknowledgement) {
+		final long sendTime = System.currentTimeMillis();
+		try {
+			producer.send(record, new Callback() {
+				@Override
+				public void onCompletion(RecordMetadata metadata, Exception exception) {
+					if (exception == null) {
+						recordAcknowledgement(System.currentTimeMillis() - sendTime);
+						acknowledgement.complete(metadata);
+					} else {
+						handleFailure(producer, record, category, attempt, maxAttempts, acknowledgement, exception);
+					}
+				}
+			});
+			sent.incrementAndGet();
+		} catch (Exception exception) {
+			handleFailure(producer, record, category, attempt, maxAttempts, acknowledgement, exception);
+		}
+	}
+
+	/**
+	 * Retries a transient failure after a backoff that grows with each attempt, while attempts and buffer space remain.
+	 * Called on the producer's I/O Thread, so the retry itself is left to the retry Thread.
+	 */
+	private void handleFailure(final Producer<String, String> producer, final ProducerRecord<String, String> record,
+			final String category, final int attempt, final int maxAttempts, final CompletableFuture<RecordMetadata> acknowledgement,
+			Exception exception) {
+		boolean retriable = (exception instanceof RetriableException) && (attempt < maxAttempts);
+		if (retriable && (buffered.incrementAndGet() <= retryBufferSize)) {
+			retried.incrementAndGet();
+			try {
+				retryExecutor.schedule(new Runnable() {
+					@Override
+					public void run() {
+						buffered.decrementAndGet();
+						send(producer, record, category, attempt + 1, maxAttempts, acknowledgement);
+					}
+				}, retryBackoffMs * attempt, TimeUnit.MILLISECONDS);
+				return;
+			} catch (Exception scheduleException) {
+				// Shutting down
+				buffered.decrementAndGet();
+			}
+		} else if (retriable) {
+			buffered.decrementAndGet();
+		}
+		droppedCounter(category).incrementAndGet();
+		coreLogger.log(String.format("Dropped %s record for key %s to topic %s after %s attempts: %s", category, record.key(),
+				record.topic(), attempt, exception.getMessage()), PiazzaLogger.ERROR);
+		acknowledgement.completeExceptionally(exception);
+	}
+
+	private AtomicLong droppedCounter(String category) {
+		AtomicLong counter = dropped.get(category);
+		if (counter == null) {
+			dropped.putIfAbsent(category, new AtomicLong());
+			counter = dropped.get(category);
+		}
+		return counter;
+	}
+
+	private void recordAcknowledgement(long ackMillis) {
+		acknowledged.incrementAndGet();
+		totalAckMillis.addAndGet(ackMillis);
+		int bucket = 0;
+		while ((bucket < LATENCY_BUCKETS.length) && (ackMillis > LATENCY_BUCKETS[bucket])) {
+			bucket++;
+		}
+		latencyHistogram.incrementAndGet(bucket);
+		long currentMax;
+		while (ackMillis > (currentMax = maxAckMillis.get()) && !maxAckMillis.compareAndSet(currentMax, ackMillis)) {
+			// Retry until the maximum is recorded
+		}
+	}
+
+	/**
+	 * @return the number of records of the category that could not be delivered
+	 */
+	public long getDroppedCount(String category) {
+		AtomicLong counter = dropped.get(category);
+		return (counter == null) ? 0 : counter.get();
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		Collection<Metric<?>> metrics = new ArrayList<Metric<?>>();
+		long acknowledgedCount = acknowledged.get();
+		metrics.add(new Metric<Long>(METRIC_PREFIX + "sent", sent.get()));
+		metrics.add(new Metric<Long>(METRIC_PREFIX + "acknowledged", acknowledgedCount));
+		metrics.add(new Metric<Long>(METRIC_PREFIX + "retried", retried.get()));
+		metrics.add(new Metric<Integer>(METRIC_PREFIX + "retry.buffered", Math.max(0, buffered.get())));
+		for (Map.Entry<String, AtomicLong> entry : dropped.entrySet()) {
+			metrics.add(new Metric<Long>(METRIC_PREFIX + "dropped." + entry.getKey(), entry.getValue().get()));
+		}
+		metrics.add(new Metric<Long>(METRIC_PREFIX + "ack.latency.mean",
+				acknowledgedCount == 0 ? 0L : totalAckMillis.get() / acknowledgedCount));
+		metrics.add(new Metric<Long>(METRIC_PREFIX + "ack.latency.max", maxAckMillis.get()));
+		for (int bucket = 0; bucket <= LATENCY_BUCKETS.length; bucket++) {
+			String bound = (bucket < LATENCY_BUCKETS.length) ? String.valueOf(LATENCY_BUCKETS[bucket]) : "inf";
+			metrics.add(new Metric<Long>(METRIC_PREFIX + "ack.latency.le." + bound, latencyHistogram.get(bucket)));
+		}
+		return metrics;
+	}
+}
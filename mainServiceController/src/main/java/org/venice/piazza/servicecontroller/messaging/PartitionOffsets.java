@@ -0,0 +1,80 @@
+/*******************************************************************************
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.venice.piazza.servicecontroller.messaging;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Future;
+
+/**
+ * Tracks the Jobs consumed from one partition that have not finished yet, in order to find the offset that can be
+ * committed. Kafka keeps a single position per partition, so the position only moves past a Job once it and every Job
+ * before it have finished, even if later Jobs finish first. Only used by the Thread polling the partition.
+ * 
+ * @version 1.0
+ */
+class PartitionOffsets {
+	// Offsets of unfinished Jobs, mapped to their Worker, or to null while the Job is held back
+	private final TreeMap<Long, Future<?>> inFlight = new TreeMap<Long, Future<?>>();
+	private long nextOffset = -1;
+	private long committedOffset = -1;
+
+	/**
+	 * Records a consumed message that has no Job to run, such as one that could not be read
+	 */
+	void skipped(long offset) {
+		nextOffset = Math.max(nextOffset, offset + 1);
+	}
+
+	/**
+	 * Records a consumed Job that is not finished until its Worker is
+	 */
+	void received(long offset) {
+		skipped(offset);
+		inFlight.put(offset, null);
+	}
+
+	void dispatched(long offset, Future<?> worker) {
+		inFlight.put(offset, worker);
+	}
+
+	/**
+	 * Drops the Jobs whose Workers are done, and returns the position after the last Job that, along with all before
+	 * it, has finished.
+	 * 
+	 * @return the position to commit, or -1 if it has not moved since the last commit
+	 */
+	long commitPosition() {
+		Iterator<Map.Entry<Long, Future<?>>> iterator = inFlight.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Future<?> worker = iterator.next().getValue();
+			if ((worker != null) && worker.isDone()) {
+				iterator.remove();
+			}
+		}
+		long position = inFlight.isEmpty() ? nextOffset : inFlight.firstKey();
+		return (position > committedOffset) ? position : -1;
+	}
+
+	void committed(long position) {
+		committedOffset = Math.max(committedOffset, position);
+	}
+
+	int getInFlightCount() {
+		return inFlight.size();
+	}
+}
@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.venice.piazza.servicecontroller.messaging;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+import org.venice.piazza.servicecontroller.data.model.RunningJob;
+
+/**
+ * Registry of the Execute Service Jobs running on this instance, keyed by Job Id. Jobs are registered by the consumer
+ * Threads once a Worker has accepted them. They are released by the Worker callback once done, or by the abort
+ * listener if cancelled before their Worker started. The running Jobs of each service are also counted, from the moment a place is reserved for them, so that
+ * a limit can be kept on each service. The metrics report the age of the oldest running Job, so that a Job stuck on a
+ * service stands out.
+ *
+ * @version 1.0
+ */
+@Component
+public class RunningJobRegistry implements PublicMetrics {
+	private static final String METRIC_PREFIX = "servicecontroller.jobs.";
+
+	private final Map<String, RunningJob> runningJobs = new ConcurrentHashMap<String, RunningJob>();
+	private final Map<String, AtomicInteger> serviceJobs = new ConcurrentHashMap<String, AtomicInteger>();
+
+	private final AtomicLong registered = new AtomicLong();
+	private final AtomicLong released = new AtomicLong();
+
+	/**
+	 * Registers a Job that a Worker has accepted, once its place among the Jobs of its service has been reserved. A
+	 * Worker that completes straight away may release the Job before it is registered, so the caller releases it again
+	 * if it has already completed.
+	 */
+	public void register(RunningJob runningJob) {
+		runningJobs.put(runningJob.getJobId(), runningJob);
+		registered.incrementAndGet();
+	}
+
+	/**
+	 * Stops tracking a Job, and frees its place among the Jobs of its service
+	 *
+	 * @return the Job, or null if it was not running
+	 */
+	public RunningJob release(String jobId) {
+		RunningJob runningJob = runningJobs.remove(jobId);
+		if (runningJob != null) {
+			released.incrementAndGet();
+			cancelReservation(runningJob.getServiceId());
+		}
+		return runningJob;
+	}
+
+	/**
+	 * Reserves a place for a Job of the service, before it is handed to a Worker. The place is freed when the Job is
+	 * released, or by cancelReservation if the Job is not registered after all.
+	 *
+	 * @param serviceId
+	 *            The Id of the service, or null if the Job has none, in which case it is not counted
+	 * @param limit
+	 *            The most Jobs of the service allowed to run at once
+	 * @return true if the place was reserved, false if the service already has its limit of Jobs
+	 */
+	public boolean tryReserve(String serviceId, int limit) {
+		if (serviceId == null) {
+			return true;
+		}
+		AtomicInteger count = serviceJobs.get(serviceId);
+		if (count == null) {
+			serviceJobs.putIfAbsent(serviceId, new AtomicInteger());
+			count = serviceJobs.get(serviceId);
+		}
+		while (true) {
+			int current = count.get();
+			if (current >= limit) {
+				return false;
+			}
+			if (count.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+	}
+
+	public void cancelReservation(String serviceId) {
+		AtomicInteger count = (serviceId != null) ? serviceJobs.get(serviceId) : null;
+		if (count != null) {
+			count.decrementAndGet();
+		}
+	}
+
+	/**
+	 * @return the Jobs of the service running, or about to be handed to a Worker
+	 */
+	public int getServiceJobCount(String serviceId) {
+		AtomicInteger count = serviceJobs.get(serviceId);
+		return (count != null) ? count.get() : 0;
+	}
+
+	/**
+	 * @return the running Job, or null if it is not running on this instance
+	 */
+	public RunningJob get(String jobId) {
+		return runningJobs.get(jobId);
+	}
+
+	public int size() {
+		return runningJobs.size();
+	}
+
+	/**
+	 * @return a snapshot of the running Jobs, oldest first
+	 */
+	public List<RunningJob> getRunningJobs() {
+		List<RunningJob> jobs = new ArrayList<RunningJob>(runningJobs.values());
+		Collections.sort(jobs, new Comparator<RunningJob>() {
+			@Override
+			public int compare(RunningJob first, RunningJob second) {
+				return Long.compare(first.getStartTime(), second.getStartTime());
+			}
+		});
+		return jobs;
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		long now = System.currentTimeMillis();
+		long oldestStart = now;
+		long totalAge = 0;
+		int count = 0;
+		for (RunningJob runningJob : runningJobs.values()) {
+			oldestStart = Math.min(oldestStart, runningJob.getStartTime());
+			totalAge += now - runningJob.getStartTime();
+			count++;
+		}
+		Collection<Metric<?>> metrics = new ArrayList<Metric<?>>();
+		metrics.add(new Metric<Integer>(METRIC_PREFIX + "running", count));
+		metrics.add(new Metric<Long>(METRIC_PREFIX + "age.max", now - oldestStart));
+		metrics.add(new Metric<Long>(METRIC_PREFIX + "age.mean", count == 0 ? 0L : totalAge / count));
+		metrics.add(new Metric<Long>(METRIC_PREFIX + "registered", registered.get()));
+		metrics.add(new Metric<Long>(METRIC_PREFIX + "released", released.get()));
+		return metrics;
+	}
+}
@@ -0,0 +1,175 @@
+/*******************************************************************************
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.venice.piazza.servicecontroller.messaging;
+
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.errors.WakeupException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.venice.piazza.servicecontroller.data.cache.ServiceCache;
+import org.venice.piazza.servicecontroller.data.model.ServiceChangeEvent;
+import org.venice.piazza.servicecontroller.execution.ExecutionPolicyRegistry;
+import org.venice.piazza.servicecontroller.util.CoreServiceProperties;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import messaging.job.KafkaClientFactory;
+import util.PiazzaLogger;
+
+/**
+ * Publishes a change event to Kafka whenever a service is registered, updated or deleted on this instance, and
+ * consumes the events of all other instances to invalidate the local service cache and execution policies. Each
+ * instance consumes with its own group, in the same way as Abort Jobs, so every instance sees every change.
+ *
+ * @version 1.0
+ */
+@Component
+public class ServiceChangeFeed {
+	public static final String SERVICE_CHANGE_TOPIC_NAME = "ServiceChange";
+
+	@Value("${SPACE}")
+	private String SPACE;
+
+	@Autowired
+	private CoreServiceProperties coreServiceProperties;
+	@Autowired
+	private PiazzaLogger coreLogger;
+	@Autowired
+	private ServiceCache serviceCache;
+	@Autowired
+	private ExecutionPolicyRegistry policyRegistry;
+	@Autowired
+	private ObjectMapper mapper;
+
+	private final String instanceId = UUID.randomUUID().toString();
+	private final AtomicBoolean closed = new AtomicBoolean();
+	private String topicName;
+	private Producer<String, String> producer;
+	private Consumer<String, String> consumer;
+
+	@PostConstruct
+	public void initialize() {
+		topicName = String.format("%s-%s", SERVICE_CHANGE_TOPIC_NAME, SPACE);
+		String kafkaHostFull = coreServiceProperties.getKafkaHost();
+		String kafkaHost = kafkaHostFull.split(":")[0];
+		String kafkaPort = kafkaHostFull.split(":")[1];
+
+		producer = KafkaClientFactory.getProducer(kafkaHost, kafkaPort);
+		consumer = KafkaClientFactory.getConsumer(kafkaHost, kafkaPort,
+				String.format("%s-%s", coreServiceProperties.getKafkaGroup(), instanceId));
+
+		Thread pollChangesThread = new Thread() {
+			@Override
+			public void run() {
+				pollServiceChanges();
+			}
+		};
+		pollChangesThread.start();
+	}
+
+	@PreDestroy
+	public void close() {
+		closed.set(true);
+		if (consumer != null) {
+			consumer.wakeup();
+		}
+	}
+
+	/**
+	 * Notifies all other Service Controller instances that a service changed. Failures are logged and not thrown,
+	 * since other instances will still pick up the change once their cache entries expire.
+	 *
+	 * @param serviceId
+	 *            The Id of the service that changed
+	 * @param changeType
+	 *            One of the ServiceChangeEvent change types
+	 */
+	public void publish(String serviceId, String changeType) {
+		try {
+			ServiceChangeEvent event = new ServiceChangeEvent(serviceId, changeType, instanceId);
+			producer.send(new ProducerRecord<String, String>(topicName, serviceId, mapper.writeValueAsString(event)));
+		} catch (Exception exception) {
+			coreLogger.log(String.format("Could not publish %s change for Service %s: %s", changeType, serviceId,
+					exception.getMessage()), PiazzaLogger.ERROR);
+		}
+	}
+
+	/**
+	 * Polls for the change events of all instances
+	 */
+	public void pollServiceChanges() {
+		try {
+			consumer.subscribe(Arrays.asList(topicName));
+			while (!closed.get()) {
+				ConsumerRecords<String, String> consumerRecords = consumer.poll(1000);
+				for (ConsumerRecord<String, String> consumerRecord : consumerRecords) {
+					handleChange(consumerRecord.value());
+				}
+			}
+		} catch (WakeupException wex) {
+			if (!closed.get()) {
+				coreLogger.log(String.format("Service change polling Thread forcefully closed: %s", wex.getMessage()),
+						PiazzaLogger.FATAL);
+			}
+		} catch (Exception ex) {
+			coreLogger.log(String.format("Service change polling Thread forcefully closed: %s", ex.getMessage()), PiazzaLogger.FATAL);
+		} finally {
+			consumer.close();
+		}
+	}
+
+	/**
+	 * Applies a change made on another instance to the local state
+	 *
+	 * @param message
+	 *            The JSON ServiceChangeEvent
+	 */
+	void handleChange(String message) {
+		ServiceChangeEvent event;
+		try {
+			event = mapper.readerFor(ServiceChangeEvent.class).with(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+					.readValue(message);
+		} catch (Exception exception) {
+			coreLogger.log(String.format("Could not read Service change event: %s", exception.getMessage()), PiazzaLogger.ERROR);
+			return;
+		}
+		if (instanceId.equals(event.getOrigin()) || event.getServiceId() == null) {
+			// Local changes are applied directly by the handlers
+			return;
+		}
+
+		serviceCache.invalidate(event.getServiceId());
+		if (ServiceChangeEvent.DELETED.equals(event.getChangeType())
+				|| ServiceChangeEvent.POLICY_UPDATED.equals(event.getChangeType())) {
+			policyRegistry.refreshPolicy(event.getServiceId());
+		}
+		coreLogger.log(String.format("Applied %s change for Service %s from instance %s", event.getChangeType(),
+				event.getServiceId(), event.getOrigin()), PiazzaLogger.DEBUG);
+	}
+}
@@ -1,25 +1,44 @@
 package org.venice.piazza.servicecontroller.messaging;
 
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetCommitCallback;
 import org.apache.kafka.clients.producer.Producer;
-import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.serialization.StringDeserializer;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.annotation.AsyncResult;
 import org.springframework.stereotype.Component;
+import org.venice.piazza.servicecontroller.data.model.RunningJob;
+import org.venice.piazza.servicecontroller.execution.ExecutionPolicyRegistry;
+import org.venice.piazza.servicecontroller.execution.ServiceRateLimiter;
 import org.venice.piazza.servicecontroller.util.CoreServiceProperties;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import messaging.job.JobMessageFactory;
 import messaging.job.KafkaClientFactory;
 import messaging.job.WorkerCallback;
@@ -28,11 +47,22 @@ import model.job.PiazzaJobType;
 import model.job.type.AbortJob;
 import model.job.type.ExecuteServiceJob;
 import model.request.PiazzaJobRequest;
-import model.status.StatusUpdate;
 import util.PiazzaLogger;
 
 @Component
 public class ServiceMessageThreadManager {
+	/*
+	 * Offset commit modes of the execute topic consumers. In auto mode Kafka commits consumed offsets in the
+	 * background, so a Job that is consumed but not finished when the instance stops is lost. In manual mode offsets
+	 * are only committed once the Jobs before them have finished, so such a Job is run again by the next consumer.
+	 * Auto is the default, as with the other Piazza consumers. Manual is opted into per deployment, since it can run a
+	 * Job twice, and only suits services that tolerate that.
+	 */
+	public static final String COMMIT_MODE_AUTO = "auto";
+	public static final String COMMIT_MODE_MANUAL = "manual";
+
+	// How long shutdown waits for each consumer Thread to make its final commit
+	private static final long SHUTDOWN_WAIT_MS = 5000;
 
 	private String EXECUTE_SERVICE_JOB_TOPIC_NAME;
 
@@ -44,15 +74,54 @@ public class ServiceMessageThreadManager {
 	 * TODO need to determine how statuses will be sent to update the job (Call back?)
 	 */
 	private Producer<String, String> producer;
-	private Consumer<String, String> consumer;
 	private List<String> topics;
 	private final AtomicBoolean closed;
 
-	private Map<String, Future<?>> runningServiceRequests;
+	// The polling Threads of the group consumers, and their consumers, so they can be stopped on shutdown
+	private final List<ConsumerLane> consumerLanes = new CopyOnWriteArrayList<ConsumerLane>();
+	private final List<Thread> laneThreads = new CopyOnWriteArrayList<Thread>();
+	private volatile Consumer<String, String> abortConsumer;
+
+	/*
+	 * Ids of the Jobs held by the consumer lanes until the Worker pool can take them. The abort Thread removes a Job to
+	 * drop it before it runs.
+	 */
+	private final Set<String> heldJobIds = ConcurrentHashMap.<String> newKeySet();
+
+	/*
+	 * Set once the running Jobs reach the in flight limit, and cleared once they drain to the resume watermark. Only
+	 * changed under inFlightLock, from the running count read under the same lock, so a dispatch and a release racing
+	 * on the count cannot leave it set with no Jobs running.
+	 */
+	private final AtomicBoolean inFlightLimited = new AtomicBoolean();
+	private final Object inFlightLock = new Object();
 	
 	@Value("${SPACE}")
 	private String SPACE;
 
+	/*
+	 * Number of group consumers, each polling on its own Thread. Kafka spreads the partitions of the execute topic
+	 * over them, so more than the number of partitions leaves some idle.
+	 */
+	@Value("${kafka.consumer.threads}")
+	private int consumerThreads;
+
+	@Value("${kafka.consumer.commit.mode}")
+	private String commitMode;
+
+	// How often finished offsets are committed in manual mode, so commits are batched rather than made per Job
+	@Value("${kafka.consumer.commit.interval.ms}")
+	private long commitIntervalMs;
+
+	/*
+	 * Bounds the Jobs running at once across all consumer Threads. Consumers pause once the limit is reached, and
+	 * resume only once completed Jobs bring the count down to the resume watermark, so they do not flap at the limit.
+	 */
+	@Value("${kafka.consumer.max.inflight}")
+	private int maxInFlight;
+	@Value("${kafka.consumer.resume.inflight}")
+	private int resumeInFlight;
+
 	@Autowired
 	private CoreServiceProperties coreServiceProperties;
 
@@ -62,6 +131,22 @@ public class ServiceMessageThreadManager {
 	@Autowired
 	ServiceMessageWorker serviceMessageWorker;
 
+	@Autowired
+	private ServiceWorkerExecutor serviceWorkerExecutor;
+
+	@Autowired
+	private JobMessageCodec jobMessageCodec;
+
+	@Autowired
+	private ExecutionPolicyRegistry policyRegistry;
+
+	@Autowired
+	private ServiceRateLimiter rateLimiter;
+
+	// Shared by the consumer lanes, the Workers and the abort Thread
+	@Autowired
+	private RunningJobRegistry runningJobRegistry;
+
 	/**
 	 * Constructor for ServiceMessageThreadManager
 	 */
@@ -95,25 +180,29 @@ public class ServiceMessageThreadManager {
 		coreLogger.log("KAFKA_PORT=" + KAFKA_PORT, PiazzaLogger.INFO);
 		coreLogger.log("============================================================", PiazzaLogger.INFO);
 
+		if (resumeInFlight >= maxInFlight) {
+			coreLogger.log(String.format("Resume watermark %s is not below the in flight limit %s. Resuming at %s instead.",
+					resumeInFlight, maxInFlight, maxInFlight / 2), PiazzaLogger.WARNING);
+			resumeInFlight = maxInFlight / 2;
+		}
+
 		/* Initialize producer and consumer for the Kafka Queue */
 		producer = KafkaClientFactory.getProducer(KAFKA_HOST, KAFKA_PORT);
-		consumer = KafkaClientFactory.getConsumer(KAFKA_HOST, KAFKA_PORT, KAFKA_GROUP);
-
-		// Initialize the HashMap
-		runningServiceRequests = new HashMap<String, Future<?>>();
-
-		// Start polling for Kafka Jobs on the Group Consumer.. This occurs on a
-		// separate Thread so as not to block Spring.
-		Thread kafkaListenerThread = new Thread() {
-			@Override
-			public void run() {
-				pollServiceJobs();
-			}
-		};
 
-		// Subscribe for the topics
-		consumer.subscribe(topics);
-		kafkaListenerThread.start();
+		// Start polling for Kafka Jobs on the Group Consumers. This occurs on
+		// separate Threads so as not to block Spring.
+		for (int lane = 0; lane < Math.max(1, consumerThreads); lane++) {
+			final ConsumerLane consumerLane = new ConsumerLane(makeJobConsumer());
+			consumerLane.consumer.subscribe(topics, consumerLane);
+			Thread kafkaListenerThread = new Thread(String.format("ServiceJobConsumer-%s", lane)) {
+				@Override
+				public void run() {
+					consumerLane.poll();
+				}
+			};
+			laneThreads.add(kafkaListenerThread);
+			kafkaListenerThread.start();
+		}
 
 		// Start polling for Kafka Abort Jobs on the unique Consumer.	
 		Thread pollAbortThread = new Thread() {
@@ -126,59 +215,160 @@ public class ServiceMessageThreadManager {
 	}
 
 	/**
-	 * Polls for service controller topics and handles these requests.
+	 * Stops the consumers. Each group consumer is woken from its poll, makes a final synchronous commit of the Jobs
+	 * that have finished, and leaves the group, so that its partitions are reassigned straight away. Waits a short
+	 * while for the polling Threads to finish.
+	 */
+	@PreDestroy
+	public void close() {
+		closed.set(true);
+		for (ConsumerLane consumerLane : consumerLanes) {
+			consumerLane.consumer.wakeup();
+		}
+		Consumer<String, String> uniqueConsumer = abortConsumer;
+		if (uniqueConsumer != null) {
+			uniqueConsumer.wakeup();
+		}
+		for (Thread laneThread : laneThreads) {
+			try {
+				laneThread.join(SHUTDOWN_WAIT_MS);
+			} catch (InterruptedException exception) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Polls for service controller topics and handles these requests, on the calling Thread, until closed.
+	 * 
+	 * @param consumer
+	 *            A group consumer subscribed to the execute service topic
+	 */
+	public void pollServiceJobs(Consumer<String, String> consumer) {
+		new ConsumerLane(consumer).poll();
+	}
+
+	/**
+	 * @return true if offsets of the execute topic are committed only once their Jobs have finished
+	 */
+	public boolean isManualCommit() {
+		return COMMIT_MODE_MANUAL.equalsIgnoreCase(commitMode);
+	}
+
+	/**
+	 * Hands the Job to the Worker pool, which sends its Running status once it starts it, and tracks it as running
+	 * once accepted. A place must already be reserved for the Job among the Jobs of its service; it is given back if
+	 * the Job is not accepted.
+	 * 
+	 * @return the running Worker, or null if the Worker pool is saturated and rejected the Job
 	 */
-	public void pollServiceJobs() {
+	private Future<?> dispatchJob(ConsumerRecord<String, String> consumerRecord, Job job) {
+		String serviceId = getServiceId(job);
+		final RunningJob runningJob = new RunningJob(job.getJobId(), serviceId, consumerRecord.topic(), consumerRecord.partition(),
+				consumerRecord.offset());
 
-		ObjectMapper mapper = makeObjectMapper();
+		// Create a Callback that will be invoked when the Worker completes.
+		WorkerCallback callback = new WorkerCallback() {
+			@Override
+			public void onComplete(String jobId) {
+				runningJob.markCompleted();
+				releaseJob(jobId);
+			}
+		};
+
+		Future<?> workerFuture;
 		try {
-			Job job;
+			// start a new thread
+			workerFuture = serviceMessageWorker.run(consumerRecord, producer, job, callback);
+		} catch (TaskRejectedException exception) {
+			runningJobRegistry.cancelReservation(serviceId);
+			coreLogger.log(String.format("Worker pool is saturated. Holding Job %s until capacity is available.", job.getJobId()),
+					PiazzaLogger.WARNING);
+			return null;
+		} catch (RuntimeException exception) {
+			runningJobRegistry.cancelReservation(serviceId);
+			throw exception;
+		}
 
-			// Create a Callback that will be invoked when a Worker completes.
-			// This will
-			WorkerCallback callback = new WorkerCallback() {
-				@Override
-				public void onComplete(String jobId) {
-					runningServiceRequests.remove(jobId);
-				}
-			};
-			while (!closed.get()) {
-				ConsumerRecords<String, String> consumerRecords = consumer.poll(1000);
-				// Handle new Messages on this topic.
-				for (ConsumerRecord<String, String> consumerRecord : consumerRecords) {
-					try {
-						job = mapper.readValue(consumerRecord.value(), Job.class);
-
-						if (job != null) {
-							// Log the request.
-							coreLogger.log(String.format("Received Job Request to process Topic %s with Job Id %s", consumerRecord.topic(), consumerRecord.key()), PiazzaLogger.INFO);
-							
-							// Update the status to say the job is in progress
-							StatusUpdate su = new StatusUpdate();
-							su.setStatus(StatusUpdate.STATUS_RUNNING);
-
-							ProducerRecord<String, String> prodRecord = new ProducerRecord<String, String>(
-									String.format("%s-%s", JobMessageFactory.UPDATE_JOB_TOPIC_NAME, SPACE), job.getJobId(),
-									mapper.writeValueAsString(su));
-							producer.send(prodRecord);
-
-							// start a new thread
-							Future<?> workerFuture = serviceMessageWorker.run(consumerRecord, producer, job, callback);
-
-							// Keep track of all Running Jobs
-							runningServiceRequests.put(consumerRecord.key(), workerFuture);
-						}
+		// Keep track of all Running Jobs. One whose Worker already finished was not there to be released.
+		runningJob.setFuture(workerFuture);
+		runningJobRegistry.register(runningJob);
+		if (runningJob.isCompleted()) {
+			releaseJob(job.getJobId());
+		}
 
-					} catch (Exception ex) {
-						coreLogger.log(String.format("The item received did not marshal to a job", ex), PiazzaLogger.FATAL);
-					}
-				} // for loop
-			} // while loop
-		} catch (Exception ex) {
-			coreLogger.log(String.format("The item received did not marshal to a job", ex), PiazzaLogger.FATAL);
+		updateInFlightLimit();
+		return workerFuture;
+	}
 
+	/**
+	 * Reserves a place for the Job among the running Jobs of its service. A Job waiting on its service holds a Worker
+	 * Thread, since the Worker blocks until the call completes, so each service may only have as many Jobs running as
+	 * it may have calls in progress. Jobs waiting on one slow or limited service then cannot take the whole Worker pool.
+	 * 
+	 * @return false if the service already has its limit of Jobs running
+	 */
+	private boolean reserveServiceJob(String serviceId) {
+		if (serviceId == null) {
+			return true;
 		}
+		Integer limit = rateLimiter.getMaxConcurrentCalls(policyRegistry.getPolicy(serviceId));
+		return runningJobRegistry.tryReserve(serviceId, (limit != null) ? limit : Integer.MAX_VALUE);
+	}
+
+	private static String getServiceId(Job job) {
+		return (job.getJobType() instanceof ExecuteServiceJob) && (((ExecuteServiceJob) job.getJobType()).data != null)
+				? ((ExecuteServiceJob) job.getJobType()).data.getServiceId() : null;
+	}
+
+	/**
+	 * Stops tracking a Job that has completed or been aborted, and lifts the in flight limit once enough have drained.
+	 * Called from the Worker Threads.
+	 */
+	private void releaseJob(String jobId) {
+		runningJobRegistry.release(jobId);
+		updateInFlightLimit();
+	}
+
+	/**
+	 * Sets or lifts the in flight limit from the number of Jobs now running. Every register and release is followed by
+	 * a call, and the calls are serialized, so the last one always sees the final count.
+	 */
+	private void updateInFlightLimit() {
+		synchronized (inFlightLock) {
+			int inFlight = runningJobRegistry.size();
+			if (!inFlightLimited.get() && (inFlight >= maxInFlight)) {
+				inFlightLimited.set(true);
+				coreLogger.log(String.format("%s Jobs in flight. Pausing consumption until %s remain.", inFlight, resumeInFlight),
+						PiazzaLogger.INFO);
+			} else if (inFlightLimited.get() && (inFlight <= resumeInFlight)) {
+				inFlightLimited.set(false);
+				coreLogger.log(String.format("%s Jobs in flight. Resuming consumption.", inFlight), PiazzaLogger.INFO);
+			}
+		}
+	}
+
+	/**
+	 * Cancels a dispatched Job. A Job whose Worker has started keeps its place among the running Jobs, and its service
+	 * reservation, until the Worker callback releases it once its Thread returns. A Job cancelled before it started
+	 * never reaches the callback, so it is released here.
+	 * 
+	 * @return true if the Job was cancelled
+	 */
+	private boolean cancelJob(String jobId, Future<?> workerFuture) {
+		boolean cancelled = workerFuture.cancel(true);
+		if (serviceWorkerExecutor.isCancelledBeforeStart(workerFuture)) {
+			releaseJob(jobId);
+		}
+		return cancelled;
+	}
 
+	/**
+	 * @return the number of Jobs handed to the Workers that have not yet completed
+	 */
+	public int getInFlightCount() {
+		return runningJobRegistry.size();
 	}
 
 	/**
@@ -189,7 +379,7 @@ public class ServiceMessageThreadManager {
 		Consumer<String, String> uniqueConsumer;
 		uniqueConsumer = KafkaClientFactory.getConsumer(KAFKA_HOST, KAFKA_PORT,
 				String.format("%s-%s", KAFKA_GROUP, UUID.randomUUID().toString()));
-		ObjectMapper mapper = new ObjectMapper();
+		abortConsumer = uniqueConsumer;
 		
 		try {
 			// Create the Unique Consumer
@@ -205,7 +395,7 @@ public class ServiceMessageThreadManager {
 					// component.
 					String jobId = null;
 					try {
-						PiazzaJobRequest request = mapper.readValue(consumerRecord.value(), PiazzaJobRequest.class);
+						PiazzaJobRequest request = jobMessageCodec.readJobRequest(consumerRecord.value());
 						jobId = ((AbortJob) request.jobType).getJobId();
 					} catch (Exception exception) {
 						exception.printStackTrace();
@@ -214,22 +404,28 @@ public class ServiceMessageThreadManager {
 						continue;
 					}
 					
-					if (runningServiceRequests.containsKey(jobId)) {
-						// Cancel the Running Job
-						boolean cancelled = runningServiceRequests.get(jobId).cancel(true);
+					RunningJob runningJob = runningJobRegistry.get(jobId);
+					if ((runningJob != null) && (runningJob.getFuture() != null)) {
+						// Cancel the Running Job. It is released once its Worker returns.
+						boolean cancelled = cancelJob(jobId, runningJob.getFuture());
 						if (cancelled) {
 							// Log the cancellation has occurred
 							coreLogger.log(String.format("Successfully requested termination of Job thread for Job ID %s", jobId), PiazzaLogger.INFO);
 						} else {
 							coreLogger.log(String.format("Attempted to Cancel running job thread for ID %s, but the thread could not be forcefully cancelled.", jobId), PiazzaLogger.ERROR);
 						}
-						// Remove it from the list of Running Jobs
-						runningServiceRequests.remove(jobId);
+					} else if (heldJobIds.remove(jobId)) {
+						// The consumer lane drops it instead of handing it to a Worker
+						coreLogger.log(String.format("Dropped held Job %s before it was started", jobId), PiazzaLogger.INFO);
 					}
 				}
 			}
 		} catch (WakeupException wex) {
-			coreLogger.log(String.format("Polling Thread forcefully closed: %s", wex.getMessage()), PiazzaLogger.FATAL);
+			if (closed.get()) {
+				coreLogger.log("Abort Job polling stopped.", PiazzaLogger.INFO);
+			} else {
+				coreLogger.log(String.format("Polling Thread forcefully closed: %s", wex.getMessage()), PiazzaLogger.FATAL);
+			}
 			uniqueConsumer.close();
 		} catch (Exception ex) {
 			coreLogger.log(String.format("Polling Thread forcefully closed: %s", ex.getMessage()), PiazzaLogger.FATAL);
@@ -237,11 +433,405 @@ public class ServiceMessageThreadManager {
 		}
 	}
 	
-	public ObjectMapper makeObjectMapper() {
-		return new ObjectMapper();
+	/**
+	 * Creates the group consumer of the execute service topic
+	 */
+	public Consumer<String, String> makeJobConsumer() {
+		if (isManualCommit()) {
+			return new KafkaConsumer<String, String>(getManualCommitConsumerProperties());
+		}
+		return KafkaClientFactory.getConsumer(KAFKA_HOST, KAFKA_PORT, KAFKA_GROUP);
+	}
+
+	/**
+	 * The settings of the execute service topic consumer in manual commit mode. KafkaClientFactory only builds
+	 * consumers that commit automatically, so this one is built here with automatic commits disabled. Only the
+	 * connection, group and deserializers are set; the factory's commit interval does not apply, and everything else is
+	 * left at the Kafka defaults.
+	 */
+	Properties getManualCommitConsumerProperties() {
+		Properties props = new Properties();
+		props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, String.format("%s:%s", KAFKA_HOST, KAFKA_PORT));
+		props.put(ConsumerConfig.GROUP_ID_CONFIG, KAFKA_GROUP);
+		props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
+		props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class.getName());
+		props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class.getName());
+		return props;
 	}
 	
 	public AtomicBoolean makeAtomicBoolean () {
 		return new AtomicBoolean();
 	}
+
+	/**
+	 * A consumed Job waiting for capacity in the Worker pool, or for a running Job of its service to complete
+	 */
+	private static class PendingJob {
+		private final ConsumerRecord<String, String> consumerRecord;
+		private final Job job;
+		private final String serviceId;
+
+		PendingJob(ConsumerRecord<String, String> consumerRecord, Job job) {
+			this.consumerRecord = consumerRecord;
+			this.job = job;
+			this.serviceId = getServiceId(job);
+		}
+	}
+
+	/**
+	 * What became of a held Job on an attempt to dispatch it
+	 */
+	private enum HeldJobOutcome {
+		// Handed to a Worker, or dropped
+		DONE,
+		// Still held, since the Worker pool rejected it
+		WORKERS_FULL,
+		// Still held, since its service has its limit of Jobs running
+		SERVICE_FULL
+	}
+
+	/**
+	 * Consumes the partitions Kafka assigns to one group consumer, on one Thread. Jobs of a partition are handed to the
+	 * shared Worker pool in the order they were received, but they then run concurrently with each other and with the
+	 * Jobs of every other lane, so Jobs with the same key are not guaranteed to run or finish in order. In manual commit
+	 * mode the lane also commits, for each partition, the offset up to which all Jobs have finished.
+	 */
+	private class ConsumerLane implements ConsumerRebalanceListener {
+		private final Consumer<String, String> consumer;
+		/*
+		 * Jobs consumed from Kafka that the Worker pool could not yet accept. Only accessed by the polling Thread.
+		 */
+		private final Deque<PendingJob> pendingJobs = new ArrayDeque<PendingJob>();
+		/*
+		 * Jobs held until a running Job of their service completes, by service, and their total. They do not hold back
+		 * the Jobs of other services. Only accessed by the polling Thread.
+		 */
+		private final Map<String, Deque<PendingJob>> serviceJobs = new HashMap<String, Deque<PendingJob>>();
+		private int serviceJobCount = 0;
+		// Unfinished Jobs of each assigned partition, in manual commit mode. Only accessed by the polling Thread.
+		private final Map<TopicPartition, PartitionOffsets> partitionOffsets = new HashMap<TopicPartition, PartitionOffsets>();
+		private boolean consumerPaused = false;
+		private long lastCommitTime = System.currentTimeMillis();
+
+		ConsumerLane(Consumer<String, String> consumer) {
+			this.consumer = consumer;
+			consumerLanes.add(this);
+		}
+
+		void poll() {
+			try {
+				Job job;
+
+				while (!closed.get()) {
+					// Hand over any held back Jobs, and pause fetching while the Worker pool is saturated.
+					// Polling continues while paused so that the consumer keeps heartbeating with the group.
+					dispatchServiceJobs();
+					dispatchPendingJobs();
+					applyBackpressure();
+					if (System.currentTimeMillis() - lastCommitTime >= commitIntervalMs) {
+						commitFinishedOffsets(consumer.assignment(), false);
+					}
+
+					ConsumerRecords<String, String> consumerRecords = consumer.poll(1000);
+					// Handle new Messages on this topic.
+					for (ConsumerRecord<String, String> consumerRecord : consumerRecords) {
+						boolean received = false;
+						try {
+							job = jobMessageCodec.readJob(consumerRecord.value());
+
+							if (job != null) {
+								// Log the request.
+								coreLogger.log(String.format("Received Job Request to process Topic %s with Job Id %s", consumerRecord.topic(), consumerRecord.key()), PiazzaLogger.INFO);
+								offsetsOf(consumerRecord).received(consumerRecord.offset());
+								received = true;
+
+								// Hold the Job if the Worker pool or in flight limit is full, or if older Jobs are still waiting.
+								// Hold it by its service if that service already has its limit of Jobs running.
+								PendingJob pendingJob = new PendingJob(consumerRecord, job);
+								Future<?> workerFuture = null;
+								if (pendingJobs.isEmpty() && !inFlightLimited.get()) {
+									if (!serviceJobs.containsKey(pendingJob.serviceId) && reserveServiceJob(pendingJob.serviceId)) {
+										workerFuture = dispatchJob(consumerRecord, job);
+									} else {
+										heldJobIds.add(job.getJobId());
+										holdForService(pendingJob);
+										continue;
+									}
+								}
+								if (workerFuture != null) {
+									offsetsOf(consumerRecord).dispatched(consumerRecord.offset(), workerFuture);
+								} else {
+									heldJobIds.add(job.getJobId());
+									pendingJobs.addLast(pendingJob);
+								}
+							} else {
+								offsetsOf(consumerRecord).skipped(consumerRecord.offset());
+							}
+
+						} catch (Exception ex) {
+							if (received) {
+								// The Job could not be handed to a Worker. It is dropped, and must not hold back the commit.
+								offsetsOf(consumerRecord).dispatched(consumerRecord.offset(), new AsyncResult<Object>(null));
+								coreLogger.log(String.format("Could not dispatch Job %s: %s", consumerRecord.key(), ex.getMessage()),
+										PiazzaLogger.ERROR);
+							} else {
+								offsetsOf(consumerRecord).skipped(consumerRecord.offset());
+								coreLogger.log(String.format("The item received did not marshal to a job", ex), PiazzaLogger.FATAL);
+							}
+						}
+					} // for loop
+				} // while loop
+			} catch (WakeupException ex) {
+				// Raised by close() to stop polling
+				if (!closed.get()) {
+					coreLogger.log(String.format("Polling Thread forcefully closed: %s", ex.getMessage()), PiazzaLogger.FATAL);
+				}
+			} catch (Exception ex) {
+				coreLogger.log(String.format("The item received did not marshal to a job", ex), PiazzaLogger.FATAL);
+
+			} finally {
+				try {
+					commitFinishedOffsets(consumer.assignment(), true);
+				} finally {
+					consumerLanes.remove(this);
+					for (PendingJob pendingJob : pendingJobs) {
+						heldJobIds.remove(pendingJob.job.getJobId());
+					}
+					for (Deque<PendingJob> heldJobs : serviceJobs.values()) {
+						for (PendingJob pendingJob : heldJobs) {
+							heldJobIds.remove(pendingJob.job.getJobId());
+						}
+					}
+					consumer.close();
+				}
+			}
+		}
+
+		/**
+		 * Dispatches held back Jobs in the order they were received, stopping at the first one the Worker pool rejects
+		 * or once the in flight limit is reached. A Job whose service has its limit of Jobs running moves to the Jobs
+		 * held for that service, so it does not hold back the Jobs of other services.
+		 */
+		private void dispatchPendingJobs() {
+			while (!pendingJobs.isEmpty() && !inFlightLimited.get()) {
+				PendingJob pendingJob = pendingJobs.peekFirst();
+				HeldJobOutcome outcome = serviceJobs.containsKey(pendingJob.serviceId) ? HeldJobOutcome.SERVICE_FULL
+						: dispatchHeldJob(pendingJob);
+				if (outcome == HeldJobOutcome.WORKERS_FULL) {
+					return;
+				}
+				pendingJobs.removeFirst();
+				if (outcome == HeldJobOutcome.SERVICE_FULL) {
+					holdForService(pendingJob);
+				}
+			}
+		}
+
+		/**
+		 * Dispatches the Jobs held for each service, in the order they were received, while the service is below its
+		 * limit of running Jobs. Stops once the Worker pool rejects a Job or the in flight limit is reached.
+		 */
+		private void dispatchServiceJobs() {
+			Iterator<Deque<PendingJob>> iterator = serviceJobs.values().iterator();
+			while (iterator.hasNext() && !inFlightLimited.get()) {
+				Deque<PendingJob> heldJobs = iterator.next();
+				while (!heldJobs.isEmpty() && !inFlightLimited.get()) {
+					HeldJobOutcome outcome = dispatchHeldJob(heldJobs.peekFirst());
+					if (outcome == HeldJobOutcome.WORKERS_FULL) {
+						return;
+					}
+					if (outcome == HeldJobOutcome.SERVICE_FULL) {
+						break;
+					}
+					heldJobs.removeFirst();
+					serviceJobCount--;
+				}
+				if (heldJobs.isEmpty()) {
+					iterator.remove();
+				}
+			}
+		}
+
+		private void holdForService(PendingJob pendingJob) {
+			Deque<PendingJob> heldJobs = serviceJobs.get(pendingJob.serviceId);
+			if (heldJobs == null) {
+				heldJobs = new ArrayDeque<PendingJob>();
+				serviceJobs.put(pendingJob.serviceId, heldJobs);
+			}
+			heldJobs.addLast(pendingJob);
+			serviceJobCount++;
+		}
+
+		/**
+		 * Dispatches a held Job. A held Job that was aborted, or that fails to dispatch, is dropped and counted as
+		 * finished.
+		 */
+		private HeldJobOutcome dispatchHeldJob(PendingJob pendingJob) {
+			String jobId = pendingJob.job.getJobId();
+			Future<?> workerFuture = null;
+			if (heldJobIds.contains(jobId)) {
+				if (!reserveServiceJob(pendingJob.serviceId)) {
+					return HeldJobOutcome.SERVICE_FULL;
+				}
+				try {
+					workerFuture = dispatchJob(pendingJob.consumerRecord, pendingJob.job);
+					if (workerFuture == null) {
+						return HeldJobOutcome.WORKERS_FULL;
+					}
+				} catch (Exception exception) {
+					coreLogger.log(String.format("Could not dispatch held Job %s: %s", jobId, exception.getMessage()),
+							PiazzaLogger.ERROR);
+				}
+				if (!heldJobIds.remove(jobId) && (workerFuture != null)) {
+					// Aborted while it was being dispatched, so the abort Thread did not find it running
+					cancelJob(jobId, workerFuture);
+				}
+			}
+			offsetsOf(pendingJob.consumerRecord).dispatched(pendingJob.consumerRecord.offset(),
+					(workerFuture != null) ? workerFuture : new AsyncResult<Object>(null));
+			return HeldJobOutcome.DONE;
+		}
+
+		/**
+		 * Pauses the consumer on all assigned partitions while the Worker pool is saturated, the in flight limit is
+		 * reached, or as many Jobs are held for their services as the in flight limit, and resumes once capacity is
+		 * available again. Pausing is repeated on every pass so that partitions assigned by a rebalance are also paused.
+		 */
+		private void applyBackpressure() {
+			boolean saturated = serviceWorkerExecutor.isSaturated() || inFlightLimited.get() || !pendingJobs.isEmpty()
+					|| (serviceJobCount >= maxInFlight);
+			TopicPartition[] partitions = consumer.assignment().toArray(new TopicPartition[0]);
+			if (saturated) {
+				consumer.pause(partitions);
+				if (!consumerPaused) {
+					coreLogger.log(String.format("Worker pool saturated with %s queued and %s in flight Jobs. Pausing consumption.",
+							serviceWorkerExecutor.getQueueSize(), runningJobRegistry.size()), PiazzaLogger.INFO);
+					consumerPaused = true;
+				}
+			} else if (consumerPaused) {
+				consumer.resume(partitions);
+				coreLogger.log("Worker pool has capacity. Resuming consumption.", PiazzaLogger.INFO);
+				consumerPaused = false;
+			}
+		}
+
+		private PartitionOffsets offsetsOf(ConsumerRecord<String, String> consumerRecord) {
+			TopicPartition partition = new TopicPartition(consumerRecord.topic(), consumerRecord.partition());
+			PartitionOffsets offsets = partitionOffsets.get(partition);
+			if (offsets == null) {
+				offsets = new PartitionOffsets();
+				partitionOffsets.put(partition, offsets);
+			}
+			return offsets;
+		}
+
+		/**
+		 * Commits, in one request, the offsets of the given partitions that have moved since their last commit. Nothing
+		 * is committed in auto commit mode.
+		 * 
+		 * @param partitions
+		 *            The partitions to commit
+		 * @param synchronous
+		 *            true to wait for the commit, such as before the partitions are handed to another consumer
+		 */
+		private void commitFinishedOffsets(Collection<TopicPartition> partitions, boolean synchronous) {
+			lastCommitTime = System.currentTimeMillis();
+			// Positions are worked out in both modes, which also drops finished Jobs from the tracking
+			final Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<TopicPartition, OffsetAndMetadata>();
+			for (TopicPartition partition : partitions) {
+				PartitionOffsets tracked = partitionOffsets.get(partition);
+				long position = (tracked != null) ? tracked.commitPosition() : -1;
+				if (position >= 0) {
+					offsets.put(partition, new OffsetAndMetadata(position));
+				}
+			}
+			if (offsets.isEmpty() || !isManualCommit()) {
+				return;
+			}
+			if (synchronous) {
+				try {
+					try {
+						consumer.commitSync(offsets);
+					} catch (WakeupException wakeup) {
+						// A wakeup from close() that arrives after the last poll is raised here instead. It only fires once.
+						consumer.commitSync(offsets);
+					}
+					markCommitted(offsets);
+				} catch (Exception exception) {
+					coreLogger.log(String.format("Could not commit offsets %s: %s", offsets, exception.getMessage()),
+							PiazzaLogger.ERROR);
+				}
+			} else {
+				consumer.commitAsync(offsets, new OffsetCommitCallback() {
+					@Override
+					public void onComplete(Map<TopicPartition, OffsetAndMetadata> committed, Exception exception) {
+						if (exception != null) {
+							// A later commit covers the same offsets
+							coreLogger.log(String.format("Could not commit offsets %s: %s", offsets, exception.getMessage()),
+									PiazzaLogger.WARNING);
+						} else {
+							markCommitted(committed);
+						}
+					}
+				});
+			}
+		}
+
+		// Commit callbacks run on the polling Thread, during poll or commitSync
+		private void markCommitted(Map<TopicPartition, OffsetAndMetadata> committed) {
+			for (Map.Entry<TopicPartition, OffsetAndMetadata> entry : committed.entrySet()) {
+				PartitionOffsets tracked = partitionOffsets.get(entry.getKey());
+				if (tracked != null) {
+					tracked.committed(entry.getValue().offset());
+				}
+			}
+		}
+
+		/**
+		 * Commits what has finished on partitions being taken away by a rebalance. Their held Jobs are dropped in manual
+		 * mode, since the new owner consumes them again from the committed offset. Jobs still running are not committed,
+		 * and may run twice.
+		 */
+		@Override
+		public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+			commitFinishedOffsets(partitions, true);
+			if (isManualCommit()) {
+				dropHeldJobs(pendingJobs, partitions);
+				Iterator<Deque<PendingJob>> iterator = serviceJobs.values().iterator();
+				while (iterator.hasNext()) {
+					Deque<PendingJob> heldJobs = iterator.next();
+					serviceJobCount -= dropHeldJobs(heldJobs, partitions);
+					if (heldJobs.isEmpty()) {
+						iterator.remove();
+					}
+				}
+			}
+			for (TopicPartition partition : partitions) {
+				partitionOffsets.remove(partition);
+			}
+		}
+
+		/**
+		 * @return the number of held Jobs dropped because they were consumed from one of the partitions
+		 */
+		private int dropHeldJobs(Collection<PendingJob> heldJobs, Collection<TopicPartition> partitions) {
+			int dropped = 0;
+			Iterator<PendingJob> iterator = heldJobs.iterator();
+			while (iterator.hasNext()) {
+				PendingJob pendingJob = iterator.next();
+				ConsumerRecord<String, String> consumerRecord = pendingJob.consumerRecord;
+				if (partitions.contains(new TopicPartition(consumerRecord.topic(), consumerRecord.partition()))) {
+					heldJobIds.remove(pendingJob.job.getJobId());
+					iterator.remove();
+					dropped++;
+				}
+			}
+			return dropped;
+		}
+
+		@Override
+		public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+			// Offsets of newly assigned partitions are tracked as their Jobs arrive
+		}
+	}
 }
@@ -43,7 +43,7 @@ import org.springframework.web.client.HttpServerErrorException;
 import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.util.UriComponentsBuilder;
-import org.venice.piazza.servicecontroller.data.mongodb.accessors.MongoAccessor;
+import org.venice.piazza.servicecontroller.data.cache.ServiceCache;
 import org.venice.piazza.servicecontroller.messaging.handlers.ExecuteServiceHandler;
 
 import com.fasterxml.jackson.core.JsonParseException;
@@ -68,12 +68,9 @@ import model.job.result.type.ErrorResult;
 import model.job.type.ExecuteServiceJob;
 import model.job.type.IngestJob;
 import model.request.PiazzaJobRequest;
-import model.response.EventTypeListResponse;
 import model.service.metadata.ExecuteServiceData;
 import model.service.metadata.Service;
 import model.status.StatusUpdate;
-import model.workflow.Event;
-import model.workflow.EventType;
 import util.PiazzaLogger;
 import util.UUIDFactory;
 
@@ -88,9 +85,6 @@ public class ServiceMessageWorker {
 	@Value("${SPACE}")
 	private String SPACE;
 
-	@Value("${workflow.url}")
-	private String WORKFLOW_URL;
-
 	@Autowired
 	private ObjectMapper objectMapper;
 
@@ -98,7 +92,7 @@ public class ServiceMessageWorker {
 	private UUIDFactory uuidFactory;
 
 	@Autowired
-	private MongoAccessor accessor;
+	private ServiceCache serviceCache;
 
 	@Autowired
 	private PiazzaLogger coreLogger;
@@ -106,14 +100,41 @@ public class ServiceMessageWorker {
 	@Autowired
 	private ExecuteServiceHandler esHandler;
 
-	private RestTemplate restTemplate = new RestTemplate();
+	@Autowired
+	private StatusUpdatePublisher statusUpdatePublisher;
+
+	@Autowired
+	private KafkaSender kafkaSender;
+
+	@Autowired
+	private WorkflowEventDispatcher workflowEventDispatcher;
 
 	/**
-	 * Handles service job requests on a thread
+	 * Handles service job requests on a thread from the Service Worker pool. The Job has already been read from the
+	 * consumer record. The Running status is sent once the Worker starts the Job, so a Job the pool rejects or that is
+	 * aborted before it starts is never reported as running, and the Running status always goes out before the final
+	 * one. The callback is notified once the Job is done, whether it succeeded, failed or was interrupted, and only
+	 * after its final status has been acknowledged, so the offset of the Job is not committed before then.
 	 */
-	@Async
-	public Future<String> run(ConsumerRecord<String, String> consumerRecord, Producer<String, String> producer, Job job,
+	@Async(ServiceWorkerExecutor.BEAN_NAME)
+	public Future<String> run(ConsumerRecord<String, ?> consumerRecord, Producer<String, String> producer, Job job,
 			WorkerCallback callback) {
+		try {
+			if (job != null) {
+				statusUpdatePublisher.publish(job.getJobId(), new StatusUpdate(StatusUpdate.STATUS_RUNNING));
+			}
+			return execute(producer, job);
+		} finally {
+			if (job != null) {
+				statusUpdatePublisher.awaitFinalUpdate(job.getJobId());
+			}
+			if ((callback != null) && (job != null)) {
+				callback.onComplete(job.getJobId());
+			}
+		}
+	}
+
+	private Future<String> execute(Producer<String, String> producer, Job job) {
 		try {
 			String executeJobStatus = StatusUpdate.STATUS_SUCCESS;
 			String handleTextUpdate = "";
@@ -190,13 +211,11 @@ public class ServiceMessageWorker {
 						if (result != null) {
 							StatusUpdate statusUpdate = new StatusUpdate(StatusUpdate.STATUS_SUCCESS);
 							statusUpdate.setResult(result);
-							ProducerRecord<String, String> prodRecord = JobMessageFactory.getUpdateStatusMessage(job.getJobId(),
-									statusUpdate, SPACE);
-							producer.send(prodRecord);
+							statusUpdatePublisher.publish(job.getJobId(), statusUpdate);
 						}
 
 						// Fire Event to Workflow
-						fireWorkflowEvent(job.getCreatedBy(), job.getJobId(), dataId, "Service completed successfully.");
+						workflowEventDispatcher.fireExecutionComplete(job.getCreatedBy(), job.getJobId(), dataId, "Service completed successfully.");
 
 						// Return.
 						return new AsyncResult<String>("ServiceMessageWorker_Thread");
@@ -222,7 +241,7 @@ public class ServiceMessageWorker {
 
 			// If there was no result set then use the default error messages set.
 			if (externalServiceResponse == null) {
-				sendErrorStatus(executeJobStatus, handleTextUpdate, statusCode, producer, job.getJobId());
+				sendErrorStatus(executeJobStatus, handleTextUpdate, statusCode, job.getJobId());
 			} else {
 				// If the status is not OK and the job is not null
 				// then send an update to the job manager that there was some failure
@@ -231,7 +250,7 @@ public class ServiceMessageWorker {
 					externalServiceResponse = externalServiceResponse != null ? externalServiceResponse
 							: new ResponseEntity<String>("", HttpStatus.NO_CONTENT);
 					sendErrorStatus(StatusUpdate.STATUS_FAIL, externalServiceResponse,
-							new Integer(externalServiceResponse.getStatusCode().value()), producer, job.getJobId());
+							new Integer(externalServiceResponse.getStatusCode().value()), job.getJobId());
 				}
 			}
 
@@ -242,7 +261,7 @@ public class ServiceMessageWorker {
 			// Catch any General Exceptions that occur during runtime.
 			coreLogger.log(ex.getMessage(), PiazzaLogger.ERROR);
 			sendErrorStatus(StatusUpdate.STATUS_ERROR, "Unexpected Error in processing External Service: " + ex.getMessage(),
-					HttpStatus.INTERNAL_SERVER_ERROR.value(), producer, job.getJobId());
+					HttpStatus.INTERNAL_SERVER_ERROR.value(), job.getJobId());
 		}
 
 		// Return Future
@@ -259,7 +278,7 @@ public class ServiceMessageWorker {
 	 * @param statusCode
 	 *            The numeric HTTP status code.
 	 */
-	private void sendErrorStatus(String status, Object message, Integer statusCode, Producer<String, String> producer, String jobId) {
+	private void sendErrorStatus(String status, Object message, Integer statusCode, String jobId) {
 		StatusUpdate statusUpdate = new StatusUpdate();
 		statusUpdate.setStatus(status);
 		// Create a text result and update status
@@ -267,51 +286,7 @@ public class ServiceMessageWorker {
 		errorResult.setMessage(message);
 		errorResult.setStatusCode(statusCode);
 		statusUpdate.setResult(errorResult);
-
-		try {
-			ProducerRecord<String, String> prodRecord = new ProducerRecord<String, String>(
-					String.format("%s-%s", JobMessageFactory.UPDATE_JOB_TOPIC_NAME, SPACE), jobId,
-					objectMapper.writeValueAsString(statusUpdate));
-			producer.send(prodRecord);
-		} catch (JsonProcessingException exception) {
-			// The message could not be serialized. Record this.
-			exception.printStackTrace();
-			coreLogger.log("Could not send Error Status to Job Manager. Error serializing Status: " + exception.getMessage(),
-					PiazzaLogger.ERROR);
-		}
-	}
-
-	/**
-	 * Fires the event to the Workflow service that a Service has completed execution.
-	 */
-	private void fireWorkflowEvent(String user, String jobId, String dataId, String message) {
-		coreLogger.log("Firing Event for Completion of ExecuteServiceJob execution", PiazzaLogger.DEBUG);
-		try {
-			// Retrieve piazza:executionCompletion EventTypeId from pz-workflow.
-			String url = String.format("%s/%s?name=%s", WORKFLOW_URL, "eventType", "piazza:executionComplete");
-			EventType eventType = objectMapper.readValue(restTemplate.getForObject(url, String.class), EventTypeListResponse.class).data
-					.get(0);
-
-			// Construct Event object
-			Map<String, Object> data = new HashMap<String, Object>();
-			data.put("jobId", jobId);
-			data.put("status", message);
-			data.put("dataId", dataId);
-
-			Event event = new Event();
-			event.createdBy = user;
-			event.eventTypeId = eventType.eventTypeId;
-			event.data = data;
-
-			// Call pz-workflow endpoint to fire Event object
-			restTemplate.postForObject(String.format("%s/%s", WORKFLOW_URL, "event"), objectMapper.writeValueAsString(event), String.class);
-		} catch (HttpClientErrorException | HttpServerErrorException exception) {
-			coreLogger.log(String.format("Could not successfully send Event to Workflow Service. Returned with code %s and message %s",
-					exception.getStatusCode().toString(), exception.getResponseBodyAsString()), PiazzaLogger.ERROR);
-		} catch (IOException exception) {
-			coreLogger.log(String.format("Could not send Event to Workflow Service. Serialization of Event failed with Error: %s",
-					exception.getMessage()), PiazzaLogger.ERROR);
-		}
+		statusUpdatePublisher.publish(jobId, statusUpdate);
 	}
 
 	/**
@@ -385,7 +360,7 @@ public class ServiceMessageWorker {
 
 			String jobId = uuidFactory.getUUID();
 			ProducerRecord<String, String> newProdRecord = JobMessageFactory.getRequestJobMessage(jobRequest, jobId, SPACE);
-			producer.send(newProdRecord);
+			kafkaSender.send(producer, newProdRecord, KafkaSender.CATEGORY_INGEST);
 
 			coreLogger.log(String.format("Sending Ingest Job Id %s for Data Id %s for Data of Type %s", jobId, data.getDataId(),
 					data.getDataType().getClass().getSimpleName()), PiazzaLogger.INFO);
@@ -412,7 +387,7 @@ public class ServiceMessageWorker {
 		ExecuteServiceData data = executeJob.data;
 		// Get the id from the data
 		String serviceId = data.getServiceId();
-		Service sMetadata = accessor.getServiceById(serviceId);
+		Service sMetadata = serviceCache.getServiceById(serviceId);
 		// Default request mimeType application/json
 		String requestMimeType = "application/json";
 		new LinkedMultiValueMap<String, String>();
@@ -504,7 +479,7 @@ public class ServiceMessageWorker {
 			pjr.jobType = ingestJob;
 
 			ProducerRecord<String, String> newProdRecord = JobMessageFactory.getRequestJobMessage(pjr, uuidFactory.getUUID(), SPACE);
-			producer.send(newProdRecord);
+			kafkaSender.send(producer, newProdRecord, KafkaSender.CATEGORY_INGEST);
 
 			coreLogger.log("newProdRecord sent " + newProdRecord.toString(), PiazzaLogger.DEBUG);
 
@@ -512,17 +487,15 @@ public class ServiceMessageWorker {
 				throw new InterruptedException();
 			}
 
-			fireWorkflowEvent(job.getCreatedBy(), job.getJobId(), dataResource.dataId, "Service completed successfully.");
+			workflowEventDispatcher.fireExecutionComplete(job.getCreatedBy(), job.getJobId(), dataResource.dataId, "Service completed successfully.");
 
 			StatusUpdate statusUpdate = new StatusUpdate(StatusUpdate.STATUS_SUCCESS);
 
 			// Create a text result and update status
 			DataResult textResult = new DataResult(dataResource.dataId);
 			statusUpdate.setResult(textResult);
-			ProducerRecord<String, String> prodRecord = JobMessageFactory.getUpdateStatusMessage(job.getJobId(), statusUpdate, SPACE);
-
-			producer.send(prodRecord);
-			coreLogger.log("prodRecord sent " + prodRecord.toString(), PiazzaLogger.DEBUG);
+			statusUpdatePublisher.publish(job.getJobId(), statusUpdate);
+			coreLogger.log("Status update queued for Job " + job.getJobId(), PiazzaLogger.DEBUG);
 
 		}
 
@@ -0,0 +1,362 @@
+/*******************************************************************************
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.venice.piazza.servicecontroller.messaging;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import util.PiazzaLogger;
+
+/**
+ * Dedicated executor for the ServiceMessageWorker. Execute Service Jobs are run on a bounded pool with a bounded queue
+ * instead of Spring's default SimpleAsyncTaskExecutor, which creates a new Thread for every job. The
+ * ServiceMessageThreadManager pauses the Kafka consumer while the pool is saturated, and the time Jobs spend queued
+ * and running is kept in the metrics.
+ * 
+ * When worker.execution.mode is set to virtual, and the JVM supports it, each Job instead runs on its own virtual
+ * Thread so that many slow external services can be in flight at once. In that mode the number of Jobs in flight is
+ * bounded by worker.virtual.max.inflight rather than by the queue. In both modes the Future returned for a Job
+ * interrupts the Thread running it when cancelled.
+ *
+ * @since 1.0
+ */
+@Component(ServiceWorkerExecutor.BEAN_NAME)
+public class ServiceWorkerExecutor implements AsyncTaskExecutor, PublicMetrics {
+	public static final String BEAN_NAME = "serviceWorkerExecutor";
+	public static final String MODE_POOLED = "pooled";
+	public static final String MODE_VIRTUAL = "virtual";
+	private static final String METRIC_PREFIX = "servicecontroller.worker.";
+
+	@Value("${worker.pool.core.size}")
+	private int corePoolSize;
+	@Value("${worker.pool.max.size}")
+	private int maxPoolSize;
+	@Value("${worker.pool.queue.capacity}")
+	private int queueCapacity;
+	@Value("${worker.pool.keepalive.seconds}")
+	private int keepAliveSeconds;
+	@Value("${worker.execution.mode}")
+	private String executionMode;
+	@Value("${worker.virtual.max.inflight}")
+	private int maxVirtualInFlight;
+
+	@Autowired
+	private PiazzaLogger coreLogger;
+
+	private ThreadPoolExecutor threadPoolExecutor;
+	private ExecutorService virtualExecutor;
+
+	private final AtomicInteger active = new AtomicInteger();
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+	private final AtomicLong submitted = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong cancelled = new AtomicLong();
+	private final AtomicLong totalWaitMillis = new AtomicLong();
+	private final AtomicLong totalRunMillis = new AtomicLong();
+	private final AtomicLong maxRunMillis = new AtomicLong();
+
+	/**
+	 * Creates the underlying Thread Pool, or the virtual Thread executor if that mode is requested and supported.
+	 */
+	@PostConstruct
+	public void initialize() {
+		if (MODE_VIRTUAL.equalsIgnoreCase(executionMode)) {
+			virtualExecutor = createVirtualThreadExecutor();
+			if (virtualExecutor != null) {
+				coreLogger.log(String.format("Service Worker running Jobs on virtual Threads with at most %s in flight",
+						maxVirtualInFlight), PiazzaLogger.INFO);
+				return;
+			}
+			coreLogger.log("Virtual Threads are not supported by this JVM. Falling back to the pooled Service Worker.",
+					PiazzaLogger.WARNING);
+		}
+
+		threadPoolExecutor = new ThreadPoolExecutor(corePoolSize, maxPoolSize, keepAliveSeconds, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(queueCapacity), new CustomizableThreadFactory("ServiceWorker-"),
+				new ThreadPoolExecutor.AbortPolicy());
+
+		coreLogger.log(String.format("Service Worker pool initialized with core size %s, max size %s and queue capacity %s",
+				corePoolSize, maxPoolSize, queueCapacity), PiazzaLogger.INFO);
+	}
+
+	/**
+	 * Looks up Executors.newVirtualThreadPerTaskExecutor, which is only present on newer JVMs.
+	 * 
+	 * @return the executor, or null if virtual Threads are not available
+	 */
+	ExecutorService createVirtualThreadExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException exception) {
+			return null;
+		}
+	}
+
+	/**
+	 * Stops accepting new work, and interrupts any running Jobs.
+	 */
+	@PreDestroy
+	public void shutdown() {
+		if (threadPoolExecutor != null) {
+			threadPoolExecutor.shutdownNow();
+		}
+		if (virtualExecutor != null) {
+			virtualExecutor.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return true if Jobs are being run on virtual Threads
+	 */
+	public boolean isVirtual() {
+		return virtualExecutor != null;
+	}
+
+	@Override
+	public void execute(Runnable task) {
+		submit(task);
+	}
+
+	@Override
+	public void execute(Runnable task, long startTimeout) {
+		submit(task);
+	}
+
+	@Override
+	public Future<?> submit(Runnable task) {
+		return submitInstrumented(new InstrumentedTask<Object>(task));
+	}
+
+	@Override
+	public <T> Future<T> submit(Callable<T> task) {
+		return submitInstrumented(new InstrumentedTask<T>(task));
+	}
+
+	private <T> Future<T> submitInstrumented(InstrumentedTask<T> task) {
+		WorkerFuture<T> future = new WorkerFuture<T>(task);
+		reserveInFlight();
+		try {
+			if (isVirtual()) {
+				virtualExecutor.execute(future);
+			} else {
+				threadPoolExecutor.execute(future);
+			}
+			submitted.incrementAndGet();
+			return future;
+		} catch (RejectedExecutionException exception) {
+			inFlight.decrementAndGet();
+			rejected.incrementAndGet();
+			throw new TaskRejectedException(String.format("Service Worker pool rejected task. Active %s, Queued %s",
+					getActiveCount(), getQueueSize()), exception);
+		}
+	}
+
+	/**
+	 * Determines if a cancelled Job will never run, as it was cancelled before it started. A Job cancelled while running
+	 * is only finished once its Thread returns.
+	 * 
+	 * @param future
+	 *            The Future returned for the Job, once cancelled
+	 * @return true if the Job never started
+	 */
+	public boolean isCancelledBeforeStart(Future<?> future) {
+		return (future instanceof WorkerFuture) && ((WorkerFuture<?>) future).cancelledBeforeStart;
+	}
+
+	/**
+	 * Counts a new Job as in flight. In virtual mode the count is only raised while it is below the limit, so that
+	 * concurrent submissions from several consumer lanes cannot go over it.
+	 */
+	private void reserveInFlight() {
+		if (!isVirtual()) {
+			inFlight.incrementAndGet();
+			return;
+		}
+		while (true) {
+			int current = inFlight.get();
+			if (current >= maxVirtualInFlight) {
+				rejected.incrementAndGet();
+				throw new TaskRejectedException(String.format("Service Worker rejected task. %s Jobs in flight", current));
+			}
+			if (inFlight.compareAndSet(current, current + 1)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Determines if the executor can accept more work. The Kafka consumer should stop fetching Jobs while this is true.
+	 *
+	 * @return true if the queue of waiting Jobs is full, or the virtual Thread limit has been reached
+	 */
+	public boolean isSaturated() {
+		if (isVirtual()) {
+			return inFlight.get() >= maxVirtualInFlight;
+		}
+		return threadPoolExecutor.getQueue().remainingCapacity() == 0;
+	}
+
+	public int getActiveCount() {
+		return active.get();
+	}
+
+	public int getQueueSize() {
+		return isVirtual() ? 0 : threadPoolExecutor.getQueue().size();
+	}
+
+	public int getInFlightCount() {
+		return inFlight.get();
+	}
+
+	public long getRejectedCount() {
+		return rejected.get();
+	}
+
+	public long getCompletedCount() {
+		return completed.get();
+	}
+
+	/**
+	 * @return the number of Jobs cancelled before they started running
+	 */
+	public long getCancelledCount() {
+		return cancelled.get();
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		Collection<Metric<?>> metrics = new ArrayList<Metric<?>>();
+		long completedCount = completed.get();
+		metrics.add(new Metric<Integer>(METRIC_PREFIX + "active", getActiveCount()));
+		metrics.add(new Metric<Integer>(METRIC_PREFIX + "queued", getQueueSize()));
+		metrics.add(new Metric<Integer>(METRIC_PREFIX + "inFlight", getInFlightCount()));
+		metrics.add(new Metric<Integer>(METRIC_PREFIX + "poolSize", isVirtual() ? 0 : threadPoolExecutor.getPoolSize()));
+		metrics.add(new Metric<Long>(METRIC_PREFIX + "submitted", submitted.get()));
+		metrics.add(new Metric<Long>(METRIC_PREFIX + "completed", completedCount));
+		metrics.add(new Metric<Long>(METRIC_PREFIX + "rejected", rejected.get()));
+		metrics.add(new Metric<Long>(METRIC_PREFIX + "cancelled", cancelled.get()));
+		metrics.add(new Metric<Long>(METRIC_PREFIX + "latency.mean",
+				completedCount == 0 ? 0L : totalRunMillis.get() / completedCount));
+		metrics.add(new Metric<Long>(METRIC_PREFIX + "latency.max", maxRunMillis.get()));
+		metrics.add(new Metric<Long>(METRIC_PREFIX + "wait.mean",
+				completedCount == 0 ? 0L : totalWaitMillis.get() / completedCount));
+		return metrics;
+	}
+
+	/**
+	 * The Future of a submitted task. A started task releases its in flight count once it has returned, so a Job
+	 * cancelled while running is still counted until its Thread is done with it. A task cancelled before it starts is
+	 * released here instead.
+	 */
+	private class WorkerFuture<T> extends FutureTask<T> {
+		private final InstrumentedTask<T> task;
+		private volatile boolean cancelledBeforeStart;
+
+		WorkerFuture(InstrumentedTask<T> task) {
+			super(task);
+			this.task = task;
+		}
+
+		@Override
+		protected void done() {
+			if (task.claim()) {
+				cancelledBeforeStart = true;
+				inFlight.decrementAndGet();
+				cancelled.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Wraps a submitted task in order to record the time spent waiting in the queue and the time spent running, and to
+	 * release its in flight count once it has finished.
+	 */
+	private class InstrumentedTask<T> implements Callable<T> {
+		private final Callable<T> callable;
+		private final Runnable runnable;
+		private final long submitTime = System.currentTimeMillis();
+		// Taken by whichever of starting the task or cancelling it first comes first, which then releases the count
+		private final AtomicBoolean claimed = new AtomicBoolean();
+
+		InstrumentedTask(Callable<T> callable) {
+			this.callable = callable;
+			this.runnable = null;
+		}
+
+		InstrumentedTask(Runnable runnable) {
+			this.callable = null;
+			this.runnable = runnable;
+		}
+
+		boolean claim() {
+			return claimed.compareAndSet(false, true);
+		}
+
+		@Override
+		public T call() throws Exception {
+			if (!claim()) {
+				// Cancelled just before it started, and already released
+				return null;
+			}
+			long startTime = System.currentTimeMillis();
+			totalWaitMillis.addAndGet(startTime - submitTime);
+			active.incrementAndGet();
+			try {
+				if (callable != null) {
+					return callable.call();
+				}
+				runnable.run();
+				return null;
+			} finally {
+				long runMillis = System.currentTimeMillis() - startTime;
+				totalRunMillis.addAndGet(runMillis);
+				long currentMax;
+				while (runMillis > (currentMax = maxRunMillis.get()) && !maxRunMillis.compareAndSet(currentMax, runMillis)) {
+					// Retry until the maximum is recorded
+				}
+				active.decrementAndGet();
+				completed.incrementAndGet();
+				inFlight.decrementAndGet();
+			}
+		}
+	}
+}
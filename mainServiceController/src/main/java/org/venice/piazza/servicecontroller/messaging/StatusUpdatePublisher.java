@@ -0,0 +1,265 @@
+/*******************************************************************************
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.venice.piazza.servicecontroller.messaging;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.venice.piazza.servicecontroller.util.CoreServiceProperties;
+
+import messaging.job.JobMessageFactory;
+import model.status.StatusUpdate;
+import util.PiazzaLogger;
+
+/**
+ * Sends Job status updates to the Job Manager. Running updates are held for a short window and coalesced per Job. The
+ * final status of a Job is sent straight away and replaces a Running update still held, so a Job that completes within
+ * the window only sends its final status. The Worker waits for the final status to be acknowledged before it finishes
+ * the Job, so the offset of the Job is not committed while its final status could still be lost. Updates are sent
+ * through the KafkaSender by a producer tuned to batch and compress records, whose own statistics are reported with
+ * the send counts.
+ * 
+ * A window of 0 sends every update straight away.
+ * 
+ * @version 1.0
+ */
+@Component
+public class StatusUpdatePublisher implements PublicMetrics {
+	private static final String METRIC_PREFIX = "servicecontroller.statusupdates.";
+	// Statistics of the Kafka producer to pass on, from its producer-metrics group
+	private static final List<String> PRODUCER_METRICS = Arrays.asList("record-send-rate", "request-latency-avg",
+			"request-latency-max", "batch-size-avg", "compression-rate-avg", "record-queue-time-avg");
+
+	@Value("${SPACE}")
+	private String SPACE;
+	@Value("${status.update.window.ms}")
+	private long windowMs;
+	@Value("${status.update.ack.timeout.ms}")
+	private long ackTimeoutMs;
+	@Value("${kafka.producer.linger.ms}")
+	private int lingerMs;
+	@Value("${kafka.producer.batch.size}")
+	private int batchSize;
+	@Value("${kafka.producer.compression.type}")
+	private String compressionType;
+	@Value("${kafka.producer.retry.attempts}")
+	private int retryAttempts;
+	@Value("${kafka.producer.retry.backoff.ms}")
+	private long retryBackoffMs;
+
+	@Autowired
+	private CoreServiceProperties coreServiceProperties;
+	@Autowired
+	private PiazzaLogger coreLogger;
+	@Autowired
+	private JobMessageCodec jobMessageCodec;
+	@Autowired
+	private KafkaSender kafkaSender;
+
+	private String topicName;
+	private Producer<String, String> producer;
+	private ScheduledExecutorService flushExecutor;
+	// Latest update of each Job not yet sent
+	private final Map<String, StatusUpdate> pendingUpdates = new ConcurrentHashMap<String, StatusUpdate>();
+	// Acknowledgements of the final updates sent, until the Worker of the Job has waited for them
+	private final Map<String, CompletableFuture<?>> finalUpdates = new ConcurrentHashMap<String, CompletableFuture<?>>();
+
+	private final AtomicLong submitted = new AtomicLong();
+	private final AtomicLong coalesced = new AtomicLong();
+	private final AtomicLong sent = new AtomicLong();
+
+	@PostConstruct
+	public void initialize() {
+		topicName = String.format("%s-%s", JobMessageFactory.UPDATE_JOB_TOPIC_NAME, SPACE);
+		producer = makeProducer();
+		if (windowMs > 0) {
+			flushExecutor = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("StatusUpdatePublisher-"));
+			flushExecutor.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					flush();
+				}
+			}, windowMs, windowMs, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Sends any held updates before the producer is closed
+	 */
+	@PreDestroy
+	public void close() {
+		if (flushExecutor != null) {
+			flushExecutor.shutdown();
+		}
+		flush();
+		if (producer != null) {
+			producer.close();
+		}
+	}
+
+	/**
+	 * Creates the producer of the Job update topic, batching records for up to kafka.producer.linger.ms and
+	 * compressing each batch. The producer retries transient failures itself with a single request in flight, so a
+	 * retried update is never written after a later update of the same Job.
+	 */
+	public Producer<String, String> makeProducer() {
+		Properties props = new Properties();
+		props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, coreServiceProperties.getKafkaHost());
+		props.put(ProducerConfig.RETRIES_CONFIG, String.valueOf(Math.max(0, retryAttempts - 1)));
+		props.put(ProducerConfig.RETRY_BACKOFF_MS_CONFIG, String.valueOf(retryBackoffMs));
+		props.put(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION, "1");
+		props.put(ProducerConfig.LINGER_MS_CONFIG, String.valueOf(lingerMs));
+		props.put(ProducerConfig.BATCH_SIZE_CONFIG, String.valueOf(batchSize));
+		props.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, compressionType);
+		return new KafkaProducer<String, String>(props, new StringSerializer(), new StringSerializer());
+	}
+
+	/**
+	 * Publishes a status update for the Job Manager. Running updates are queued, replacing an update already queued for
+	 * the same Job. Any other status is final: it is sent at once, replacing a queued Running update, and its
+	 * acknowledgement is kept for awaitFinalUpdate.
+	 * 
+	 * @param jobId
+	 *            The Id of the Job
+	 * @param statusUpdate
+	 *            The status of the Job
+	 */
+	public void publish(String jobId, StatusUpdate statusUpdate) {
+		submitted.incrementAndGet();
+		if (StatusUpdate.STATUS_RUNNING.equals(statusUpdate.getStatus())) {
+			if (flushExecutor == null) {
+				send(jobId, statusUpdate);
+			} else if (pendingUpdates.put(jobId, statusUpdate) != null) {
+				coalesced.incrementAndGet();
+			}
+			return;
+		}
+		CompletableFuture<?> acknowledgement;
+		synchronized (pendingUpdates) {
+			if (pendingUpdates.remove(jobId) != null) {
+				coalesced.incrementAndGet();
+			}
+			acknowledgement = send(jobId, statusUpdate);
+		}
+		finalUpdates.merge(jobId, acknowledgement, (previous, next) -> CompletableFuture.allOf(previous, next));
+	}
+
+	/**
+	 * Waits for the final status updates of a Job to be acknowledged, for up to status.update.ack.timeout.ms. Returns
+	 * at once if none were published.
+	 * 
+	 * @param jobId
+	 *            The Id of the Job
+	 */
+	public void awaitFinalUpdate(String jobId) {
+		CompletableFuture<?> acknowledgement = finalUpdates.remove(jobId);
+		if (acknowledgement == null) {
+			return;
+		}
+		try {
+			acknowledgement.get(ackTimeoutMs, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException exception) {
+			coreLogger.log(String.format("Final status update for Job %s was not acknowledged within %s ms", jobId, ackTimeoutMs),
+					PiazzaLogger.WARNING);
+		} catch (ExecutionException exception) {
+			// Logged and counted as dropped by the KafkaSender
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Sends all queued updates. Each is removed and sent under the same lock as final updates, so a Running update
+	 * cannot be sent after the final update that replaced it.
+	 */
+	void flush() {
+		for (String jobId : pendingUpdates.keySet()) {
+			synchronized (pendingUpdates) {
+				StatusUpdate statusUpdate = pendingUpdates.remove(jobId);
+				if (statusUpdate != null) {
+					send(jobId, statusUpdate);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Hands the update to the KafkaSender, which counts dropped updates. Transient failures are retried by the producer.
+	 * 
+	 * @return a future completed once the update is acknowledged
+	 */
+	private CompletableFuture<?> send(String jobId, StatusUpdate statusUpdate) {
+		try {
+			CompletableFuture<?> acknowledgement = kafkaSender.sendInOrder(producer,
+					new ProducerRecord<String, String>(topicName, jobId, jobMessageCodec.writeStatusUpdate(statusUpdate)),
+					KafkaSender.CATEGORY_STATUS);
+			sent.incrementAndGet();
+			return acknowledgement;
+		} catch (Exception exception) {
+			coreLogger.log(String.format("Could not send status update for Job %s: %s", jobId, exception.getMessage()),
+					PiazzaLogger.ERROR);
+			CompletableFuture<?> failure = new CompletableFuture<Object>();
+			failure.completeExceptionally(exception);
+			return failure;
+		}
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		Collection<Metric<?>> metrics = new ArrayList<Metric<?>>();
+		metrics.add(new Metric<Long>(METRIC_PREFIX + "submitted", submitted.get()));
+		metrics.add(new Metric<Long>(METRIC_PREFIX + "coalesced", coalesced.get()));
+		metrics.add(new Metric<Long>(METRIC_PREFIX + "sent", sent.get()));
+		metrics.add(new Metric<Long>(METRIC_PREFIX + "dropped", kafkaSender.getDroppedCount(KafkaSender.CATEGORY_STATUS)));
+		metrics.add(new Metric<Integer>(METRIC_PREFIX + "pending", pendingUpdates.size()));
+		if (producer != null) {
+			for (Map.Entry<MetricName, ? extends org.apache.kafka.common.Metric> entry : producer.metrics().entrySet()) {
+				MetricName name = entry.getKey();
+				if ("producer-metrics".equals(name.group()) && PRODUCER_METRICS.contains(name.name())) {
+					metrics.add(new Metric<Double>(METRIC_PREFIX + "producer." + name.name(), entry.getValue().value()));
+				}
+			}
+		}
+		return metrics;
+	}
+}
@@ -0,0 +1,245 @@
+/*******************************************************************************
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.venice.piazza.servicecontroller.messaging;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestTemplate;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import model.response.EventTypeListResponse;
+import model.workflow.Event;
+import util.PiazzaLogger;
+
+/**
+ * Fires the execution complete Events to the Workflow Service off the Job's Thread. Events are queued and posted in
+ * batches by a single dispatcher Thread, and failed posts are retried after a backoff. The Id of the
+ * piazza:executionComplete EventType is looked up once and cached, and only looked up again after the Workflow Service
+ * rejects an Event, in case the EventType was recreated.
+ * 
+ * The queue is bounded by workflow.event.queue.capacity. Events fired while it is full are dropped and counted.
+ * 
+ * @version 1.0
+ */
+@Component
+public class WorkflowEventDispatcher implements PublicMetrics {
+	public static final String EXECUTION_COMPLETE_EVENT_TYPE = "piazza:executionComplete";
+	private static final String METRIC_PREFIX = "servicecontroller.workflow.events.";
+
+	@Value("${workflow.url}")
+	private String WORKFLOW_URL;
+	@Value("${workflow.event.queue.capacity}")
+	private int queueCapacity;
+	@Value("${workflow.event.batch.size}")
+	private int batchSize;
+	@Value("${workflow.event.retry.attempts}")
+	private int retryAttempts;
+	@Value("${workflow.event.retry.backoff.ms}")
+	private long retryBackoffMs;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+	@Autowired
+	private PiazzaLogger coreLogger;
+
+	private RestTemplate restTemplate = new RestTemplate();
+	private BlockingQueue<PendingEvent> queue;
+	private Thread dispatchThread;
+	private ScheduledExecutorService retryExecutor;
+	private volatile String eventTypeId;
+
+	private final AtomicLong fired = new AtomicLong();
+	private final AtomicLong dispatched = new AtomicLong();
+	private final AtomicLong retried = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong eventTypeLookups = new AtomicLong();
+
+	@PostConstruct
+	public void initialize() {
+		queue = new LinkedBlockingQueue<PendingEvent>(queueCapacity);
+		retryExecutor = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("WorkflowEventRetry-"));
+		dispatchThread = new Thread("WorkflowEventDispatcher") {
+			@Override
+			public void run() {
+				dispatchEvents();
+			}
+		};
+		dispatchThread.setDaemon(true);
+		dispatchThread.start();
+	}
+
+	@PreDestroy
+	public void close() {
+		dispatchThread.interrupt();
+		retryExecutor.shutdownNow();
+	}
+
+	/**
+	 * Queues the Event that a Service has completed execution. Returns straight away.
+	 */
+	public void fireExecutionComplete(String user, String jobId, String dataId, String message) {
+		Map<String, Object> data = new HashMap<String, Object>();
+		data.put("jobId", jobId);
+		data.put("status", message);
+		data.put("dataId", dataId);
+
+		Event event = new Event();
+		event.createdBy = user;
+		event.data = data;
+
+		fired.incrementAndGet();
+		if (!queue.offer(new PendingEvent(event))) {
+			dropped.incrementAndGet();
+			coreLogger.log(String.format("Workflow Event queue is full. Dropped completion Event for Job %s", jobId),
+					PiazzaLogger.ERROR);
+		}
+	}
+
+	/**
+	 * Posts queued Events until shut down, taking up to a batch at a time so the EventType is resolved once per batch
+	 */
+	private void dispatchEvents() {
+		List<PendingEvent> batch = new ArrayList<PendingEvent>();
+		while (!Thread.currentThread().isInterrupted()) {
+			try {
+				batch.add(queue.take());
+				queue.drainTo(batch, batchSize - 1);
+				dispatchBatch(batch);
+			} catch (InterruptedException exception) {
+				Thread.currentThread().interrupt();
+			} catch (Exception exception) {
+				coreLogger.log(String.format("Error dispatching Workflow Events: %s", exception.getMessage()), PiazzaLogger.ERROR);
+			} finally {
+				batch.clear();
+			}
+		}
+	}
+
+	void dispatchBatch(List<PendingEvent> batch) {
+		String typeId;
+		try {
+			typeId = getEventTypeId();
+		} catch (Exception exception) {
+			coreLogger.log(String.format("Could not look up the %s EventType: %s", EXECUTION_COMPLETE_EVENT_TYPE,
+					exception.getMessage()), PiazzaLogger.ERROR);
+			for (PendingEvent pendingEvent : batch) {
+				retry(pendingEvent);
+			}
+			return;
+		}
+
+		for (PendingEvent pendingEvent : batch) {
+			pendingEvent.event.eventTypeId = typeId;
+			try {
+				restTemplate.postForObject(String.format("%s/%s", WORKFLOW_URL, "event"),
+						objectMapper.writeValueAsString(pendingEvent.event), String.class);
+				dispatched.incrementAndGet();
+			} catch (HttpClientErrorException exception) {
+				// The cached EventType may no longer exist, so look it up again before the retry
+				eventTypeId = null;
+				coreLogger.log(String.format("Workflow Service rejected Event with code %s and message %s",
+						exception.getStatusCode().toString(), exception.getResponseBodyAsString()), PiazzaLogger.ERROR);
+				retry(pendingEvent);
+			} catch (Exception exception) {
+				coreLogger.log(String.format("Could not send Event to Workflow Service: %s", exception.getMessage()),
+						PiazzaLogger.ERROR);
+				retry(pendingEvent);
+			}
+		}
+	}
+
+	/**
+	 * @return the cached Id of the execution complete EventType, looking it up if it is not yet known
+	 */
+	String getEventTypeId() throws Exception {
+		String typeId = eventTypeId;
+		if (typeId == null) {
+			String url = String.format("%s/%s?name=%s", WORKFLOW_URL, "eventType", EXECUTION_COMPLETE_EVENT_TYPE);
+			eventTypeLookups.incrementAndGet();
+			typeId = objectMapper.readValue(restTemplate.getForObject(url, String.class), EventTypeListResponse.class).data
+					.get(0).eventTypeId;
+			eventTypeId = typeId;
+		}
+		return typeId;
+	}
+
+	/**
+	 * Queues the Event again after a backoff that grows with each attempt, or drops it once attempts run out
+	 */
+	private void retry(final PendingEvent pendingEvent) {
+		if (pendingEvent.attempt >= retryAttempts) {
+			dropped.incrementAndGet();
+			coreLogger.log(String.format("Dropped Workflow Event for Job %s after %s attempts", pendingEvent.event.data.get("jobId"),
+					pendingEvent.attempt), PiazzaLogger.ERROR);
+			return;
+		}
+		pendingEvent.attempt++;
+		retried.incrementAndGet();
+		retryExecutor.schedule(new Runnable() {
+			@Override
+			public void run() {
+				if (!queue.offer(pendingEvent)) {
+					dropped.incrementAndGet();
+				}
+			}
+		}, retryBackoffMs * pendingEvent.attempt, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		Collection<Metric<?>> metrics = new ArrayList<Metric<?>>();
+		metrics.add(new Metric<Long>(METRIC_PREFIX + "fired", fired.get()));
+		metrics.add(new Metric<Long>(METRIC_PREFIX + "dispatched", dispatched.get()));
+		metrics.add(new Metric<Long>(METRIC_PREFIX + "retried", retried.get()));
+		metrics.add(new Metric<Long>(METRIC_PREFIX + "dropped", dropped.get()));
+		metrics.add(new Metric<Integer>(METRIC_PREFIX + "queued", queue.size()));
+		metrics.add(new Metric<Long>(METRIC_PREFIX + "eventTypeLookups", eventTypeLookups.get()));
+		return metrics;
+	}
+
+	/**
+	 * An Event waiting to be posted, with the number of times it has been tried
+	 */
+	static class PendingEvent {
+		private final Event event;
+		private int attempt = 1;
+
+		PendingEvent(Event event) {
+			this.event = event;
+		}
+	}
+}
@@ -27,8 +27,12 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
+import org.venice.piazza.servicecontroller.data.cache.ServiceCache;
+import org.venice.piazza.servicecontroller.data.model.ServiceChangeEvent;
 import org.venice.piazza.servicecontroller.data.mongodb.accessors.MongoAccessor;
 import org.venice.piazza.servicecontroller.elasticsearch.accessors.ElasticSearchAccessor;
+import org.venice.piazza.servicecontroller.execution.ExecutionPolicyRegistry;
+import org.venice.piazza.servicecontroller.messaging.ServiceChangeFeed;
 
 /**
  * Handler for handling registerService requests.  This handler is used 
@@ -47,6 +51,12 @@ public class DeleteServiceHandler implements PiazzaJobHandler {
 	@Autowired
 	private ElasticSearchAccessor elasticAccessor;
 	@Autowired
+	private ExecutionPolicyRegistry policyRegistry;
+	@Autowired
+	private ServiceCache serviceCache;
+	@Autowired
+	private ServiceChangeFeed serviceChangeFeed;
+	@Autowired
 	private PiazzaLogger coreLogger;
 
 	/**
@@ -104,9 +114,14 @@ public class DeleteServiceHandler implements PiazzaJobHandler {
 		} catch (Exception e) {
 			coreLogger.log(e.toString(), PiazzaLogger.ERROR);
 		}
+		serviceCache.invalidate(resourceId);
+		serviceChangeFeed.publish(resourceId, ServiceChangeEvent.DELETED);
 
 		if ((result != null) && (result.length() > 0)) {
 			coreLogger.log("The service with id " + resourceId + " was deleted " + result, PiazzaLogger.INFO);
+			if (!softDelete) {
+				policyRegistry.removePolicy(resourceId);
+			}
 		} else {
 			coreLogger.log("The service with id " + resourceId + " was NOT deleted", PiazzaLogger.INFO);
 		}
@@ -20,7 +20,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
-import org.venice.piazza.servicecontroller.data.mongodb.accessors.MongoAccessor;
+import org.venice.piazza.servicecontroller.data.cache.ServiceCache;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -41,9 +41,11 @@ public class DescribeServiceHandler implements PiazzaJobHandler {
 	private static final Logger LOGGER = LoggerFactory.getLogger(DescribeServiceHandler.class);
 	
 	@Autowired
-	private MongoAccessor accessor;
+	private ServiceCache serviceCache;
 	@Autowired
 	private PiazzaLogger coreLogger;
+	@Autowired
+	private ObjectMapper objectMapper;
 	
 	/**
 	 * Describe service handler
@@ -69,9 +71,8 @@ public class DescribeServiceHandler implements PiazzaJobHandler {
 		ResponseEntity<String> responseEntity = null;
 
 		try {
-			Service sMetadata = accessor.getServiceById(serviceId);
-			ObjectMapper mapper = new ObjectMapper();
-			String result = mapper.writeValueAsString(sMetadata);
+			Service sMetadata = serviceCache.getServiceById(serviceId);
+			String result = objectMapper.writeValueAsString(sMetadata);
 			responseEntity = new ResponseEntity<String>(result, HttpStatus.OK);
 		} catch (JsonProcessingException ex) {
 			coreLogger.log("Could not retrieve resourceId " + serviceId, PiazzaLogger.ERROR);
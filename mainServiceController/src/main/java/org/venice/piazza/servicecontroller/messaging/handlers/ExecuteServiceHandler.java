@@ -20,18 +20,33 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpServerErrorException;
 import org.springframework.web.client.ResourceAccessException;
-import org.springframework.web.client.RestTemplate;
 import org.springframework.web.util.UriComponentsBuilder;
-import org.venice.piazza.servicecontroller.data.mongodb.accessors.MongoAccessor;
+import org.venice.piazza.servicecontroller.data.cache.ServiceCache;
+import org.venice.piazza.servicecontroller.data.model.ServiceExecutionPolicy;
+import org.venice.piazza.servicecontroller.execution.CircuitBreaker;
+import org.venice.piazza.servicecontroller.execution.CircuitBreakerRegistry;
+import org.venice.piazza.servicecontroller.execution.EndpointBalancer;
+import org.venice.piazza.servicecontroller.execution.ExecutionPolicyRegistry;
+import org.venice.piazza.servicecontroller.execution.RequestHedger;
+import org.venice.piazza.servicecontroller.execution.ServiceHttpEngine;
+import org.venice.piazza.servicecontroller.execution.ServiceRateLimiter;
+import org.venice.piazza.servicecontroller.execution.ServiceRetryScheduler;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -56,12 +71,25 @@ import util.PiazzaLogger;
 public class ExecuteServiceHandler implements PiazzaJobHandler {
 
 	@Autowired
-	private MongoAccessor accessor;
+	private ServiceCache serviceCache;
 	@Autowired
 	private PiazzaLogger coreLogger;
-
-	private RestTemplate template = new RestTemplate();
-
+	@Autowired
+	private ServiceHttpEngine httpEngine;
+	@Autowired
+	private ExecutionPolicyRegistry policyRegistry;
+	@Autowired
+	private ObjectMapper objectMapper;
+	@Autowired
+	private CircuitBreakerRegistry breakerRegistry;
+	@Autowired
+	private ServiceRateLimiter rateLimiter;
+	@Autowired
+	private ServiceRetryScheduler retryScheduler;
+	@Autowired
+	private RequestHedger requestHedger;
+	@Autowired
+	private EndpointBalancer endpointBalancer;
 
     /**
      * Handler for handling execute service requests. This method will execute a service given 
@@ -94,24 +122,56 @@ public class ExecuteServiceHandler implements PiazzaJobHandler {
 
 	/**
 	 * Handles requests to execute a service. 
+	 * The calling Thread is blocked until the service responds, including any time spent waiting for the limits of
+	 * the service or between retries. Calls rejected by an open circuit, or by the limits of a service with too many
+	 * calls waiting, return 503 Service Unavailable.
 	 * TODO this needs to change to leverage pz-jbcommon ExecuteServiceMessage after it builds.
 	 * 
 	 * @param message
 	 * @return the Response as a String
 	 */
 	public ResponseEntity<String> handle(ExecuteServiceData data) {
+		CompletableFuture<ResponseEntity<String>> future = executeAsync(data);
+		try {
+			return future.get();
+		} catch (InterruptedException exception) {
+			// The Job was cancelled; abort the outstanding request
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new ResourceAccessException(String.format("Execution of Service ID %s was interrupted", data.getServiceId()));
+		} catch (ExecutionException exception) {
+			if ((exception.getCause() instanceof CircuitBreaker.CircuitOpenException)
+					|| (exception.getCause() instanceof ServiceRateLimiter.CallRejectedException)) {
+				return new ResponseEntity<>(exception.getCause().getMessage(), HttpStatus.SERVICE_UNAVAILABLE);
+			}
+			if (exception.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) exception.getCause();
+			}
+			throw new ResourceAccessException(exception.getCause().getMessage());
+		}
+	}
+
+	/**
+	 * Executes a service without blocking the calling Thread for the duration of the call. Invalid requests complete
+	 * immediately with an error response; errors calling the service, and rejections by its circuit breaker, complete
+	 * the future exceptionally.
+	 * 
+	 * @param data
+	 *            The service Id and inputs
+	 * @return a future completed with the response of the service
+	 */
+	public CompletableFuture<ResponseEntity<String>> executeAsync(ExecuteServiceData data) {
 		coreLogger.log(String.format("Beginning execution of Service ID %s", data.getServiceId()), PiazzaLogger.INFO);
-		ResponseEntity<String> responseEntity = null;
+		CompletableFuture<ResponseEntity<String>> responseEntity = null;
 		String serviceId = data.getServiceId();
 		Service sMetadata = null;
 	 	// Default request mimeType application/json
 		String requestMimeType = "application/json";
 		try {
 			// Accessor throws exception if can't find service
-			 sMetadata= accessor.getServiceById(serviceId);
+			 sMetadata= serviceCache.getServiceById(serviceId);
 	
-			ObjectMapper om = new ObjectMapper();
-		    String result = om.writeValueAsString(sMetadata);
+		    String result = objectMapper.writeValueAsString(sMetadata);
 		    coreLogger.log(result, PiazzaLogger.INFO);
 		} catch (ResourceAccessException | JsonProcessingException ex) {
 			ex.printStackTrace();
@@ -150,7 +210,7 @@ public class ExecuteServiceHandler implements PiazzaJobHandler {
 					requestMimeType = bdt.getMimeType();
 					if ((requestMimeType == null) || (requestMimeType.length() == 0)) {
 						coreLogger.log("Body mime type not specified", PiazzaLogger.ERROR);
-						return new ResponseEntity<>("Body mime type not specified", HttpStatus.BAD_REQUEST);
+						return CompletableFuture.completedFuture(new ResponseEntity<>("Body mime type not specified", HttpStatus.BAD_REQUEST));
 					}
 				} else {
 					// Default behavior for other inputs, put them in list of objects
@@ -163,42 +223,91 @@ public class ExecuteServiceHandler implements PiazzaJobHandler {
 			coreLogger.log("Final Builder URL" + builder.toUriString(), PiazzaLogger.INFO);
 			if (postString.length() > 0 && postObjects.size() > 0) {
 				coreLogger.log("String Input not consistent with other Inputs", PiazzaLogger.ERROR);
-				return new ResponseEntity<>("String Input not consistent with other Inputs", HttpStatus.BAD_REQUEST);
+				return CompletableFuture.completedFuture(new ResponseEntity<>("String Input not consistent with other Inputs", HttpStatus.BAD_REQUEST));
 			} else if (postObjects.size() > 0) {
 				ObjectMapper mapper = makeObjectMapper();
 				try {
 					postString = mapper.writeValueAsString(postObjects);
 				} catch (JsonProcessingException e) {
 					coreLogger.log(e.getMessage(), PiazzaLogger.ERROR);
-					return new ResponseEntity<>("Could not marshal post requests", HttpStatus.BAD_REQUEST);
+					return CompletableFuture.completedFuture(new ResponseEntity<>("Could not marshal post requests", HttpStatus.BAD_REQUEST));
 				}
 			}
 			
 			URI url = URI.create(builder.toUriString());
+			HttpMethod method = HttpMethod.GET;
+			HttpEntity<String> requestEntity = null;
 			if (sMetadata.getMethod().equals("GET")) {
 				coreLogger.log("GetForEntity URL=" + url, PiazzaLogger.INFO);
-				responseEntity = template.getForEntity(url, String.class);
-	
 			} else {
 				HttpHeaders headers = new HttpHeaders();
 	
 				// Set the mimeType of the request
 				MediaType mediaType = createMediaType(requestMimeType);
 				headers.setContentType(mediaType);
-				HttpEntity<String> requestEntity = makeHttpEntity(headers, postString);
+				requestEntity = makeHttpEntity(headers, postString);
+				method = HttpMethod.POST;
 				
 				coreLogger.log("PostForEntity URL=" + url, PiazzaLogger.INFO);
-				responseEntity = template.postForEntity(url, requestEntity, String.class);
 			}
+			// Calls over the limits of the service wait for their turn, and are then sent through its circuit breaker.
+			// Hedges of slow calls, and retries of transient failures, each wait for their turn again.
+			final ServiceExecutionPolicy policy = policyRegistry.getPolicy(serviceId);
+			final HttpMethod callMethod = method;
+			final HttpEntity<String> callEntity = requestEntity;
+			Supplier<CompletableFuture<ResponseEntity<String>>> send = () -> rateLimiter.submit(serviceId, policy,
+					() -> executeGuarded(serviceId, callMethod, url, callEntity, policy));
+			Supplier<CompletableFuture<ResponseEntity<String>>> hedged = () -> requestHedger.execute(serviceId, callMethod,
+					policy, send);
+			responseEntity = retryScheduler.execute(serviceId, callMethod, policy, hedged);
 			
 		} else
 		{
-			return new ResponseEntity<>("Service Id " + data.getServiceId() + " not found", HttpStatus.NOT_FOUND);
+			return CompletableFuture.completedFuture(new ResponseEntity<>("Service Id " + data.getServiceId() + " not found", HttpStatus.NOT_FOUND));
 
 		}
 		return responseEntity;
 	}
 	
+	/**
+	 * Sends the request through the circuit breaker of the service. Calls are failed with a CircuitOpenException
+	 * while the circuit is open, so that hedging and retries do not take the rejection for a response. Server errors and
+	 * I/O errors, including timeouts, count as failures; client errors do not, since the service itself is healthy.
+	 * Permitted calls are sent to one of the endpoints of the service, if it has several.
+	 */
+	private CompletableFuture<ResponseEntity<String>> executeGuarded(String serviceId, HttpMethod method, URI url,
+			HttpEntity<String> requestEntity, ServiceExecutionPolicy policy) {
+		final CircuitBreaker breaker = breakerRegistry.get(serviceId);
+		final CircuitBreaker.Permit permit = breaker.tryAcquire();
+		if (permit == null) {
+			coreLogger.log(String.format("Rejected execution of Service ID %s. Circuit is %s.", serviceId, breaker.getState()),
+					PiazzaLogger.WARNING);
+			CompletableFuture<ResponseEntity<String>> rejected = new CompletableFuture<ResponseEntity<String>>();
+			rejected.completeExceptionally(new CircuitBreaker.CircuitOpenException(
+					String.format("Service Id %s is unavailable. Try again later.", serviceId)));
+			return rejected;
+		}
+		final long startTime = System.currentTimeMillis();
+		CompletableFuture<ResponseEntity<String>> responseEntity;
+		try {
+			responseEntity = endpointBalancer.execute(serviceId, policy, url,
+					target -> httpEngine.execute(method, target, requestEntity, policy));
+		} catch (RuntimeException exception) {
+			breaker.onComplete(permit, System.currentTimeMillis() - startTime, true);
+			throw exception;
+		}
+		responseEntity.whenComplete((response, exception) -> {
+			Throwable cause = (exception instanceof CompletionException) ? exception.getCause() : exception;
+			if (cause instanceof CancellationException) {
+				breaker.onCancel(permit);
+			} else {
+				breaker.onComplete(permit, System.currentTimeMillis() - startTime,
+						(cause instanceof HttpServerErrorException) || (cause instanceof ResourceAccessException));
+			}
+		});
+		return responseEntity;
+	}
+
 	/**
 	 * This method creates a MediaType based on the mimetype that was provided
 	 * 
@@ -240,6 +349,6 @@ public class ExecuteServiceHandler implements PiazzaJobHandler {
 		
 	}
 	ObjectMapper makeObjectMapper() {
-		return new ObjectMapper();
+		return objectMapper;
 	}
 }
\ No newline at end of file
@@ -15,8 +15,11 @@
  *******************************************************************************/
 package org.venice.piazza.servicecontroller.messaging.handlers;
 
-import java.util.List;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
 
+import org.mongojack.DBCursor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -25,6 +28,8 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
 import org.venice.piazza.servicecontroller.data.mongodb.accessors.MongoAccessor;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import model.job.PiazzaJobType;
@@ -44,6 +49,8 @@ public class ListServiceHandler implements PiazzaJobHandler {
 	private MongoAccessor accessor;
 	@Autowired
 	private PiazzaLogger coreLogger;
+	@Autowired
+	private ObjectMapper objectMapper;
 	
 	/**
 	 * ListService handler
@@ -63,10 +70,9 @@ public class ListServiceHandler implements PiazzaJobHandler {
 	public ResponseEntity<String> handle () {
 		ResponseEntity<String> responseEntity = null;
 		try {
-			List<Service> rmList = accessor.list();
-			ObjectMapper mapper = makeObjectMapper();
-			String result = mapper.writeValueAsString(rmList);
-			responseEntity = new ResponseEntity<String>(result, HttpStatus.OK);
+			StringWriter result = new StringWriter();
+			writeServices(makeObjectMapper().getFactory().createGenerator(result));
+			responseEntity = new ResponseEntity<String>(result.toString(), HttpStatus.OK);
 		} catch (Exception ex) {
 			coreLogger.log(ex.getMessage(), PiazzaLogger.ERROR);
 			responseEntity = new ResponseEntity<String>("Could not retrieve a list of user services" , HttpStatus.NOT_FOUND);
@@ -74,8 +80,34 @@ public class ListServiceHandler implements PiazzaJobHandler {
 
 		return responseEntity;
 	}
+
+	/**
+	 * Writes the JSON list of services to a stream as they are read from MongoDB, so memory use does not grow with the
+	 * number of registered services. The stream is flushed but not closed.
+	 * 
+	 * @param outputStream
+	 *            The stream to write the UTF-8 JSON to
+	 */
+	public void writeServices(OutputStream outputStream) throws IOException {
+		writeServices(makeObjectMapper().getFactory().createGenerator(outputStream, JsonEncoding.UTF8));
+	}
+
+	private void writeServices(JsonGenerator generator) throws IOException {
+		generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+		DBCursor<Service> services = accessor.getAvailableServices();
+		try {
+			generator.writeStartArray();
+			while (services.hasNext()) {
+				generator.writeObject(services.next());
+			}
+			generator.writeEndArray();
+		} finally {
+			services.close();
+			generator.close();
+		}
+	}
 	
 	ObjectMapper makeObjectMapper() {
-		return new ObjectMapper();
+		return objectMapper;
 	}
 }
\ No newline at end of file
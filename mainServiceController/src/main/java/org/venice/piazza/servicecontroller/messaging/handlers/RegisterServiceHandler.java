@@ -21,8 +21,11 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
+import org.venice.piazza.servicecontroller.data.cache.ServiceCache;
+import org.venice.piazza.servicecontroller.data.model.ServiceChangeEvent;
 import org.venice.piazza.servicecontroller.data.mongodb.accessors.MongoAccessor;
 import org.venice.piazza.servicecontroller.elasticsearch.accessors.ElasticSearchAccessor;
+import org.venice.piazza.servicecontroller.messaging.ServiceChangeFeed;
 import model.job.PiazzaJobType;
 import model.job.type.RegisterServiceJob;
 import model.response.ErrorResponse;
@@ -47,6 +50,10 @@ public class RegisterServiceHandler implements PiazzaJobHandler {
 	@Autowired
 	private ElasticSearchAccessor elasticAccessor;
 	@Autowired
+	private ServiceCache serviceCache;
+	@Autowired
+	private ServiceChangeFeed serviceChangeFeed;
+	@Autowired
 	private PiazzaLogger coreLogger;
 	@Autowired
 	private UUIDFactory uuidFactory;
@@ -96,6 +103,8 @@ public class RegisterServiceHandler implements PiazzaJobHandler {
 			service.setServiceId(resultServiceId);
 			
 			resultServiceId = mongoAccessor.save(service);
+			serviceCache.invalidate(service.getServiceId());
+			serviceChangeFeed.publish(service.getServiceId(), ServiceChangeEvent.REGISTERED);
 			coreLogger.log("The result of the save is " + resultServiceId, PiazzaLogger.DEBUG);
 
 			PiazzaResponse response = elasticAccessor.save(service);
@@ -35,6 +35,8 @@ public class SearchServiceHandler implements PiazzaJobHandler {
 
 	@Autowired
 	private PiazzaLogger coreLogger;
+	@Autowired
+	private ObjectMapper objectMapper;
 
 
 	/**
@@ -68,12 +70,28 @@ public class SearchServiceHandler implements PiazzaJobHandler {
 	 * @return a String of ResourceMetadata items that match the search
 	 */
 	public ResponseEntity<String> handle(SearchCriteria criteria) {
+		return handle(criteria, null, null);
+	}
+
+	/**
+	 * 
+	 * @param criteria
+	 *            to search. field and regex expression
+	 * @param page
+	 *            the page of results, starting at 0, or null for the first
+	 * @param perPage
+	 *            the number of results per page, or null for all of the
+	 *            results
+	 * @return a String of ResourceMetadata items that match the search
+	 */
+	public ResponseEntity<String> handle(SearchCriteria criteria, Integer page, Integer perPage) {
 		ResponseEntity<String> responseEntity;
 		String result;
 		if (criteria != null) {
 			coreLogger.log("About to search using criteria" + criteria, PiazzaLogger.INFO);
 	
-			List<Service> results = accessor.search(criteria);
+			List<Service> results = (perPage == null) ? accessor.search(criteria)
+					: accessor.search(criteria, (page == null) ? 0 : page, perPage);
 			if (results.isEmpty()) {
 				coreLogger.log(
 						"No results were returned searching for field " + criteria.getField() + " and search criteria " + criteria.getPattern(),
@@ -100,6 +118,6 @@ public class SearchServiceHandler implements PiazzaJobHandler {
 	}
 	
 	ObjectMapper makeObjectMapper() {
-		return new ObjectMapper();
+		return objectMapper;
 	}
 }
@@ -26,8 +26,11 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.util.UriComponentsBuilder;
+import org.venice.piazza.servicecontroller.data.cache.ServiceCache;
+import org.venice.piazza.servicecontroller.data.model.ServiceChangeEvent;
 import org.venice.piazza.servicecontroller.data.mongodb.accessors.MongoAccessor;
 import org.venice.piazza.servicecontroller.elasticsearch.accessors.ElasticSearchAccessor;
+import org.venice.piazza.servicecontroller.messaging.ServiceChangeFeed;
 import model.job.PiazzaJobType;
 import model.job.type.UpdateServiceJob;
 import model.response.PiazzaResponse;
@@ -51,6 +54,12 @@ public class UpdateServiceHandler implements PiazzaJobHandler {
 	
 	@Autowired
 	private ElasticSearchAccessor elasticAccessor;
+
+	@Autowired
+	private ServiceCache serviceCache;
+
+	@Autowired
+	private ServiceChangeFeed serviceChangeFeed;
 	
 	@Autowired
 	private PiazzaLogger coreLogger;
@@ -104,6 +113,8 @@ public class UpdateServiceHandler implements PiazzaJobHandler {
 	        	coreLogger.log(String.format("Updating a registered service with ID %s", sMetadata.getServiceId()), PiazzaLogger.INFO);
 
 				result = accessor.update(sMetadata);
+				serviceCache.invalidate(sMetadata.getServiceId());
+				serviceChangeFeed.publish(sMetadata.getServiceId(), ServiceChangeEvent.UPDATED);
 				
 				if (result.length() > 0) {
 				   coreLogger.log("The service " + sMetadata.getResourceMetadata().name + " was updated with id " + result, PiazzaLogger.INFO);
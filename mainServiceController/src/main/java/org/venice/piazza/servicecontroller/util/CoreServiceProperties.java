@@ -51,6 +51,10 @@ public class CoreServiceProperties {
 	private String mongoDBName;
 	@Value("${mongo.db.collection.name}")
 	private String mongoCollectionName;
+	@Value("${mongo.db.policy.collection.name}")
+	private String mongoPolicyCollectionName;
+	@Value("${mongo.db.keyword.search}")
+	private String mongoKeywordSearch;
 	@Value("${servicecontroller.host}")
 	private String host;
 	@Value("${servicecontroller.port}")
@@ -171,6 +175,22 @@ public class CoreServiceProperties {
 		this.mongoCollectionName = mongoCollectionName;
 	}
 
+	public String getMongoPolicyCollectionName() {
+		return mongoPolicyCollectionName;
+	}
+
+	public void setMongoPolicyCollectionName(String mongoPolicyCollectionName) {
+		this.mongoPolicyCollectionName = mongoPolicyCollectionName;
+	}
+
+	public String getMongoKeywordSearch() {
+		return mongoKeywordSearch;
+	}
+
+	public void setMongoKeywordSearch(String mongoKeywordSearch) {
+		this.mongoKeywordSearch = mongoKeywordSearch;
+	}
+
 	public String getSpace() {
 		return space;
 	}
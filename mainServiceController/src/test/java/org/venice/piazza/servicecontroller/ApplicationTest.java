@@ -1,5 +1,8 @@
 package org.venice.piazza.servicecontroller;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -11,6 +14,13 @@ import org.powermock.modules.junit4.PowerMockRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import model.service.metadata.Service;
+
 @PowerMockIgnore("javax.management.*")
 @RunWith(PowerMockRunner.class)
 public class ApplicationTest {
@@ -46,4 +56,15 @@ public class ApplicationTest {
 		//Application.main(args);
 		
 	}
+
+	/**
+	 * Test that the shared ObjectMapper is built with the Spring Boot settings
+	 */
+	@Test
+	public void testObjectMapper() throws Exception {
+		ObjectMapper mapper = new Application().objectMapper(new Jackson2ObjectMapperBuilder());
+		assertFalse("Unknown properties should be ignored", mapper.isEnabled(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES));
+		Service service = mapper.readValue("{\"serviceId\":\"123\",\"unknown\":true}", Service.class);
+		assertEquals("The Service should be read", "123", service.getServiceId());
+	}
 }
@@ -23,7 +23,11 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 
@@ -38,11 +42,22 @@ import org.mongojack.JacksonDBCollection;
 import org.powermock.modules.junit4.PowerMockRunner;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.validation.beanvalidation.LocalValidatorFactoryBean;
 import org.springframework.web.client.ResourceAccessException;
 import org.venice.piazza.servicecontroller.controller.ServiceController;
+import org.venice.piazza.servicecontroller.data.model.RunningJob;
+import org.venice.piazza.servicecontroller.data.model.ServiceExecutionPolicy;
+import org.venice.piazza.servicecontroller.data.model.ServiceListPage;
+import org.venice.piazza.servicecontroller.data.cache.ServiceCache;
+import org.venice.piazza.servicecontroller.messaging.RunningJobRegistry;
+import org.venice.piazza.servicecontroller.messaging.ServiceChangeFeed;
 import org.venice.piazza.servicecontroller.data.mongodb.accessors.MongoAccessor;
 import org.venice.piazza.servicecontroller.elasticsearch.accessors.ElasticSearchAccessor;
+import org.venice.piazza.servicecontroller.execution.CircuitBreaker;
+import org.venice.piazza.servicecontroller.execution.CircuitBreakerRegistry;
+import org.venice.piazza.servicecontroller.execution.EndpointBalancer;
+import org.venice.piazza.servicecontroller.execution.ExecutionPolicyRegistry;
 import org.venice.piazza.servicecontroller.messaging.handlers.DeleteServiceHandler;
 import org.venice.piazza.servicecontroller.messaging.handlers.DescribeServiceHandler;
 import org.venice.piazza.servicecontroller.messaging.handlers.ExecuteServiceHandler;
@@ -114,6 +129,18 @@ public class ServiceControllerTest {
 	
 	@Mock
 	private LocalValidatorFactoryBean validator;
+
+	@Mock
+	private ExecutionPolicyRegistry policyRegistryMock;
+
+	@Mock
+	private ServiceCache serviceCacheMock;
+	@Mock
+	private ServiceChangeFeed serviceChangeFeedMock;
+	@Mock
+	private RunningJobRegistry runningJobRegistryMock;
+	@Mock
+	private CircuitBreakerRegistry breakerRegistryMock;
 	
 	@InjectMocks
 	private org.mongojack.DBCursor<Service> dbCursorMock;
@@ -193,7 +220,7 @@ public class ServiceControllerTest {
 		String testServiceId = "9a6baae2-bd74-4c4b-9a65-c45e8cd9060";
 		service.setServiceId(testServiceId);
 		
-        Mockito.doReturn(service).when(accessorMock).getServiceById(testServiceId);
+        Mockito.doReturn(service).when(serviceCacheMock).getServiceById(testServiceId);
 		// Should check to make sure each of the handlers are not null
 		PiazzaResponse piazzaResponse = sc.getServiceInfo(testServiceId).getBody();
 		
@@ -206,7 +233,7 @@ public class ServiceControllerTest {
 	 * Test get service info sending a null
 	 */
 	public void testGetServiceInfoWithNull() {
-        Mockito.doThrow(new ResourceAccessException("Service not found.")).when(accessorMock).getServiceById(null);
+        Mockito.doThrow(new ResourceAccessException("Service not found.")).when(serviceCacheMock).getServiceById(null);
 
 		PiazzaResponse piazzaResponse = sc.getServiceInfo(null).getBody();
 		
@@ -226,13 +253,45 @@ public class ServiceControllerTest {
 
 		ServiceListResponse serviceList = new ServiceListResponse(services, pagination);
 		// Create some temporary mocks for odd call
-		Mockito.when(accessorMock.getServices(1, 25, "asc", "serviceId", "", "")).thenReturn(serviceList);
+		Mockito.when(accessorMock.getServices(1, 25, "asc", "serviceId", "", "", true)).thenReturn(serviceList);
 
-		PiazzaResponse piazzaResponse = sc.getServices(1, 25, "asc", "serviceId", "", "").getBody();
+		PiazzaResponse piazzaResponse = sc.getServices(1, 25, "asc", "serviceId", "", "", null, true).getBody();
 		assertThat("A list of services should be returned", piazzaResponse, instanceOf(ServiceListResponse.class));
 		
 	}
 	
+	@Test
+	/**
+	 * Get a page of services by continuation token, with the next token in a header
+	 */
+	public void testGetServicesContinuation() {
+		ServiceListResponse serviceList = new ServiceListResponse(getServicesList(), new Pagination(null, null, 25, "serviceId", "asc"));
+		Mockito.when(accessorMock.getServicesPage(25, "asc", "serviceId", null, null, "", false))
+				.thenReturn(new ServiceListPage(serviceList, "next"));
+
+		ResponseEntity<PiazzaResponse> response = sc.getServices(0, 25, "asc", null, null, null, "", false);
+		assertEquals("The page should be returned", serviceList, response.getBody());
+		assertEquals("The next token should be in the header", "next",
+				response.getHeaders().getFirst(ServiceController.CONTINUATION_TOKEN_HEADER));
+
+		Mockito.when(accessorMock.getServicesPage(25, "asc", "serviceId", null, null, "bad", true))
+				.thenThrow(new IllegalArgumentException("Invalid continuation token."));
+		response = sc.getServices(0, 25, "asc", null, null, null, "bad", true);
+		assertEquals("An invalid token is a bad request", HttpStatus.BAD_REQUEST, response.getStatusCode());
+	}
+	
+	@Test
+	/**
+	 * Get a list of services with an invalid page size
+	 */
+	public void testGetServicesInvalidPageSize() {
+		ResponseEntity<PiazzaResponse> response = sc.getServices(0, 0, "asc", null, null, null, "", true);
+		assertEquals("A page size of 0 is a bad request", HttpStatus.BAD_REQUEST, response.getStatusCode());
+		response = sc.getServices(-1, 25, "asc", null, null, null, null, true);
+		assertEquals("A negative page is a bad request", HttpStatus.BAD_REQUEST, response.getStatusCode());
+		Mockito.verifyZeroInteractions(accessorMock);
+	}
+	
 	@Test
 	/** 
 	 * Get a list of services with Exception thrown
@@ -245,9 +304,9 @@ public class ServiceControllerTest {
 		Pagination pagination = new Pagination(1, 1, 1, "serviceId", "asc");
 
 		// Create some temporary mocks for odd call
-		Mockito.when(accessorMock.getServices(1, 25, "asc", "serviceId", "", "")).thenThrow(new MongoException("There was an error"));
+		Mockito.when(accessorMock.getServices(1, 25, "asc", "serviceId", "", "", true)).thenThrow(new MongoException("There was an error"));
 
-		PiazzaResponse piazzaResponse = sc.getServices(1, 25, "asc", "serviceId", "", "").getBody();
+		PiazzaResponse piazzaResponse = sc.getServices(1, 25, "asc", "serviceId", "", "", null, true).getBody();
 		assertThat("A list of services should be returned", piazzaResponse, instanceOf(ErrorResponse.class));
 		
 	}
@@ -314,6 +373,96 @@ public class ServiceControllerTest {
 		assertThat("An ErrorResponse should be returned", piazzaResponse, instanceOf(ErrorResponse.class));
 	}
 
+	@Test
+	/**
+	 * Test that an execution policy is stored for the service in the path
+	 */
+	public void testUpdateExecutionPolicy() {
+		String testServiceId = "9a6baae2-bd74-4c4b-9a65-c45e8cd9060";
+		Mockito.doReturn(service).when(accessorMock).getServiceById(testServiceId);
+		ServiceExecutionPolicy policy = new ServiceExecutionPolicy();
+		policy.setReadTimeout(5000);
+
+		ResponseEntity<PiazzaResponse> piazzaResponse = sc.updateExecutionPolicy(testServiceId, policy);
+		assertThat("The policy update should be successful", piazzaResponse.getBody(), instanceOf(SuccessResponse.class));
+		assertEquals("The policy should apply to the service in the path", testServiceId, policy.getServiceId());
+		Mockito.verify(policyRegistryMock).setPolicy(policy);
+	}
+
+	@Test
+	/**
+	 * Test that an execution policy is not stored for an unknown service
+	 */
+	public void testUpdateExecutionPolicyServiceNotFound() {
+		Mockito.doThrow(new ResourceAccessException("Not found")).when(accessorMock).getServiceById("missing");
+
+		ResponseEntity<PiazzaResponse> piazzaResponse = sc.updateExecutionPolicy("missing", new ServiceExecutionPolicy());
+		assertEquals("The response should be 404", HttpStatus.NOT_FOUND, piazzaResponse.getStatusCode());
+		Mockito.verify(policyRegistryMock, Mockito.never()).setPolicy(Mockito.any(ServiceExecutionPolicy.class));
+	}
+
+	@Test
+	/**
+	 * Test that an execution policy with invalid limits is rejected
+	 */
+	public void testUpdateExecutionPolicyInvalidLimits() {
+		String testServiceId = "9a6baae2-bd74-4c4b-9a65-c45e8cd9060";
+		Mockito.doReturn(service).when(accessorMock).getServiceById(testServiceId);
+		ServiceExecutionPolicy policy = new ServiceExecutionPolicy();
+		policy.setMaxConcurrentCalls(4);
+		policy.setRequestsPerSecond(0.0);
+
+		ResponseEntity<PiazzaResponse> piazzaResponse = sc.updateExecutionPolicy(testServiceId, policy);
+		assertEquals("The response should be 400", HttpStatus.BAD_REQUEST, piazzaResponse.getStatusCode());
+		Mockito.verify(policyRegistryMock, Mockito.never()).setPolicy(Mockito.any(ServiceExecutionPolicy.class));
+	}
+
+	@Test
+	/**
+	 * Test that an execution policy with timeouts that are not positive is rejected
+	 */
+	public void testUpdateExecutionPolicyInvalidTimeouts() {
+		String testServiceId = "9a6baae2-bd74-4c4b-9a65-c45e8cd9060";
+		Mockito.doReturn(service).when(accessorMock).getServiceById(testServiceId);
+		ServiceExecutionPolicy policy = new ServiceExecutionPolicy();
+		policy.setConnectTimeout(0);
+		assertEquals("A zero connect timeout should be rejected", HttpStatus.BAD_REQUEST,
+				sc.updateExecutionPolicy(testServiceId, policy).getStatusCode());
+
+		policy.setConnectTimeout(1000);
+		policy.setReadTimeout(-1);
+		assertEquals("A negative read timeout should be rejected", HttpStatus.BAD_REQUEST,
+				sc.updateExecutionPolicy(testServiceId, policy).getStatusCode());
+		Mockito.verify(policyRegistryMock, Mockito.never()).setPolicy(Mockito.any(ServiceExecutionPolicy.class));
+
+		policy.setReadTimeout(5000);
+		assertEquals(HttpStatus.OK, sc.updateExecutionPolicy(testServiceId, policy).getStatusCode());
+		Mockito.verify(policyRegistryMock).setPolicy(policy);
+	}
+
+	@Test
+	/**
+	 * Test that an execution policy with invalid endpoints or load balancing is rejected
+	 */
+	public void testUpdateExecutionPolicyInvalidEndpoints() {
+		String testServiceId = "9a6baae2-bd74-4c4b-9a65-c45e8cd9060";
+		Mockito.doReturn(service).when(accessorMock).getServiceById(testServiceId);
+		ServiceExecutionPolicy policy = new ServiceExecutionPolicy();
+		policy.setEndpoints(Arrays.asList("http://replica1:8082", "not a url"));
+		assertEquals("Invalid endpoints should be rejected", HttpStatus.BAD_REQUEST,
+				sc.updateExecutionPolicy(testServiceId, policy).getStatusCode());
+
+		policy.setEndpoints(Arrays.asList("http://replica1:8082", "http://replica2:8082"));
+		policy.setLoadBalancing("RANDOM");
+		assertEquals("Unknown strategies should be rejected", HttpStatus.BAD_REQUEST,
+				sc.updateExecutionPolicy(testServiceId, policy).getStatusCode());
+		Mockito.verify(policyRegistryMock, Mockito.never()).setPolicy(Mockito.any(ServiceExecutionPolicy.class));
+
+		policy.setLoadBalancing(EndpointBalancer.EWMA);
+		assertEquals(HttpStatus.OK, sc.updateExecutionPolicy(testServiceId, policy).getStatusCode());
+		Mockito.verify(policyRegistryMock).setPolicy(policy);
+	}
+
 	@Test
 	public void testUpdateServiceMetadata() throws Exception{
 
@@ -466,11 +615,24 @@ public class ServiceControllerTest {
 	 * tests the listService.  This is called internally for testing
 	 */
 	
-	public void testListService() {
-		ResponseEntity<String> responseEntity = new ResponseEntity<String>("Just a test to list", HttpStatus.OK); 
-        Mockito.doReturn(responseEntity ).when(lsHandlerMock).handle();
-        ResponseEntity<String> result = sc.listService();
-        assertEquals("The response should be 200", result.getStatusCode(), responseEntity.getStatusCode());
+	public void testListService() throws Exception {
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		sc.listService(response);
+		Mockito.verify(lsHandlerMock).writeServices(response.getOutputStream());
+		assertEquals("The response should be 200", HttpStatus.OK.value(), response.getStatus());
+
+		// The Writer cannot be used once the output stream has been, as in a servlet container
+		response = new MockHttpServletResponse() {
+			@Override
+			public PrintWriter getWriter() throws UnsupportedEncodingException {
+				throw new IllegalStateException("getOutputStream() has already been called");
+			}
+		};
+		Mockito.doThrow(new MongoException("Test Error")).when(lsHandlerMock).writeServices(Mockito.any(OutputStream.class));
+		sc.listService(response);
+		assertEquals("The response should be 404", HttpStatus.NOT_FOUND.value(), response.getStatus());
+		assertEquals("The error should be written to the stream", "Could not retrieve a list of user services",
+				response.getContentAsString());
 	}
 	
 	@Test
@@ -484,10 +646,37 @@ public class ServiceControllerTest {
 		criteria.pattern = "M*";
 		
 		ResponseEntity<String> responseEntity = new ResponseEntity<String>("Just a test to search", HttpStatus.OK); 
-        Mockito.doReturn(responseEntity ).when(ssHandlerMock).handle(criteria);
-        ResponseEntity<String> result = sc.search(criteria);
+        Mockito.doReturn(responseEntity ).when(ssHandlerMock).handle(criteria, 1, 25);
+        ResponseEntity<String> result = sc.search(criteria, 1, 25);
         assertEquals("The response should be 200", result.getStatusCode(), responseEntity.getStatusCode());
 	}
+
+	/**
+	 * Test listing the running Jobs
+	 */
+	@Test
+	public void testGetRunningJobs() {
+		List<RunningJob> runningJobs = new ArrayList<RunningJob>();
+		runningJobs.add(new RunningJob("123", "abc", "ExecuteServiceJob-unittest", 0, 5));
+		Mockito.when(runningJobRegistryMock.getRunningJobs()).thenReturn(runningJobs);
+
+		ResponseEntity<List<RunningJob>> result = sc.getRunningJobs();
+		assertEquals("The response should be 200", HttpStatus.OK, result.getStatusCode());
+		assertEquals("The running Job should be listed", "123", result.getBody().get(0).getJobId());
+	}
+
+	/**
+	 * Test listing the circuit breakers
+	 */
+	@Test
+	public void testGetCircuitBreakers() {
+		Mockito.when(breakerRegistryMock.getCircuitBreakers()).thenReturn(new ArrayList<CircuitBreaker>());
+
+		ResponseEntity<List<CircuitBreaker>> result = sc.getCircuitBreakers();
+		assertEquals("The response should be 200", HttpStatus.OK, result.getStatusCode());
+		assertTrue("No circuit breakers should be listed", result.getBody().isEmpty());
+	}
+
 	@Test
 	/**
 	 * test health check
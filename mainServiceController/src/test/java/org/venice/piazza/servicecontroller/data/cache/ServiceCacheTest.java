@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.venice.piazza.servicecontroller.data.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.ResourceAccessException;
+import org.venice.piazza.servicecontroller.data.mongodb.accessors.MongoAccessor;
+
+import model.service.metadata.Service;
+
+/**
+ * Tests the Service metadata cache
+ */
+public class ServiceCacheTest {
+	@Mock
+	private MongoAccessor accessorMock;
+
+	@InjectMocks
+	private ServiceCache serviceCache;
+
+	@Before
+	public void setup() {
+		MockitoAnnotations.initMocks(this);
+		ReflectionTestUtils.setField(serviceCache, "ttlSeconds", 300L);
+		ReflectionTestUtils.setField(serviceCache, "maxSize", 2);
+		for (String serviceId : new String[] { "a", "b", "c" }) {
+			Service service = new Service();
+			service.setServiceId(serviceId);
+			Mockito.when(accessorMock.getServiceById(serviceId)).thenReturn(service);
+		}
+	}
+
+	/**
+	 * Test that repeated lookups are served from the cache until invalidated
+	 */
+	@Test
+	public void testReadThroughAndInvalidate() {
+		Service first = serviceCache.getServiceById("a");
+		assertSame("The cached Service should be returned", first, serviceCache.getServiceById("a"));
+		Mockito.verify(accessorMock, Mockito.times(1)).getServiceById("a");
+
+		serviceCache.invalidate("a");
+		serviceCache.getServiceById("a");
+		Mockito.verify(accessorMock, Mockito.times(2)).getServiceById("a");
+
+		assertEquals("One hit should be counted", 1L, metric("servicecontroller.servicecache.hits"));
+		assertEquals("Two misses should be counted", 2L, metric("servicecontroller.servicecache.misses"));
+	}
+
+	/**
+	 * Test that the least recently used Service is evicted once the cache is full
+	 */
+	@Test
+	public void testSizeEviction() {
+		serviceCache.getServiceById("a");
+		serviceCache.getServiceById("b");
+		// Touch a, so b is the least recently used
+		serviceCache.getServiceById("a");
+		serviceCache.getServiceById("c");
+
+		assertEquals("The cache should be bounded", 2, serviceCache.size());
+		assertEquals("One eviction should be counted", 1L, metric("servicecontroller.servicecache.evictions"));
+		serviceCache.getServiceById("a");
+		Mockito.verify(accessorMock, Mockito.times(1)).getServiceById("a");
+		serviceCache.getServiceById("b");
+		Mockito.verify(accessorMock, Mockito.times(2)).getServiceById("b");
+	}
+
+	/**
+	 * Test that entries are reloaded after their time to live
+	 */
+	@Test
+	public void testExpiration() throws Exception {
+		ReflectionTestUtils.setField(serviceCache, "ttlSeconds", 1L);
+		serviceCache.getServiceById("a");
+		Thread.sleep(1100);
+		serviceCache.getServiceById("a");
+
+		Mockito.verify(accessorMock, Mockito.times(2)).getServiceById("a");
+		assertEquals("One expiration should be counted", 1L, metric("servicecontroller.servicecache.expirations"));
+	}
+
+	/**
+	 * Test that missing Services are not cached and the accessor's exception is passed on
+	 */
+	@Test
+	public void testNotFound() {
+		Mockito.when(accessorMock.getServiceById("missing")).thenThrow(new ResourceAccessException("Service not found."));
+		try {
+			serviceCache.getServiceById("missing");
+			assertTrue("A missing Service should throw", false);
+		} catch (ResourceAccessException exception) {
+			assertEquals("Nothing should be cached", 0, serviceCache.size());
+		}
+	}
+
+	private long metric(String name) {
+		for (Metric<?> metric : serviceCache.metrics()) {
+			if (metric.getName().equals(name)) {
+				return metric.getValue().longValue();
+			}
+		}
+		throw new AssertionError("Metric not found: " + name);
+	}
+}
@@ -0,0 +1,234 @@
+/*******************************************************************************
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.venice.piazza.servicecontroller.data.mongodb.accessors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.mongojack.DBCursor;
+import org.mongojack.DBQuery;
+import org.mongojack.JacksonDBCollection;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.venice.piazza.servicecontroller.data.model.ContinuationToken;
+import org.venice.piazza.servicecontroller.data.model.ServiceExecutionPolicy;
+import org.venice.piazza.servicecontroller.data.model.ServiceListPage;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+
+import model.service.SearchCriteria;
+import model.service.metadata.Service;
+import util.PiazzaLogger;
+
+/**
+ * Tests the MongoAccessor against mocked collections
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({ JacksonDBCollection.class, DBCursor.class })
+public class MongoAccessorTest {
+	@Mock
+	private PiazzaLogger loggerMock;
+	private JacksonDBCollection<Service, String> serviceCollectionMock;
+	private JacksonDBCollection<ServiceExecutionPolicy, String> policyCollectionMock;
+	private JacksonDBCollection<Service, String> searchCollectionMock;
+	private DBCursor<Service> cursorMock;
+	@Mock
+	private DBCollection serviceDbCollectionMock;
+	@Mock
+	private DBCollection policyDbCollectionMock;
+
+	@InjectMocks
+	private MongoAccessor accessor;
+
+	@SuppressWarnings("unchecked")
+	@Before
+	public void setup() {
+		MockitoAnnotations.initMocks(this);
+		ReflectionTestUtils.setField(accessor, "objectMapper", new ObjectMapper());
+		// The MongoJack find and cursor methods are final
+		serviceCollectionMock = PowerMockito.mock(JacksonDBCollection.class);
+		policyCollectionMock = PowerMockito.mock(JacksonDBCollection.class);
+		searchCollectionMock = PowerMockito.mock(JacksonDBCollection.class);
+		cursorMock = PowerMockito.mock(DBCursor.class);
+		ReflectionTestUtils.setField(accessor, "serviceCollection", serviceCollectionMock);
+		ReflectionTestUtils.setField(accessor, "policyCollection", policyCollectionMock);
+		ReflectionTestUtils.setField(accessor, "searchCollection", searchCollectionMock);
+		ReflectionTestUtils.setField(accessor, "textSearch", true);
+		Mockito.when(serviceCollectionMock.getDbCollection()).thenReturn(serviceDbCollectionMock);
+		Mockito.when(policyCollectionMock.getDbCollection()).thenReturn(policyDbCollectionMock);
+	}
+
+	/**
+	 * Test that the service indexes are created in the background, and that a failing index does not stop the rest
+	 */
+	@Test
+	public void testEnsureIndexes() {
+		Mockito.doThrow(new MongoException("Duplicate key")).when(serviceDbCollectionMock)
+				.createIndex(Mockito.eq((DBObject) new BasicDBObject("serviceId", 1)), Mockito.any(DBObject.class));
+
+		accessor.ensureIndexes();
+
+		ArgumentCaptor<DBObject> options = ArgumentCaptor.forClass(DBObject.class);
+		Mockito.verify(serviceDbCollectionMock, Mockito.times(4)).createIndex(Mockito.any(DBObject.class), options.capture());
+		List<DBObject> allOptions = options.getAllValues();
+		for (DBObject option : allOptions) {
+			assertEquals("Indexes should build in the background", true, option.get("background"));
+		}
+		assertEquals("The serviceId index should be unique", true, allOptions.get(0).get("unique"));
+		assertEquals("The text index should be named", MongoAccessor.SERVICE_TEXT_INDEX_NAME, allOptions.get(3).get("name"));
+		assertTrue("The text index should be weighted", allOptions.get(3).containsField("weights"));
+		Mockito.verify(policyDbCollectionMock).createIndex(Mockito.any(DBObject.class), Mockito.any(DBObject.class));
+		Mockito.verify(loggerMock).log(Mockito.contains("Could not create index serviceId_unique"), Mockito.eq(PiazzaLogger.ERROR));
+	}
+
+	/**
+	 * Test that keyword searches use the text index and can be ordered by relevance
+	 */
+	@Test
+	public void testGetServicesTextSearch() {
+		mockCursor(Mockito.when(searchCollectionMock.find(Mockito.any(DBObject.class), Mockito.any(DBObject.class))));
+
+		accessor.getServices(0, 10, "asc", MongoAccessor.RELEVANCE_SORT, "convert", "bob");
+
+		ArgumentCaptor<DBObject> query = ArgumentCaptor.forClass(DBObject.class);
+		Mockito.verify(searchCollectionMock).find(query.capture(), Mockito.any(DBObject.class));
+		assertTrue("The text index should be searched", query.getValue().toString().contains("$text"));
+		assertEquals("The user filter should be kept", "bob", query.getValue().get("resourceMetadata.createdBy"));
+		ArgumentCaptor<DBObject> sort = ArgumentCaptor.forClass(DBObject.class);
+		Mockito.verify(cursorMock).sort(sort.capture());
+		assertTrue("Results should be ordered by text score", sort.getValue().toString().contains("textScore"));
+		Mockito.verify(serviceCollectionMock, Mockito.never()).find(Mockito.any(DBQuery.Query.class));
+	}
+
+	/**
+	 * Test that the pattern scan is used when text search is disabled
+	 */
+	@Test
+	public void testGetServicesRegexSearch() {
+		ReflectionTestUtils.setField(accessor, "textSearch", false);
+		mockCursor(Mockito.when(serviceCollectionMock.find(Mockito.any(DBQuery.Query.class))));
+
+		accessor.getServices(0, 10, "desc", "serviceId", "convert", null);
+
+		Mockito.verify(serviceCollectionMock).find(Mockito.any(DBQuery.Query.class));
+		Mockito.verify(searchCollectionMock, Mockito.never()).find(Mockito.any(DBObject.class), Mockito.any(DBObject.class));
+	}
+
+	/**
+	 * Test that a keyset page continues after the token's position, and returns the token of the next page
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testGetServicesPage() throws Exception {
+		mockCursor(Mockito.when(serviceCollectionMock.find(Mockito.any(DBQuery.Query.class))));
+		List<Service> services = new ArrayList<Service>();
+		for (String serviceId : new String[] { "b", "c", "d" }) {
+			Service service = new Service();
+			service.setServiceId(serviceId);
+			services.add(service);
+		}
+		Mockito.when(cursorMock.toArray()).thenReturn(services);
+
+		// First page, without a count
+		ServiceListPage page = accessor.getServicesPage(2, "asc", "serviceId", null, null, "", false);
+		assertEquals("One extra service should be fetched", 2, page.getResponse().getData().size());
+		Mockito.verify(cursorMock).limit(3);
+		Mockito.verify(cursorMock, Mockito.never()).copy();
+		Mockito.verify(cursorMock, Mockito.never()).and(Mockito.<DBQuery.Query> anyVararg());
+		ContinuationToken token = new ObjectMapper().readValue(Base64.getUrlDecoder().decode(page.getContinuationToken()),
+				ContinuationToken.class);
+		assertEquals("The token should point at the last service", "c", token.getServiceId());
+
+		// Next page, with a count
+		Mockito.when(cursorMock.toArray()).thenReturn(services.subList(2, 3));
+		page = accessor.getServicesPage(2, "asc", "serviceId", null, null, page.getContinuationToken(), true);
+		Mockito.verify(cursorMock).and(Mockito.<DBQuery.Query> anyVararg());
+		Mockito.verify(cursorMock).copy();
+		assertNull("The last page should have no token", page.getContinuationToken());
+	}
+
+	/**
+	 * Test that invalid and mismatched tokens are rejected
+	 */
+	@Test
+	public void testGetServicesPageInvalidToken() throws Exception {
+		mockCursor(Mockito.when(serviceCollectionMock.find(Mockito.any(DBQuery.Query.class))));
+		String nameToken = Base64.getUrlEncoder()
+				.encodeToString(new ObjectMapper().writeValueAsBytes(new ContinuationToken("resourceMetadata.name", "asc", "x", "a")));
+		for (String token : new String[] { "not a token", nameToken }) {
+			try {
+				accessor.getServicesPage(2, "asc", "serviceId", null, null, token, false);
+				fail("The token should be rejected");
+			} catch (IllegalArgumentException exception) {
+				Mockito.verify(cursorMock, Mockito.never()).toArray();
+			}
+		}
+	}
+
+	/**
+	 * Test that search matches both fields in one query, and only limits the results when paged
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testSearch() {
+		mockCursor(Mockito.when(serviceCollectionMock.find(Mockito.any(DBObject.class))));
+		SearchCriteria criteria = new SearchCriteria();
+		criteria.field = "name";
+		criteria.pattern = "conv.*";
+
+		accessor.search(criteria);
+		accessor.search(criteria, 2, 10);
+
+		ArgumentCaptor<DBObject> query = ArgumentCaptor.forClass(DBObject.class);
+		Mockito.verify(serviceCollectionMock, Mockito.times(2)).find(query.capture());
+		List<DBObject> clauses = (List<DBObject>) query.getValue().get("$or");
+		assertEquals("Both fields should be matched by one query", 2, clauses.size());
+		assertTrue("The resourceMetadata field should be matched", clauses.get(1).containsField("resourceMetadata.name"));
+		Mockito.verify(cursorMock).skip(20);
+		Mockito.verify(cursorMock, Mockito.times(1)).limit(Mockito.anyInt());
+		Mockito.verify(cursorMock).limit(10);
+	}
+
+	private void mockCursor(org.mockito.stubbing.OngoingStubbing<DBCursor<Service>> find) {
+		find.thenReturn(cursorMock);
+		Mockito.when(cursorMock.sort(Mockito.any(DBObject.class))).thenReturn(cursorMock);
+		Mockito.when(cursorMock.skip(Mockito.anyInt())).thenReturn(cursorMock);
+		Mockito.when(cursorMock.limit(Mockito.anyInt())).thenReturn(cursorMock);
+		Mockito.when(cursorMock.copy()).thenReturn(cursorMock);
+		Mockito.when(cursorMock.and(Mockito.<DBQuery.Query> anyVararg())).thenReturn(cursorMock);
+		Mockito.when(cursorMock.toArray()).thenReturn(new ArrayList<Service>());
+	}
+}
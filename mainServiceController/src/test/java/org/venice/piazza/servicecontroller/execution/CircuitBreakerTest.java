@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.venice.piazza.servicecontroller.execution;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Tests the transitions of the CircuitBreaker
+ */
+public class CircuitBreakerTest {
+	private CircuitBreakerRegistry registry;
+
+	@Before
+	public void setup() {
+		registry = new CircuitBreakerRegistry();
+		ReflectionTestUtils.setField(registry, "windowSize", 4);
+		ReflectionTestUtils.setField(registry, "minimumCalls", 4);
+		ReflectionTestUtils.setField(registry, "failureRateThreshold", 50);
+		ReflectionTestUtils.setField(registry, "slowCallMs", 1000L);
+		ReflectionTestUtils.setField(registry, "slowCallRateThreshold", 75);
+		ReflectionTestUtils.setField(registry, "openDurationMs", 0L);
+		ReflectionTestUtils.setField(registry, "halfOpenProbes", 2);
+		registry.initialize();
+	}
+
+	/**
+	 * Test that the circuit opens once the failure rate of the window reaches the threshold
+	 */
+	@Test
+	public void testOpenOnFailures() {
+		ReflectionTestUtils.setField(registry, "openDurationMs", 60000L);
+		registry.initialize();
+		CircuitBreaker breaker = registry.get("123");
+		call(breaker, 10, false);
+		call(breaker, 10, true);
+		call(breaker, 10, false);
+		assertEquals("Too few calls to open", CircuitBreaker.CLOSED, breaker.getState());
+		call(breaker, 10, true);
+
+		assertEquals("The circuit should open", CircuitBreaker.OPEN, breaker.getState());
+		assertNull("Calls should be rejected", breaker.tryAcquire());
+		assertEquals(1, breaker.getRejectedCalls());
+		assertEquals(0, breaker.getActiveCalls());
+	}
+
+	/**
+	 * Test that slow calls open the circuit, and that old outcomes leave the window
+	 */
+	@Test
+	public void testOpenOnSlowCalls() {
+		CircuitBreaker breaker = registry.get("123");
+		call(breaker, 5000, false);
+		call(breaker, 5000, false);
+		call(breaker, 10, false);
+		call(breaker, 10, false);
+		call(breaker, 5000, false);
+		assertEquals("The oldest outcome should leave the window", 50, breaker.getSlowCallRate());
+		assertEquals(CircuitBreaker.CLOSED, breaker.getState());
+		call(breaker, 5000, false);
+		call(breaker, 5000, false);
+		assertEquals("The circuit should open", CircuitBreaker.OPEN, breaker.getState());
+	}
+
+	/**
+	 * Test that the circuit closes once its probes succeed, and opens again if a probe fails
+	 */
+	@Test
+	public void testHalfOpenProbes() {
+		CircuitBreaker breaker = registry.get("123");
+		for (int i = 0; i < 4; i++) {
+			call(breaker, 10, true);
+		}
+		assertEquals(CircuitBreaker.OPEN, breaker.getState());
+
+		// Only the probes are let through
+		CircuitBreaker.Permit first = breaker.tryAcquire();
+		assertTrue("The call should be a probe", first.isProbe());
+		assertEquals(CircuitBreaker.HALF_OPEN, breaker.getState());
+		CircuitBreaker.Permit second = breaker.tryAcquire();
+		assertNull("Only two probes are allowed", breaker.tryAcquire());
+		breaker.onComplete(first, 10, false);
+		breaker.onComplete(second, 10, true);
+		assertEquals("A failed probe should open the circuit", CircuitBreaker.OPEN, breaker.getState());
+
+		call(breaker, 10, false);
+		call(breaker, 10, false);
+		assertEquals("Successful probes should close the circuit", CircuitBreaker.CLOSED, breaker.getState());
+		assertEquals("The window should be cleared", 0, breaker.getBufferedCalls());
+	}
+
+	/**
+	 * Test that calls admitted while the circuit was closed neither count as probes nor free a probe when they end
+	 */
+	@Test
+	public void testCallsFromEarlierState() {
+		CircuitBreaker breaker = registry.get("123");
+		CircuitBreaker.Permit slowCall = breaker.tryAcquire();
+		CircuitBreaker.Permit abandonedCall = breaker.tryAcquire();
+		assertFalse(slowCall.isProbe());
+		for (int i = 0; i < 4; i++) {
+			call(breaker, 10, true);
+		}
+		CircuitBreaker.Permit probe = breaker.tryAcquire();
+		breaker.tryAcquire();
+		assertEquals(CircuitBreaker.HALF_OPEN, breaker.getState());
+
+		// Neither ends the half open state, or frees a place for another probe
+		breaker.onComplete(slowCall, 10, false);
+		breaker.onCancel(abandonedCall);
+		assertEquals(CircuitBreaker.HALF_OPEN, breaker.getState());
+		assertNull("Both probes should still be in progress", breaker.tryAcquire());
+
+		// A cancelled probe can be replaced
+		breaker.onCancel(probe);
+		assertNotNull(breaker.tryAcquire());
+	}
+
+	/**
+	 * Test that the calls in progress are counted, and that cancelled calls are not recorded
+	 */
+	@Test
+	public void testActiveCalls() {
+		CircuitBreaker breaker = registry.get("123");
+		CircuitBreaker.Permit permit = breaker.tryAcquire();
+		assertNotNull(breaker.tryAcquire());
+		assertEquals(2, breaker.getActiveCalls());
+
+		breaker.onCancel(permit);
+		assertEquals(1, breaker.getActiveCalls());
+		assertEquals("Cancelled calls should not be recorded", 0, breaker.getBufferedCalls());
+	}
+
+	private void call(CircuitBreaker breaker, long durationMs, boolean failed) {
+		CircuitBreaker.Permit permit = breaker.tryAcquire();
+		assertNotNull("The call should be permitted", permit);
+		breaker.onComplete(permit, durationMs, failed);
+	}
+}
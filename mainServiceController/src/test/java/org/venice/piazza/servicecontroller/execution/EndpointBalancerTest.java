@@ -0,0 +1,150 @@
+/*******************************************************************************
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.venice.piazza.servicecontroller.execution;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.HttpServerErrorException;
+import org.venice.piazza.servicecontroller.data.model.ServiceExecutionPolicy;
+
+import util.PiazzaLogger;
+
+/**
+ * Tests the endpoint choices and ejections of the EndpointBalancer
+ */
+public class EndpointBalancerTest {
+	@Mock
+	private PiazzaLogger loggerMock;
+
+	private EndpointBalancer balancer;
+	private ServiceExecutionPolicy policy;
+	private URI url = URI.create("http://registered:8082/string/toUpper?text=a%20b");
+	private List<URI> sent;
+	private List<CompletableFuture<ResponseEntity<String>>> responses;
+
+	@Before
+	public void setup() {
+		MockitoAnnotations.initMocks(this);
+		balancer = new EndpointBalancer();
+		ReflectionTestUtils.setField(balancer, "coreLogger", loggerMock);
+		ReflectionTestUtils.setField(balancer, "defaultStrategy", EndpointBalancer.ROUND_ROBIN);
+		ReflectionTestUtils.setField(balancer, "ewmaAlpha", 0.5);
+		ReflectionTestUtils.setField(balancer, "ejectionFailures", 2);
+		ReflectionTestUtils.setField(balancer, "ejectionMs", 60000L);
+		policy = new ServiceExecutionPolicy("123");
+		policy.setEndpoints(Arrays.asList("http://replica1:8082", "https://replica2:9443"));
+		sent = new ArrayList<URI>();
+		responses = new ArrayList<CompletableFuture<ResponseEntity<String>>>();
+	}
+
+	/**
+	 * Test that services without endpoints are called at their registered URL
+	 */
+	@Test
+	public void testNoEndpoints() {
+		balancer.execute("456", new ServiceExecutionPolicy("456"), url, this::send);
+		assertEquals(url, sent.get(0));
+	}
+
+	/**
+	 * Test that calls alternate between the endpoints, keeping the path and query of the registered URL
+	 */
+	@Test
+	public void testRoundRobin() {
+		for (int i = 0; i < 4; i++) {
+			balancer.execute("123", policy, url, this::send);
+		}
+		assertEquals("http://replica1:8082/string/toUpper?text=a%20b", sent.get(0).toString());
+		assertEquals("https://replica2:9443/string/toUpper?text=a%20b", sent.get(1).toString());
+		assertEquals("replica1", sent.get(2).getHost());
+		assertEquals("replica2", sent.get(3).getHost());
+	}
+
+	/**
+	 * Test that calls go to the endpoint with the fewest calls in progress
+	 */
+	@Test
+	public void testLeastOutstanding() {
+		policy.setLoadBalancing(EndpointBalancer.LEAST_OUTSTANDING);
+		balancer.execute("123", policy, url, this::send);
+		balancer.execute("123", policy, url, this::send);
+		responses.get(0).complete(new ResponseEntity<String>("done", HttpStatus.OK));
+
+		balancer.execute("123", policy, url, this::send);
+		assertEquals("The idle endpoint should be chosen", sent.get(0).getHost(), sent.get(2).getHost());
+	}
+
+	/**
+	 * Test that calls go to the endpoint with the lower response times
+	 */
+	@Test
+	public void testEwma() throws Exception {
+		policy.setLoadBalancing(EndpointBalancer.EWMA);
+		balancer.execute("123", policy, url, this::send);
+		balancer.execute("123", policy, url, this::send);
+		responses.get(0).complete(new ResponseEntity<String>("done", HttpStatus.OK));
+		Thread.sleep(50);
+		responses.get(1).complete(new ResponseEntity<String>("done", HttpStatus.OK));
+
+		for (int i = 0; i < 3; i++) {
+			balancer.execute("123", policy, url, this::send);
+			responses.get(responses.size() - 1).complete(new ResponseEntity<String>("done", HttpStatus.OK));
+			assertEquals("The faster endpoint should be chosen", sent.get(0).getHost(), sent.get(sent.size() - 1).getHost());
+		}
+	}
+
+	/**
+	 * Test that an endpoint is ejected after consecutive failures, and used again if every endpoint is ejected
+	 */
+	@Test
+	public void testEjection() {
+		for (int i = 0; i < 4; i++) {
+			balancer.execute("123", policy, url, this::send);
+			if ("replica1".equals(sent.get(i).getHost())) {
+				responses.get(i).completeExceptionally(new HttpServerErrorException(HttpStatus.BAD_GATEWAY));
+			}
+		}
+		assertEquals(1, balancer.getEjectedCount("123"));
+		for (int i = 0; i < 2; i++) {
+			balancer.execute("123", policy, url, this::send);
+			assertEquals("The ejected endpoint should be skipped", "replica2", sent.get(sent.size() - 1).getHost());
+		}
+
+		policy.setEndpoints(Arrays.asList("http://replica1:8082"));
+		balancer.execute("123", policy, url, this::send);
+		assertEquals("An ejected endpoint should be used if it is the only one", "replica1", sent.get(sent.size() - 1).getHost());
+	}
+
+	private CompletableFuture<ResponseEntity<String>> send(URI target) {
+		sent.add(target);
+		CompletableFuture<ResponseEntity<String>> response = new CompletableFuture<ResponseEntity<String>>();
+		responses.add(response);
+		return response;
+	}
+}
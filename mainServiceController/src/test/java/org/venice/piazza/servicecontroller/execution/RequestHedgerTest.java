@@ -0,0 +1,203 @@
+/*******************************************************************************
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.venice.piazza.servicecontroller.execution;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.venice.piazza.servicecontroller.data.model.ServiceExecutionPolicy;
+
+/**
+ * Tests the hedged requests of the RequestHedger
+ */
+public class RequestHedgerTest {
+	private RequestHedger hedger;
+	private ServiceExecutionPolicy policy;
+	private List<CompletableFuture<ResponseEntity<String>>> requests;
+
+	@Before
+	public void setup() {
+		hedger = new RequestHedger();
+		ReflectionTestUtils.setField(hedger, "percentile", 95);
+		ReflectionTestUtils.setField(hedger, "windowSize", 20);
+		ReflectionTestUtils.setField(hedger, "minSamples", 5);
+		ReflectionTestUtils.setField(hedger, "defaultDelayMs", 10L);
+		ReflectionTestUtils.setField(hedger, "minDelayMs", 1L);
+		ReflectionTestUtils.setField(hedger, "maxHedgePercent", 100);
+		ReflectionTestUtils.setField(hedger, "callThreads", 2);
+		hedger.initialize();
+		policy = new ServiceExecutionPolicy("123");
+		policy.setHedged(true);
+		requests = new ArrayList<CompletableFuture<ResponseEntity<String>>>();
+	}
+
+	@After
+	public void teardown() {
+		hedger.close();
+	}
+
+	/**
+	 * Test that a slow request is hedged, that the hedge's response is used, and that the slow request is cancelled
+	 */
+	@Test
+	public void testHedgeWins() throws Exception {
+		CompletableFuture<ResponseEntity<String>> result = hedger.execute("123", HttpMethod.GET, policy, this::send);
+		waitForRequests(2);
+		requests.get(1).complete(new ResponseEntity<String>("hedge", HttpStatus.OK));
+
+		assertEquals("hedge", result.get(1, TimeUnit.SECONDS).getBody());
+		assertTrue("The slow request should be cancelled", requests.get(0).isCancelled());
+		assertEquals(1, getMetric("servicecontroller.hedge.sent"));
+		assertEquals(1, getMetric("servicecontroller.hedge.won"));
+	}
+
+	/**
+	 * Test that the hedge delay follows the recent response times of the service
+	 */
+	@Test
+	public void testHedgeDelay() throws Exception {
+		assertEquals("The default should be used without samples", 10, hedger.getHedgeDelay("123"));
+		ReflectionTestUtils.setField(hedger, "maxHedgePercent", 0);
+		for (int i = 0; i < 5; i++) {
+			CompletableFuture<ResponseEntity<String>> result = hedger.execute("123", HttpMethod.GET, policy, this::send);
+			Thread.sleep(20);
+			requests.get(i).complete(new ResponseEntity<String>("done", HttpStatus.OK));
+			result.get(1, TimeUnit.SECONDS);
+		}
+		assertTrue("The delay should follow the response times", hedger.getHedgeDelay("123") >= 20);
+		assertEquals("No hedges should be sent over the budget", 5, requests.size());
+		assertTrue(getMetric("servicecontroller.hedge.budget.exceeded") > 0);
+	}
+
+	/**
+	 * Test that POST requests and services without hedging are not hedged
+	 */
+	@Test
+	public void testNotHedged() throws Exception {
+		hedger.execute("123", HttpMethod.POST, policy, this::send);
+		hedger.execute("456", HttpMethod.GET, new ServiceExecutionPolicy("456"), this::send);
+		Thread.sleep(50);
+		assertEquals("No hedges should be sent", 2, requests.size());
+		assertEquals(0, getMetric("servicecontroller.hedge.calls"));
+	}
+
+	/**
+	 * Test that a failure is returned only once every request sent has failed
+	 */
+	@Test
+	public void testFailureAfterHedge() throws Exception {
+		CompletableFuture<ResponseEntity<String>> result = hedger.execute("123", HttpMethod.GET, policy, this::send);
+		waitForRequests(2);
+		requests.get(0).completeExceptionally(new IllegalStateException("First"));
+		assertTrue("The hedge should still be awaited", !result.isDone());
+		requests.get(1).complete(new ResponseEntity<String>("hedge", HttpStatus.OK));
+		assertEquals("hedge", result.get(1, TimeUnit.SECONDS).getBody());
+	}
+
+	/**
+	 * Test that a hedge answered with an error status, such as a rejection, neither wins nor cancels the first request
+	 */
+	@Test
+	public void testUnsuccessfulHedgeDoesNotWin() throws Exception {
+		CompletableFuture<ResponseEntity<String>> result = hedger.execute("123", HttpMethod.GET, policy, this::send);
+		waitForRequests(2);
+		requests.get(1).complete(new ResponseEntity<String>("unavailable", HttpStatus.SERVICE_UNAVAILABLE));
+		assertTrue("The first request should still be awaited", !result.isDone());
+		assertTrue("The first request should not be cancelled", !requests.get(0).isCancelled());
+
+		requests.get(0).complete(new ResponseEntity<String>("first", HttpStatus.OK));
+		assertEquals("first", result.get(1, TimeUnit.SECONDS).getBody());
+		assertEquals(0, getMetric("servicecontroller.hedge.won"));
+	}
+
+	/**
+	 * Test that a hedge is dropped, and its call left to the first request, while every hedge Thread is busy
+	 */
+	@Test
+	public void testHedgeDroppedWhenPoolFull() throws Exception {
+		hedger.close();
+		ReflectionTestUtils.setField(hedger, "callThreads", 1);
+		hedger.initialize();
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger blockingRequests = new AtomicInteger();
+		// The hedge of this call blocks the only hedge Thread while it is sent
+		hedger.execute("123", HttpMethod.GET, policy, () -> {
+			if (blockingRequests.incrementAndGet() > 1) {
+				try {
+					release.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException exception) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			return new CompletableFuture<ResponseEntity<String>>();
+		});
+		for (int i = 0; (i < 100) && (blockingRequests.get() < 2); i++) {
+			Thread.sleep(10);
+		}
+
+		CompletableFuture<ResponseEntity<String>> result = hedger.execute("123", HttpMethod.GET, policy, this::send);
+		for (int i = 0; (i < 100) && (getMetric("servicecontroller.hedge.dropped") == 0); i++) {
+			Thread.sleep(10);
+		}
+		release.countDown();
+		assertEquals(1, getMetric("servicecontroller.hedge.dropped"));
+		assertEquals("The call should not be hedged", 1, requestCount());
+
+		requests.get(0).complete(new ResponseEntity<String>("first", HttpStatus.OK));
+		assertEquals("first", result.get(1, TimeUnit.SECONDS).getBody());
+	}
+
+	private synchronized CompletableFuture<ResponseEntity<String>> send() {
+		CompletableFuture<ResponseEntity<String>> request = new CompletableFuture<ResponseEntity<String>>();
+		requests.add(request);
+		return request;
+	}
+
+	private void waitForRequests(int count) throws InterruptedException {
+		for (int i = 0; (i < 100) && (requestCount() < count); i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(count, requestCount());
+	}
+
+	private synchronized int requestCount() {
+		return requests.size();
+	}
+
+	private long getMetric(String name) {
+		for (Metric<?> metric : hedger.metrics()) {
+			if (metric.getName().equals(name)) {
+				return metric.getValue().longValue();
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,175 @@
+/*******************************************************************************
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.venice.piazza.servicecontroller.execution;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.venice.piazza.servicecontroller.data.model.ServiceExecutionPolicy;
+
+/**
+ * Tests the per-service limits of the ServiceRateLimiter
+ */
+public class ServiceRateLimiterTest {
+	private ServiceRateLimiter rateLimiter;
+	private AtomicInteger sentCalls;
+
+	@Before
+	public void setup() {
+		rateLimiter = new ServiceRateLimiter();
+		ReflectionTestUtils.setField(rateLimiter, "maxWaitingCalls", 2);
+		ReflectionTestUtils.setField(rateLimiter, "callThreads", 2);
+		ReflectionTestUtils.setField(rateLimiter, "callQueueCapacity", 10);
+		rateLimiter.initialize();
+		sentCalls = new AtomicInteger();
+	}
+
+	@After
+	public void teardown() {
+		rateLimiter.close();
+	}
+
+	/**
+	 * Test that services without limits are called immediately, and not tracked
+	 */
+	@Test
+	public void testUnlimited() throws Exception {
+		CompletableFuture<ResponseEntity<String>> result = rateLimiter.submit("123", new ServiceExecutionPolicy("123"),
+				completedCall());
+		assertEquals(HttpStatus.OK, result.get().getStatusCode());
+		assertEquals(0, getMetric("servicecontroller.limits.services"));
+	}
+
+	/**
+	 * Test that services without a concurrency limit of their own are bounded by the bulkhead default
+	 */
+	@Test
+	public void testDefaultBulkhead() throws Exception {
+		ReflectionTestUtils.setField(rateLimiter, "defaultMaxConcurrentCalls", 1);
+		ServiceExecutionPolicy policy = new ServiceExecutionPolicy("123");
+		CompletableFuture<ResponseEntity<String>> pending = new CompletableFuture<ResponseEntity<String>>();
+		rateLimiter.submit("123", policy, () -> pending);
+		CompletableFuture<ResponseEntity<String>> second = rateLimiter.submit("123", policy, completedCall());
+		assertFalse("The call over the bulkhead should wait", second.isDone());
+		assertEquals(1, rateLimiter.getWaitingCalls("123"));
+
+		// A limit in the policy replaces the default
+		policy.setMaxConcurrentCalls(2);
+		assertEquals(Integer.valueOf(2), rateLimiter.getMaxConcurrentCalls(policy));
+		pending.complete(new ResponseEntity<String>("done", HttpStatus.OK));
+		assertEquals(HttpStatus.OK, second.get(1, TimeUnit.SECONDS).getStatusCode());
+	}
+
+	/**
+	 * Test that calls over the rate are deferred until the token bucket refills
+	 */
+	@Test
+	public void testRateLimit() throws Exception {
+		ServiceExecutionPolicy policy = new ServiceExecutionPolicy("123");
+		policy.setRequestsPerSecond(20.0);
+		CompletableFuture<ResponseEntity<String>> last = null;
+		for (int i = 0; i < 21; i++) {
+			last = rateLimiter.submit("123", policy, completedCall());
+		}
+		assertEquals("One second of calls should be sent at once", 20, sentCalls.get());
+		assertFalse("The call over the rate should wait", last.isDone());
+		assertEquals(1, rateLimiter.getWaitingCalls("123"));
+		assertEquals(1, getMetric("servicecontroller.limits.deferred"));
+
+		assertEquals("The call should be sent once a token is available", HttpStatus.OK,
+				last.get(1, TimeUnit.SECONDS).getStatusCode());
+		assertEquals(21, sentCalls.get());
+	}
+
+	/**
+	 * Test that cancelling a waiting call removes it without sending it
+	 */
+	@Test
+	public void testCancelWaiting() throws Exception {
+		ServiceExecutionPolicy policy = new ServiceExecutionPolicy("123");
+		policy.setMaxConcurrentCalls(1);
+		CompletableFuture<ResponseEntity<String>> response = new CompletableFuture<ResponseEntity<String>>();
+		CompletableFuture<ResponseEntity<String>> first = rateLimiter.submit("123", policy, () -> response);
+		CompletableFuture<ResponseEntity<String>> second = rateLimiter.submit("123", policy, completedCall());
+		assertEquals(1, rateLimiter.getActiveCalls("123"));
+		assertEquals(1, rateLimiter.getWaitingCalls("123"));
+
+		second.cancel(true);
+		assertEquals(0, rateLimiter.getWaitingCalls("123"));
+		first.cancel(true);
+		assertTrue("Cancelling should cancel the sent call", response.isCancelled());
+		assertEquals(0, rateLimiter.getActiveCalls("123"));
+		assertEquals("The cancelled call should not be sent", 0, sentCalls.get());
+	}
+
+	/**
+	 * Test that calls are rejected, without being sent, once the most calls allowed are waiting on the service
+	 */
+	@Test
+	public void testMaxWaiting() throws Exception {
+		ServiceExecutionPolicy policy = new ServiceExecutionPolicy("123");
+		policy.setMaxConcurrentCalls(1);
+		CompletableFuture<ResponseEntity<String>> pending = new CompletableFuture<ResponseEntity<String>>();
+		rateLimiter.submit("123", policy, () -> pending);
+		CompletableFuture<ResponseEntity<String>> second = rateLimiter.submit("123", policy, completedCall());
+		CompletableFuture<ResponseEntity<String>> third = rateLimiter.submit("123", policy, completedCall());
+		CompletableFuture<ResponseEntity<String>> rejected = rateLimiter.submit("123", policy, completedCall());
+		assertEquals(2, rateLimiter.getWaitingCalls("123"));
+		try {
+			rejected.get(1, TimeUnit.SECONDS);
+			assertTrue("The call over the waiting limit should be rejected", false);
+		} catch (ExecutionException exception) {
+			assertTrue(exception.getCause() instanceof ServiceRateLimiter.CallRejectedException);
+		}
+		assertEquals(1, getMetric("servicecontroller.limits.rejected"));
+
+		// The waiting calls are still sent, from the call pool
+		pending.complete(new ResponseEntity<String>("done", HttpStatus.OK));
+		assertEquals(HttpStatus.OK, second.get(1, TimeUnit.SECONDS).getStatusCode());
+		assertEquals(HttpStatus.OK, third.get(1, TimeUnit.SECONDS).getStatusCode());
+		assertEquals("The rejected call should not be sent", 2, sentCalls.get());
+	}
+
+	private Supplier<CompletableFuture<ResponseEntity<String>>> completedCall() {
+		return () -> {
+			sentCalls.incrementAndGet();
+			return CompletableFuture.completedFuture(new ResponseEntity<String>("done", HttpStatus.OK));
+		};
+	}
+
+	private long getMetric(String name) {
+		for (Metric<?> metric : rateLimiter.metrics()) {
+			if (metric.getName().equals(name)) {
+				return metric.getValue().longValue();
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,272 @@
+/*******************************************************************************
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.venice.piazza.servicecontroller.execution;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import org.venice.piazza.servicecontroller.data.model.ServiceExecutionPolicy;
+
+import util.PiazzaLogger;
+
+/**
+ * Tests the retries of the ServiceRetryScheduler
+ */
+public class ServiceRetrySchedulerTest {
+	@Mock
+	private PiazzaLogger loggerMock;
+
+	private ServiceRetryScheduler retryScheduler;
+	private AtomicInteger attempts;
+
+	@Before
+	public void setup() {
+		MockitoAnnotations.initMocks(this);
+		retryScheduler = new ServiceRetryScheduler();
+		ReflectionTestUtils.setField(retryScheduler, "coreLogger", loggerMock);
+		ReflectionTestUtils.setField(retryScheduler, "maxAttempts", 3);
+		ReflectionTestUtils.setField(retryScheduler, "initialBackoffMs", 4L);
+		ReflectionTestUtils.setField(retryScheduler, "maxBackoffMs", 10L);
+		ReflectionTestUtils.setField(retryScheduler, "backoffMultiplier", 2.0);
+		ReflectionTestUtils.setField(retryScheduler, "jitter", 0.5);
+		ReflectionTestUtils.setField(retryScheduler, "retryStatusCodes", "502, 503,504");
+		ReflectionTestUtils.setField(retryScheduler, "callThreads", 2);
+		ReflectionTestUtils.setField(retryScheduler, "callQueueCapacity", 16);
+		retryScheduler.initialize();
+		attempts = new AtomicInteger();
+	}
+
+	@After
+	public void teardown() {
+		retryScheduler.close();
+	}
+
+	/**
+	 * Test that the backoff grows exponentially up to the maximum, less the jitter
+	 */
+	@Test
+	public void testBackoff() {
+		for (int i = 0; i < 20; i++) {
+			long first = retryScheduler.getBackoff(1);
+			assertTrue("The first backoff should be jittered", (first >= 2) && (first <= 4));
+			long second = retryScheduler.getBackoff(2);
+			assertTrue("The backoff should double", (second >= 4) && (second <= 8));
+			long capped = retryScheduler.getBackoff(10);
+			assertTrue("The backoff should not exceed the maximum", (capped >= 5) && (capped <= 10));
+		}
+	}
+
+	/**
+	 * Test which failures are retried for idempotent and non-idempotent calls
+	 */
+	@Test
+	public void testIsRetryable() {
+		ResourceAccessException refused = new ResourceAccessException("I/O error", new ConnectException("Connection refused"));
+		ResourceAccessException timedOut = new ResourceAccessException("I/O error", new SocketTimeoutException("Read timed out"));
+		HttpServerErrorException unavailable = new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE);
+
+		assertTrue("Unsent requests should always be retried", retryScheduler.isRetryable(refused, false));
+		assertFalse("Sent requests should only be retried if idempotent", retryScheduler.isRetryable(timedOut, false));
+		assertTrue(retryScheduler.isRetryable(timedOut, true));
+		assertTrue(retryScheduler.isRetryable(unavailable, true));
+		assertFalse(retryScheduler.isRetryable(unavailable, false));
+		assertFalse("Other status codes should not be retried",
+				retryScheduler.isRetryable(new HttpServerErrorException(HttpStatus.INTERNAL_SERVER_ERROR), true));
+		assertFalse(retryScheduler.isRetryable(new HttpClientErrorException(HttpStatus.BAD_REQUEST), true));
+	}
+
+	/**
+	 * Test that an idempotent call is retried until it succeeds
+	 */
+	@Test
+	public void testRetrySucceeds() throws Exception {
+		ServiceExecutionPolicy policy = new ServiceExecutionPolicy("123");
+		policy.setIdempotent(true);
+		CompletableFuture<ResponseEntity<String>> result = retryScheduler.execute("123", HttpMethod.POST, policy, () -> {
+			if (attempts.incrementAndGet() < 3) {
+				throw new HttpServerErrorException(HttpStatus.BAD_GATEWAY);
+			}
+			return CompletableFuture.completedFuture(new ResponseEntity<String>("done", HttpStatus.OK));
+		});
+
+		assertEquals("done", result.get(1, TimeUnit.SECONDS).getBody());
+		assertEquals(3, attempts.get());
+		assertEquals(2, getMetric("servicecontroller.retry.retries"));
+		assertEquals(1, getMetric("servicecontroller.retry.succeeded"));
+		assertEquals(0, getMetric("servicecontroller.retry.scheduled"));
+	}
+
+	/**
+	 * Test that retries which block while sending are not run one after the other on the retry timer
+	 */
+	@Test
+	public void testBlockingRetriesRunConcurrently() throws Exception {
+		final CountDownLatch retrying = new CountDownLatch(2);
+		List<CompletableFuture<ResponseEntity<String>>> results = new ArrayList<CompletableFuture<ResponseEntity<String>>>();
+		for (int i = 0; i < 2; i++) {
+			final AtomicInteger callAttempts = new AtomicInteger();
+			results.add(retryScheduler.execute("123", HttpMethod.GET, new ServiceExecutionPolicy("123"), () -> {
+				if (callAttempts.incrementAndGet() == 1) {
+					throw new HttpServerErrorException(HttpStatus.BAD_GATEWAY);
+				}
+				// Blocks like the blocking HTTP engine until the other retry is sent as well
+				retrying.countDown();
+				try {
+					if (!retrying.await(2, TimeUnit.SECONDS)) {
+						return CompletableFuture.completedFuture(new ResponseEntity<String>("blocked", HttpStatus.OK));
+					}
+				} catch (InterruptedException exception) {
+					Thread.currentThread().interrupt();
+				}
+				return CompletableFuture.completedFuture(new ResponseEntity<String>("done", HttpStatus.OK));
+			}));
+		}
+
+		for (CompletableFuture<ResponseEntity<String>> result : results) {
+			assertEquals("Both retries should be in progress at once", "done", result.get(5, TimeUnit.SECONDS).getBody());
+		}
+	}
+
+	/**
+	 * Test that a retry finding the retry pool and its queue full is not sent, and fails with its last failure
+	 */
+	@Test
+	public void testRetryPoolFull() throws Exception {
+		retryScheduler.close();
+		ReflectionTestUtils.setField(retryScheduler, "callThreads", 1);
+		ReflectionTestUtils.setField(retryScheduler, "callQueueCapacity", 1);
+		retryScheduler.initialize();
+		final CountDownLatch release = new CountDownLatch(1);
+		List<CompletableFuture<ResponseEntity<String>>> results = new ArrayList<CompletableFuture<ResponseEntity<String>>>();
+		for (int i = 0; i < 3; i++) {
+			final AtomicInteger callAttempts = new AtomicInteger();
+			results.add(retryScheduler.execute("123", HttpMethod.GET, new ServiceExecutionPolicy("123"), () -> {
+				if (callAttempts.incrementAndGet() == 1) {
+					throw new HttpServerErrorException(HttpStatus.BAD_GATEWAY);
+				}
+				// Holds the only retry Thread, while a second retry waits in the queue
+				try {
+					release.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException exception) {
+					Thread.currentThread().interrupt();
+				}
+				return CompletableFuture.completedFuture(new ResponseEntity<String>("done", HttpStatus.OK));
+			}));
+		}
+		for (int wait = 0; (wait < 200) && (getMetric("servicecontroller.retry.rejected") == 0); wait++) {
+			Thread.sleep(10);
+		}
+		release.countDown();
+
+		int succeeded = 0;
+		for (CompletableFuture<ResponseEntity<String>> result : results) {
+			try {
+				assertEquals("done", result.get(5, TimeUnit.SECONDS).getBody());
+				succeeded++;
+			} catch (ExecutionException exception) {
+				assertTrue("The rejected retry should return the last failure",
+						exception.getCause() instanceof HttpServerErrorException);
+			}
+		}
+		assertEquals("Only the retries the pool could take should be sent", 2, succeeded);
+		assertEquals(1, getMetric("servicecontroller.retry.rejected"));
+	}
+
+	/**
+	 * Test that the last failure is returned once the attempts are used up, and that non-idempotent calls are not
+	 * retried
+	 */
+	@Test
+	public void testRetryExhausted() throws Exception {
+		CompletableFuture<ResponseEntity<String>> result = retryScheduler.execute("123", HttpMethod.GET,
+				new ServiceExecutionPolicy("123"), () -> failedCall(new HttpServerErrorException(HttpStatus.GATEWAY_TIMEOUT)));
+		assertFailure(result, HttpServerErrorException.class);
+		assertEquals(3, attempts.get());
+		assertEquals(1, getMetric("servicecontroller.retry.exhausted"));
+
+		attempts.set(0);
+		result = retryScheduler.execute("123", HttpMethod.POST, new ServiceExecutionPolicy("123"),
+				() -> failedCall(new HttpServerErrorException(HttpStatus.GATEWAY_TIMEOUT)));
+		assertFailure(result, HttpServerErrorException.class);
+		assertEquals("The POST should not be retried", 1, attempts.get());
+	}
+
+	/**
+	 * Test that cancelling the call cancels the scheduled retry
+	 */
+	@Test
+	public void testCancel() throws Exception {
+		ReflectionTestUtils.setField(retryScheduler, "initialBackoffMs", 60000L);
+		ReflectionTestUtils.setField(retryScheduler, "maxBackoffMs", 60000L);
+		CompletableFuture<ResponseEntity<String>> result = retryScheduler.execute("123", HttpMethod.GET,
+				new ServiceExecutionPolicy("123"), () -> failedCall(new HttpServerErrorException(HttpStatus.BAD_GATEWAY)));
+		assertEquals(1, getMetric("servicecontroller.retry.scheduled"));
+
+		result.cancel(true);
+		assertEquals("The retry should be cancelled", 0, getMetric("servicecontroller.retry.scheduled"));
+		assertEquals(1, attempts.get());
+	}
+
+	private CompletableFuture<ResponseEntity<String>> failedCall(RuntimeException exception) {
+		attempts.incrementAndGet();
+		CompletableFuture<ResponseEntity<String>> response = new CompletableFuture<ResponseEntity<String>>();
+		response.completeExceptionally(exception);
+		return response;
+	}
+
+	private void assertFailure(CompletableFuture<ResponseEntity<String>> result, Class<?> type) throws Exception {
+		try {
+			result.get(1, TimeUnit.SECONDS);
+			fail("The call should fail");
+		} catch (ExecutionException exception) {
+			assertTrue("The failure should be returned", type.isInstance(exception.getCause()));
+		}
+	}
+
+	private long getMetric(String name) {
+		for (Metric<?> metric : retryScheduler.metrics()) {
+			if (metric.getName().equals(name)) {
+				return metric.getValue().longValue();
+			}
+		}
+		return -1;
+	}
+}
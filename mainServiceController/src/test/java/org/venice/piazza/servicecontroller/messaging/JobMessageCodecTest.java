@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.venice.piazza.servicecontroller.messaging;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.exc.UnrecognizedPropertyException;
+
+import model.job.Job;
+import model.request.PiazzaJobRequest;
+import model.status.StatusUpdate;
+
+/**
+ * Tests the Kafka Job message codec
+ */
+public class JobMessageCodecTest {
+	private JobMessageCodec codec = new JobMessageCodec();
+	private ObjectMapper mapper = new ObjectMapper();
+
+	@Before
+	public void setup() {
+		ReflectionTestUtils.setField(codec, "objectMapper", mapper);
+		codec.initialize();
+	}
+
+	/**
+	 * Test that Jobs are read from the message
+	 */
+	@Test
+	public void testReadJob() throws Exception {
+		Job job = codec.readJob("{\"jobId\":\"123456\",\"createdBy\":\"B\u00e9la\"}");
+		assertEquals("The Job Id should be read", "123456", job.getJobId());
+		assertEquals("Multi-byte characters should be read", "B\u00e9la", job.getCreatedBy());
+	}
+
+	/**
+	 * Test that status updates and Job requests round trip through the shared mapper
+	 */
+	@Test
+	public void testStatusUpdateAndJobRequest() throws Exception {
+		StatusUpdate statusUpdate = new StatusUpdate();
+		statusUpdate.setStatus(StatusUpdate.STATUS_RUNNING);
+		assertEquals("The status update should be written as the mapper would", mapper.writeValueAsString(statusUpdate),
+				codec.writeStatusUpdate(statusUpdate));
+
+		PiazzaJobRequest request = codec.readJobRequest("{\"createdBy\":\"tester\"}");
+		assertEquals("The request should be read", "tester", request.createdBy);
+	}
+
+	/**
+	 * Test that Jobs with unknown properties are rejected, even though the shared mapper ignores them
+	 */
+	@Test(expected = UnrecognizedPropertyException.class)
+	public void testReadJobUnknownProperty() throws Exception {
+		mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+		codec.initialize();
+		codec.readJob("{\"jobId\":\"123456\",\"unknown\":true}");
+	}
+}
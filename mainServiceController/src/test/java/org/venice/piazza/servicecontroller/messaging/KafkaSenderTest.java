@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.venice.piazza.servicecontroller.messaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.errors.RecordTooLargeException;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import util.PiazzaLogger;
+
+/**
+ * Tests the accounting and retries of Kafka sends
+ */
+public class KafkaSenderTest {
+	@Mock
+	private PiazzaLogger loggerMock;
+
+	@InjectMocks
+	private KafkaSender kafkaSender;
+
+	private MockProducer<String, String> producer = new MockProducer<String, String>(false, new StringSerializer(),
+			new StringSerializer());
+	private ProducerRecord<String, String> record = new ProducerRecord<String, String>("Update-Job-unittest", "123", "{}");
+
+	@Before
+	public void setup() {
+		MockitoAnnotations.initMocks(this);
+		ReflectionTestUtils.setField(kafkaSender, "retryAttempts", 2);
+		ReflectionTestUtils.setField(kafkaSender, "retryBackoffMs", 1L);
+		ReflectionTestUtils.setField(kafkaSender, "retryBufferSize", 10);
+		kafkaSender.initialize();
+	}
+
+	@After
+	public void cleanup() {
+		kafkaSender.close();
+	}
+
+	/**
+	 * Test that a transient failure is sent again, and its acknowledgement recorded
+	 */
+	@Test
+	public void testRetry() throws Exception {
+		kafkaSender.send(producer, record, KafkaSender.CATEGORY_STATUS);
+		producer.errorNext(new TimeoutException("Broker unavailable"));
+		waitForSends(2);
+		producer.completeNext();
+
+		assertEquals("The record should be sent twice", 2, producer.history().size());
+		assertEquals("One retry should be counted", 1L, metric("servicecontroller.kafka.retried"));
+		assertEquals("The retry should be acknowledged", 1L, metric("servicecontroller.kafka.acknowledged"));
+		assertEquals("Nothing should be dropped", 0L, kafkaSender.getDroppedCount(KafkaSender.CATEGORY_STATUS));
+	}
+
+	/**
+	 * Test that permanent failures, and transient failures once attempts run out, are dropped
+	 */
+	@Test
+	public void testDropped() throws Exception {
+		kafkaSender.send(producer, record, KafkaSender.CATEGORY_STATUS);
+		producer.errorNext(new RecordTooLargeException("Too large"));
+		assertEquals("A permanent failure should be dropped", 1L, kafkaSender.getDroppedCount(KafkaSender.CATEGORY_STATUS));
+
+		kafkaSender.send(producer, record, KafkaSender.CATEGORY_INGEST);
+		producer.errorNext(new TimeoutException("Broker unavailable"));
+		waitForSends(3);
+		producer.errorNext(new TimeoutException("Broker unavailable"));
+		assertEquals("The last attempt should be dropped", 1L, kafkaSender.getDroppedCount(KafkaSender.CATEGORY_INGEST));
+		assertEquals("Drops should be reported per category", 1L, metric("servicecontroller.kafka.dropped.ingest"));
+		Mockito.verify(loggerMock, Mockito.times(2)).log(Mockito.contains("Dropped"), Mockito.eq(PiazzaLogger.ERROR));
+	}
+
+	/**
+	 * Test that records sent in order are not sent again, so they cannot overtake a later record of the same key
+	 */
+	@Test
+	public void testInOrderNotResent() throws Exception {
+		CompletableFuture<RecordMetadata> acknowledgement = kafkaSender.sendInOrder(producer, record, KafkaSender.CATEGORY_STATUS);
+		producer.errorNext(new TimeoutException("Broker unavailable"));
+		Thread.sleep(20);
+
+		assertEquals("The record should be sent once", 1, producer.history().size());
+		assertEquals("The record should be dropped", 1L, kafkaSender.getDroppedCount(KafkaSender.CATEGORY_STATUS));
+		assertTrue("The drop should fail the acknowledgement", acknowledgement.isCompletedExceptionally());
+	}
+
+	/**
+	 * Test that transient failures are dropped once the retry buffer is full
+	 */
+	@Test
+	public void testRetryBufferFull() {
+		ReflectionTestUtils.setField(kafkaSender, "retryBufferSize", 0);
+		kafkaSender.send(producer, record, KafkaSender.CATEGORY_STATUS);
+		producer.errorNext(new TimeoutException("Broker unavailable"));
+
+		assertEquals("The record should be dropped", 1L, kafkaSender.getDroppedCount(KafkaSender.CATEGORY_STATUS));
+		assertEquals("Nothing should be buffered", 0L, metric("servicecontroller.kafka.retry.buffered"));
+	}
+
+	private void waitForSends(int count) throws InterruptedException {
+		for (int wait = 0; (wait < 100) && (producer.history().size() < count); wait++) {
+			Thread.sleep(10);
+		}
+	}
+
+	private long metric(String name) {
+		for (Metric<?> metric : kafkaSender.metrics()) {
+			if (metric.getName().equals(name)) {
+				return metric.getValue().longValue();
+			}
+		}
+		throw new AssertionError("Metric not found: " + name);
+	}
+}
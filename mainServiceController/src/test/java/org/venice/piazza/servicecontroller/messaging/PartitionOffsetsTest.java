@@ -0,0 +1,55 @@
+/*******************************************************************************
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.venice.piazza.servicecontroller.messaging;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.scheduling.annotation.AsyncResult;
+
+/**
+ * Tests the committable offset of a partition
+ */
+public class PartitionOffsetsTest {
+	/**
+	 * Test that the position only moves past Jobs that, along with all before them, have finished
+	 */
+	@Test
+	public void testCommitPosition() {
+		PartitionOffsets offsets = new PartitionOffsets();
+		assertEquals("Nothing should be committed before any Job", -1, offsets.commitPosition());
+
+		Future<?> running = Mockito.mock(Future.class);
+		offsets.received(10);
+		offsets.dispatched(10, running);
+		offsets.received(11);
+		offsets.dispatched(11, new AsyncResult<String>("done"));
+		offsets.skipped(12);
+		offsets.received(13);
+		assertEquals("The running Job should hold back the position", 10, offsets.commitPosition());
+		offsets.committed(10);
+		assertEquals("The position should not be committed twice", -1, offsets.commitPosition());
+
+		Mockito.when(running.isDone()).thenReturn(true);
+		assertEquals("The held Job should hold back the position", 13, offsets.commitPosition());
+		offsets.dispatched(13, new AsyncResult<String>("done"));
+		assertEquals("All Jobs are finished", 14, offsets.commitPosition());
+		assertEquals("Finished Jobs should no longer be tracked", 0, offsets.getInFlightCount());
+	}
+}
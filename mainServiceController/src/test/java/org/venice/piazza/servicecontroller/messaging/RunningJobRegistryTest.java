@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.venice.piazza.servicecontroller.messaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.venice.piazza.servicecontroller.data.model.RunningJob;
+
+/**
+ * Tests the registry of running Jobs
+ */
+public class RunningJobRegistryTest {
+	private RunningJobRegistry registry = new RunningJobRegistry();
+
+	/**
+	 * Test that Jobs are listed oldest first until released, and counted in the metrics
+	 */
+	@Test
+	public void testRegisterAndRelease() throws Exception {
+		registry.register(new RunningJob("1", "abc", "ExecuteServiceJob-unittest", 0, 10));
+		Thread.sleep(5);
+		registry.register(new RunningJob("2", "abc", "ExecuteServiceJob-unittest", 1, 3));
+
+		List<RunningJob> runningJobs = registry.getRunningJobs();
+		assertEquals("Both Jobs should be running", 2, runningJobs.size());
+		assertEquals("The oldest Job should be first", "1", runningJobs.get(0).getJobId());
+		assertEquals("The running count should be reported", 2L, metric("servicecontroller.jobs.running"));
+
+		assertEquals("The released Job should be returned", "1", registry.release("1").getJobId());
+		assertNull("A Job is only released once", registry.release("1"));
+		assertNull("The released Job should not be running", registry.get("1"));
+		assertEquals("One Job should remain", 1, registry.size());
+		assertEquals("One release should be counted", 1L, metric("servicecontroller.jobs.released"));
+		assertEquals("Two registrations should be counted", 2L, metric("servicecontroller.jobs.registered"));
+	}
+
+	/**
+	 * Test that each service is held to its limit of Jobs, and that releasing or cancelling frees a place
+	 */
+	@Test
+	public void testServiceReservations() {
+		assertTrue(registry.tryReserve("abc", 2));
+		assertTrue(registry.tryReserve("abc", 2));
+		assertFalse("The service should be at its limit", registry.tryReserve("abc", 2));
+		assertTrue("Other services have their own limit", registry.tryReserve("def", 2));
+		assertTrue("Jobs without a service are not limited", registry.tryReserve(null, 0));
+
+		registry.register(new RunningJob("1", "abc", "ExecuteServiceJob-unittest", 0, 10));
+		registry.release("1");
+		registry.cancelReservation("abc");
+		assertEquals("Both places should be free", 0, registry.getServiceJobCount("abc"));
+		assertTrue(registry.tryReserve("abc", 2));
+	}
+
+	private long metric(String name) {
+		for (Metric<?> metric : registry.metrics()) {
+			if (metric.getName().equals(name)) {
+				return metric.getValue().longValue();
+			}
+		}
+		throw new AssertionError("Metric not found: " + name);
+	}
+}
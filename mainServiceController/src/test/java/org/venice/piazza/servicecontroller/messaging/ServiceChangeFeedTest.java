@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.venice.piazza.servicecontroller.messaging;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.venice.piazza.servicecontroller.data.cache.ServiceCache;
+import org.venice.piazza.servicecontroller.data.model.ServiceChangeEvent;
+import org.venice.piazza.servicecontroller.execution.ExecutionPolicyRegistry;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import util.PiazzaLogger;
+
+/**
+ * Tests the cross-instance service change feed
+ */
+public class ServiceChangeFeedTest {
+	@Mock
+	private PiazzaLogger loggerMock;
+	@Mock
+	private ServiceCache serviceCacheMock;
+	@Mock
+	private ExecutionPolicyRegistry policyRegistryMock;
+	@Mock
+	private Producer<String, String> producerMock;
+
+	@InjectMocks
+	private ServiceChangeFeed changeFeed;
+
+	private ObjectMapper mapper = new ObjectMapper();
+
+	@Before
+	public void setup() {
+		MockitoAnnotations.initMocks(this);
+		ReflectionTestUtils.setField(changeFeed, "producer", producerMock);
+		ReflectionTestUtils.setField(changeFeed, "topicName", "ServiceChange-unittest");
+		ReflectionTestUtils.setField(changeFeed, "mapper", mapper);
+	}
+
+	/**
+	 * Test that changes are published keyed by serviceId with this instance as the origin
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testPublish() throws Exception {
+		changeFeed.publish("123", ServiceChangeEvent.UPDATED);
+
+		ArgumentCaptor<ProducerRecord> captor = ArgumentCaptor.forClass(ProducerRecord.class);
+		Mockito.verify(producerMock).send(captor.capture());
+		ProducerRecord<String, String> record = captor.getValue();
+		assertEquals("The topic should be the change topic", "ServiceChange-unittest", record.topic());
+		assertEquals("The key should be the serviceId", "123", record.key());
+		ServiceChangeEvent event = mapper.readValue(record.value(), ServiceChangeEvent.class);
+		assertEquals("The change type should be sent", ServiceChangeEvent.UPDATED, event.getChangeType());
+		assertEquals("The origin should be this instance", ReflectionTestUtils.getField(changeFeed, "instanceId"),
+				event.getOrigin());
+	}
+
+	/**
+	 * Test that changes from other instances invalidate the local state
+	 */
+	@Test
+	public void testRemoteChange() throws Exception {
+		changeFeed.handleChange(mapper.writeValueAsString(new ServiceChangeEvent("123", ServiceChangeEvent.UPDATED, "other")));
+		Mockito.verify(serviceCacheMock).invalidate("123");
+		Mockito.verify(policyRegistryMock, Mockito.never()).refreshPolicy("123");
+
+		changeFeed.handleChange(mapper.writeValueAsString(new ServiceChangeEvent("456", ServiceChangeEvent.DELETED, "other")));
+		Mockito.verify(serviceCacheMock).invalidate("456");
+		Mockito.verify(policyRegistryMock).refreshPolicy("456");
+	}
+
+	/**
+	 * Test that this instance's own changes are ignored, since the handlers already applied them
+	 */
+	@Test
+	public void testLocalChangeIgnored() throws Exception {
+		String instanceId = (String) ReflectionTestUtils.getField(changeFeed, "instanceId");
+		changeFeed.handleChange(mapper.writeValueAsString(new ServiceChangeEvent("123", ServiceChangeEvent.UPDATED, instanceId)));
+		changeFeed.handleChange("not json");
+		Mockito.verifyZeroInteractions(serviceCacheMock, policyRegistryMock);
+	}
+}
@@ -23,17 +23,30 @@ import static org.junit.Assert.*;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetCommitCallback;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.MockProducer;
 import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -42,17 +55,25 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import org.mongojack.JacksonDBCollection;
 import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 import org.springframework.http.HttpStatus;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.web.client.ResourceAccessException;
 import org.venice.piazza.servicecontroller.controller.ServiceController;
+import org.venice.piazza.servicecontroller.data.model.RunningJob;
+import org.venice.piazza.servicecontroller.data.model.ServiceExecutionPolicy;
 import org.venice.piazza.servicecontroller.data.mongodb.accessors.MongoAccessor;
 import org.venice.piazza.servicecontroller.elasticsearch.accessors.ElasticSearchAccessor;
+import org.venice.piazza.servicecontroller.execution.ExecutionPolicyRegistry;
+import org.venice.piazza.servicecontroller.execution.ServiceRateLimiter;
 import org.venice.piazza.servicecontroller.messaging.handlers.DeleteServiceHandler;
 import org.venice.piazza.servicecontroller.messaging.handlers.DescribeServiceHandler;
 import org.venice.piazza.servicecontroller.messaging.handlers.ExecuteServiceHandler;
@@ -67,9 +88,13 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mongodb.MongoException;
 
 import messaging.job.KafkaClientFactory;
+import messaging.job.WorkerCallback;
 import model.data.DataType;
 import model.data.type.BodyDataType;
+import model.job.Job;
 import model.job.metadata.ResourceMetadata;
+import model.job.type.AbortJob;
+import model.job.type.ExecuteServiceJob;
 import model.job.type.RegisterServiceJob;
 import model.request.PiazzaJobRequest;
 import model.response.ErrorResponse;
@@ -82,6 +107,7 @@ import model.response.SuccessResponse;
 import model.service.SearchCriteria;
 import model.service.metadata.ExecuteServiceData;
 import model.service.metadata.Service;
+import model.status.StatusUpdate;
 import util.PiazzaLogger;
 @RunWith(PowerMockRunner.class)
 @PrepareForTest(KafkaClientFactory.class)
@@ -104,6 +130,8 @@ public class ServiceMessageThreadManagerTest {
 	private KafkaProducer<String, String> producerMock;
 	@Mock
 	private KafkaConsumer<String, String> consumerMock;
+	@Mock
+	private KafkaConsumer<String, String> jobConsumerMock;
 	
 	@Mock
 	private KafkaClientFactory kcFactoryMock;
@@ -112,6 +140,22 @@ public class ServiceMessageThreadManagerTest {
 	@Mock
 	private CoreServiceProperties propertiesMock;
 
+	@Mock
+	private ServiceWorkerExecutor workerExecutorMock;
+
+	@Mock
+	private JobMessageCodec jobMessageCodecMock;
+
+	@Mock
+	private ServiceMessageWorker workerMock;
+
+	@Mock
+	private ExecutionPolicyRegistry policyRegistryMock;
+
+	@Mock
+	private ServiceRateLimiter rateLimiterMock;
+
+
 	
 	ResourceMetadata rm = null;
 	Service service = null;
@@ -133,6 +177,9 @@ public class ServiceMessageThreadManagerTest {
 		service.setResourceMetadata(rm);
 		service.setUrl("http://localhost:8082/string/toUpper");
 		MockitoAnnotations.initMocks(this);			
+		ReflectionTestUtils.setField(smtManager, "runningJobRegistry", new RunningJobRegistry());
+		ReflectionTestUtils.setField(smtManager, "maxInFlight", 100);
+		ReflectionTestUtils.setField(smtManager, "resumeInFlight", 50);
 
     }
 	
@@ -146,10 +193,11 @@ public class ServiceMessageThreadManagerTest {
 		Mockito.when(propertiesMock.getKafkaHost()).thenReturn("localhost:8087");		
 		PowerMockito.mockStatic(KafkaClientFactory.class);
 		PowerMockito.when(KafkaClientFactory.getProducer("localhost", "8087")).thenReturn(producerMock);
-		PowerMockito.when(KafkaClientFactory.getConsumer("localhost", "8087", "ServiceController Group")).thenReturn(consumerMock);
+		final ServiceMessageThreadManager smtmMock = Mockito.spy (smtManager);
+		Mockito.doReturn(jobConsumerMock).when(smtmMock).makeJobConsumer();
 		try {
 			
-			smtManager.initialize();
+			smtmMock.initialize();
 			
 		} catch (Exception ex) {
 			ex.printStackTrace();
@@ -157,6 +205,26 @@ public class ServiceMessageThreadManagerTest {
 		
 	}
 	
+	/**
+	 * Test that each configured consumer Thread gets its own subscribed group consumer
+	 */
+	@Test
+	public void testInitializationConsumerThreads() {
+		Mockito.when(propertiesMock.getKafkaGroup()).thenReturn("ServiceController Group");
+		Mockito.when(propertiesMock.getKafkaHost()).thenReturn("localhost:8087");
+		PowerMockito.mockStatic(KafkaClientFactory.class);
+		PowerMockito.when(KafkaClientFactory.getProducer("localhost", "8087")).thenReturn(producerMock);
+		PowerMockito.when(KafkaClientFactory.getConsumer(Mockito.anyString(), Mockito.anyString(), Mockito.anyString())).thenReturn(consumerMock);
+		ReflectionTestUtils.setField(smtManager, "consumerThreads", 3);
+		final ServiceMessageThreadManager smtmMock = Mockito.spy (smtManager);
+		Mockito.doReturn(jobConsumerMock).when(smtmMock).makeJobConsumer();
+
+		smtmMock.initialize();
+
+		Mockito.verify(smtmMock, Mockito.times(3)).makeJobConsumer();
+		Mockito.verify(jobConsumerMock, Mockito.times(3)).subscribe(Mockito.anyList(), Mockito.any(ConsumerRebalanceListener.class));
+	}
+	
 	@Test
 	/**
 	 * Test Polling
@@ -166,7 +234,7 @@ public class ServiceMessageThreadManagerTest {
 		final ServiceMessageThreadManager smtmMock = Mockito.spy (smtManager);
 		try {
 			Mockito.doReturn(new AtomicBoolean(true)).when(smtmMock).makeAtomicBoolean();
-			smtmMock.pollServiceJobs();
+			smtmMock.pollServiceJobs(jobConsumerMock);
 		} catch (Exception ex) {
 			ex.printStackTrace();
 		}
@@ -196,7 +264,7 @@ public class ServiceMessageThreadManagerTest {
 		
 		final ServiceMessageThreadManager smtmMock = Mockito.spy (smtManager);
 		try {
-			smtmMock.pollServiceJobs();
+			smtmMock.pollServiceJobs(jobConsumerMock);
 		} catch (Exception ex) {
 			ex.printStackTrace();
 		}
@@ -209,14 +277,479 @@ public class ServiceMessageThreadManagerTest {
 	@Test
 	public void testPolling() {
 		// Mock
-		Mockito.doNothing().when(consumerMock).subscribe(Mockito.anyList());
+		Mockito.doNothing().when(jobConsumerMock).subscribe(Mockito.anyList());
 		
 		ConsumerRecords<String, String> consumerRecords = new ConsumerRecords<String, String>(null);
-		Mockito.when(consumerMock.poll(Mockito.anyLong())).thenReturn(consumerRecords);
-		smtManager.pollServiceJobs();
+		Mockito.when(jobConsumerMock.poll(Mockito.anyLong())).thenReturn(consumerRecords);
+		smtManager.pollServiceJobs(jobConsumerMock);
 
     }
 	
+	/**
+	 * Test that polled Jobs are read from the message and handed to a Worker
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testPollingDispatchesJob() throws Exception {
+		String message = "{\"jobId\":\"123456\"}";
+		ConsumerRecord<String, String> record = new ConsumerRecord<String, String>("ExecuteServiceJob-unittest", 0, 0, "123456", message);
+		ConsumerRecords<String, String> consumerRecords = new ConsumerRecords<String, String>(
+				Collections.singletonMap(new TopicPartition("ExecuteServiceJob-unittest", 0), Arrays.asList(record)));
+		Mockito.when(jobConsumerMock.poll(Mockito.anyLong())).thenReturn(consumerRecords).thenThrow(new WakeupException());
+		Job job = new Job();
+		job.setJobId("123456");
+		Mockito.when(jobMessageCodecMock.readJob(message)).thenReturn(job);
+		Mockito.when(jobMessageCodecMock.writeStatusUpdate(Mockito.any(StatusUpdate.class))).thenReturn("{}");
+		Future<?> workerFuture = Mockito.mock(Future.class);
+		Mockito.doReturn(workerFuture).when(workerMock).run(Mockito.any(ConsumerRecord.class), Mockito.any(Producer.class),
+				Mockito.any(Job.class), Mockito.any(WorkerCallback.class));
+
+		smtManager.pollServiceJobs(jobConsumerMock);
+
+		Mockito.verify(workerMock).run(Mockito.eq(record), Mockito.eq(producerMock), Mockito.eq(job), Mockito.any(WorkerCallback.class));
+		RunningJob runningJob = ((RunningJobRegistry) ReflectionTestUtils.getField(smtManager, "runningJobRegistry")).get("123456");
+		assertEquals("The Job should be registered with its offset", 0L, runningJob.getOffset());
+		assertEquals("The Job should be registered with its Worker", workerFuture, runningJob.getFuture());
+	}
+	
+	/**
+	 * Test that the Job consumer comes from the factory in auto mode, and commits only manually in manual mode
+	 */
+	@Test
+	public void testJobConsumer() {
+		ReflectionTestUtils.setField(smtManager, "KAFKA_HOST", "localhost");
+		ReflectionTestUtils.setField(smtManager, "KAFKA_PORT", "9092");
+		ReflectionTestUtils.setField(smtManager, "KAFKA_GROUP", "group");
+		ReflectionTestUtils.setField(smtManager, "commitMode", ServiceMessageThreadManager.COMMIT_MODE_AUTO);
+		PowerMockito.mockStatic(KafkaClientFactory.class);
+		PowerMockito.when(KafkaClientFactory.getConsumer("localhost", "9092", "group")).thenReturn(jobConsumerMock);
+		assertSame("The factory consumer should be used in auto mode", jobConsumerMock, smtManager.makeJobConsumer());
+
+		ReflectionTestUtils.setField(smtManager, "commitMode", ServiceMessageThreadManager.COMMIT_MODE_MANUAL);
+		Properties props = smtManager.getManualCommitConsumerProperties();
+		assertEquals("localhost:9092", props.get(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG));
+		assertEquals("group", props.get(ConsumerConfig.GROUP_ID_CONFIG));
+		assertEquals("Auto commits should be disabled in manual mode", "false", props.get(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG));
+	}
+
+	/**
+	 * Test that in manual commit mode only the offsets of finished Jobs are committed, and that a Job still running
+	 * holds back the Jobs after it
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testPollingCommitsFinishedOffsets() throws Exception {
+		ReflectionTestUtils.setField(smtManager, "commitMode", ServiceMessageThreadManager.COMMIT_MODE_MANUAL);
+		TopicPartition partition = new TopicPartition("ExecuteServiceJob-unittest", 0);
+		List<ConsumerRecord<String, String>> records = new ArrayList<ConsumerRecord<String, String>>();
+		for (int offset = 0; offset < 3; offset++) {
+			String message = String.format("{\"jobId\":\"%s\"}", offset);
+			records.add(new ConsumerRecord<String, String>(partition.topic(), 0, offset, String.valueOf(offset), message));
+			Job job = new Job();
+			job.setJobId(String.valueOf(offset));
+			Mockito.when(jobMessageCodecMock.readJob(message)).thenReturn(job);
+		}
+		Mockito.when(jobMessageCodecMock.writeStatusUpdate(Mockito.any(StatusUpdate.class))).thenReturn("{}");
+		Future<?> finished = Mockito.mock(Future.class);
+		Mockito.when(finished.isDone()).thenReturn(true);
+		Future<?> running = Mockito.mock(Future.class);
+		Mockito.doReturn(finished).doReturn(running).doReturn(finished).when(workerMock).run(Mockito.any(ConsumerRecord.class),
+				Mockito.any(Producer.class), Mockito.any(Job.class), Mockito.any(WorkerCallback.class));
+		Mockito.when(jobConsumerMock.assignment()).thenReturn(Collections.singleton(partition));
+		Mockito.doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) {
+				((OffsetCommitCallback) invocation.getArguments()[1]).onComplete(
+						(Map<TopicPartition, OffsetAndMetadata>) invocation.getArguments()[0], null);
+				return null;
+			}
+		}).when(jobConsumerMock).commitAsync(Mockito.anyMap(), Mockito.any(OffsetCommitCallback.class));
+		Mockito.when(jobConsumerMock.poll(Mockito.anyLong()))
+				.thenReturn(new ConsumerRecords<String, String>(Collections.singletonMap(partition, records)))
+				.thenReturn(new ConsumerRecords<String, String>(Collections.<TopicPartition, List<ConsumerRecord<String, String>>> emptyMap()))
+				.thenThrow(new WakeupException());
+
+		smtManager.pollServiceJobs(jobConsumerMock);
+
+		Map<TopicPartition, OffsetAndMetadata> expected = Collections.singletonMap(partition, new OffsetAndMetadata(1));
+		Mockito.verify(jobConsumerMock).commitAsync(Mockito.eq(expected), Mockito.any(OffsetCommitCallback.class));
+		// Nothing more finished, so the final commit is skipped
+		Mockito.verify(jobConsumerMock, Mockito.never()).commitSync(Mockito.anyMap());
+	}
+
+	/**
+	 * Test that a Job whose Worker completes before it is registered is not left running
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testPollingJobCompletedBeforeRegistered() throws Exception {
+		String message = "{\"jobId\":\"123456\"}";
+		ConsumerRecord<String, String> record = new ConsumerRecord<String, String>("ExecuteServiceJob-unittest", 0, 0, "123456", message);
+		Mockito.when(jobConsumerMock.poll(Mockito.anyLong()))
+				.thenReturn(new ConsumerRecords<String, String>(Collections.singletonMap(
+						new TopicPartition("ExecuteServiceJob-unittest", 0), Arrays.asList(record))))
+				.thenThrow(new WakeupException());
+		Job job = new Job();
+		job.setJobId("123456");
+		Mockito.when(jobMessageCodecMock.readJob(message)).thenReturn(job);
+		Mockito.doAnswer(new Answer<Future<?>>() {
+			@Override
+			public Future<?> answer(InvocationOnMock invocation) {
+				((WorkerCallback) invocation.getArguments()[3]).onComplete("123456");
+				return Mockito.mock(Future.class);
+			}
+		}).when(workerMock).run(Mockito.any(ConsumerRecord.class), Mockito.any(Producer.class), Mockito.any(Job.class),
+				Mockito.any(WorkerCallback.class));
+
+		smtManager.pollServiceJobs(jobConsumerMock);
+
+		assertEquals("The completed Job should not be running", 0, smtManager.getInFlightCount());
+	}
+
+	/**
+	 * Test that a Job aborted while it is held for Worker capacity is dropped instead of being run
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testAbortHeldJob() throws Exception {
+		ReflectionTestUtils.setField(smtManager, "commitMode", ServiceMessageThreadManager.COMMIT_MODE_MANUAL);
+		final TopicPartition partition = new TopicPartition("ExecuteServiceJob-unittest", 0);
+		String message = "{\"jobId\":\"123456\"}";
+		ConsumerRecord<String, String> record = new ConsumerRecord<String, String>(partition.topic(), 0, 5, "123456", message);
+		Job job = new Job();
+		job.setJobId("123456");
+		Mockito.when(jobMessageCodecMock.readJob(message)).thenReturn(job);
+		// The Worker pool stays saturated until the Job is aborted
+		Mockito.doThrow(new TaskRejectedException("Saturated")).when(workerMock).run(Mockito.any(ConsumerRecord.class),
+				Mockito.any(Producer.class), Mockito.any(Job.class), Mockito.any(WorkerCallback.class));
+		Mockito.when(jobConsumerMock.assignment()).thenReturn(Collections.singleton(partition));
+
+		// The abort request for the held Job
+		Mockito.when(propertiesMock.getKafkaGroup()).thenReturn("ServiceController Group");
+		PowerMockito.mockStatic(KafkaClientFactory.class);
+		PowerMockito.when(KafkaClientFactory.getConsumer(Mockito.anyString(), Mockito.anyString(), Mockito.anyString())).thenReturn(consumerMock);
+		ConsumerRecord<String, String> abortRecord = new ConsumerRecord<String, String>("abort-job-unittest", 0, 0, "123456", "ABORT");
+		Mockito.when(consumerMock.poll(Mockito.anyLong()))
+				.thenReturn(new ConsumerRecords<String, String>(Collections.singletonMap(new TopicPartition("abort-job-unittest", 0),
+						Arrays.asList(abortRecord))))
+				.thenThrow(new WakeupException());
+		AbortJob abortJob = new AbortJob();
+		abortJob.jobId = "123456";
+		PiazzaJobRequest abortRequest = new PiazzaJobRequest();
+		abortRequest.jobType = abortJob;
+		Mockito.when(jobMessageCodecMock.readJobRequest("ABORT")).thenReturn(abortRequest);
+
+		Mockito.when(jobConsumerMock.poll(Mockito.anyLong()))
+				.thenReturn(new ConsumerRecords<String, String>(Collections.singletonMap(partition, Arrays.asList(record))))
+				.thenAnswer(new Answer<ConsumerRecords<String, String>>() {
+					@Override
+					public ConsumerRecords<String, String> answer(InvocationOnMock invocation) {
+						smtManager.pollAbortServiceJobs();
+						return new ConsumerRecords<String, String>(
+								Collections.<TopicPartition, List<ConsumerRecord<String, String>>> emptyMap());
+					}
+				}).thenThrow(new WakeupException());
+
+		smtManager.pollServiceJobs(jobConsumerMock);
+
+		// Tried once on receipt and once more before the abort arrived, but not after it
+		Mockito.verify(workerMock, Mockito.times(2)).run(Mockito.any(ConsumerRecord.class), Mockito.any(Producer.class),
+				Mockito.any(Job.class), Mockito.any(WorkerCallback.class));
+		Mockito.verify(jobConsumerMock).commitSync(Collections.singletonMap(partition, new OffsetAndMetadata(6)));
+	}
+
+	/**
+	 * Test that aborting a running Job only cancels it, leaving it to be released by its Worker, while a Job cancelled
+	 * before it started is released straight away
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testAbortRunningJob() throws Exception {
+		RunningJobRegistry registry = (RunningJobRegistry) ReflectionTestUtils.getField(smtManager, "runningJobRegistry");
+		Future<Object> runningFuture = Mockito.mock(Future.class);
+		Future<Object> queuedFuture = Mockito.mock(Future.class);
+		Mockito.when(runningFuture.cancel(true)).thenReturn(true);
+		Mockito.when(queuedFuture.cancel(true)).thenReturn(true);
+		Mockito.when(workerExecutorMock.isCancelledBeforeStart(queuedFuture)).thenReturn(true);
+		for (String jobId : Arrays.asList("running", "queued")) {
+			assertTrue(registry.tryReserve("service", 10));
+			RunningJob runningJob = new RunningJob(jobId, "service", "ExecuteServiceJob-unittest", 0, 0);
+			runningJob.setFuture("running".equals(jobId) ? runningFuture : queuedFuture);
+			registry.register(runningJob);
+		}
+
+		PowerMockito.mockStatic(KafkaClientFactory.class);
+		PowerMockito.when(KafkaClientFactory.getConsumer(Mockito.anyString(), Mockito.anyString(), Mockito.anyString())).thenReturn(consumerMock);
+		List<ConsumerRecord<String, String>> abortRecords = new ArrayList<ConsumerRecord<String, String>>();
+		for (String jobId : Arrays.asList("running", "queued")) {
+			abortRecords.add(new ConsumerRecord<String, String>("abort-job-unittest", 0, abortRecords.size(), jobId, jobId));
+			AbortJob abortJob = new AbortJob();
+			abortJob.jobId = jobId;
+			PiazzaJobRequest abortRequest = new PiazzaJobRequest();
+			abortRequest.jobType = abortJob;
+			Mockito.when(jobMessageCodecMock.readJobRequest(jobId)).thenReturn(abortRequest);
+		}
+		Mockito.when(consumerMock.poll(Mockito.anyLong()))
+				.thenReturn(new ConsumerRecords<String, String>(Collections.singletonMap(new TopicPartition("abort-job-unittest", 0),
+						abortRecords)))
+				.thenThrow(new WakeupException());
+
+		smtManager.pollAbortServiceJobs();
+
+		Mockito.verify(runningFuture).cancel(true);
+		Mockito.verify(queuedFuture).cancel(true);
+		assertNotNull("The running Job should stay until its Worker returns", registry.get("running"));
+		assertNull("The Job cancelled before it started should be released", registry.get("queued"));
+		assertEquals("Only the running Job should keep its service reservation", 1, registry.getServiceJobCount("service"));
+	}
+
+	/**
+	 * Test that a Job whose dispatch fails is counted as finished, so that it does not hold back the commit
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testPollingDispatchFailureCommits() throws Exception {
+		ReflectionTestUtils.setField(smtManager, "commitMode", ServiceMessageThreadManager.COMMIT_MODE_MANUAL);
+		TopicPartition partition = new TopicPartition("ExecuteServiceJob-unittest", 0);
+		String message = "{\"jobId\":\"123456\"}";
+		ConsumerRecord<String, String> record = new ConsumerRecord<String, String>(partition.topic(), 0, 7, "123456", message);
+		Job job = new Job();
+		job.setJobId("123456");
+		Mockito.when(jobMessageCodecMock.readJob(message)).thenReturn(job);
+		Mockito.doThrow(new IllegalStateException("Worker unavailable")).when(workerMock).run(Mockito.any(ConsumerRecord.class),
+				Mockito.any(Producer.class), Mockito.any(Job.class), Mockito.any(WorkerCallback.class));
+		Mockito.when(jobConsumerMock.assignment()).thenReturn(Collections.singleton(partition));
+		Mockito.when(jobConsumerMock.poll(Mockito.anyLong()))
+				.thenReturn(new ConsumerRecords<String, String>(Collections.singletonMap(partition, Arrays.asList(record))))
+				.thenThrow(new WakeupException());
+
+		smtManager.pollServiceJobs(jobConsumerMock);
+
+		Mockito.verify(jobConsumerMock).commitSync(Collections.singletonMap(partition, new OffsetAndMetadata(8)));
+		Mockito.verify(jobConsumerMock).close();
+	}
+
+	/**
+	 * Test that closing wakes the consumer lanes, which make a final commit and close their consumers
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testCloseCommitsAndClosesConsumer() throws Exception {
+		ReflectionTestUtils.setField(smtManager, "commitMode", ServiceMessageThreadManager.COMMIT_MODE_MANUAL);
+		final TopicPartition partition = new TopicPartition("ExecuteServiceJob-unittest", 0);
+		String message = "{\"jobId\":\"123456\"}";
+		ConsumerRecord<String, String> record = new ConsumerRecord<String, String>(partition.topic(), 0, 3, "123456", message);
+		Job job = new Job();
+		job.setJobId("123456");
+		Mockito.when(jobMessageCodecMock.readJob(message)).thenReturn(job);
+		Future<?> finished = Mockito.mock(Future.class);
+		Mockito.when(finished.isDone()).thenReturn(true);
+		Mockito.doReturn(finished).when(workerMock).run(Mockito.any(ConsumerRecord.class), Mockito.any(Producer.class),
+				Mockito.any(Job.class), Mockito.any(WorkerCallback.class));
+		Mockito.when(jobConsumerMock.assignment()).thenReturn(Collections.singleton(partition));
+		// The consumer blocks in poll until it is woken up
+		final CountDownLatch wakeup = new CountDownLatch(1);
+		Mockito.doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) {
+				wakeup.countDown();
+				return null;
+			}
+		}).when(jobConsumerMock).wakeup();
+		Mockito.when(jobConsumerMock.poll(Mockito.anyLong()))
+				.thenReturn(new ConsumerRecords<String, String>(Collections.singletonMap(partition, Arrays.asList(record))))
+				.thenAnswer(new Answer<ConsumerRecords<String, String>>() {
+					@Override
+					public ConsumerRecords<String, String> answer(InvocationOnMock invocation) throws Exception {
+						wakeup.await();
+						throw new WakeupException();
+					}
+				});
+		Thread laneThread = new Thread() {
+			@Override
+			public void run() {
+				smtManager.pollServiceJobs(jobConsumerMock);
+			}
+		};
+		laneThread.start();
+		Mockito.verify(jobConsumerMock, Mockito.timeout(5000).times(2)).poll(Mockito.anyLong());
+
+		smtManager.close();
+		laneThread.join(5000);
+
+		Mockito.verify(jobConsumerMock).commitSync(Collections.singletonMap(partition, new OffsetAndMetadata(4)));
+		Mockito.verify(jobConsumerMock).close();
+	}
+
+	/**
+	 * Test that consumption pauses at the in flight limit, and that held Jobs are dispatched once completed Jobs drain
+	 * to the resume watermark
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testPollingInFlightLimit() throws Exception {
+		ReflectionTestUtils.setField(smtManager, "maxInFlight", 2);
+		ReflectionTestUtils.setField(smtManager, "resumeInFlight", 1);
+		TopicPartition partition = new TopicPartition("ExecuteServiceJob-unittest", 0);
+		List<ConsumerRecord<String, String>> records = new ArrayList<ConsumerRecord<String, String>>();
+		for (int offset = 0; offset < 3; offset++) {
+			String message = String.format("{\"jobId\":\"%s\"}", offset);
+			records.add(new ConsumerRecord<String, String>(partition.topic(), 0, offset, String.valueOf(offset), message));
+			Job job = new Job();
+			job.setJobId(String.valueOf(offset));
+			Mockito.when(jobMessageCodecMock.readJob(message)).thenReturn(job);
+		}
+		Mockito.when(jobMessageCodecMock.writeStatusUpdate(Mockito.any(StatusUpdate.class))).thenReturn("{}");
+		final List<WorkerCallback> callbacks = new ArrayList<WorkerCallback>();
+		Mockito.doAnswer(new Answer<Future<?>>() {
+			@Override
+			public Future<?> answer(InvocationOnMock invocation) {
+				callbacks.add((WorkerCallback) invocation.getArguments()[3]);
+				return Mockito.mock(Future.class);
+			}
+		}).when(workerMock).run(Mockito.any(ConsumerRecord.class), Mockito.any(Producer.class), Mockito.any(Job.class),
+				Mockito.any(WorkerCallback.class));
+		Mockito.when(jobConsumerMock.assignment()).thenReturn(Collections.singleton(partition));
+		Mockito.when(jobConsumerMock.poll(Mockito.anyLong()))
+				.thenReturn(new ConsumerRecords<String, String>(Collections.singletonMap(partition, records)))
+				.thenAnswer(new Answer<ConsumerRecords<String, String>>() {
+					@Override
+					public ConsumerRecords<String, String> answer(InvocationOnMock invocation) {
+						// Still paused with two Jobs in flight, until the first completes
+						assertEquals("The third Job should be held", 2, callbacks.size());
+						callbacks.get(0).onComplete("0");
+						return new ConsumerRecords<String, String>(
+								Collections.<TopicPartition, List<ConsumerRecord<String, String>>> emptyMap());
+					}
+				}).thenThrow(new WakeupException());
+
+		smtManager.pollServiceJobs(jobConsumerMock);
+
+		Mockito.verify(workerMock, Mockito.times(3)).run(Mockito.any(ConsumerRecord.class), Mockito.any(Producer.class),
+				Mockito.any(Job.class), Mockito.any(WorkerCallback.class));
+		Mockito.verify(jobConsumerMock, Mockito.atLeastOnce()).pause(partition);
+		assertEquals("The held Job should now be in flight", 2, smtManager.getInFlightCount());
+	}
+
+	/**
+	 * Test that a Job completing while its dispatch is checking the in flight limit does not leave consumption paused
+	 * with no Jobs running
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testInFlightLimitDrainedDuringDispatch() throws Exception {
+		ReflectionTestUtils.setField(smtManager, "maxInFlight", 1);
+		ReflectionTestUtils.setField(smtManager, "resumeInFlight", 0);
+		TopicPartition partition = new TopicPartition("ExecuteServiceJob-unittest", 0);
+		String message = "{\"jobId\":\"123456\"}";
+		ConsumerRecord<String, String> record = new ConsumerRecord<String, String>(partition.topic(), 0, 0, "123456", message);
+		Job job = new Job();
+		job.setJobId("123456");
+		Mockito.when(jobMessageCodecMock.readJob(message)).thenReturn(job);
+		final List<WorkerCallback> callbacks = new ArrayList<WorkerCallback>();
+		Mockito.doAnswer(new Answer<Future<?>>() {
+			@Override
+			public Future<?> answer(InvocationOnMock invocation) {
+				callbacks.add((WorkerCallback) invocation.getArguments()[3]);
+				return Mockito.mock(Future.class);
+			}
+		}).when(workerMock).run(Mockito.any(ConsumerRecord.class), Mockito.any(Producer.class), Mockito.any(Job.class),
+				Mockito.any(WorkerCallback.class));
+
+		// The Worker completes on its own Thread while the dispatch reads the running count
+		final AtomicBoolean drained = new AtomicBoolean();
+		final List<Thread> workerThreads = new ArrayList<Thread>();
+		RunningJobRegistry registry = Mockito.spy(new RunningJobRegistry());
+		Mockito.doAnswer(new Answer<Integer>() {
+			@Override
+			public Integer answer(InvocationOnMock invocation) throws Throwable {
+				Integer size = (Integer) invocation.callRealMethod();
+				if ((size == 1) && drained.compareAndSet(false, true)) {
+					Thread workerThread = new Thread() {
+						@Override
+						public void run() {
+							callbacks.get(0).onComplete("123456");
+						}
+					};
+					workerThreads.add(workerThread);
+					workerThread.start();
+					workerThread.join(200);
+				}
+				return size;
+			}
+		}).when(registry).size();
+		ReflectionTestUtils.setField(smtManager, "runningJobRegistry", registry);
+		Mockito.when(jobConsumerMock.poll(Mockito.anyLong()))
+				.thenReturn(new ConsumerRecords<String, String>(Collections.singletonMap(partition, Arrays.asList(record))))
+				.thenThrow(new WakeupException());
+
+		smtManager.pollServiceJobs(jobConsumerMock);
+		for (Thread workerThread : workerThreads) {
+			workerThread.join(5000);
+		}
+
+		assertTrue("The Job should have completed during the dispatch", drained.get());
+		assertEquals("No Jobs should be running", 0, smtManager.getInFlightCount());
+		assertFalse("Consumption should not stay paused with no Jobs running",
+				((AtomicBoolean) ReflectionTestUtils.getField(smtManager, "inFlightLimited")).get());
+	}
+
+	/**
+	 * Test that a service at its limit of running Jobs has its next Job held, without holding back other services
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testPollingServiceJobLimit() throws Exception {
+		TopicPartition partition = new TopicPartition("ExecuteServiceJob-unittest", 0);
+		String[] serviceIds = { "slow", "slow", "other" };
+		List<ConsumerRecord<String, String>> records = new ArrayList<ConsumerRecord<String, String>>();
+		for (int offset = 0; offset < serviceIds.length; offset++) {
+			String message = String.format("{\"jobId\":\"%s\"}", offset);
+			records.add(new ConsumerRecord<String, String>(partition.topic(), 0, offset, String.valueOf(offset), message));
+			ExecuteServiceData data = new ExecuteServiceData();
+			data.setServiceId(serviceIds[offset]);
+			ExecuteServiceJob jobType = new ExecuteServiceJob();
+			jobType.data = data;
+			Job job = new Job();
+			job.setJobId(String.valueOf(offset));
+			job.jobType = jobType;
+			Mockito.when(jobMessageCodecMock.readJob(message)).thenReturn(job);
+		}
+		Mockito.when(rateLimiterMock.getMaxConcurrentCalls(Mockito.any(ServiceExecutionPolicy.class))).thenReturn(null);
+		ServiceExecutionPolicy slowPolicy = new ServiceExecutionPolicy("slow");
+		Mockito.when(policyRegistryMock.getPolicy("slow")).thenReturn(slowPolicy);
+		Mockito.when(rateLimiterMock.getMaxConcurrentCalls(slowPolicy)).thenReturn(1);
+		final List<String> started = new ArrayList<String>();
+		final List<WorkerCallback> callbacks = new ArrayList<WorkerCallback>();
+		Mockito.doAnswer(new Answer<Future<?>>() {
+			@Override
+			public Future<?> answer(InvocationOnMock invocation) {
+				started.add(((Job) invocation.getArguments()[2]).getJobId());
+				callbacks.add((WorkerCallback) invocation.getArguments()[3]);
+				return Mockito.mock(Future.class);
+			}
+		}).when(workerMock).run(Mockito.any(ConsumerRecord.class), Mockito.any(Producer.class), Mockito.any(Job.class),
+				Mockito.any(WorkerCallback.class));
+		Mockito.when(jobConsumerMock.assignment()).thenReturn(Collections.singleton(partition));
+		Mockito.when(jobConsumerMock.poll(Mockito.anyLong()))
+				.thenReturn(new ConsumerRecords<String, String>(Collections.singletonMap(partition, records)))
+				.thenAnswer(new Answer<ConsumerRecords<String, String>>() {
+					@Override
+					public ConsumerRecords<String, String> answer(InvocationOnMock invocation) {
+						assertEquals("The second Job of the slow service should be held", Arrays.asList("0", "2"), started);
+						callbacks.get(0).onComplete("0");
+						return new ConsumerRecords<String, String>(
+								Collections.<TopicPartition, List<ConsumerRecord<String, String>>> emptyMap());
+					}
+				}).thenThrow(new WakeupException());
+
+		smtManager.pollServiceJobs(jobConsumerMock);
+
+		assertEquals("The held Job should start once the first completes", Arrays.asList("0", "2", "1"), started);
+		RunningJobRegistry registry = (RunningJobRegistry) ReflectionTestUtils.getField(smtManager, "runningJobRegistry");
+		assertEquals("Only one Job of the slow service should be running", 1, registry.getServiceJobCount("slow"));
+	}
+
 	/**
 	 * Test aborting Polls
 	 */
@@ -48,8 +48,10 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.BDDMockito;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 import org.mockito.invocation.InvocationOnMock;
@@ -78,6 +80,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mongodb.MongoException;
 
 import messaging.job.KafkaClientFactory;
+import messaging.job.WorkerCallback;
 import model.data.DataResource;
 import model.data.DataType;
 import model.data.type.BodyDataType;
@@ -114,6 +117,15 @@ public class ServiceMessageWorkerTest {
 	
 	@Mock
 	private PiazzaLogger loggerMock;
+
+	@Mock
+	private StatusUpdatePublisher statusUpdatePublisherMock;
+
+	@Mock
+	private KafkaSender kafkaSenderMock;
+
+	@Mock
+	private WorkflowEventDispatcher workflowEventDispatcherMock;
 	
 	
 	@InjectMocks
@@ -436,6 +448,54 @@ public class ServiceMessageWorkerTest {
 		
 	}
 	
+	/**
+	 * Test that the callback is notified once the Job is done, even when it fails
+	 */
+	@Test
+	public void testCallbackOnComplete() throws Exception {
+		WorkerCallback callback = Mockito.mock(WorkerCallback.class);
+		ConsumerRecord<String, String> kafkaMessage = new ConsumerRecord<String, String>("Test", 0, 0, "123456", "VALID");
+		RegisterServiceJob rsj = new RegisterServiceJob();
+		rsj.data = service;
+		validJob.jobType = rsj;
+
+		smWorkerMock.run(kafkaMessage, producerMock, validJob, callback).get();
+
+		Mockito.verify(callback).onComplete(validJob.getJobId());
+	}
+
+	/**
+	 * Test that the Running status is sent once the Worker starts the Job
+	 */
+	@Test
+	public void testRunningStatusOnStart() throws Exception {
+		ConsumerRecord<String, String> kafkaMessage = new ConsumerRecord<String, String>("Test", 0, 0, "123456", "VALID");
+		RegisterServiceJob rsj = new RegisterServiceJob();
+		rsj.data = service;
+		validJob.jobType = rsj;
+
+		smWorkerMock.run(kafkaMessage, producerMock, validJob, null).get();
+
+		ArgumentCaptor<StatusUpdate> captor = ArgumentCaptor.forClass(StatusUpdate.class);
+		Mockito.verify(statusUpdatePublisherMock, Mockito.atLeastOnce()).publish(Mockito.eq(validJob.getJobId()), captor.capture());
+		assertEquals("The first status should be Running", StatusUpdate.STATUS_RUNNING, captor.getAllValues().get(0).getStatus());
+	}
+
+	/**
+	 * Test that the Job is only reported done once its final status has been acknowledged
+	 */
+	@Test
+	public void testFinalStatusAcknowledgedBeforeComplete() throws Exception {
+		ConsumerRecord<String, String> kafkaMessage = new ConsumerRecord<String, String>("Test", 0, 0, "123456", "VALID");
+		WorkerCallback callbackMock = Mockito.mock(WorkerCallback.class);
+
+		smWorkerMock.run(kafkaMessage, producerMock, validJob, callbackMock).get();
+
+		InOrder inOrder = Mockito.inOrder(statusUpdatePublisherMock, callbackMock);
+		inOrder.verify(statusUpdatePublisherMock).awaitFinalUpdate(validJob.getJobId());
+		inOrder.verify(callbackMock).onComplete(validJob.getJobId());
+	}
+
 	private Job createInvalidJobWithoutOuptut() {
 		
 		Job job = new Job();
@@ -0,0 +1,259 @@
+/*******************************************************************************
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.venice.piazza.servicecontroller.messaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import util.PiazzaLogger;
+
+/**
+ * Tests the bounded Service Worker executor
+ */
+public class ServiceWorkerExecutorTest {
+	@Mock
+	private PiazzaLogger loggerMock;
+
+	@InjectMocks
+	private ServiceWorkerExecutor workerExecutor;
+
+	private CountDownLatch release;
+
+	@Before
+	public void setup() {
+		MockitoAnnotations.initMocks(this);
+		ReflectionTestUtils.setField(workerExecutor, "corePoolSize", 1);
+		ReflectionTestUtils.setField(workerExecutor, "maxPoolSize", 1);
+		ReflectionTestUtils.setField(workerExecutor, "queueCapacity", 1);
+		ReflectionTestUtils.setField(workerExecutor, "keepAliveSeconds", 60);
+		workerExecutor.initialize();
+		release = new CountDownLatch(1);
+	}
+
+	@After
+	public void tearDown() {
+		release.countDown();
+		workerExecutor.shutdown();
+	}
+
+	/**
+	 * Test that the executor reports saturation and rejects work once the queue is full
+	 */
+	@Test
+	public void testSaturationAndRejection() throws Exception {
+		assertFalse("A new pool should not be saturated", workerExecutor.isSaturated());
+
+		// One running, one queued
+		workerExecutor.submit(blockingTask());
+		workerExecutor.submit(blockingTask());
+		assertTrue("The pool should be saturated with a full queue", workerExecutor.isSaturated());
+
+		try {
+			workerExecutor.submit(blockingTask());
+			assertTrue("The third task should have been rejected", false);
+		} catch (TaskRejectedException exception) {
+			assertEquals("The rejection should be counted", 1, workerExecutor.getRejectedCount());
+		}
+
+		release.countDown();
+	}
+
+	/**
+	 * Test that completed tasks are recorded in the metrics
+	 */
+	@Test
+	public void testMetrics() throws Exception {
+		release.countDown();
+		Future<String> future = workerExecutor.submit(blockingTask());
+		assertEquals("The result should be returned", "done", future.get(5, TimeUnit.SECONDS));
+
+		boolean foundCompleted = false;
+		for (Metric<?> metric : workerExecutor.metrics()) {
+			if (metric.getName().equals("servicecontroller.worker.completed")) {
+				foundCompleted = true;
+				assertEquals("One task should be completed", 1L, metric.getValue().longValue());
+			}
+		}
+		assertTrue("The completed metric should be exposed", foundCompleted);
+	}
+
+	/**
+	 * Test that the virtual mode falls back to the pool when the JVM does not support virtual Threads
+	 */
+	@Test
+	public void testVirtualModeFallback() {
+		workerExecutor.shutdown();
+		ServiceWorkerExecutor spy = Mockito.spy(workerExecutor);
+		ReflectionTestUtils.setField(spy, "executionMode", ServiceWorkerExecutor.MODE_VIRTUAL);
+		Mockito.doReturn(null).when(spy).createVirtualThreadExecutor();
+		spy.initialize();
+
+		assertFalse("The executor should have fallen back to the pool", spy.isVirtual());
+		spy.shutdown();
+	}
+
+	/**
+	 * Test the in flight limit and cancellation of Jobs in the virtual mode
+	 */
+	@Test
+	public void testVirtualModeLimitAndCancel() throws Exception {
+		workerExecutor.shutdown();
+		ServiceWorkerExecutor spy = Mockito.spy(workerExecutor);
+		ReflectionTestUtils.setField(spy, "executionMode", ServiceWorkerExecutor.MODE_VIRTUAL);
+		ReflectionTestUtils.setField(spy, "maxVirtualInFlight", 1);
+		// Stand in for the virtual Thread executor on JVMs that do not have one
+		Mockito.doReturn(Executors.newCachedThreadPool()).when(spy).createVirtualThreadExecutor();
+		spy.initialize();
+
+		assertTrue("The executor should be in virtual mode", spy.isVirtual());
+		Future<String> future = spy.submit(blockingTask());
+		assertTrue("The executor should be saturated at the in flight limit", spy.isSaturated());
+		try {
+			spy.submit(blockingTask());
+			assertTrue("The second task should have been rejected", false);
+		} catch (TaskRejectedException exception) {
+			assertEquals("The rejection should be counted", 1, spy.getRejectedCount());
+		}
+
+		// Cancelling interrupts the Job, which releases its slot once it returns
+		assertTrue("The Job should be cancelled", future.cancel(true));
+		awaitInFlight(spy, 0);
+		assertFalse("The executor should accept work again", spy.isSaturated());
+		spy.shutdown();
+	}
+
+	/**
+	 * Test that a cancelled Job stays in flight until its Thread returns, and that a Job cancelled before it starts is
+	 * released straight away
+	 */
+	@Test
+	public void testCancelReleasesInFlight() throws Exception {
+		Future<String> running = workerExecutor.submit(uninterruptibleTask());
+		Future<String> queued = workerExecutor.submit(blockingTask());
+		for (int wait = 0; (wait < 500) && (workerExecutor.getActiveCount() == 0); wait++) {
+			Thread.sleep(10);
+		}
+		assertEquals("Both Jobs should be in flight", 2, workerExecutor.getInFlightCount());
+
+		assertTrue("The queued Job should be cancelled", queued.cancel(true));
+		assertEquals("The queued Job should be released", 1, workerExecutor.getInFlightCount());
+		assertEquals("The queued Job should be counted as cancelled", 1, workerExecutor.getCancelledCount());
+		assertTrue("The queued Job should never run", workerExecutor.isCancelledBeforeStart(queued));
+
+		assertTrue("The running Job should be cancelled", running.cancel(true));
+		assertEquals("The running Job should stay in flight until it returns", 1, workerExecutor.getInFlightCount());
+		assertFalse("The running Job had started", workerExecutor.isCancelledBeforeStart(running));
+
+		release.countDown();
+		awaitInFlight(workerExecutor, 0);
+		assertEquals("Only the queued Job was cancelled before it started", 1, workerExecutor.getCancelledCount());
+	}
+
+	/**
+	 * Test that concurrent submissions in the virtual mode never go over the in flight limit
+	 */
+	@Test
+	public void testVirtualModeConcurrentSubmit() throws Exception {
+		workerExecutor.shutdown();
+		final ServiceWorkerExecutor spy = Mockito.spy(workerExecutor);
+		ReflectionTestUtils.setField(spy, "executionMode", ServiceWorkerExecutor.MODE_VIRTUAL);
+		ReflectionTestUtils.setField(spy, "maxVirtualInFlight", 4);
+		Mockito.doReturn(Executors.newCachedThreadPool()).when(spy).createVirtualThreadExecutor();
+		spy.initialize();
+
+		// Several lanes submit at the same moment
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicInteger accepted = new AtomicInteger();
+		ExecutorService lanes = Executors.newFixedThreadPool(8);
+		for (int i = 0; i < 16; i++) {
+			lanes.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						spy.submit(blockingTask());
+						accepted.incrementAndGet();
+					} catch (TaskRejectedException | InterruptedException exception) {
+						// Expected once the limit is reached
+					}
+				}
+			});
+		}
+		start.countDown();
+		lanes.shutdown();
+		assertTrue(lanes.awaitTermination(5, TimeUnit.SECONDS));
+
+		assertEquals("Only the limit should be accepted", 4, accepted.get());
+		assertEquals("The in flight count should stop at the limit", 4, spy.getInFlightCount());
+		assertEquals("The remaining tasks should be rejected", 12, spy.getRejectedCount());
+		release.countDown();
+		spy.shutdown();
+	}
+
+	private static void awaitInFlight(ServiceWorkerExecutor executor, int expected) throws InterruptedException {
+		for (int wait = 0; (wait < 500) && (executor.getInFlightCount() != expected); wait++) {
+			Thread.sleep(10);
+		}
+		assertEquals("Unexpected Jobs in flight", expected, executor.getInFlightCount());
+	}
+
+	// Keeps running when interrupted, until released
+	private Callable<String> uninterruptibleTask() {
+		return new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				while (true) {
+					try {
+						release.await(5, TimeUnit.SECONDS);
+						return "done";
+					} catch (InterruptedException exception) {
+						// Ignored, as by a service call that does not respond to interrupts
+					}
+				}
+			}
+		};
+	}
+
+	private Callable<String> blockingTask() {
+		return new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				release.await(5, TimeUnit.SECONDS);
+				return "done";
+			}
+		};
+	}
+}
@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.venice.piazza.servicecontroller.messaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import messaging.job.JobMessageFactory;
+import model.status.StatusUpdate;
+import util.PiazzaLogger;
+
+/**
+ * Tests the coalescing of Job status updates
+ */
+public class StatusUpdatePublisherTest {
+	@Mock
+	private PiazzaLogger loggerMock;
+
+	@InjectMocks
+	private StatusUpdatePublisher publisher;
+
+	private MockProducer<String, String> producer = new MockProducer<String, String>(true, new StringSerializer(),
+			new StringSerializer());
+
+	@Before
+	public void setup() {
+		MockitoAnnotations.initMocks(this);
+		JobMessageCodec codec = new JobMessageCodec();
+		ReflectionTestUtils.setField(codec, "objectMapper", new ObjectMapper());
+		codec.initialize();
+		ReflectionTestUtils.setField(publisher, "jobMessageCodec", codec);
+		KafkaSender kafkaSender = new KafkaSender();
+		ReflectionTestUtils.setField(kafkaSender, "coreLogger", loggerMock);
+		kafkaSender.initialize();
+		ReflectionTestUtils.setField(publisher, "kafkaSender", kafkaSender);
+		ReflectionTestUtils.setField(publisher, "SPACE", "unittest");
+		// Long enough that only the test flushes
+		ReflectionTestUtils.setField(publisher, "windowMs", 3600000L);
+		publisher = Mockito.spy(publisher);
+		Mockito.doReturn(producer).when(publisher).makeProducer();
+		publisher.initialize();
+	}
+
+	@After
+	public void cleanup() {
+		publisher.close();
+	}
+
+	/**
+	 * Test that only the latest update of each Job within the window is sent, and that final updates are sent at once
+	 */
+	@Test
+	public void testCoalescing() {
+		publisher.publish("1", new StatusUpdate(StatusUpdate.STATUS_RUNNING));
+		publisher.publish("2", new StatusUpdate(StatusUpdate.STATUS_RUNNING));
+		assertTrue("Nothing should be sent before the window ends", producer.history().isEmpty());
+		publisher.publish("1", new StatusUpdate(StatusUpdate.STATUS_SUCCESS));
+		assertEquals("The final update should be sent at once", 1, producer.history().size());
+
+		publisher.flush();
+
+		List<ProducerRecord<String, String>> records = producer.history();
+		assertEquals("One update per Job should be sent", 2, records.size());
+		for (ProducerRecord<String, String> record : records) {
+			assertEquals("Updates should go to the update topic", JobMessageFactory.UPDATE_JOB_TOPIC_NAME + "-unittest",
+					record.topic());
+			if ("1".equals(record.key())) {
+				assertTrue("The latest status should be sent", record.value().contains(StatusUpdate.STATUS_SUCCESS));
+			}
+		}
+		assertEquals("One update should be coalesced", 1L, metric("servicecontroller.statusupdates.coalesced"));
+		assertEquals("Two updates should be sent", 2L, metric("servicecontroller.statusupdates.sent"));
+	}
+
+	/**
+	 * Test that waiting for the final update of a Job returns once the update is acknowledged
+	 */
+	@Test
+	public void testAwaitFinalUpdate() throws Exception {
+		final MockProducer<String, String> manualProducer = new MockProducer<String, String>(false, new StringSerializer(),
+				new StringSerializer());
+		ReflectionTestUtils.setField(publisher, "producer", manualProducer);
+		ReflectionTestUtils.setField(publisher, "ackTimeoutMs", 5000L);
+		publisher.publish("1", new StatusUpdate(StatusUpdate.STATUS_SUCCESS));
+
+		Thread waiter = new Thread(() -> publisher.awaitFinalUpdate("1"));
+		waiter.start();
+		waiter.join(100);
+		assertTrue("The Worker should wait for the acknowledgement", waiter.isAlive());
+
+		manualProducer.completeNext();
+		waiter.join(1000);
+		assertFalse("The Worker should continue once the update is acknowledged", waiter.isAlive());
+		// Nothing is left to wait for
+		publisher.awaitFinalUpdate("1");
+	}
+
+	private long metric(String name) {
+		for (Metric<?> metric : publisher.metrics()) {
+			if (metric.getName().equals(name)) {
+				return metric.getValue().longValue();
+			}
+		}
+		throw new AssertionError("Metric not found: " + name);
+	}
+}
@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Copyright 2016, RadiantBlue Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.venice.piazza.servicecontroller.messaging;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestTemplate;
+import org.venice.piazza.servicecontroller.messaging.WorkflowEventDispatcher.PendingEvent;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import model.response.EventTypeListResponse;
+import model.workflow.Event;
+import model.workflow.EventType;
+import util.PiazzaLogger;
+
+/**
+ * Tests the dispatch of Workflow Events
+ */
+public class WorkflowEventDispatcherTest {
+	@Mock
+	private PiazzaLogger loggerMock;
+	@Mock
+	private RestTemplate restTemplateMock;
+
+	@InjectMocks
+	private WorkflowEventDispatcher dispatcher;
+
+	private ObjectMapper mapper = new ObjectMapper();
+
+	@Before
+	public void setup() throws Exception {
+		MockitoAnnotations.initMocks(this);
+		ReflectionTestUtils.setField(dispatcher, "objectMapper", mapper);
+		ReflectionTestUtils.setField(dispatcher, "WORKFLOW_URL", "http://workflow");
+		ReflectionTestUtils.setField(dispatcher, "queueCapacity", 10);
+		ReflectionTestUtils.setField(dispatcher, "batchSize", 5);
+		ReflectionTestUtils.setField(dispatcher, "retryAttempts", 2);
+		ReflectionTestUtils.setField(dispatcher, "retryBackoffMs", 3600000L);
+		EventType eventType = new EventType();
+		eventType.eventTypeId = "executionCompleteId";
+		EventTypeListResponse eventTypes = new EventTypeListResponse();
+		eventTypes.data = new ArrayList<EventType>(Arrays.asList(eventType));
+		Mockito.when(restTemplateMock.getForObject(Mockito.contains("eventType"), Mockito.eq(String.class)))
+				.thenReturn(mapper.writeValueAsString(eventTypes));
+		dispatcher.initialize();
+	}
+
+	@After
+	public void cleanup() {
+		dispatcher.close();
+	}
+
+	/**
+	 * Test that the EventType is looked up once for all Events
+	 */
+	@Test
+	public void testEventTypeCached() throws Exception {
+		dispatcher.dispatchBatch(Arrays.asList(event("1"), event("2")));
+		dispatcher.dispatchBatch(Arrays.asList(event("3")));
+
+		ArgumentCaptor<String> body = ArgumentCaptor.forClass(String.class);
+		Mockito.verify(restTemplateMock, Mockito.times(3)).postForObject(Mockito.eq("http://workflow/event"), body.capture(),
+				Mockito.eq(String.class));
+		assertEquals("The cached EventType should be used", "executionCompleteId",
+				mapper.readValue(body.getValue(), Event.class).eventTypeId);
+		assertEquals("The EventType should be looked up once", 1L, metric("servicecontroller.workflow.events.eventTypeLookups"));
+	}
+
+	/**
+	 * Test that a rejected Event is retried with the EventType looked up again, and dropped once attempts run out
+	 */
+	@Test
+	public void testRejectedEvent() throws Exception {
+		Mockito.when(restTemplateMock.postForObject(Mockito.anyString(), Mockito.any(), Mockito.eq(String.class)))
+				.thenThrow(new HttpClientErrorException(HttpStatus.BAD_REQUEST));
+		PendingEvent pendingEvent = event("1");
+
+		dispatcher.dispatchBatch(Arrays.asList(pendingEvent));
+		dispatcher.dispatchBatch(Arrays.asList(pendingEvent));
+
+		assertEquals("The EventType should be looked up again", 2L, metric("servicecontroller.workflow.events.eventTypeLookups"));
+		assertEquals("One retry should be scheduled", 1L, metric("servicecontroller.workflow.events.retried"));
+		assertEquals("The Event should be dropped after its last attempt", 1L, metric("servicecontroller.workflow.events.dropped"));
+	}
+
+	private PendingEvent event(String jobId) {
+		Event event = new Event();
+		event.data = new HashMap<String, Object>();
+		event.data.put("jobId", jobId);
+		return new PendingEvent(event);
+	}
+
+	private long metric(String name) {
+		for (Metric<?> metric : dispatcher.metrics()) {
+			if (metric.getName().equals(name)) {
+				return metric.getValue().longValue();
+			}
+		}
+		throw new AssertionError("Metric not found: " + name);
+	}
+}
@@ -32,8 +32,11 @@ import org.mockito.MockitoAnnotations;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 
+import org.venice.piazza.servicecontroller.data.cache.ServiceCache;
+import org.venice.piazza.servicecontroller.messaging.ServiceChangeFeed;
 import org.venice.piazza.servicecontroller.data.mongodb.accessors.MongoAccessor;
 import org.venice.piazza.servicecontroller.elasticsearch.accessors.ElasticSearchAccessor;
+import org.venice.piazza.servicecontroller.execution.ExecutionPolicyRegistry;
 
 import org.venice.piazza.servicecontroller.util.CoreServiceProperties;
 
@@ -61,9 +64,15 @@ public class DeleteServiceHandlerTest {
 	// Create some mocks
 	@Mock
 	private MongoAccessor accessorMock;
+	@Mock
+	private ServiceCache serviceCacheMock;
+	@Mock
+	private ServiceChangeFeed serviceChangeFeedMock;
 	@Mock 
 	private ElasticSearchAccessor elasticAccessorMock;
 	@Mock
+	private ExecutionPolicyRegistry policyRegistryMock;
+	@Mock
 	private CoreServiceProperties coreServicePropMock;
 	@InjectMocks 
 	private PiazzaLogger piazzaLoggerMock;
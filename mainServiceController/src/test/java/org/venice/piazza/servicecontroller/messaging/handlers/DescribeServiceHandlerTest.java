@@ -26,7 +26,8 @@ import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-import org.venice.piazza.servicecontroller.data.mongodb.accessors.MongoAccessor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.venice.piazza.servicecontroller.data.cache.ServiceCache;
 import org.venice.piazza.servicecontroller.elasticsearch.accessors.ElasticSearchAccessor;
 
 import org.venice.piazza.servicecontroller.util.CoreServiceProperties;
@@ -48,7 +49,7 @@ import util.UUIDFactory;
 		
 		// Create some mocks
 		@Mock
-		private MongoAccessor accessorMock;
+		private ServiceCache serviceCacheMock;
 		
 		@Mock 
 		private ElasticSearchAccessor elasticAccessorMock;
@@ -81,6 +82,7 @@ import util.UUIDFactory;
 			service.setResourceMetadata(rm);
 			service.setUrl("http://localhost:8082/string/toUpper");
 			MockitoAnnotations.initMocks(this);			
+			ReflectionTestUtils.setField(dsHandler, "objectMapper", new ObjectMapper());
 	    }
 		
 		@Test
@@ -151,7 +153,7 @@ import util.UUIDFactory;
 				String responseServiceString = mapper.writeValueAsString(service);	
 				ResponseEntity<String> responseEntity = new  ResponseEntity<String>(responseServiceString, HttpStatus.OK);
 
-				Mockito.doReturn(service).when(accessorMock).getServiceById(testServiceId);		
+				Mockito.doReturn(service).when(serviceCacheMock).getServiceById(testServiceId);		
 				ResponseEntity<String> result = dsHandler.handle(testServiceId);
 			
 				assertEquals ("The response entity was correct for this describe request", responseEntity, result);
@@ -172,7 +174,7 @@ import util.UUIDFactory;
 			String testServiceId = "a842aae2-bd74-4c4b-9a65-c45e8cd9060";
 			ResponseEntity<String> responseEntity = new  ResponseEntity<String>("null", HttpStatus.OK);
 
-			Mockito.doReturn(null).when(accessorMock).getServiceById(testServiceId);		
+			Mockito.doReturn(null).when(serviceCacheMock).getServiceById(testServiceId);		
 			ResponseEntity<String> result = dsHandler.handle(testServiceId);
 		
 			assertEquals ("The response entity was correct for this describe request", responseEntity, result);
@@ -19,11 +19,12 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.powermock.api.mockito.PowerMockito.mock;
 import static org.powermock.api.mockito.PowerMockito.when;
-import static org.powermock.api.mockito.PowerMockito.whenNew;
 
+import java.net.SocketException;
 import java.net.URI;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -33,10 +34,23 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 import org.powermock.modules.junit4.PowerMockRunner;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.venice.piazza.servicecontroller.data.model.ServiceExecutionPolicy;
+import org.venice.piazza.servicecontroller.data.cache.ServiceCache;
 import org.venice.piazza.servicecontroller.data.mongodb.accessors.MongoAccessor;
+import org.venice.piazza.servicecontroller.execution.CircuitBreakerRegistry;
+import org.venice.piazza.servicecontroller.execution.EndpointBalancer;
+import org.venice.piazza.servicecontroller.execution.ExecutionPolicyRegistry;
+import org.venice.piazza.servicecontroller.execution.RequestHedger;
+import org.venice.piazza.servicecontroller.execution.ServiceHttpEngine;
+import org.venice.piazza.servicecontroller.execution.ServiceRateLimiter;
+import org.venice.piazza.servicecontroller.execution.ServiceRetryScheduler;
 import org.venice.piazza.servicecontroller.messaging.handlers.ExecuteServiceHandler;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
@@ -72,7 +86,7 @@ public class ExecuteServiceHandlerTest {
 	private PiazzaLogger loggerMock;
 	
 	@Mock
-	private MongoAccessor accessorMock;
+	private ServiceCache serviceCacheMock;
 	
 	@Mock
 	private Service serviceMock;
@@ -86,16 +100,13 @@ public class ExecuteServiceHandlerTest {
 	Service convertService = null;
 
 	@Mock
-	RestTemplate restTemplateMock;
+	private ServiceHttpEngine httpEngineMock;
+
+	@Mock
+	private ExecutionPolicyRegistry policyRegistryMock;
 
 	@Before
     public void setup() {
-		try {
-			whenNew(RestTemplate.class).withNoArguments().thenReturn(restTemplateMock);
-		} catch (Exception e) {
-		 	// TODO Auto-generated catch block
-				e.printStackTrace();
-		}
 		rm = new ResourceMetadata();
 		rm.name = "toUpper Params";
 		rm.description = "Service to convert string to uppercase";
@@ -128,6 +139,19 @@ public class ExecuteServiceHandlerTest {
 		movieService.setServiceId("a842aae2-bd74-4c4b-9a65-c45e8cd9060f");
 		movieService.setUrl("http://localhost:8087/jumpstart/moviequotewelcome");
 		MockitoAnnotations.initMocks(this);	
+		ReflectionTestUtils.setField(executeServiceHandler, "objectMapper", new ObjectMapper());
+		ReflectionTestUtils.setField(executeServiceHandler, "breakerRegistry", makeBreakerRegistry());
+		ServiceRateLimiter rateLimiter = new ServiceRateLimiter();
+		ReflectionTestUtils.setField(rateLimiter, "defaultMaxConcurrentCalls", 2);
+		ReflectionTestUtils.setField(rateLimiter, "maxWaitingCalls", 16);
+		ReflectionTestUtils.setField(rateLimiter, "callThreads", 2);
+		ReflectionTestUtils.setField(rateLimiter, "callQueueCapacity", 16);
+		rateLimiter.initialize();
+		ReflectionTestUtils.setField(executeServiceHandler, "rateLimiter", rateLimiter);
+		ReflectionTestUtils.setField(executeServiceHandler, "retryScheduler", makeRetryScheduler());
+		ReflectionTestUtils.setField(executeServiceHandler, "requestHedger", new RequestHedger());
+		ReflectionTestUtils.setField(executeServiceHandler, "endpointBalancer", new EndpointBalancer());
+		Mockito.when(policyRegistryMock.getPolicy(Mockito.anyString())).thenReturn(new ServiceExecutionPolicy());
 
     }
 	
@@ -191,7 +215,7 @@ public class ExecuteServiceHandlerTest {
 		
 		URI uri = URI.create("http://localhost:8087/jumpstart/string/convert");
 		// Setup mocks
-		Mockito.when(accessorMock.getServiceById(serviceId)).thenReturn(convertService);
+		Mockito.when(serviceCacheMock.getServiceById(serviceId)).thenReturn(convertService);
         Mockito.doNothing().when(loggerMock).log(Mockito.anyString(), Mockito.anyString());
         Mockito.when(serviceMock.getUrl()).thenReturn(uri.toString());
 
@@ -221,8 +245,8 @@ public class ExecuteServiceHandlerTest {
 		
 		URI uri = URI.create("http://localhost:8087/jumpstart/string/convert");
 		// Setup mocks
-		Mockito.when(restTemplateMock.postForEntity(Mockito.eq(uri),Mockito.any(Object.class),Mockito.eq(String.class))).thenReturn(new ResponseEntity<String>("testExecuteService",HttpStatus.OK));
-		Mockito.when(accessorMock.getServiceById(serviceId)).thenReturn(convertService);
+		Mockito.when(httpEngineMock.execute(Mockito.eq(HttpMethod.POST),Mockito.eq(uri),Mockito.any(HttpEntity.class),Mockito.any(ServiceExecutionPolicy.class))).thenReturn(CompletableFuture.completedFuture(new ResponseEntity<String>("testExecuteService",HttpStatus.OK)));
+		Mockito.when(serviceCacheMock.getServiceById(serviceId)).thenReturn(convertService);
         Mockito.doNothing().when(loggerMock).log(Mockito.anyString(), Mockito.anyString());
         Mockito.when(serviceMock.getUrl()).thenReturn(uri.toString());
 
@@ -247,9 +271,9 @@ public class ExecuteServiceHandlerTest {
 		
 	    URI uri = URI.create("http://localhost:8082/string/toUpper");
         Mockito.when(serviceMock.getUrl()).thenReturn(uri.toString());
-        Mockito.when(accessorMock.getServiceById(serviceId)).thenReturn(service);
+        Mockito.when(serviceCacheMock.getServiceById(serviceId)).thenReturn(service);
         Mockito.doNothing().when(loggerMock).log(Mockito.anyString(), Mockito.anyString());
-		when(restTemplateMock.postForEntity(Mockito.eq(uri),Mockito.any(Object.class),Mockito.eq(String.class))).thenReturn(new ResponseEntity<String>("testExecuteService",HttpStatus.FOUND));
+		when(httpEngineMock.execute(Mockito.eq(HttpMethod.POST),Mockito.eq(uri),Mockito.any(HttpEntity.class),Mockito.any(ServiceExecutionPolicy.class))).thenReturn(CompletableFuture.completedFuture(new ResponseEntity<String>("testExecuteService",HttpStatus.FOUND)));
 
 		MongoAccessor mockMongo = mock(MongoAccessor.class);
 		when(mockMongo.getServiceById("8")).thenReturn(service);
@@ -283,11 +307,11 @@ public class ExecuteServiceHandlerTest {
 		
 	    URI uri = URI.create("http://localhost:8087/jumpstart/moviequotewelcome?name=Marge");
 		Mockito.when(serviceMock.getUrl()).thenReturn(uri.toString());
-	    Mockito.when(accessorMock.getServiceById(serviceId)).thenReturn(movieService);
+	    Mockito.when(serviceCacheMock.getServiceById(serviceId)).thenReturn(movieService);
 	    Mockito.doNothing().when(loggerMock).log(Mockito.anyString(), Mockito.anyString());
-		Mockito.when(restTemplateMock.getForEntity(Mockito.eq(uri),Mockito.eq(String.class))).thenReturn(new ResponseEntity<String>("testExecuteService",HttpStatus.FOUND));
+		Mockito.when(httpEngineMock.execute(Mockito.eq(HttpMethod.GET),Mockito.eq(uri),Mockito.any(HttpEntity.class),Mockito.any(ServiceExecutionPolicy.class))).thenReturn(CompletableFuture.completedFuture(new ResponseEntity<String>("testExecuteService",HttpStatus.FOUND)));
 			
-		when(accessorMock.getServiceById(serviceId)).thenReturn(movieService);
+		when(serviceCacheMock.getServiceById(serviceId)).thenReturn(movieService);
 
 		ResponseEntity<String> retVal = executeServiceHandler.handle(edata);
 	    assertTrue(retVal.getBody().contains("testExecuteService"));
@@ -319,7 +343,7 @@ public class ExecuteServiceHandlerTest {
 			Map<String, DataType> postObjects = new HashMap<>();
 			postObjects.put("name", tdt);
 	        Mockito.when(serviceMock.getUrl()).thenReturn(uri.toString());
-			Mockito.when(accessorMock.getServiceById("8")).thenReturn(service);
+			Mockito.when(serviceCacheMock.getServiceById("8")).thenReturn(service);
 			Mockito.doReturn(omMock).when(esMock).makeObjectMapper();
 			Mockito.when(omMock.writeValueAsString(postObjects)).thenThrow( new JsonMappingException("Test Exception") );
 			ResponseEntity<String> retVal = esMock.handle(edata);
@@ -333,4 +357,156 @@ public class ExecuteServiceHandlerTest {
 
 	}
 	
+	/**
+	 * Test that an error response from the service is thrown to the caller, as it was with the RestTemplate
+	 */
+	@Test(expected = HttpServerErrorException.class)
+	public void testHandleServiceError() {
+		ExecuteServiceData edata = new ExecuteServiceData();
+		String serviceId = "8";
+		edata.setServiceId(serviceId);
+		HashMap<String,DataType> dataInputs = new HashMap<String,DataType>();
+		TextDataType tdt = new TextDataType();
+		tdt.content = "Marge";
+		dataInputs.put("name",tdt);
+		edata.setDataInputs(dataInputs);
+
+		CompletableFuture<ResponseEntity<String>> failed = new CompletableFuture<ResponseEntity<String>>();
+		failed.completeExceptionally(new HttpServerErrorException(HttpStatus.INTERNAL_SERVER_ERROR));
+		Mockito.when(serviceCacheMock.getServiceById(serviceId)).thenReturn(service);
+		Mockito.when(httpEngineMock.execute(Mockito.eq(HttpMethod.POST),Mockito.any(URI.class),Mockito.any(HttpEntity.class),Mockito.any(ServiceExecutionPolicy.class))).thenReturn(failed);
+
+		executeServiceHandler.handle(edata);
+	}
+
+	/**
+	 * Test that a failing service is no longer called once its circuit opens
+	 */
+	@Test
+	public void testCircuitOpen() {
+		ExecuteServiceData edata = new ExecuteServiceData();
+		edata.setServiceId("8");
+		edata.setDataInputs(new HashMap<String, DataType>());
+		CompletableFuture<ResponseEntity<String>> failed = new CompletableFuture<ResponseEntity<String>>();
+		failed.completeExceptionally(new HttpServerErrorException(HttpStatus.INTERNAL_SERVER_ERROR));
+		Mockito.when(serviceCacheMock.getServiceById("8")).thenReturn(service);
+		Mockito.when(httpEngineMock.execute(Mockito.eq(HttpMethod.POST), Mockito.any(URI.class), Mockito.any(HttpEntity.class),
+				Mockito.any(ServiceExecutionPolicy.class))).thenReturn(failed);
+
+		for (int call = 0; call < 2; call++) {
+			try {
+				executeServiceHandler.handle(edata);
+			} catch (HttpServerErrorException exception) {
+				// Expected
+			}
+		}
+		ResponseEntity<String> result = executeServiceHandler.handle(edata);
+
+		assertEquals("The call should be rejected", HttpStatus.SERVICE_UNAVAILABLE, result.getStatusCode());
+		Mockito.verify(httpEngineMock, Mockito.times(2)).execute(Mockito.eq(HttpMethod.POST), Mockito.any(URI.class),
+				Mockito.any(HttpEntity.class), Mockito.any(ServiceExecutionPolicy.class));
+	}
+
+	/**
+	 * Test that calls beyond the bulkhead of a service wait until one completes, rather than failing
+	 */
+	@Test
+	public void testBulkheadDefers() throws Exception {
+		ExecuteServiceData edata = new ExecuteServiceData();
+		edata.setServiceId("8");
+		edata.setDataInputs(new HashMap<String, DataType>());
+		CompletableFuture<ResponseEntity<String>> pending = new CompletableFuture<ResponseEntity<String>>();
+		Mockito.when(serviceCacheMock.getServiceById("8")).thenReturn(service);
+		Mockito.when(httpEngineMock.execute(Mockito.eq(HttpMethod.POST), Mockito.any(URI.class), Mockito.any(HttpEntity.class),
+				Mockito.any(ServiceExecutionPolicy.class))).thenReturn(pending);
+
+		executeServiceHandler.executeAsync(edata);
+		executeServiceHandler.executeAsync(edata);
+		CompletableFuture<ResponseEntity<String>> third = executeServiceHandler.executeAsync(edata);
+		assertTrue("The third call should wait", !third.isDone());
+		Mockito.verify(httpEngineMock, Mockito.times(2)).execute(Mockito.eq(HttpMethod.POST), Mockito.any(URI.class),
+				Mockito.any(HttpEntity.class), Mockito.any(ServiceExecutionPolicy.class));
+
+		pending.complete(new ResponseEntity<String>("done", HttpStatus.OK));
+		assertEquals("The third call should be sent once the others complete", HttpStatus.OK, third.get().getStatusCode());
+	}
+
+	/**
+	 * Test that calls over the concurrency limit of a service wait for a call to complete, rather than failing
+	 */
+	@Test
+	public void testConcurrencyLimitDefers() throws Exception {
+		ExecuteServiceData edata = new ExecuteServiceData();
+		edata.setServiceId("8");
+		edata.setDataInputs(new HashMap<String, DataType>());
+		ServiceExecutionPolicy policy = new ServiceExecutionPolicy("8");
+		policy.setMaxConcurrentCalls(1);
+		Mockito.when(policyRegistryMock.getPolicy("8")).thenReturn(policy);
+		CompletableFuture<ResponseEntity<String>> pending = new CompletableFuture<ResponseEntity<String>>();
+		Mockito.when(serviceCacheMock.getServiceById("8")).thenReturn(service);
+		Mockito.when(httpEngineMock.execute(Mockito.eq(HttpMethod.POST), Mockito.any(URI.class), Mockito.any(HttpEntity.class),
+				Mockito.any(ServiceExecutionPolicy.class))).thenReturn(pending)
+				.thenReturn(CompletableFuture.completedFuture(new ResponseEntity<String>("second", HttpStatus.OK)));
+
+		CompletableFuture<ResponseEntity<String>> first = executeServiceHandler.executeAsync(edata);
+		CompletableFuture<ResponseEntity<String>> second = executeServiceHandler.executeAsync(edata);
+		assertTrue("The second call should wait", !second.isDone());
+		Mockito.verify(httpEngineMock, Mockito.times(1)).execute(Mockito.eq(HttpMethod.POST), Mockito.any(URI.class),
+				Mockito.any(HttpEntity.class), Mockito.any(ServiceExecutionPolicy.class));
+
+		pending.complete(new ResponseEntity<String>("first", HttpStatus.OK));
+		assertEquals("first", first.get().getBody());
+		assertEquals("The second call should be sent once the first completes", "second", second.get().getBody());
+	}
+
+	/**
+	 * Test that a GET call failing with a connection reset is sent again
+	 */
+	@Test
+	public void testRetryTransientFailure() throws Exception {
+		ExecuteServiceData edata = new ExecuteServiceData();
+		edata.setServiceId("8");
+		edata.setDataInputs(new HashMap<String, DataType>());
+		service.setMethod("GET");
+		CompletableFuture<ResponseEntity<String>> reset = new CompletableFuture<ResponseEntity<String>>();
+		reset.completeExceptionally(new ResourceAccessException("I/O error", new SocketException("Connection reset")));
+		Mockito.when(serviceCacheMock.getServiceById("8")).thenReturn(service);
+		Mockito.when(httpEngineMock.execute(Mockito.eq(HttpMethod.GET), Mockito.any(URI.class), Mockito.any(HttpEntity.class),
+				Mockito.any(ServiceExecutionPolicy.class))).thenReturn(reset)
+				.thenReturn(CompletableFuture.completedFuture(new ResponseEntity<String>("done", HttpStatus.OK)));
+
+		ResponseEntity<String> result = executeServiceHandler.handle(edata);
+
+		assertEquals("The retry should succeed", "done", result.getBody());
+		Mockito.verify(httpEngineMock, Mockito.times(2)).execute(Mockito.eq(HttpMethod.GET), Mockito.any(URI.class),
+				Mockito.any(HttpEntity.class), Mockito.any(ServiceExecutionPolicy.class));
+	}
+
+	private ServiceRetryScheduler makeRetryScheduler() {
+		ServiceRetryScheduler retryScheduler = new ServiceRetryScheduler();
+		ReflectionTestUtils.setField(retryScheduler, "coreLogger", loggerMock);
+		ReflectionTestUtils.setField(retryScheduler, "maxAttempts", 3);
+		ReflectionTestUtils.setField(retryScheduler, "initialBackoffMs", 1L);
+		ReflectionTestUtils.setField(retryScheduler, "maxBackoffMs", 10L);
+		ReflectionTestUtils.setField(retryScheduler, "backoffMultiplier", 2.0);
+		ReflectionTestUtils.setField(retryScheduler, "jitter", 0.5);
+		ReflectionTestUtils.setField(retryScheduler, "retryStatusCodes", "502,503,504");
+		ReflectionTestUtils.setField(retryScheduler, "callThreads", 2);
+		ReflectionTestUtils.setField(retryScheduler, "callQueueCapacity", 16);
+		retryScheduler.initialize();
+		return retryScheduler;
+	}
+
+	private CircuitBreakerRegistry makeBreakerRegistry() {
+		CircuitBreakerRegistry breakerRegistry = new CircuitBreakerRegistry();
+		ReflectionTestUtils.setField(breakerRegistry, "windowSize", 10);
+		ReflectionTestUtils.setField(breakerRegistry, "minimumCalls", 2);
+		ReflectionTestUtils.setField(breakerRegistry, "failureRateThreshold", 50);
+		ReflectionTestUtils.setField(breakerRegistry, "slowCallMs", 60000L);
+		ReflectionTestUtils.setField(breakerRegistry, "slowCallRateThreshold", 100);
+		ReflectionTestUtils.setField(breakerRegistry, "openDurationMs", 60000L);
+		ReflectionTestUtils.setField(breakerRegistry, "halfOpenProbes", 1);
+		breakerRegistry.initialize();
+		return breakerRegistry;
+	}
 }
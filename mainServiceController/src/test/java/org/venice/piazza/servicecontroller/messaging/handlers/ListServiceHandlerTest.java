@@ -16,7 +16,9 @@
 package org.venice.piazza.servicecontroller.messaging.handlers;
 import static org.junit.Assert.assertEquals;
 
+import java.io.ByteArrayOutputStream;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
 import org.junit.Before;
@@ -26,17 +28,19 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
+import org.mongojack.DBCursor;
 
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.venice.piazza.servicecontroller.data.mongodb.accessors.MongoAccessor;
 import org.venice.piazza.servicecontroller.elasticsearch.accessors.ElasticSearchAccessor;
 
 import org.venice.piazza.servicecontroller.util.CoreServiceProperties;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.MongoException;
 
 import model.job.metadata.ResourceMetadata;
 import model.job.type.ListServicesJob;
@@ -115,6 +119,7 @@ public class ListServiceHandlerTest {
 		
 		services.add(service);
 		MockitoAnnotations.initMocks(this);	
+		ReflectionTestUtils.setField(lsHandler, "objectMapper", new ObjectMapper());
 		
     }
 	/**
@@ -174,7 +179,7 @@ public class ListServiceHandlerTest {
 			String responseServiceString = mapper.writeValueAsString(services);
 
 			ResponseEntity<String> responseEntity = new  ResponseEntity<String>(responseServiceString, HttpStatus.OK);
-			Mockito.doReturn(services).when(accessorMock).list();		
+			mockCursor(services);
 
 			ResponseEntity<String> result = lsHandler.handle();
 		
@@ -201,7 +206,7 @@ public class ListServiceHandlerTest {
 			String responseServiceString = mapper.writeValueAsString(serviceList);
 
 			ResponseEntity<String> responseEntity = new  ResponseEntity<String>(responseServiceString, HttpStatus.OK);
-			Mockito.doReturn(serviceList).when(accessorMock).list();		
+			mockCursor(serviceList);
 
 			ResponseEntity<String> result = lsHandler.handle();
 		
@@ -217,31 +222,43 @@ public class ListServiceHandlerTest {
 	
 	/**
 	 * Test that the list of services could not be retrieved 
-	 * due to a marshalling error
+	 * due to a database error
 	 */
 	@Test
 	public void testUnsuccessListServiceException() {
 		ResponseEntity<String> responseEntity = new  ResponseEntity<String>("Could not retrieve a list of user services", HttpStatus.NOT_FOUND);
-		try {
-			final ListServiceHandler lsMock = Mockito.spy (lsHandler);
+		Mockito.when(accessorMock.getAvailableServices()).thenThrow(new MongoException("Test Exception"));
+		ResponseEntity<String> result = lsHandler.handle();
 
-			Mockito.doReturn(omMock).when(lsMock).makeObjectMapper();
-			Mockito.doReturn(services).when(accessorMock).list();	
-			
-			Mockito.when(omMock.writeValueAsString(services)).thenThrow( new JsonMappingException("Test Exception") );
-			ResponseEntity<String> result = lsMock.handle();
+		assertEquals ("The response entity was correct for this list service request", responseEntity, result);
+		assertEquals ("The response code is 404", responseEntity.getStatusCode(), HttpStatus.NOT_FOUND);
+		assertEquals ("The body of the response is correct", responseEntity.getBody(),  "Could not retrieve a list of user services");
+	}
 
-			
-			assertEquals ("The response entity was correct for this list service request", responseEntity, result);
-			assertEquals ("The response code is 404", responseEntity.getStatusCode(), HttpStatus.NOT_FOUND);
-			assertEquals ("The body of the response is correct", responseEntity.getBody(),  "Could not retrieve a list of user services");
-		} catch (JsonProcessingException jpe) {
-			jpe.printStackTrace();
-		} catch (Exception ex) {
-			ex.printStackTrace();
-		}
+	/**
+	 * Test that the services are streamed as they are read, and the cursor is closed
+	 */
+	@Test
+	public void testWriteServices() throws Exception {
+		DBCursor<Service> cursor = mockCursor(services);
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+		lsHandler.writeServices(outputStream);
 
+		assertEquals("The services should be written", new ObjectMapper().writeValueAsString(services), outputStream.toString("UTF-8"));
+		Mockito.verify(cursor, Mockito.times(services.size())).next();
+		Mockito.verify(cursor).close();
+		Mockito.verify(accessorMock, Mockito.never()).list();
+	}
+
+	@SuppressWarnings("unchecked")
+	private DBCursor<Service> mockCursor(List<Service> serviceList) {
+		DBCursor<Service> cursor = Mockito.mock(DBCursor.class);
+		Iterator<Service> iterator = serviceList.iterator();
+		Mockito.when(cursor.hasNext()).thenAnswer(invocation -> iterator.hasNext());
+		Mockito.when(cursor.next()).thenAnswer(invocation -> iterator.next());
+		Mockito.when(accessorMock.getAvailableServices()).thenReturn(cursor);
+		return cursor;
 	}
-	
 
 }
@@ -30,6 +30,8 @@ import org.mockito.MockitoAnnotations;
 
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.venice.piazza.servicecontroller.data.cache.ServiceCache;
+import org.venice.piazza.servicecontroller.messaging.ServiceChangeFeed;
 import org.venice.piazza.servicecontroller.data.mongodb.accessors.MongoAccessor;
 import org.venice.piazza.servicecontroller.elasticsearch.accessors.ElasticSearchAccessor;
 
@@ -51,6 +53,10 @@ public class RegisterServiceHandlerTest {
 	// Create some mocks
 	@Mock
 	private MongoAccessor accessorMock;
+	@Mock
+	private ServiceCache serviceCacheMock;
+	@Mock
+	private ServiceChangeFeed serviceChangeFeedMock;
 	
 	@Mock 
 	private ElasticSearchAccessor elasticAccessorMock;
@@ -29,6 +29,7 @@ import org.mockito.MockitoAnnotations;
 
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.venice.piazza.servicecontroller.data.mongodb.accessors.MongoAccessor;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
@@ -104,6 +105,7 @@ public class SearchServiceHandlerTest {
 		
 		services.add(service);
 		MockitoAnnotations.initMocks(this);	
+		ReflectionTestUtils.setField(ssHandler, "objectMapper", new ObjectMapper());
 		
     }
 	
@@ -183,6 +185,22 @@ public class SearchServiceHandlerTest {
 
 	}
 	
+	/**
+	 * Test that a page of results is requested when paging is given
+	 */
+	@Test
+	public void testSearchPage() {
+		SearchCriteria criteria = new SearchCriteria();
+		criteria.field="animalType";
+		criteria.pattern="A*r";
+		Mockito.doReturn(services).when(accessorMock).search(criteria, 0, 10);
+
+		ResponseEntity<String> result = ssHandler.handle(criteria, null, 10);
+
+		assertEquals ("The response code is 200", HttpStatus.OK, result.getStatusCode());
+		Mockito.verify(accessorMock, Mockito.never()).search(criteria);
+	}
+	
 	/**
 	 * Test Null Criteria
 	 */